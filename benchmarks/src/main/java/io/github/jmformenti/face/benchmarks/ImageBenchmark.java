@@ -0,0 +1,101 @@
+package io.github.jmformenti.face.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
+import ai.djl.modality.cv.output.Rectangle;
+import io.github.jmformenti.face.core.util.ImageUtil;
+
+/**
+ * Decoding a synthetic JPEG photo, at full and reduced resolution, and
+ * cropping a detected face from the decoded image and from the file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImageBenchmark {
+
+	private static final int DECODE_SIZE = 640;
+
+	@Param({ "1920x1080", "4032x3024" })
+	private String size;
+
+	private Path tempDir;
+	private Path imagePath;
+	private Image image;
+	private DetectedObject face;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		String[] dimensions = size.split("x");
+		BufferedImage photo = new BufferedImage(Integer.parseInt(dimensions[0]), Integer.parseInt(dimensions[1]),
+				BufferedImage.TYPE_INT_RGB);
+		// smooth gradients with some noise, compressed like a photo
+		Random random = new Random(42);
+		for (int y = 0; y < photo.getHeight(); y++) {
+			for (int x = 0; x < photo.getWidth(); x++) {
+				int r = (x * 255 / photo.getWidth() + random.nextInt(16)) & 0xff;
+				int g = (y * 255 / photo.getHeight() + random.nextInt(16)) & 0xff;
+				int b = ((x + y) * 255 / (photo.getWidth() + photo.getHeight()) + random.nextInt(16)) & 0xff;
+				photo.setRGB(x, y, (r << 16) | (g << 8) | b);
+			}
+		}
+		tempDir = Files.createTempDirectory("image-benchmark");
+		imagePath = tempDir.resolve("photo.jpg");
+		ImageIO.write(photo, ImageUtil.FACE_IMAGE_TYPE, imagePath.toFile());
+
+		image = ImageUtil.getImage(imagePath);
+		face = new DetectedObject("Face", 0.99, new Rectangle(0.4, 0.3, 0.15, 0.25));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(imagePath);
+		Files.deleteIfExists(tempDir);
+	}
+
+	@Benchmark
+	public Image getImage() {
+		return ImageUtil.getImage(imagePath);
+	}
+
+	@Benchmark
+	public Image getImageReduced() {
+		return ImageUtil.getImage(imagePath, DECODE_SIZE);
+	}
+
+	@Benchmark
+	public Image getDetectedObjectImage() {
+		return ImageUtil.getDetectedObjectImage(image, face);
+	}
+
+	@Benchmark
+	public Image getDetectedObjectImageFromFile() {
+		return ImageUtil.getDetectedObjectImage(imagePath, face);
+	}
+}
@@ -0,0 +1,90 @@
+package io.github.jmformenti.face.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ai.djl.ModelException;
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
+import ai.djl.translate.TranslateException;
+import io.github.jmformenti.face.core.model.FaceDetectionModel;
+import io.github.jmformenti.face.core.model.FaceEmbeddingModel;
+import io.github.jmformenti.face.core.util.ImageUtil;
+
+/**
+ * Latency of the models for a single image, one predictor each: face detection,
+ * embedding of the detected face, and both. Needs the models, downloaded on
+ * first use, and an image with a face, by default one of the core test images
+ * relative to the project directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ModelBenchmark {
+
+	@Param("core/src/test/resources/images/val/ben_afflek/httpcsvkmeuaafdfjpg.jpg")
+	private String image;
+
+	private FaceDetectionModel faceDetection;
+	private FaceEmbeddingModel faceEmbedding;
+	private Image decodedImage;
+	private Image faceImage;
+
+	@Setup(Level.Trial)
+	public void setUp() throws ModelException, IOException, TranslateException {
+		faceDetection = new FaceDetectionModel();
+		faceDetection.init();
+		faceEmbedding = new FaceEmbeddingModel();
+		faceEmbedding.init();
+
+		Path imagePath = Paths.get(image);
+		decodedImage = ImageUtil.getImage(imagePath);
+		DetectedObjects detectedFaces = detect();
+		if (detectedFaces.getNumberOfObjects() == 0) {
+			throw new IllegalArgumentException(String.format("No face detected in %s", imagePath));
+		}
+		faceImage = ImageUtil.getDetectedObjectImage(decodedImage, ImageUtil.selectMaxDetectedObject(detectedFaces));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		faceDetection.close();
+		faceEmbedding.close();
+	}
+
+	@Benchmark
+	public DetectedObjects detect() throws TranslateException {
+		return faceDetection.getPredictorPool().predict(decodedImage);
+	}
+
+	@Benchmark
+	public float[] embed() throws TranslateException {
+		return faceEmbedding.predict(faceImage);
+	}
+
+	@Benchmark
+	public float[] detectAndEmbed() throws TranslateException {
+		DetectedObject face = ImageUtil.selectMaxDetectedObject(detect());
+		return faceEmbedding.predict(ImageUtil.getDetectedObjectImage(decodedImage, face));
+	}
+}
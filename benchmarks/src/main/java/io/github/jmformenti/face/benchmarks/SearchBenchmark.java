@@ -0,0 +1,97 @@
+package io.github.jmformenti.face.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.model.FaceEmbeddingModel;
+import io.github.jmformenti.face.core.quantization.Quantization;
+import io.github.jmformenti.face.core.quantization.QuantizedMatrix;
+import io.github.jmformenti.face.core.search.CentroidIndex;
+import io.github.jmformenti.face.core.search.HnswIndex;
+import io.github.jmformenti.face.core.search.HnswParameters;
+
+/**
+ * {@link FaceEmbeddingModel#predict(float[], EmbeddingsHolder)} of one query
+ * against synthetic galleries of several sizes, with each search of the
+ * model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+	public enum SearchType {
+		EXHAUSTIVE, PARALLEL, INDEXED, CENTROID, INT8
+	}
+
+	private static final int NUM_QUERIES = 1024;
+
+	private static final int CENTROID_CANDIDATES = 10;
+
+	@Param({ "1000", "10000", "100000" })
+	private int rows;
+
+	@Param({ "EXHAUSTIVE", "PARALLEL", "INDEXED", "CENTROID", "INT8" })
+	private SearchType search;
+
+	private FaceEmbeddingModel faceEmbedding;
+	private EmbeddingsHolder embeddingsHolder;
+	private float[][] queries;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		SyntheticGallery gallery = SyntheticGallery.ofRows(rows, 42);
+		embeddingsHolder = gallery.newHolder();
+		queries = gallery.newQueries(NUM_QUERIES);
+
+		faceEmbedding = new FaceEmbeddingModel();
+		switch (search) {
+		case PARALLEL:
+			faceEmbedding.setSearchThreads(Runtime.getRuntime().availableProcessors());
+			break;
+		case INDEXED:
+			embeddingsHolder.setIndex(HnswIndex.build(embeddingsHolder.getMatrix(), new HnswParameters()));
+			break;
+		case CENTROID:
+			embeddingsHolder.setCentroids(CentroidIndex.build(embeddingsHolder.getMatrix(),
+					CentroidIndex.DEFAULT_PROTOTYPES, CENTROID_CANDIDATES));
+			break;
+		case INT8:
+			embeddingsHolder.setQuantized(QuantizedMatrix.quantize(embeddingsHolder.getMatrix(), Quantization.INT8, 0));
+			break;
+		default:
+			break;
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		faceEmbedding.setSearchThreads(1);
+	}
+
+	@Benchmark
+	public EmbeddingResult predict() {
+		float[] query = queries[next];
+		next = (next + 1) % queries.length;
+		return faceEmbedding.predict(query, embeddingsHolder);
+	}
+}
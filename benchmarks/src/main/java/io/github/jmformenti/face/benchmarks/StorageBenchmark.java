@@ -0,0 +1,86 @@
+package io.github.jmformenti.face.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.model.FaceEmbeddingModel;
+import io.github.jmformenti.face.core.storage.EmbeddingsFile;
+
+/**
+ * Writing and reading synthetic galleries in the Kryo format of previous
+ * versions and in the memory mapped format. Reading a mapped file also gets
+ * its matrix, the first thing a search does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBenchmark {
+
+	@Param({ "1000", "10000" })
+	private int rows;
+
+	private FaceEmbeddingModel faceEmbedding;
+	private EmbeddingsHolder embeddingsHolder;
+	private Path tempDir;
+	private Path kryoPath;
+	private Path filePath;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		faceEmbedding = new FaceEmbeddingModel();
+		embeddingsHolder = SyntheticGallery.ofRows(rows, 42).newHolder();
+		tempDir = Files.createTempDirectory("storage-benchmark");
+		kryoPath = tempDir.resolve("embeddings.kryo");
+		filePath = tempDir.resolve("embeddings.dat");
+		faceEmbedding.saveKryo(embeddingsHolder, kryoPath);
+		EmbeddingsFile.write(embeddingsHolder, filePath);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(kryoPath);
+		Files.deleteIfExists(filePath);
+		Files.deleteIfExists(tempDir);
+	}
+
+	@Benchmark
+	public void saveKryo() throws IOException {
+		faceEmbedding.saveKryo(embeddingsHolder, kryoPath);
+	}
+
+	@Benchmark
+	public EmbeddingsHolder readKryo() throws IOException {
+		return faceEmbedding.readKryo(kryoPath);
+	}
+
+	@Benchmark
+	public void write() throws IOException {
+		EmbeddingsFile.write(embeddingsHolder, filePath);
+	}
+
+	@Benchmark
+	public EmbeddingsMatrix open() throws IOException {
+		return EmbeddingsFile.open(filePath).getMatrix();
+	}
+}
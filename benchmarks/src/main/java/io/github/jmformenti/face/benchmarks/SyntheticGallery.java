@@ -0,0 +1,76 @@
+package io.github.jmformenti.face.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+
+/**
+ * Random galleries shaped like real ones: the embeddings of each label are
+ * spread around a random center, and queries are near the center of a random
+ * label, so searches find matches under the similarity threshold.
+ */
+public class SyntheticGallery {
+
+	public static final int DIMENSION = 512;
+
+	public static final int ROWS_PER_LABEL = 10;
+
+	private static final float SPREAD = 0.3f;
+
+	private final float[][] centers;
+	private final Random random;
+
+	public SyntheticGallery(int labels, long seed) {
+		this.random = new Random(seed);
+		this.centers = new float[labels][];
+		for (int label = 0; label < labels; label++) {
+			centers[label] = gaussian(1);
+		}
+	}
+
+	/**
+	 * @param rows total embeddings, {@value #ROWS_PER_LABEL} per label
+	 */
+	public static SyntheticGallery ofRows(int rows, long seed) {
+		return new SyntheticGallery(Math.max(1, rows / ROWS_PER_LABEL), seed);
+	}
+
+	public EmbeddingsHolder newHolder() {
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		for (int label = 0; label < centers.length; label++) {
+			List<float[]> embeddings = new ArrayList<>(ROWS_PER_LABEL);
+			for (int i = 0; i < ROWS_PER_LABEL; i++) {
+				embeddings.add(near(centers[label]));
+			}
+			embeddingsHolder.add(new EmbeddingItem("label" + label, embeddings));
+		}
+		return embeddingsHolder;
+	}
+
+	public float[][] newQueries(int size) {
+		float[][] queries = new float[size][];
+		for (int i = 0; i < size; i++) {
+			queries[i] = near(centers[random.nextInt(centers.length)]);
+		}
+		return queries;
+	}
+
+	private float[] near(float[] center) {
+		float[] embedding = gaussian(SPREAD);
+		for (int i = 0; i < embedding.length; i++) {
+			embedding[i] += center[i];
+		}
+		return embedding;
+	}
+
+	private float[] gaussian(float scale) {
+		float[] vector = new float[DIMENSION];
+		for (int i = 0; i < vector.length; i++) {
+			vector[i] = (float) random.nextGaussian() * scale;
+		}
+		return vector;
+	}
+}
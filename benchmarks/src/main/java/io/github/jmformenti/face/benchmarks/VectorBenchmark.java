@@ -0,0 +1,67 @@
+package io.github.jmformenti.face.benchmarks;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Cosine distance of two embeddings: computing both norms, as
+ * {@code FaceEmbeddingModel.cosine} does once its arrays are copied from the
+ * engine, and with the inverse norms already computed, as the searches do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorBenchmark {
+
+	private double[] u;
+	private double[] v;
+	private float[] query;
+	private double queryInverseNorm;
+	private FloatBuffer row;
+	private double rowInverseNorm;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		u = new double[SyntheticGallery.DIMENSION];
+		v = new double[SyntheticGallery.DIMENSION];
+		query = new float[SyntheticGallery.DIMENSION];
+		float[] rowData = new float[SyntheticGallery.DIMENSION];
+		for (int i = 0; i < SyntheticGallery.DIMENSION; i++) {
+			query[i] = (float) random.nextGaussian();
+			rowData[i] = (float) random.nextGaussian();
+			u[i] = query[i];
+			v[i] = rowData[i];
+		}
+		row = FloatBuffer.wrap(rowData);
+		queryInverseNorm = VectorUtil.inverseNorm(VectorUtil.squaredNorm(query));
+		rowInverseNorm = VectorUtil.inverseNorm(VectorUtil.squaredNorm(rowData));
+	}
+
+	@Benchmark
+	public double cosine() {
+		return VectorUtil.cosine(u, v);
+	}
+
+	@Benchmark
+	public double cosineWithInverseNorms() {
+		return VectorUtil.cosine(query, queryInverseNorm, row, 0, rowInverseNorm);
+	}
+}
@@ -1,30 +1,66 @@
 package io.github.jmformenti.face.cli;
 
+import java.nio.file.Paths;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.ExitCodeGenerator;
 import org.springframework.stereotype.Component;
 
 import io.github.jmformenti.face.cli.command.FaceCommand;
+import io.github.jmformenti.face.core.metrics.FaceMetrics;
+import io.github.jmformenti.face.core.metrics.MetricsReport;
 import picocli.CommandLine;
 import picocli.CommandLine.IFactory;
 
 @Component
 public class ApplicationRunner implements CommandLineRunner, ExitCodeGenerator {
 
+	private Logger logger = LoggerFactory.getLogger(ApplicationRunner.class);
+
 	private final FaceCommand faceCommand;
 
 	private final IFactory factory; // auto-configured to inject PicocliSpringFactory
 
+	private final FaceMetrics faceMetrics;
+
+	@Value("${face.metrics.log:false}")
+	private boolean logMetrics;
+
+	@Value("${face.metrics.file:}")
+	private String metricsFile;
+
 	private int exitCode;
 
-	public ApplicationRunner(FaceCommand faceCommand, IFactory factory) {
+	public ApplicationRunner(FaceCommand faceCommand, IFactory factory, FaceMetrics faceMetrics) {
 		this.faceCommand = faceCommand;
 		this.factory = factory;
+		this.faceMetrics = faceMetrics;
 	}
 
 	@Override
 	public void run(String... args) throws Exception {
 		exitCode = new CommandLine(faceCommand, factory).execute(args);
+		dumpMetrics();
+	}
+
+	private void dumpMetrics() {
+		if (!logMetrics && metricsFile.isEmpty()) {
+			return;
+		}
+		MetricsReport report = MetricsReport.of(faceMetrics.getRegistry());
+		if (logMetrics) {
+			report.toLines().forEach(line -> logger.info("Metric {}", line));
+		}
+		if (!metricsFile.isEmpty()) {
+			try {
+				report.writeJson(Paths.get(metricsFile));
+			} catch (Exception e) {
+				logger.error(String.format("Error writing metrics to %s", metricsFile), e);
+			}
+		}
 	}
 
 	@Override
@@ -0,0 +1,59 @@
+package io.github.jmformenti.face.cli.command;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.quantization.Quantization;
+import io.github.jmformenti.face.core.service.FaceRecognitionService;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ExitCode;
+import picocli.CommandLine.Option;
+
+@Component
+@Command(name = "convert", description = "converts an embeddings file to the memory mapped format, optionally quantized.", mixinStandardHelpOptions = true, exitCodeOnExecutionException = 1)
+public class ConvertCommand implements Callable<Integer> {
+
+	private Logger logger = LoggerFactory.getLogger(ConvertCommand.class);
+
+	@Autowired
+	private FaceRecognitionService faceRecognitionService;
+
+	@Option(names = { "-i", "--input" }, description = "embeddings file path to convert.", required = true)
+	private String inputParam;
+
+	@Option(names = { "-o", "--output" }, description = "converted embeddings file path.", required = true)
+	private String outputParam;
+
+	@Option(names = { "-q", "--quantization" }, description = "stored embeddings representation: ${COMPLETION-CANDIDATES}.", defaultValue = "FLOAT32")
+	private Quantization quantization;
+
+	@Override
+	public Integer call() throws Exception {
+		Path inputPath = Paths.get(inputParam);
+		if (Files.exists(inputPath)) {
+			logger.info("Loading embeddings {} ..", inputPath);
+			EmbeddingsHolder embeddingsHolder = faceRecognitionService.loadEmbeddings(inputPath);
+
+			faceRecognitionService.quantize(embeddingsHolder, quantization);
+
+			Path outputPath = Paths.get(outputParam);
+			logger.info("Saving {} labels and {} embeddings in {} ..", embeddingsHolder.size(),
+					embeddingsHolder.getNumRows(), outputPath);
+			faceRecognitionService.saveEmbeddings(embeddingsHolder, outputPath);
+
+			logger.info("done.");
+			return ExitCode.OK;
+		} else {
+			logger.error("Embeddings file {} not exists.", inputPath);
+			return ExitCode.SOFTWARE;
+		}
+	}
+}
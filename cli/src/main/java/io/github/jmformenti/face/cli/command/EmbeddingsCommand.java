@@ -1,5 +1,6 @@
 package io.github.jmformenti.face.cli.command;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -12,6 +13,10 @@ import org.springframework.stereotype.Component;
 
 import ai.djl.engine.Engine;
 import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EnrollmentMode;
+import io.github.jmformenti.face.core.quantization.Quantization;
+import io.github.jmformenti.face.core.search.HnswParameters;
+import io.github.jmformenti.face.core.storage.EmbeddingsCache;
 import io.github.jmformenti.face.core.service.FaceRecognitionService;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.ExitCode;
@@ -38,6 +43,29 @@ public class EmbeddingsCommand implements Callable<Integer> {
 	@Option(names = { "-s", "--save-faces" }, description = "save detected faces.", defaultValue = "false")
 	private Boolean saveDetectedFaces;
 
+	@Option(names = { "-m", "--mode" }, description = "enrollment mode: ${COMPLETION-CANDIDATES}.", defaultValue = "SEQUENTIAL")
+	private EnrollmentMode mode;
+
+	@Option(names = { "-c", "--cache" }, description = "reuse results of unchanged images from previous runs, cached next to the embeddings file.", defaultValue = "false")
+	private Boolean useCache;
+
+	@Option(names = { "-i", "--index" }, description = "build nearest neighbour index for large galleries.", defaultValue = "false")
+	private Boolean buildIndex;
+
+	@Option(names = { "--index-m" }, description = "index max links per node.", defaultValue = "" + HnswParameters.DEFAULT_M)
+	private Integer indexM;
+
+	@Option(names = { "--index-ef-construction" }, description = "index candidate list size while building.", defaultValue = ""
+			+ HnswParameters.DEFAULT_EF_CONSTRUCTION)
+	private Integer indexEfConstruction;
+
+	@Option(names = { "--index-ef-search" }, description = "index candidate list size while searching.", defaultValue = ""
+			+ HnswParameters.DEFAULT_EF_SEARCH)
+	private Integer indexEfSearch;
+
+	@Option(names = { "-q", "--quantization" }, description = "stored embeddings representation: ${COMPLETION-CANDIDATES}.", defaultValue = "FLOAT32")
+	private Quantization quantization;
+
 	@Override
 	public Integer call() throws Exception {
 		if (logger.isDebugEnabled()) {
@@ -47,12 +75,31 @@ public class EmbeddingsCommand implements Callable<Integer> {
 		Path basePath = Paths.get(baseDir);
 		if (Files.exists(basePath)) {
 			logger.info("Analyzing {} dir ..", basePath);
+			Path cachePath = EmbeddingsCache.getCachePath(Paths.get(embeddingModelPath));
+			EmbeddingsCache cache = useCache ? readCache(cachePath) : null;
+
 			EmbeddingsHolder embeddingModel = faceRecognitionService.generateEmbeddings(basePath, doAugmentation,
-					saveDetectedFaces);
+					saveDetectedFaces, mode, cache);
+
+			if (buildIndex) {
+				logger.info("Building index ..");
+				faceRecognitionService.buildIndex(embeddingModel,
+						new HnswParameters(indexM, indexEfConstruction, indexEfSearch));
+			}
+
+			if (quantization != Quantization.FLOAT32) {
+				logger.info("Quantizing to {} ..", quantization);
+				faceRecognitionService.quantize(embeddingModel, quantization);
+			}
 
 			logger.info("Saving embedding ..");
 			faceRecognitionService.saveEmbeddings(embeddingModel, Paths.get(embeddingModelPath));
 
+			if (cache != null) {
+				logger.info("Saving cache ..");
+				cache.write(cachePath);
+			}
+
 			logger.info("done.");
 			return ExitCode.OK;
 		} else {
@@ -60,4 +107,13 @@ public class EmbeddingsCommand implements Callable<Integer> {
 			return ExitCode.SOFTWARE;
 		}
 	}
+
+	private EmbeddingsCache readCache(Path cachePath) {
+		try {
+			return EmbeddingsCache.read(cachePath);
+		} catch (IOException e) {
+			logger.warn("Ignoring cache {}, analyzing all images: {}", cachePath, e.getMessage());
+			return new EmbeddingsCache();
+		}
+	}
 }
@@ -10,7 +10,8 @@ import picocli.CommandLine.ExitCode;
 
 @Component
 @Command(name = "face", mixinStandardHelpOptions = true, versionProvider = FaceVersion.class, subcommands = {
-		EmbeddingsCommand.class, PredictCommand.class })
+		EmbeddingsCommand.class, PredictCommand.class, ConvertCommand.class, GalleryCommand.class,
+		RecallCommand.class, LoadCommand.class })
 public class FaceCommand implements Callable<Integer> {
 
 	@Override
@@ -0,0 +1,97 @@
+package io.github.jmformenti.face.cli.command;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.search.HnswIndex;
+import io.github.jmformenti.face.core.service.FaceRecognitionService;
+import io.github.jmformenti.face.core.storage.GalleryStore;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ExitCode;
+import picocli.CommandLine.Option;
+
+@Component
+@Command(name = "gallery", description = "changes an embeddings file without generating it again.", mixinStandardHelpOptions = true, exitCodeOnExecutionException = 1)
+public class GalleryCommand implements Callable<Integer> {
+
+	private Logger logger = LoggerFactory.getLogger(GalleryCommand.class);
+
+	@Autowired
+	private FaceRecognitionService faceRecognitionService;
+
+	@Option(names = { "-e", "--epath" }, description = "embeddings file path.", required = true)
+	private String embeddingModelPath;
+
+	@Option(names = { "--add" }, description = "person dir whose images are added to the label with its name.")
+	private List<String> addDirs = new ArrayList<>();
+
+	@Option(names = { "-a", "--doaug" }, description = "do data augmentation for added faces.", defaultValue = "false")
+	private Boolean doAugmentation;
+
+	@Option(names = { "--remove" }, description = "label to remove.")
+	private List<String> removeLabels = new ArrayList<>();
+
+	@Option(names = { "--rename" }, description = "label to rename, as old=new.")
+	private Map<String, String> renameLabels = new LinkedHashMap<>();
+
+	@Option(names = { "--compact" }, description = "write all changes to the embeddings file.", defaultValue = "false")
+	private Boolean compact;
+
+	@Override
+	public Integer call() throws Exception {
+		Path embeddingsPath = Paths.get(embeddingModelPath);
+		for (String addDir : addDirs) {
+			if (!Files.isDirectory(Paths.get(addDir))) {
+				logger.error("Input path {} not exists.", addDir);
+				return ExitCode.SOFTWARE;
+			}
+		}
+
+		try (GalleryStore store = GalleryStore.open(embeddingsPath)) {
+			for (String label : removeLabels) {
+				if (!store.remove(label)) {
+					logger.warn("Label {} not found.", label);
+				}
+			}
+			for (Map.Entry<String, String> rename : renameLabels.entrySet()) {
+				if (!store.rename(rename.getKey(), rename.getValue())) {
+					logger.warn("Label {} not found.", rename.getKey());
+				}
+			}
+			for (String addDir : addDirs) {
+				logger.info("Analyzing {} dir ..", addDir);
+				EmbeddingItem item = faceRecognitionService.generatePersonEmbeddings(Paths.get(addDir),
+						doAugmentation, false);
+				store.append(item.getLabel(), item.getEmbeddings());
+			}
+			if (compact) {
+				logger.info("Compacting ..");
+				store.compact();
+			}
+			logger.info("{} labels and {} embeddings.", store.getEmbeddingsHolder().size(),
+					store.getEmbeddingsHolder().getNumRows());
+		}
+
+		if (!addDirs.isEmpty() || !removeLabels.isEmpty() || !renameLabels.isEmpty()) {
+			Path indexPath = HnswIndex.getIndexPath(embeddingsPath);
+			if (Files.deleteIfExists(indexPath)) {
+				logger.info("Deleted index {}, generate the embeddings with --index to build it again.", indexPath);
+			}
+		}
+
+		logger.info("done.");
+		return ExitCode.OK;
+	}
+}
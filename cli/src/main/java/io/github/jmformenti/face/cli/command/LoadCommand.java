@@ -0,0 +1,176 @@
+package io.github.jmformenti.face.cli.command;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import io.github.jmformenti.face.core.util.ImageUtil;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ExitCode;
+import picocli.CommandLine.Option;
+
+@Component
+@Command(name = "load", description = "sends concurrent predict requests to a recognition server and reports their latency and throughput.", mixinStandardHelpOptions = true, exitCodeOnExecutionException = 1)
+public class LoadCommand implements Callable<Integer> {
+
+	private Logger logger = LoggerFactory.getLogger(LoadCommand.class);
+
+	private static final Pattern CACHE_HITS = Pattern
+			.compile("\\{\"name\":\"face\\.cache\\.hits\",\"tags\":\\{[^}]*\\},\"count\":(\\d+)");
+
+	@Option(names = { "-u", "--url" }, description = "predict endpoint of the server.", defaultValue = "http://127.0.0.1:8080/predict")
+	private String url;
+
+	@Option(names = { "-p", "--path" }, description = "image, or dir of images, sent in turns.", required = true)
+	private String imageParam;
+
+	@Option(names = { "-c", "--concurrency" }, description = "requests sent at the same time.", defaultValue = "8")
+	private Integer concurrency;
+
+	@Option(names = { "-n", "--requests" }, description = "requests measured.", defaultValue = "1000")
+	private Integer requests;
+
+	@Option(names = { "-w", "--warmup" }, description = "requests sent before measuring.", defaultValue = "50")
+	private Integer warmup;
+
+	@Override
+	public Integer call() throws Exception {
+		List<byte[]> images = readImages(Paths.get(imageParam));
+		if (images.isEmpty()) {
+			logger.error("No images found in {}.", imageParam);
+			return ExitCode.SOFTWARE;
+		}
+
+		HttpClient client = HttpClient.newHttpClient();
+		URI uri = URI.create(url);
+		logger.info("Sending {} requests to {} with concurrency {} ..", warmup + requests, uri, concurrency);
+		send(client, uri, images, warmup, new long[warmup]);
+
+		URI metricsUri = uri.resolve("/metrics");
+		long cacheHits = getCacheHits(client, metricsUri);
+		long[] latencies = new long[requests];
+		long start = System.nanoTime();
+		int errors = send(client, uri, images, requests, latencies);
+		double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+		long measuredCacheHits = getCacheHits(client, metricsUri) - cacheHits;
+		if (cacheHits >= 0 && measuredCacheHits > 0) {
+			logger.warn("{} of the {} requests were responded from the prediction cache of the server, "
+					+ "their latency does not include predicting. Disable it with face.prediction.cache.max-size-mb=0.",
+					measuredCacheHits, requests);
+		}
+
+		Arrays.sort(latencies);
+		logger.info(String.format("%d requests, %d errors in %.1f s, %.1f requests/s", requests, errors, seconds,
+				requests / seconds));
+		logger.info(String.format("latency ms: mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, max %.1f",
+				Arrays.stream(latencies).average().orElse(0) / 1e6, percentile(latencies, 0.5),
+				percentile(latencies, 0.9), percentile(latencies, 0.99), percentile(latencies, 1)));
+		return errors == 0 ? ExitCode.OK : ExitCode.SOFTWARE;
+	}
+
+	private List<byte[]> readImages(Path path) throws IOException {
+		List<Path> imagePaths;
+		if (Files.isDirectory(path)) {
+			try (Stream<Path> paths = Files.walk(path)) {
+				imagePaths = paths.filter(ImageUtil::isImage).sorted().collect(Collectors.toList());
+			}
+		} else {
+			imagePaths = ImageUtil.isImage(path) ? List.of(path) : List.of();
+		}
+		List<byte[]> images = new ArrayList<>(imagePaths.size());
+		for (Path imagePath : imagePaths) {
+			images.add(Files.readAllBytes(imagePath));
+		}
+		return images;
+	}
+
+	/**
+	 * Sends the requests from concurrency threads, each one waiting for the
+	 * response of a request before sending the next one.
+	 *
+	 * @return requests failed
+	 */
+	private int send(HttpClient client, URI uri, List<byte[]> images, int count, long[] latencies)
+			throws InterruptedException {
+		AtomicInteger next = new AtomicInteger();
+		AtomicInteger errors = new AtomicInteger();
+		List<Thread> threads = new ArrayList<>(concurrency);
+		for (int t = 1; t <= concurrency; t++) {
+			threads.add(new Thread(() -> {
+				for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+					HttpRequest request = HttpRequest.newBuilder(uri)
+							.POST(HttpRequest.BodyPublishers.ofByteArray(images.get(i % images.size()))).build();
+					long start = System.nanoTime();
+					try {
+						HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+						latencies[i] = System.nanoTime() - start;
+						if (response.statusCode() != 200 && errors.getAndIncrement() == 0) {
+							logger.error("Request failed with status {}: {}", response.statusCode(), response.body());
+						}
+					} catch (IOException e) {
+						latencies[i] = System.nanoTime() - start;
+						if (errors.getAndIncrement() == 0) {
+							logger.error("Request failed", e);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}, "load-" + t));
+		}
+		threads.forEach(Thread::start);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return errors.get();
+	}
+
+	/**
+	 * @return face.cache.hits counter of the server, -1 if it can not be read
+	 */
+	private long getCacheHits(HttpClient client, URI metricsUri) {
+		try {
+			HttpResponse<String> response = client.send(HttpRequest.newBuilder(metricsUri).GET().build(),
+					HttpResponse.BodyHandlers.ofString());
+			Matcher matcher = CACHE_HITS.matcher(response.body());
+			return response.statusCode() == 200 && matcher.find() ? Long.parseLong(matcher.group(1)) : -1;
+		} catch (IOException e) {
+			logger.debug("Error reading metrics from {}", metricsUri, e);
+			return -1;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return -1;
+		}
+	}
+
+	/**
+	 * @return latency in millis under which are the given fraction of the
+	 *         sorted latencies
+	 */
+	private static double percentile(long[] sortedLatencies, double fraction) {
+		if (sortedLatencies.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(fraction * sortedLatencies.length) - 1;
+		return sortedLatencies[Math.max(index, 0)] / 1e6;
+	}
+}
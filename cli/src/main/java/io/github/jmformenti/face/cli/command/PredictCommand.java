@@ -1,11 +1,16 @@
 package io.github.jmformenti.face.cli.command;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.apache.commons.compress.utils.FileNameUtils;
 import org.slf4j.Logger;
@@ -18,47 +23,173 @@ import ai.djl.modality.cv.output.BoundingBox;
 import ai.djl.modality.cv.output.DetectedObjects;
 import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
 import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.model.ModelLoader;
+import io.github.jmformenti.face.core.search.CentroidIndex;
 import io.github.jmformenti.face.core.service.FaceRecognitionService;
+import io.github.jmformenti.face.core.storage.PredictionWriter;
+import io.github.jmformenti.face.core.storage.PredictionWriter.Format;
 import io.github.jmformenti.face.core.util.ImageUtil;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.ExitCode;
 import picocli.CommandLine.Option;
 
 @Component
-@Command(name = "predict", description = "runs face recognition pipeline.", mixinStandardHelpOptions = true, exitCodeOnExecutionException = 1)
+@Command(name = "predict", description = "runs face recognition pipeline on an image, or on a dir or list of images writing the predictions to a file.", mixinStandardHelpOptions = true, exitCodeOnExecutionException = 1)
 public class PredictCommand implements Callable<Integer> {
 
 	private Logger logger = LoggerFactory.getLogger(PredictCommand.class);
 
+	private static final int PROGRESS_IMAGES = 1000;
+
 	@Autowired
 	private FaceRecognitionService faceRecognitionService;
 
-	@Option(names = { "-p", "--path" }, description = "image path to predict.", required = true)
+	@Autowired
+	private ModelLoader modelLoader;
+
+	@Option(names = { "-p", "--path" }, description = "image path, or dir of images, to predict.")
 	private String imageParam;
 
+	@Option(names = { "-l", "--list" }, description = "file with the path of an image to predict per line.")
+	private String listParam;
+
+	@Option(names = { "-o", "--output" }, description = "file to write the predictions of a dir or list of images.")
+	private String outputParam;
+
+	@Option(names = { "-f", "--format" }, description = "predictions file format: ${COMPLETION-CANDIDATES}.", defaultValue = "JSONL")
+	private Format format;
+
+	@Option(names = { "--annotate" }, description = "dir to save each image of a dir or list with the recognized faces.")
+	private String annotateParam;
+
 	@Option(names = { "-e", "--epath" }, description = "embeddings file path.", required = true)
 	private String embeddingModelPath;
 
+	@Option(names = { "-x", "--exact" }, description = "use exhaustive search even if there is an index.", defaultValue = "false")
+	private Boolean exactSearch;
+
+	@Option(names = { "--index-ef-search" }, description = "index candidate list size while searching.")
+	private Integer indexEfSearch;
+
+	@Option(names = { "--centroid-candidates" }, description = "without index, score only the labels with the most similar centroids.")
+	private Integer centroidCandidates;
+
+	@Option(names = { "--centroid-prototypes" }, description = "centroids per label.", defaultValue = "" + CentroidIndex.DEFAULT_PROTOTYPES)
+	private Integer centroidPrototypes;
+
 	@Override
 	public Integer call() throws Exception {
-		Path imagePath = Paths.get(imageParam);
-		if (ImageUtil.isImage(imagePath)) {
-			EmbeddingsHolder embeddingsHolder = faceRecognitionService.loadEmbeddings(Paths.get(embeddingModelPath));
+		if ((imageParam == null) == (listParam == null)) {
+			logger.error("Either an image or dir path or a list file is required.");
+			return ExitCode.USAGE;
+		}
 
-			Image image = ImageUtil.getImage(imagePath);
-			DetectedObjects faces = faceRecognitionService.predict(image, embeddingsHolder);
+		if (imageParam != null && ImageUtil.isImage(Paths.get(imageParam))) {
+			return predictImage(Paths.get(imageParam));
+		} else if (imageParam != null && !Files.isDirectory(Paths.get(imageParam))) {
+			logger.error("Image path {} not exists.", imageParam);
+			return ExitCode.SOFTWARE;
+		} else if (listParam != null && !Files.isRegularFile(Paths.get(listParam))) {
+			logger.error("List file {} not exists.", listParam);
+			return ExitCode.SOFTWARE;
+		} else if (outputParam == null) {
+			logger.error("Output file is required to predict a dir or list of images.");
+			return ExitCode.USAGE;
+		}
+		return predictImages();
+	}
 
-			faces = addProbabilityToLabel(faces);
-			image.drawBoundingBoxes(faces);
-			Path resultPath = getResultPath(imagePath);
-			image.save(Files.newOutputStream(resultPath), ImageUtil.FACE_IMAGE_TYPE);
+	private Integer predictImage(Path imagePath) throws IOException {
+		EmbeddingsHolder embeddingsHolder = loadEmbeddings();
 
-			logger.info("Saved result image in {}", resultPath);
-			logger.info("done.");
-			return ExitCode.OK;
-		} else {
-			logger.error("Image path {} not exists.", imagePath);
-			return ExitCode.SOFTWARE;
+		Image image = ImageUtil.getImage(imagePath);
+		DetectedObjects faces = faceRecognitionService.predict(image, embeddingsHolder);
+
+		Path resultPath = getResultPath(imagePath);
+		saveAnnotated(image, faces, resultPath);
+
+		logger.info("Saved result image in {}", resultPath);
+		logger.info("done.");
+		return ExitCode.OK;
+	}
+
+	private Integer predictImages() throws IOException {
+		Path basePath = imageParam == null ? null : Paths.get(imageParam);
+		List<Path> imagePaths = basePath == null ? readList(Paths.get(listParam)) : findImages(basePath);
+		Path annotatePath = annotateParam == null ? null : Paths.get(annotateParam);
+		EmbeddingsHolder embeddingsHolder = loadEmbeddings();
+
+		logger.info("Predicting {} images ..", imagePaths.size());
+		long start = System.nanoTime();
+		try (PredictionWriter writer = PredictionWriter.open(format, Paths.get(outputParam))) {
+			faceRecognitionService.predict(imagePaths, embeddingsHolder, prediction -> {
+				try {
+					if (annotatePath != null && !prediction.hasError()) {
+						Path resultPath = annotatePath.resolve(getAnnotatedName(basePath, prediction.getPath()));
+						Files.createDirectories(resultPath.getParent());
+						// cached predictions are not decoded
+						Image image = prediction.getImage() != null ? prediction.getImage()
+								: ImageUtil.getImage(prediction.getPath());
+						saveAnnotated(image, prediction.getFaces(), resultPath);
+					}
+					writer.write(prediction);
+				} catch (IOException e) {
+					throw new UncheckedIOException(String.format("Error writing prediction of %s", prediction), e);
+				}
+				long predictions = writer.getPredictions();
+				if (predictions % PROGRESS_IMAGES == 0) {
+					logger.info("Predicted {}/{} images ..", predictions, imagePaths.size());
+				}
+			});
+
+			double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+			logger.info(String.format("Predicted %d images (%.1f images/s), %d faces, %d errors in %.1f s",
+					writer.getPredictions(), writer.getPredictions() / seconds, writer.getFaces(),
+					writer.getErrors(), seconds));
+		}
+		logger.info("Saved predictions in {}", outputParam);
+		logger.info("done.");
+		return ExitCode.OK;
+	}
+
+	private EmbeddingsHolder loadEmbeddings() throws IOException {
+		// models are loaded in background meanwhile
+		modelLoader.start();
+		EmbeddingsHolder embeddingsHolder = faceRecognitionService.loadEmbeddings(Paths.get(embeddingModelPath));
+		if (exactSearch) {
+			embeddingsHolder.setIndex(null);
+			embeddingsHolder.setCentroids(null);
+		} else if (indexEfSearch != null && embeddingsHolder.getIndex() != null) {
+			embeddingsHolder.getIndex().getParameters().setEfSearch(indexEfSearch);
+		} else if (centroidCandidates != null && embeddingsHolder.getIndex() == null) {
+			faceRecognitionService.buildCentroids(embeddingsHolder, centroidPrototypes, centroidCandidates);
+		}
+		return embeddingsHolder;
+	}
+
+	private List<Path> findImages(Path basePath) throws IOException {
+		try (Stream<Path> paths = Files.walk(basePath)) {
+			return paths.filter(ImageUtil::isImage).sorted().collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * @return paths of the lines of the file, except empty ones and comments
+	 *         starting with #
+	 */
+	private List<Path> readList(Path listPath) throws IOException {
+		try (Stream<String> lines = Files.lines(listPath)) {
+			return lines.map(String::trim) //
+					.filter(line -> !line.isEmpty() && !line.startsWith("#")) //
+					.map(Paths::get) //
+					.collect(Collectors.toList());
+		}
+	}
+
+	private void saveAnnotated(Image image, DetectedObjects faces, Path resultPath) throws IOException {
+		image.drawBoundingBoxes(addProbabilityToLabel(faces));
+		try (OutputStream out = Files.newOutputStream(resultPath)) {
+			image.save(out, ImageUtil.FACE_IMAGE_TYPE);
 		}
 	}
 
@@ -80,7 +211,7 @@ public class PredictCommand implements Callable<Integer> {
 	}
 
 	private Path getResultPath(Path originalImagePath) {
-		String filenameResult = FileNameUtils.getBaseName(originalImagePath.getFileName().toString()) + "_result.jpg";
+		String filenameResult = getResultName(originalImagePath);
 		if (originalImagePath.getParent() != null) {
 			return originalImagePath.getParent().resolve(filenameResult);
 		} else {
@@ -88,4 +219,19 @@ public class PredictCommand implements Callable<Integer> {
 		}
 	}
 
+	/**
+	 * @return result file name of an image, under the same subdirs as the image
+	 *         in the base dir, if any
+	 */
+	private Path getAnnotatedName(Path basePath, Path imagePath) {
+		Path resultName = Paths.get(getResultName(imagePath));
+		if (basePath != null && imagePath.getParent() != null && imagePath.startsWith(basePath)) {
+			return basePath.relativize(imagePath.getParent()).resolve(resultName);
+		}
+		return resultName;
+	}
+
+	private String getResultName(Path originalImagePath) {
+		return FileNameUtils.getBaseName(originalImagePath.getFileName().toString()) + "_result.jpg";
+	}
 }
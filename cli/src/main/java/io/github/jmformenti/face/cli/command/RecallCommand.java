@@ -0,0 +1,97 @@
+package io.github.jmformenti.face.cli.command;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.quantization.Quantization;
+import io.github.jmformenti.face.core.search.CentroidIndex;
+import io.github.jmformenti.face.core.search.SearchRecall;
+import io.github.jmformenti.face.core.service.FaceRecognitionService;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.ExitCode;
+import picocli.CommandLine.Option;
+
+@Component
+@Command(name = "recall", description = "measures the recall of the centroid search and quantized embeddings against the exhaustive search.", mixinStandardHelpOptions = true, exitCodeOnExecutionException = 1)
+public class RecallCommand implements Callable<Integer> {
+
+	private Logger logger = LoggerFactory.getLogger(RecallCommand.class);
+
+	@Autowired
+	private FaceRecognitionService faceRecognitionService;
+
+	@Option(names = { "-e", "--epath" }, description = "embeddings file path.", required = true)
+	private String embeddingModelPath;
+
+	@Option(names = { "-q", "--queries" }, description = "embeddings file with the faces to search, by default random faces of the gallery.")
+	private String queriesPath;
+
+	@Option(names = { "-n", "--num-queries" }, description = "random faces of the gallery to search.", defaultValue = "1000")
+	private Integer numQueries;
+
+	@Option(names = { "-c", "--candidates" }, description = "candidate labels to measure.", split = ",", defaultValue = "1,2,5,10,20,50")
+	private List<Integer> candidates;
+
+	@Option(names = { "--prototypes" }, description = "centroids per label.", defaultValue = "" + CentroidIndex.DEFAULT_PROTOTYPES)
+	private Integer prototypes;
+
+	@Option(names = { "--quantization" }, description = "quantizations to measure: ${COMPLETION-CANDIDATES}.", split = ",")
+	private List<Quantization> quantizations = new ArrayList<>();
+
+	@Override
+	public Integer call() throws Exception {
+		Path embeddingsPath = Paths.get(embeddingModelPath);
+		if (!Files.exists(embeddingsPath)) {
+			logger.error("Embeddings file {} not exists.", embeddingsPath);
+			return ExitCode.SOFTWARE;
+		}
+		EmbeddingsHolder embeddingsHolder = faceRecognitionService.loadEmbeddings(embeddingsPath);
+		if (embeddingsHolder.getQuantized() != null) {
+			logger.warn("Embeddings file is {} quantized, measuring against its decoded embeddings.",
+					embeddingsHolder.getQuantized().getQuantization());
+		}
+
+		List<float[]> queries;
+		if (queriesPath != null) {
+			EmbeddingsMatrix queriesMatrix = faceRecognitionService.loadEmbeddings(Paths.get(queriesPath))
+					.getMatrix();
+			queries = new ArrayList<>(queriesMatrix.getNumRows());
+			for (int row = 0; row < queriesMatrix.getNumRows(); row++) {
+				queries.add(queriesMatrix.getRow(row));
+			}
+		} else {
+			logger.warn("Searching faces of the gallery, recall is optimistic. Use --queries for other faces.");
+			queries = SearchRecall.sampleQueries(embeddingsHolder.getMatrix(), numQueries, 0);
+		}
+
+		logger.info("{} labels, {} embeddings, {} queries, {} prototypes per label.", embeddingsHolder.size(),
+				embeddingsHolder.getNumRows(), queries.size(), prototypes);
+		for (int candidate : candidates) {
+			faceRecognitionService.buildCentroids(embeddingsHolder, prototypes, candidate);
+			logger.info("candidates={}: {}", candidate,
+					faceRecognitionService.measureCentroidRecall(embeddingsHolder, queries));
+		}
+		for (Quantization quantization : quantizations) {
+			faceRecognitionService.quantize(embeddingsHolder, quantization);
+			if (embeddingsHolder.getQuantized() != null) {
+				logger.info("{} ({} bytes, {} as floats): {}", quantization,
+						embeddingsHolder.getQuantized().sizeInBytes(), embeddingsHolder.getMatrix().sizeInBytes(),
+						faceRecognitionService.measureQuantizationRecall(embeddingsHolder, queries));
+			}
+		}
+
+		logger.info("done.");
+		return ExitCode.OK;
+	}
+}
@@ -1,28 +1,81 @@
 package io.github.jmformenti.face.core.configuration;
 
-import java.io.IOException;
+import java.nio.file.Paths;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import ai.djl.ModelException;
+import io.github.jmformenti.face.core.metrics.FaceMetrics;
 import io.github.jmformenti.face.core.model.FaceDetectionModel;
 import io.github.jmformenti.face.core.model.FaceEmbeddingModel;
+import io.github.jmformenti.face.core.model.ModelCache;
+import io.github.jmformenti.face.core.model.ModelLoader;
+import io.github.jmformenti.face.core.storage.PredictionCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @Configuration
 public class FaceCoreConfiguration {
 
+	/**
+	 * Meters are registered in the application meter registry if there is one,
+	 * in memory otherwise.
+	 */
 	@Bean
-	public FaceDetectionModel faceDetectionModel() throws ModelException, IOException {
+	public FaceMetrics faceMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+		return new FaceMetrics(meterRegistry.getIfAvailable(SimpleMeterRegistry::new));
+	}
+
+	/**
+	 * Models are loaded when first needed, all of them at the same time.
+	 */
+	@Bean
+	public ModelLoader modelLoader() {
+		return new ModelLoader();
+	}
+
+	@Bean
+	public FaceDetectionModel faceDetectionModel(@Value("${face.detection.predictors:0}") int predictors,
+			ModelLoader modelLoader, FaceMetrics faceMetrics) {
 		FaceDetectionModel faceDetectionModel = new FaceDetectionModel();
-		faceDetectionModel.init();
+		faceDetectionModel.init(orProcessors(predictors), modelLoader);
+		faceMetrics.bindPredictorPool(FaceDetectionModel.NAME, faceDetectionModel.getPredictorPool());
+		faceMetrics.bindModelLoad(FaceDetectionModel.NAME, modelLoader);
 		return faceDetectionModel;
 	}
 	
 	@Bean
-	public FaceEmbeddingModel faceEmbeddingModel() throws ModelException, IOException {
+	public FaceEmbeddingModel faceEmbeddingModel(@Value("${face.embedding.predictors:0}") int predictors,
+			@Value("${face.search.threads:0}") int searchThreads,
+			@Value("${face.embedding.batch-size:" + FaceEmbeddingModel.DEFAULT_BATCH_SIZE + "}") int batchSize,
+			@Value("${face.model.cache-dir:}") String modelCacheDir, ModelLoader modelLoader,
+			FaceMetrics faceMetrics) {
 		FaceEmbeddingModel faceEmbeddingModel = new FaceEmbeddingModel();
-		faceEmbeddingModel.init();
+		faceEmbeddingModel.setModelCache(
+				new ModelCache(modelCacheDir.isEmpty() ? ModelCache.DEFAULT_DIR : Paths.get(modelCacheDir)));
+		faceEmbeddingModel.init(orProcessors(predictors), modelLoader);
+		faceEmbeddingModel.setBatchSize(batchSize);
+		faceEmbeddingModel.setSearchThreads(orProcessors(searchThreads));
+		faceMetrics.bindPredictorPool(FaceEmbeddingModel.NAME, faceEmbeddingModel.getPredictorPool());
+		faceMetrics.bindModelLoad(FaceEmbeddingModel.NAME, modelLoader);
 		return faceEmbeddingModel;
 	}
+
+	/**
+	 * Disabled, size 0, unless configured.
+	 */
+	@Bean
+	public PredictionCache predictionCache(@Value("${face.prediction.cache.max-size-mb:0}") long maxSizeMb,
+			FaceMetrics faceMetrics) {
+		PredictionCache predictionCache = new PredictionCache(maxSizeMb * 1024 * 1024);
+		faceMetrics.bindPredictionCache(predictionCache);
+		return predictionCache;
+	}
+
+	// 0 means one per available processor
+	private int orProcessors(int value) {
+		return value > 0 ? value : Runtime.getRuntime().availableProcessors();
+	}
 }
@@ -5,9 +5,9 @@ import java.util.List;
 public class EmbeddingItem {
 
 	private String label;
-	private List<double[]> embeddings;
+	private List<float[]> embeddings;
 
-	public EmbeddingItem(String label, List<double[]> embeddings) {
+	public EmbeddingItem(String label, List<float[]> embeddings) {
 		super();
 		this.label = label;
 		this.embeddings = embeddings;
@@ -21,11 +21,11 @@ public class EmbeddingItem {
 		this.label = label;
 	}
 
-	public List<double[]> getEmbeddings() {
+	public List<float[]> getEmbeddings() {
 		return embeddings;
 	}
 
-	public void setEmbeddings(List<double[]> embeddings) {
+	public void setEmbeddings(List<float[]> embeddings) {
 		this.embeddings = embeddings;
 	}
 
@@ -1,32 +1,452 @@
 package io.github.jmformenti.face.core.domain;
 
-import java.util.HashMap;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+import io.github.jmformenti.face.core.quantization.QuantizedMatrix;
+import io.github.jmformenti.face.core.search.CentroidIndex;
+import io.github.jmformenti.face.core.search.HnswIndex;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Gallery of embeddings by label, stored packed in a single float matrix (see
+ * {@link EmbeddingsMatrix}) instead of one array per embedding. It can be
+ * modified from several threads, readers should search a {@link #getMatrix()
+ * snapshot}. A holder may also have the embeddings {@link QuantizedMatrix
+ * quantized}; loaded from a quantized file, they are decoded only if needed.
+ * The inverse norm of each embedding is computed once, when it is added.
+ */
 public class EmbeddingsHolder {
 
-	private Map<String, List<double[]>> embeddingsByLabel;
+	private static final int INITIAL_CAPACITY_ROWS = 64;
+
+	private static final AtomicLong VERSIONS = new AtomicLong();
+
+	private final boolean offHeap;
+
+	private final Map<String, Integer> labelIndex;
+	private final List<String> labels;
+	private int[] offsets;
+	private FloatBuffer data;
+	// of the rows in data, null until the holder is modified
+	private double[] inverseNorms;
+	private int dimension;
+
+	private volatile EmbeddingsMatrix matrix;
+	private volatile HnswIndex index;
+	private volatile CentroidIndex centroids;
+	private volatile QuantizedMatrix quantized;
+	private volatile long version = VERSIONS.incrementAndGet();
 
 	public EmbeddingsHolder() {
+		this(false);
+	}
+
+	public EmbeddingsHolder(boolean offHeap) {
 		super();
-		this.embeddingsByLabel = new HashMap<>();
+		this.offHeap = offHeap;
+		this.labelIndex = new LinkedHashMap<>();
+		this.labels = new ArrayList<>();
+		this.offsets = new int[INITIAL_CAPACITY_ROWS + 1];
+	}
+
+	/**
+	 * Holder over an existing matrix, for example a memory mapped file. The matrix
+	 * data is copied to the heap only when the holder is modified.
+	 */
+	public EmbeddingsHolder(EmbeddingsMatrix matrix) {
+		this(false);
+		this.dimension = matrix.getDimension();
+		// rows in several chunks are copied to a single buffer when modified
+		FloatBuffer[] chunks = matrix.getChunks();
+		this.data = matrix.getNumRows() > 0 && chunks.length == 1 ? chunks[0] : null;
+		this.offsets = new int[Math.max(matrix.getNumLabels(), INITIAL_CAPACITY_ROWS) + 1];
+		for (int i = 0; i < matrix.getNumLabels(); i++) {
+			labelIndex.put(matrix.getLabel(i), i);
+			labels.add(matrix.getLabel(i));
+			offsets[i + 1] = matrix.getEnd(i);
+		}
+		this.matrix = matrix;
+	}
+
+	/**
+	 * Holder over a quantized matrix, decoded when the embeddings are modified or
+	 * their {@link #getMatrix() matrix} is needed.
+	 */
+	public EmbeddingsHolder(QuantizedMatrix quantized) {
+		this(false);
+		this.dimension = quantized.getDimension();
+		this.offsets = new int[Math.max(quantized.getNumLabels(), INITIAL_CAPACITY_ROWS) + 1];
+		for (int i = 0; i < quantized.getNumLabels(); i++) {
+			labelIndex.put(quantized.getLabel(i), i);
+			labels.add(quantized.getLabel(i));
+			offsets[i + 1] = quantized.getEnd(i);
+		}
+		this.quantized = quantized;
+	}
+
+	public synchronized void add(EmbeddingItem item) {
+		loadData();
+		if (labelIndex.containsKey(item.getLabel())) {
+			remove(item.getLabel());
+		}
+
+		List<float[]> embeddings = item.getEmbeddings();
+		if (data == null && !embeddings.isEmpty()) {
+			dimension = dimension == 0 ? embeddings.get(0).length : dimension;
+			data = EmbeddingsMatrix.allocate(INITIAL_CAPACITY_ROWS * dimension, offHeap);
+		}
+
+		int start = getNumRows();
+		ensureCapacity(start + embeddings.size());
+		if (!embeddings.isEmpty()) {
+			double[] norms = ensureInverseNorms(start + embeddings.size());
+			FloatBuffer rows = data.duplicate();
+			rows.position(start * dimension);
+			int row = start;
+			for (float[] embedding : embeddings) {
+				if (embedding.length != dimension) {
+					throw new IllegalArgumentException(String.format(
+							"Embedding of %s has dimension %d, expected %d", item.getLabel(), embedding.length,
+							dimension));
+				}
+				rows.put(embedding);
+				norms[row++] = VectorUtil.inverseNorm(VectorUtil.squaredNorm(embedding));
+			}
+		}
+
+		labelIndex.put(item.getLabel(), labels.size());
+		labels.add(item.getLabel());
+		ensureLabelCapacity(labels.size());
+		offsets[labels.size()] = start + embeddings.size();
+		modified();
+	}
+
+	public synchronized boolean remove(String label) {
+		loadData();
+		Integer index = labelIndex.remove(label);
+		if (index == null) {
+			return false;
+		}
+
+		int start = offsets[index];
+		int end = offsets[index + 1];
+		int removed = end - start;
+		int numRows = getNumRows();
+
+		// copy instead of shifting in place, published matrices keep their rows
+		if (data != null) {
+			FloatBuffer newData = EmbeddingsMatrix.allocate(Math.max(numRows, INITIAL_CAPACITY_ROWS) * dimension,
+					offHeap);
+			FloatBuffer source = data.duplicate();
+			source.position(0).limit(start * dimension);
+			newData.put(source);
+			source.limit(numRows * dimension).position(end * dimension);
+			newData.put(source);
+			data = newData;
+		}
+		if (inverseNorms != null) {
+			System.arraycopy(inverseNorms, end, inverseNorms, start, numRows - end);
+		}
+
+		labels.remove((int) index);
+		for (int i = index; i < labels.size(); i++) {
+			offsets[i + 1] = offsets[i + 2] - removed;
+			labelIndex.put(labels.get(i), i);
+		}
+		modified();
+		return true;
+	}
+
+	/**
+	 * Adds embeddings after the existing ones of the label, or as a new label at
+	 * the end.
+	 */
+	public synchronized void append(String label, List<float[]> embeddings) {
+		loadData();
+		Integer index = labelIndex.get(label);
+		if (index == null) {
+			add(new EmbeddingItem(label, embeddings));
+		} else {
+			replaceRows(index, offsets[index + 1], offsets[index + 1], embeddings);
+		}
+	}
+
+	/**
+	 * @param positions positions of the embeddings to remove in the list of the
+	 *                  label
+	 * @return false if there is no such label
+	 */
+	public synchronized boolean removeEmbeddings(String label, Collection<Integer> positions) {
+		loadData();
+		Integer index = labelIndex.get(label);
+		if (index == null) {
+			return false;
+		}
+		List<float[]> kept = new ArrayList<>();
+		EmbeddingsMatrix current = getMatrix();
+		for (int row = offsets[index]; row < offsets[index + 1]; row++) {
+			if (!positions.contains(row - offsets[index])) {
+				kept.add(current.getRow(row));
+			}
+		}
+		replaceRows(index, offsets[index], offsets[index + 1], kept);
+		return true;
+	}
+
+	/**
+	 * @return false if there is no such label
+	 * @throws IllegalArgumentException if the new label already exists
+	 */
+	public synchronized boolean rename(String label, String newLabel) {
+		if (labelIndex.containsKey(newLabel)) {
+			throw new IllegalArgumentException(String.format("Label %s already exists", newLabel));
+		}
+		loadData();
+		Integer index = labelIndex.remove(label);
+		if (index == null) {
+			return false;
+		}
+		labels.set(index, newLabel);
+		// rebuilt to keep the label in its position
+		labelIndex.clear();
+		for (int i = 0; i < labels.size(); i++) {
+			labelIndex.put(labels.get(i), i);
+		}
+		modified();
+		return true;
+	}
+
+	public synchronized List<float[]> get(String label) {
+		Integer index = labelIndex.get(label);
+		if (index == null) {
+			return null;
+		}
+		EmbeddingsMatrix current = getMatrix();
+		List<float[]> result = new ArrayList<>(current.getEnd(index) - current.getStart(index));
+		for (int row = current.getStart(index); row < current.getEnd(index); row++) {
+			result.add(current.getRow(row));
+		}
+		return result;
+	}
+
+	/**
+	 * @return copy of the labels, in insertion order
+	 */
+	public synchronized Set<String> getLabels() {
+		return Collections.unmodifiableSet(new LinkedHashSet<>(labelIndex.keySet()));
+	}
+
+	public synchronized boolean contains(String label) {
+		return labelIndex.containsKey(label);
+	}
+
+	public synchronized int size() {
+		return labels.size();
+	}
+
+	public synchronized int getNumRows() {
+		return offsets[labels.size()];
+	}
+
+	public synchronized int getDimension() {
+		return dimension;
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * @return packed snapshot of current embeddings, later changes to this holder
+	 *         are not visible in it
+	 */
+	public EmbeddingsMatrix getMatrix() {
+		EmbeddingsMatrix current = matrix;
+		if (current == null) {
+			synchronized (this) {
+				if (matrix == null) {
+					loadData();
+					FloatBuffer view = data == null ? FloatBuffer.allocate(0) : data.duplicate();
+					view.position(0).limit(getNumRows() * dimension);
+					matrix = new EmbeddingsMatrix(dimension, labels.toArray(new String[0]),
+							Arrays.copyOf(offsets, labels.size() + 1), view,
+							inverseNorms == null ? null : Arrays.copyOf(inverseNorms, getNumRows()));
+				}
+				current = matrix;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * @return nearest neighbour index of the current embeddings, null if there is
+	 *         none or the holder was modified after it was built
+	 */
+	public HnswIndex getIndex() {
+		return index != null && index.getMatrix() == getMatrix() ? index : null;
+	}
+
+	public synchronized void setIndex(HnswIndex index) {
+		if (index != null && index.getMatrix() != getMatrix()) {
+			throw new IllegalArgumentException("Index was not built from the current embeddings");
+		}
+		this.index = index;
+		this.version = VERSIONS.incrementAndGet();
+	}
+
+	/**
+	 * @return prototype centroids of the current embeddings, null if there are
+	 *         none or the holder was modified after they were built
+	 */
+	public CentroidIndex getCentroids() {
+		return centroids != null && centroids.getMatrix() == getMatrix() ? centroids : null;
+	}
+
+	public synchronized void setCentroids(CentroidIndex centroids) {
+		if (centroids != null && centroids.getMatrix() != getMatrix()) {
+			throw new IllegalArgumentException("Centroids were not built from the current embeddings");
+		}
+		this.centroids = centroids;
+		this.version = VERSIONS.incrementAndGet();
+	}
+
+	/**
+	 * Replaces rows from-to, all of the given label, with the given embeddings
+	 * and shifts the rows of the next labels. Copy instead of shifting in place,
+	 * published matrices keep their rows.
+	 */
+	private void replaceRows(int index, int from, int to, List<float[]> embeddings) {
+		if (data == null && embeddings.isEmpty()) {
+			return;
+		}
+		if (data == null) {
+			dimension = dimension == 0 ? embeddings.get(0).length : dimension;
+		}
+
+		int numRows = getNumRows();
+		int delta = embeddings.size() - (to - from);
+		double[] norms = ensureInverseNorms(numRows);
+		double[] newNorms = new double[Math.max(numRows + delta, INITIAL_CAPACITY_ROWS)];
+		System.arraycopy(norms, 0, newNorms, 0, from);
+		System.arraycopy(norms, to, newNorms, to + delta, numRows - to);
+		FloatBuffer newData = EmbeddingsMatrix.allocate(Math.max(numRows + delta, INITIAL_CAPACITY_ROWS) * dimension,
+				offHeap);
+		if (data != null) {
+			FloatBuffer source = data.duplicate();
+			source.position(0).limit(from * dimension);
+			newData.put(source);
+		}
+		int row = from;
+		for (float[] embedding : embeddings) {
+			if (embedding.length != dimension) {
+				throw new IllegalArgumentException(String.format("Embedding of %s has dimension %d, expected %d",
+						labels.get(index), embedding.length, dimension));
+			}
+			newData.put(embedding);
+			newNorms[row++] = VectorUtil.inverseNorm(VectorUtil.squaredNorm(embedding));
+		}
+		if (data != null) {
+			FloatBuffer source = data.duplicate();
+			source.limit(numRows * dimension).position(to * dimension);
+			newData.put(source);
+		}
+		data = newData;
+		inverseNorms = newNorms;
+
+		for (int i = index + 1; i <= labels.size(); i++) {
+			offsets[i] += delta;
+		}
+		modified();
+	}
+
+	/**
+	 * @return quantized embeddings, null if there are none or the holder was
+	 *         modified after they were quantized
+	 */
+	public QuantizedMatrix getQuantized() {
+		return quantized;
+	}
+
+	/**
+	 * @param quantized quantization of the current embeddings
+	 */
+	public synchronized void setQuantized(QuantizedMatrix quantized) {
+		if (quantized != null && (quantized.getNumLabels() != labels.size()
+				|| quantized.getNumRows() != getNumRows() || quantized.getDimension() != dimension)) {
+			throw new IllegalArgumentException("Quantized embeddings are not the current embeddings");
+		}
+		this.quantized = quantized;
+		this.version = VERSIONS.incrementAndGet();
+	}
+
+	/**
+	 * @return version of the embeddings, and of the index, centroids or
+	 *         quantization used to search them, unique among all holders. It
+	 *         changes every time any of them is modified or set.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	private void modified() {
+		matrix = null;
+		quantized = null;
+		version = VERSIONS.incrementAndGet();
 	}
 
-	public void add(EmbeddingItem item) {
-		embeddingsByLabel.put(item.getLabel(), item.getEmbeddings());
+	/**
+	 * Decodes the quantized embeddings the holder was created with, or copies the
+	 * rows of a matrix in several chunks, before they are modified or read.
+	 */
+	private void loadData() {
+		if (data == null && getNumRows() > 0) {
+			if (matrix != null) {
+				data = matrix.copyData(offHeap);
+			} else if (quantized != null) {
+				data = quantized.decode().getChunks()[0];
+			}
+		}
 	}
 
-	public List<double[]> get(String label) {
-		return embeddingsByLabel.get(label);
+	/**
+	 * @return inverse norms of the current rows with room for the given rows,
+	 *         taken from the matrix the first time the holder is modified
+	 */
+	private double[] ensureInverseNorms(int rows) {
+		if (inverseNorms == null) {
+			int numRows = getNumRows();
+			double[] current = numRows == 0 ? new double[0] : getMatrix().getInverseNorms();
+			inverseNorms = Arrays.copyOf(current, Math.max(rows, INITIAL_CAPACITY_ROWS));
+		} else if (rows > inverseNorms.length) {
+			inverseNorms = Arrays.copyOf(inverseNorms, Math.max(rows, inverseNorms.length * 2));
+		}
+		return inverseNorms;
 	}
 
-	public Set<String> getLabels() {
-		return embeddingsByLabel.keySet();
+	private void ensureCapacity(int rows) {
+		if (data != null && (rows * dimension > data.capacity() || data.isReadOnly())) {
+			int newRows = Math.max(rows, data.capacity() / dimension * 2);
+			FloatBuffer newData = EmbeddingsMatrix.allocate(newRows * dimension, offHeap);
+			FloatBuffer source = data.duplicate();
+			source.position(0).limit(getNumRows() * dimension);
+			newData.put(source);
+			data = newData;
+		}
 	}
 
-	public int size() {
-		return embeddingsByLabel.size();
+	private void ensureLabelCapacity(int numLabels) {
+		if (numLabels + 1 > offsets.length) {
+			offsets = Arrays.copyOf(offsets, Math.max(numLabels + 1, offsets.length * 2));
+		}
 	}
 }
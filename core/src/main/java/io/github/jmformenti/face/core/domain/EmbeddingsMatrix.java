@@ -0,0 +1,277 @@
+package io.github.jmformenti.face.core.domain;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Immutable packed view of a gallery: every embedding is one row of a single
+ * row-major float matrix and the rows of each label are contiguous, delimited
+ * by an offsets table ({@code offsets[i]} to {@code offsets[i + 1]}). The
+ * inverse norm of every row is kept next to the rows, so comparing a query
+ * with a row is a single dot product.
+ *
+ * <p>
+ * Rows may be split in several chunks of a power of two rows each, for
+ * matrices larger than a single buffer, like a memory mapped file over 2 GiB.
+ * Row {@code row} starts at {@link #getRowOffset(int)} of chunk
+ * {@link #getChunk(int)}.
+ */
+public class EmbeddingsMatrix {
+
+	private final int dimension;
+	private final String[] labels;
+	private final int[] offsets;
+	private final FloatBuffer[] chunks;
+	private final int chunkShift;
+	private final int chunkMask;
+	private volatile double[] inverseNorms;
+	private volatile Long fingerprint;
+
+	public EmbeddingsMatrix(int dimension, String[] labels, int[] offsets, FloatBuffer data) {
+		this(dimension, labels, offsets, data, null);
+	}
+
+	/**
+	 * @param inverseNorms inverse norm of each row, null to compute them when
+	 *                     first needed
+	 */
+	public EmbeddingsMatrix(int dimension, String[] labels, int[] offsets, FloatBuffer data, double[] inverseNorms) {
+		this(dimension, labels, offsets, new FloatBuffer[] { data }, 31, inverseNorms);
+	}
+
+	/**
+	 * @param chunks       rows of the matrix, {@code 2^chunkShift} rows in each
+	 *                     chunk but the last
+	 * @param inverseNorms inverse norm of each row, null to compute them when
+	 *                     first needed
+	 */
+	public EmbeddingsMatrix(int dimension, String[] labels, int[] offsets, FloatBuffer[] chunks, int chunkShift,
+			double[] inverseNorms) {
+		this(dimension, labels, offsets, chunks, chunkShift, inverseNorms, null);
+	}
+
+	/**
+	 * @param fingerprint {@link #getFingerprint() fingerprint} of the matrix, for
+	 *                    example stored with it in a file, null to compute it
+	 *                    when first needed
+	 */
+	public EmbeddingsMatrix(int dimension, String[] labels, int[] offsets, FloatBuffer[] chunks, int chunkShift,
+			double[] inverseNorms, Long fingerprint) {
+		super();
+		if (offsets.length != labels.length + 1) {
+			throw new IllegalArgumentException("Offsets table must have one entry more than labels");
+		}
+		if (chunkShift < 0 || chunkShift > 31 || chunks.length == 0) {
+			throw new IllegalArgumentException("Invalid embeddings chunks");
+		}
+		long remaining = 0;
+		for (int i = 0; i < chunks.length; i++) {
+			if (i < chunks.length - 1 && chunks[i].remaining() != (1L << chunkShift) * dimension) {
+				throw new IllegalArgumentException("Embeddings chunks must have the same number of rows");
+			}
+			remaining += chunks[i].remaining();
+		}
+		if (remaining < (long) offsets[labels.length] * dimension) {
+			throw new IllegalArgumentException("Embeddings data is smaller than offsets table");
+		}
+		if (inverseNorms != null && inverseNorms.length < offsets[labels.length]) {
+			throw new IllegalArgumentException("Inverse norms are fewer than rows");
+		}
+		this.dimension = dimension;
+		this.labels = labels;
+		this.offsets = offsets;
+		this.chunks = new FloatBuffer[chunks.length];
+		for (int i = 0; i < chunks.length; i++) {
+			this.chunks[i] = chunks[i].slice();
+		}
+		this.chunkShift = chunkShift;
+		this.chunkMask = (int) ((1L << chunkShift) - 1);
+		this.inverseNorms = inverseNorms;
+		this.fingerprint = fingerprint;
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	public int getNumLabels() {
+		return labels.length;
+	}
+
+	public int getNumRows() {
+		return offsets[labels.length];
+	}
+
+	public String getLabel(int labelIndex) {
+		return labels[labelIndex];
+	}
+
+	public int getStart(int labelIndex) {
+		return offsets[labelIndex];
+	}
+
+	public int getEnd(int labelIndex) {
+		return offsets[labelIndex + 1];
+	}
+
+	/**
+	 * @return index of the label the row belongs to
+	 */
+	public int getLabelIndex(int row) {
+		int low = 0;
+		int high = labels.length - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+			if (offsets[mid] <= row) {
+				low = mid;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return chunk with the row
+	 */
+	public int getChunk(int row) {
+		return row >>> chunkShift;
+	}
+
+	/**
+	 * @return position of the row in its chunk
+	 */
+	public int getRowOffset(int row) {
+		return (row & chunkMask) * dimension;
+	}
+
+	/**
+	 * @return the rows of the matrix, the chunks of {@link #getChunk(int)}
+	 */
+	public FloatBuffer[] getChunks() {
+		FloatBuffer[] result = new FloatBuffer[chunks.length];
+		for (int i = 0; i < chunks.length; i++) {
+			result[i] = chunks[i].duplicate();
+		}
+		return result;
+	}
+
+	/**
+	 * @return copy of all the rows in a single buffer
+	 */
+	public FloatBuffer copyData(boolean offHeap) {
+		long size = (long) getNumRows() * dimension;
+		if (size > (offHeap ? Integer.MAX_VALUE / Float.BYTES : Integer.MAX_VALUE)) {
+			throw new IllegalStateException(String.format("%d embeddings exceed the maximum buffer size", size));
+		}
+		FloatBuffer result = allocate((int) size, offHeap);
+		for (int i = 0; result.hasRemaining(); i++) {
+			FloatBuffer source = chunks[i].duplicate();
+			source.limit(Math.min(source.limit(), result.remaining()));
+			result.put(source);
+		}
+		return result.flip();
+	}
+
+	/**
+	 * @return inverse of the norm of each row, see
+	 *         {@link VectorUtil#inverseNorm(double)}, not to be modified
+	 */
+	public double[] getInverseNorms() {
+		double[] result = inverseNorms;
+		if (result == null) {
+			result = computeInverseNorms();
+			inverseNorms = result;
+		}
+		return result;
+	}
+
+	private double[] computeInverseNorms() {
+		double[] result = new double[getNumRows()];
+		for (int row = 0; row < result.length; row++) {
+			int offset = getRowOffset(row);
+			result[row] = VectorUtil.inverseNorm(VectorUtil.dot(chunks[getChunk(row)], offset, offset, dimension));
+		}
+		return result;
+	}
+
+	/**
+	 * @return checksum of the labels, offsets and first value of every row, to
+	 *         detect data built from other embeddings, like an index file
+	 */
+	public long getFingerprint() {
+		Long result = fingerprint;
+		if (result == null) {
+			result = computeFingerprint();
+			fingerprint = result;
+		}
+		return result;
+	}
+
+	private long computeFingerprint() {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES);
+		updateInt(crc, buffer, dimension);
+		for (int label = 0; label < labels.length; label++) {
+			crc.update(labels[label].getBytes(StandardCharsets.UTF_8));
+			updateInt(crc, buffer, offsets[label + 1]);
+		}
+		for (int row = 0; row < getNumRows(); row++) {
+			updateInt(crc, buffer, Float.floatToIntBits(chunks[getChunk(row)].get(getRowOffset(row))));
+		}
+		return crc.getValue();
+	}
+
+	private static void updateInt(CRC32 crc, ByteBuffer buffer, int value) {
+		buffer.clear();
+		buffer.putInt(value).flip();
+		crc.update(buffer);
+	}
+
+	public boolean isOffHeap() {
+		return chunks[0].isDirect();
+	}
+
+	public long sizeInBytes() {
+		return (long) getNumRows() * dimension * Float.BYTES;
+	}
+
+	public float[] getRow(int row) {
+		float[] result = new float[dimension];
+		FloatBuffer view = chunks[getChunk(row)].duplicate();
+		view.position(getRowOffset(row));
+		view.get(result);
+		return result;
+	}
+
+	public double[] getRowAsDouble(int row) {
+		double[] result = new double[dimension];
+		FloatBuffer data = chunks[getChunk(row)];
+		int offset = getRowOffset(row);
+		for (int i = 0; i < dimension; i++) {
+			result[i] = data.get(offset + i);
+		}
+		return result;
+	}
+
+	public EmbeddingsMatrix toOffHeap() {
+		if (isOffHeap()) {
+			return this;
+		}
+		return new EmbeddingsMatrix(dimension, labels, offsets, new FloatBuffer[] { copyData(true) }, 31,
+				inverseNorms, fingerprint);
+	}
+
+	static FloatBuffer allocate(int capacity, boolean offHeap) {
+		if (offHeap) {
+			return ByteBuffer.allocateDirect(capacity * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+		} else {
+			return FloatBuffer.allocate(capacity);
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package io.github.jmformenti.face.core.domain;
+
+/**
+ * How images are processed when generating embeddings.
+ */
+public enum EnrollmentMode {
+
+	/**
+	 * One image after another, each one decoded, detected, embedded and augmented.
+	 */
+	SEQUENTIAL,
+
+	/**
+	 * Images flow through concurrent decode, detection, crop, embedding and
+	 * augmentation stages connected by bounded queues.
+	 */
+	PIPELINE,
+
+	/**
+	 * Several person dirs at the same time, each one processed sequentially by a
+	 * worker thread.
+	 */
+	PARALLEL
+
+}
@@ -13,7 +13,8 @@ public class ImageElement {
 	private Image face;
 	private Path originalPath;
 	private DetectedObjects detectedFaces;
-	private List<double[]> embeddings;
+	private List<float[]> embeddings;
+	private boolean reduced;
 
 	public ImageElement(Image image) {
 		super();
@@ -26,6 +27,15 @@ public class ImageElement {
 		this.originalPath = originalPath;
 	}
 
+	/**
+	 * @param reduced if the image was decoded at reduced resolution, faces are
+	 *                then read from the original path at full resolution
+	 */
+	public ImageElement(Image image, Path originalPath, boolean reduced) {
+		this(image, originalPath);
+		this.reduced = reduced;
+	}
+
 	public Image getImage() {
 		return this.image;
 	}
@@ -42,6 +52,10 @@ public class ImageElement {
 		return this.originalPath;
 	}
 
+	public boolean isReduced() {
+		return reduced;
+	}
+
 	public DetectedObjects getDetectedFaces() {
 		return this.detectedFaces;
 	}
@@ -50,11 +64,11 @@ public class ImageElement {
 		this.detectedFaces = detectedFaces;
 	}
 
-	public List<double[]> getEmbeddings() {
+	public List<float[]> getEmbeddings() {
 		return this.embeddings;
 	}
 
-	public void addEmbedding(double[] embedding) {
+	public void addEmbedding(float[] embedding) {
 		embeddings.add(embedding);
 	}
 
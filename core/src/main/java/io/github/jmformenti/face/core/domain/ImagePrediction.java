@@ -0,0 +1,63 @@
+package io.github.jmformenti.face.core.domain;
+
+import java.nio.file.Path;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.output.DetectedObjects;
+
+/**
+ * Recognized faces of an image file, or the error that prevented it.
+ */
+public class ImagePrediction {
+
+	private final Path path;
+	private final Image image;
+	private final DetectedObjects faces;
+	private final String error;
+
+	public ImagePrediction(Path path, Image image, DetectedObjects faces) {
+		this.path = path;
+		this.image = image;
+		this.faces = faces;
+		this.error = null;
+	}
+
+	public ImagePrediction(Path path, String error) {
+		this.path = path;
+		this.image = null;
+		this.faces = null;
+		this.error = error;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return decoded image, null if there was an error or the faces were
+	 *         cached
+	 */
+	public Image getImage() {
+		return image;
+	}
+
+	/**
+	 * @return recognized faces, null if there was an error
+	 */
+	public DetectedObjects getFaces() {
+		return faces;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public boolean hasError() {
+		return error != null;
+	}
+
+	@Override
+	public String toString() {
+		return path.toString();
+	}
+}
@@ -0,0 +1,232 @@
+package io.github.jmformenti.face.core.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.model.ModelLoader;
+import io.github.jmformenti.face.core.model.PredictorPool;
+import io.github.jmformenti.face.core.pipeline.MicroBatcher;
+import io.github.jmformenti.face.core.storage.PredictionCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of the recognition stages, registered in any Micrometer
+ * {@link MeterRegistry}:
+ * <ul>
+ * <li>{@value #STAGE_TIMER} timer and {@value #STAGE_ITEMS} counter, tagged by
+ * stage, time of each call and items processed, images or faces, so batched
+ * stages report their throughput too</li>
+ * <li>{@value #FACES_PER_IMAGE} distribution of faces detected per image</li>
+ * <li>{@value #GALLERY_LABELS} and {@value #GALLERY_EMBEDDINGS} gauges of the
+ * last gallery loaded or generated</li>
+ * <li>{@value #PREDICTOR_WAIT} timer, {@value #PREDICTOR_WAIT_MAX} and
+ * {@value #PREDICTOR_BORROWS}, tagged by model, of the predictor pools</li>
+ * <li>{@value #BATCHER_BATCHES} and {@value #BATCHER_ITEMS}, tagged by name, of
+ * the micro batchers</li>
+ * <li>{@value #CACHE_HITS}, {@value #CACHE_MISSES}, {@value #CACHE_EVICTIONS},
+ * {@value #CACHE_ENTRIES} and {@value #CACHE_BYTES} of the prediction
+ * cache</li>
+ * <li>{@value #MODEL_LOAD}, tagged by model, time loading each model, and
+ * {@value #FIRST_PREDICTION}, time since the JVM started until the first
+ * prediction ended</li>
+ * </ul>
+ */
+public class FaceMetrics {
+
+	public static final String STAGE_TIMER = "face.stage";
+	public static final String STAGE_ITEMS = "face.stage.items";
+	public static final String FACES_PER_IMAGE = "face.faces.per.image";
+	public static final String GALLERY_LABELS = "face.gallery.labels";
+	public static final String GALLERY_EMBEDDINGS = "face.gallery.embeddings";
+	public static final String PREDICTOR_WAIT = "face.predictor.wait";
+	public static final String PREDICTOR_WAIT_MAX = "face.predictor.wait.max";
+	public static final String PREDICTOR_BORROWS = "face.predictor.borrows";
+	public static final String BATCHER_BATCHES = "face.batcher.batches";
+	public static final String BATCHER_ITEMS = "face.batcher.items";
+	public static final String CACHE_HITS = "face.cache.hits";
+	public static final String CACHE_MISSES = "face.cache.misses";
+	public static final String CACHE_EVICTIONS = "face.cache.evictions";
+	public static final String CACHE_ENTRIES = "face.cache.entries";
+	public static final String CACHE_BYTES = "face.cache.bytes";
+	public static final String MODEL_LOAD = "face.model.load";
+	public static final String FIRST_PREDICTION = "face.first.prediction";
+
+	private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+
+	public enum Stage {
+		DECODE, DETECT, CROP, EMBED, AUGMENT, SEARCH, READ, WRITE;
+
+		public String getTag() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	private final MeterRegistry registry;
+	private final Map<Stage, Timer> timers;
+	private final Map<Stage, Counter> items;
+	private final DistributionSummary facesPerImage;
+	private final AtomicReference<WeakReference<EmbeddingsHolder>> gallery;
+	private final AtomicLong firstPredictionMillis;
+
+	public FaceMetrics(MeterRegistry registry) {
+		this.registry = registry;
+		this.timers = new ConcurrentHashMap<>();
+		this.items = new ConcurrentHashMap<>();
+		for (Stage stage : Stage.values()) {
+			timers.put(stage, Timer.builder(STAGE_TIMER) //
+					.tag("stage", stage.getTag()) //
+					.description("time of each call of a recognition stage") //
+					.publishPercentiles(PERCENTILES) //
+					.register(registry));
+			items.put(stage, Counter.builder(STAGE_ITEMS) //
+					.tag("stage", stage.getTag()) //
+					.description("images or faces processed by a recognition stage") //
+					.register(registry));
+		}
+		this.facesPerImage = DistributionSummary.builder(FACES_PER_IMAGE) //
+				.description("faces detected per image") //
+				.baseUnit("faces") //
+				.publishPercentiles(PERCENTILES) //
+				.register(registry);
+
+		this.gallery = new AtomicReference<>(new WeakReference<>(null));
+		Gauge.builder(GALLERY_LABELS, gallery, g -> gallerySize(g.get().get(), false)) //
+				.description("labels of the last gallery loaded or generated") //
+				.register(registry);
+		Gauge.builder(GALLERY_EMBEDDINGS, gallery, g -> gallerySize(g.get().get(), true)) //
+				.description("embeddings of the last gallery loaded or generated") //
+				.register(registry);
+
+		this.firstPredictionMillis = new AtomicLong();
+		TimeGauge.builder(FIRST_PREDICTION, firstPredictionMillis, TimeUnit.MILLISECONDS, AtomicLong::get) //
+				.description("time since start until the first prediction ended, 0 if none yet") //
+				.register(registry);
+	}
+
+	public MeterRegistry getRegistry() {
+		return registry;
+	}
+
+	/**
+	 * @return start time for {@link #record(Stage, long, int)}
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * @param start value returned by {@link #start()} before the stage
+	 * @param count images or faces processed
+	 */
+	public void record(Stage stage, long start, int count) {
+		timers.get(stage).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		items.get(stage).increment(count);
+	}
+
+	public void recordFaces(int faces) {
+		facesPerImage.record(faces);
+	}
+
+	/**
+	 * @return millis since the JVM started, if this is the first prediction, 0
+	 *         otherwise
+	 */
+	public long recordPrediction() {
+		if (firstPredictionMillis.get() != 0) {
+			return 0;
+		}
+		long uptime = Math.max(ManagementFactory.getRuntimeMXBean().getUptime(), 1);
+		return firstPredictionMillis.compareAndSet(0, uptime) ? uptime : 0;
+	}
+
+	public void setGallery(EmbeddingsHolder embeddingsHolder) {
+		gallery.set(new WeakReference<>(embeddingsHolder));
+	}
+
+	/**
+	 * Registers the statistics of the predictor pool of a model.
+	 */
+	public void bindPredictorPool(String model, PredictorPool<?, ?> pool) {
+		FunctionTimer.builder(PREDICTOR_WAIT, pool, PredictorPool::getWaitCount, PredictorPool::getTotalWaitNanos,
+				TimeUnit.NANOSECONDS) //
+				.tag("model", model) //
+				.description("waits for a free predictor") //
+				.register(registry);
+		TimeGauge.builder(PREDICTOR_WAIT_MAX, pool, TimeUnit.NANOSECONDS, PredictorPool::getMaxWaitNanos) //
+				.tag("model", model) //
+				.description("longest wait for a free predictor") //
+				.register(registry);
+		FunctionCounter.builder(PREDICTOR_BORROWS, pool, PredictorPool::getBorrowCount) //
+				.tag("model", model) //
+				.description("predictions, waiting or not for a free predictor") //
+				.register(registry);
+	}
+
+	/**
+	 * Registers the load time of a model, 0 until it is loaded.
+	 */
+	public void bindModelLoad(String model, ModelLoader loader) {
+		TimeGauge.builder(MODEL_LOAD, loader, TimeUnit.NANOSECONDS, l -> l.getLoadNanos(model)) //
+				.tag("model", model) //
+				.description("time loading a model") //
+				.register(registry);
+	}
+
+	/**
+	 * Registers the batches and items processed by a micro batcher, their ratio
+	 * is the mean batch size.
+	 */
+	public void bindBatcher(String name, MicroBatcher<?, ?> batcher) {
+		FunctionCounter.builder(BATCHER_BATCHES, batcher, MicroBatcher::getBatches) //
+				.tag("name", name) //
+				.description("batches processed") //
+				.register(registry);
+		FunctionCounter.builder(BATCHER_ITEMS, batcher, MicroBatcher::getItems) //
+				.tag("name", name) //
+				.description("items processed in batches") //
+				.register(registry);
+	}
+
+	/**
+	 * Registers the statistics of the prediction cache.
+	 */
+	public void bindPredictionCache(PredictionCache cache) {
+		FunctionCounter.builder(CACHE_HITS, cache, PredictionCache::getHits) //
+				.description("predictions found in the cache") //
+				.register(registry);
+		FunctionCounter.builder(CACHE_MISSES, cache, PredictionCache::getMisses) //
+				.description("predictions not found in the cache") //
+				.register(registry);
+		FunctionCounter.builder(CACHE_EVICTIONS, cache, PredictionCache::getEvictions) //
+				.description("predictions evicted or invalidated from the cache") //
+				.register(registry);
+		Gauge.builder(CACHE_ENTRIES, cache, PredictionCache::size) //
+				.description("predictions in the cache") //
+				.register(registry);
+		Gauge.builder(CACHE_BYTES, cache, PredictionCache::getBytes) //
+				.description("estimated size of the predictions in the cache") //
+				.baseUnit("bytes") //
+				.register(registry);
+	}
+
+	private static double gallerySize(EmbeddingsHolder embeddingsHolder, boolean rows) {
+		if (embeddingsHolder == null) {
+			return 0;
+		}
+		return rows ? embeddingsHolder.getNumRows() : embeddingsHolder.size();
+	}
+}
@@ -0,0 +1,169 @@
+package io.github.jmformenti.face.core.metrics;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Measurement;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+
+/**
+ * Snapshot of the meters of a registry, as one line per meter for logs or as
+ * JSON. Times are in milliseconds.
+ */
+public class MetricsReport {
+
+	private final List<MeterValues> meters;
+
+	private MetricsReport(List<MeterValues> meters) {
+		this.meters = meters;
+	}
+
+	public static MetricsReport of(MeterRegistry registry) {
+		List<MeterValues> meters = registry.getMeters().stream() //
+				.map(MetricsReport::values) //
+				.sorted(Comparator.comparing(MeterValues::getKey)) //
+				.collect(Collectors.toList());
+		return new MetricsReport(meters);
+	}
+
+	private static MeterValues values(Meter meter) {
+		MeterValues values = new MeterValues(meter);
+		if (meter instanceof Timer) {
+			Timer timer = (Timer) meter;
+			HistogramSnapshot snapshot = timer.takeSnapshot();
+			values.put("count", snapshot.count());
+			values.put("totalMs", snapshot.total(TimeUnit.MILLISECONDS));
+			values.put("meanMs", snapshot.mean(TimeUnit.MILLISECONDS));
+			values.put("maxMs", snapshot.max(TimeUnit.MILLISECONDS));
+			for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+				values.put(percentileName(percentile) + "Ms", percentile.value(TimeUnit.MILLISECONDS));
+			}
+		} else if (meter instanceof DistributionSummary) {
+			HistogramSnapshot snapshot = ((DistributionSummary) meter).takeSnapshot();
+			values.put("count", snapshot.count());
+			values.put("total", snapshot.total());
+			values.put("mean", snapshot.mean());
+			values.put("max", snapshot.max());
+			for (ValueAtPercentile percentile : snapshot.percentileValues()) {
+				values.put(percentileName(percentile), percentile.value());
+			}
+		} else if (meter instanceof FunctionTimer) {
+			FunctionTimer timer = (FunctionTimer) meter;
+			values.put("count", timer.count());
+			values.put("totalMs", timer.totalTime(TimeUnit.MILLISECONDS));
+			values.put("meanMs", timer.mean(TimeUnit.MILLISECONDS));
+		} else if (meter instanceof TimeGauge) {
+			values.put("valueMs", ((TimeGauge) meter).value(TimeUnit.MILLISECONDS));
+		} else {
+			for (Measurement measurement : meter.measure()) {
+				values.put(measurement.getStatistic().name().toLowerCase(Locale.ROOT), measurement.getValue());
+			}
+		}
+		return values;
+	}
+
+	private static String percentileName(ValueAtPercentile percentile) {
+		return "p" + String.valueOf(percentile.percentile() * 100).replaceAll("\\.0$", "").replace('.', '_');
+	}
+
+	/**
+	 * @return one line per meter, name{tags} value=... value=...
+	 */
+	public List<String> toLines() {
+		List<String> lines = new ArrayList<>(meters.size());
+		for (MeterValues meter : meters) {
+			StringBuilder line = new StringBuilder(meter.getKey());
+			meter.values.forEach((name, value) -> line.append(' ').append(name).append('=').append(format(value)));
+			lines.add(line.toString());
+		}
+		return lines;
+	}
+
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\"meters\":[");
+		for (int i = 0; i < meters.size(); i++) {
+			MeterValues meter = meters.get(i);
+			json.append(i == 0 ? "\n" : ",\n").append("{\"name\":").append(quote(meter.name)).append(",\"tags\":{");
+			int t = 0;
+			for (Map.Entry<String, String> tag : meter.tags.entrySet()) {
+				json.append(t++ == 0 ? "" : ",").append(quote(tag.getKey())).append(':').append(quote(tag.getValue()));
+			}
+			json.append('}');
+			meter.values.forEach((name, value) -> json.append(',').append(quote(name)).append(':').append(
+					Double.isFinite(value.doubleValue()) ? format(value) : "null"));
+			json.append('}');
+		}
+		return json.append("\n]}\n").toString();
+	}
+
+	public void writeJson(Path path) throws IOException {
+		Files.write(path, toJson().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String format(Number value) {
+		if (value instanceof Long || value.doubleValue() == Math.rint(value.doubleValue())) {
+			return String.valueOf(value.longValue());
+		}
+		return String.format(Locale.ROOT, "%.3f", value.doubleValue());
+	}
+
+	private static String quote(String value) {
+		StringBuilder quoted = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') {
+				quoted.append('\\').append(c);
+			} else if (c < 0x20) {
+				quoted.append(String.format("\\u%04x", (int) c));
+			} else {
+				quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+
+	private static class MeterValues {
+
+		private final String name;
+		private final Map<String, String> tags;
+		private final Map<String, Number> values;
+
+		private MeterValues(Meter meter) {
+			this.name = meter.getId().getName();
+			this.tags = new LinkedHashMap<>();
+			for (Tag tag : meter.getId().getTags()) {
+				tags.put(tag.getKey(), tag.getValue());
+			}
+			this.values = new LinkedHashMap<>();
+		}
+
+		private void put(String name, Number value) {
+			values.put(name, value);
+		}
+
+		private String getKey() {
+			if (tags.isEmpty()) {
+				return name;
+			}
+			return name + tags.entrySet().stream().map(tag -> tag.getKey() + "=" + tag.getValue())
+					.collect(Collectors.joining(",", "{", "}"));
+		}
+	}
+}
@@ -4,10 +4,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import ai.djl.Application;
 import ai.djl.ModelException;
-import ai.djl.inference.Predictor;
 import ai.djl.modality.cv.Image;
 import ai.djl.modality.cv.output.BoundingBox;
 import ai.djl.modality.cv.output.DetectedObjects;
@@ -28,46 +28,115 @@ import io.github.jmformenti.face.core.domain.ImageElement;
 
 public class FaceDetectionModel {
 
-	private ZooModel<Image, DetectedObjects> model;
-	private Predictor<Image, DetectedObjects> predictor;
+	public static final String NAME = "detection";
+
+	private static final String ARTIFACT_ID = "face_detection";
+
+	private static final String FLAVOR = "server";
+
+	private static final float SHRINK = 0.5f;
+
+	private static final float THRESHOLD = 0.7f;
+
+	private volatile ZooModel<Image, DetectedObjects> model;
+	private PredictorPool<Image, DetectedObjects> predictorPool;
 
 	public void init() throws ModelException, IOException {
+		init(1);
+	}
+
+	/**
+	 * @param predictors max number of concurrent predictions
+	 */
+	public void init(int predictors) throws ModelException, IOException {
+		this.predictorPool = new PredictorPool<>(loadModel(), predictors);
+	}
+
+	/**
+	 * Same as {@link #init(int)}, but the model is loaded by the loader when first
+	 * needed.
+	 */
+	public void init(int predictors, ModelLoader loader) {
+		this.predictorPool = new PredictorPool<>(loader.add(NAME, this::loadModel), predictors);
+	}
+
+	private ZooModel<Image, DetectedObjects> loadModel() throws ModelException, IOException {
 		Criteria<Image, DetectedObjects> criteria = Criteria.builder() //
 				.optApplication(Application.CV.OBJECT_DETECTION) //
 				.setTypes(Image.class, DetectedObjects.class) //
-				.optArtifactId("face_detection") //
-				.optTranslator(new FaceTranslator(0.5f, 0.7f)) //
-				.optFilter("flavor", "server") //
+				.optArtifactId(ARTIFACT_ID) //
+				.optTranslator(new FaceTranslator(SHRINK, THRESHOLD)) //
+				.optFilter("flavor", FLAVOR) //
 				.build();
 
 		// System.out.println(ModelZoo.listModels());
 		this.model = ModelZoo.loadModel(criteria);
-		this.predictor = model.newPredictor();
+		return model;
+	}
+
+	/**
+	 * @return model, shrink and threshold, changes if the detected faces may
+	 *         change
+	 */
+	public String getModelId() {
+		return String.format("%s %s %s %s", ARTIFACT_ID, FLAVOR, SHRINK, THRESHOLD);
 	}
 
 	public void close() {
-		this.predictor.close();
-		this.model.close();
+		this.predictorPool.close();
+		if (this.model != null) {
+			this.model.close();
+		}
+	}
+
+	public PredictorPool<Image, DetectedObjects> getPredictorPool() {
+		return predictorPool;
 	}
 
 	private DetectedObjects predict(Image image) throws TranslateException {
-		return predictor.predict(image);
+		return predictorPool.predict(image);
 	}
 
 	public ImageElement getDetectedFaces(ImageElement imageElement) {
 		try {
-			DetectedObjects detectedFaces = predict(imageElement.getImage());
-			if (detectedFaces.getNumberOfObjects() > 0) {
-				imageElement.setDetectedFaces(detectedFaces);
-				return imageElement;
-			} else {
-				return null;
-			}
+			return withDetectedFaces(imageElement, predict(imageElement.getImage()));
 		} catch (TranslateException e) {
 			throw new RuntimeException(String.format("Error detecting faces in %s", imageElement.getOriginalPath()), e);
 		}
 	}
 
+	/**
+	 * Detects faces of several images borrowing one predictor for all of them.
+	 * The translator has no batchifier, so batchPredict still runs one forward
+	 * pass per image.
+	 *
+	 * @param imageElements images to analyze
+	 * @return same image elements with detected faces, null for the images without
+	 *         faces
+	 */
+	public List<ImageElement> getDetectedFaces(List<ImageElement> imageElements) {
+		List<Image> images = imageElements.stream().map(ImageElement::getImage).collect(Collectors.toList());
+		try {
+			List<DetectedObjects> detectedFaces = predictorPool.batchPredict(images);
+			List<ImageElement> result = new ArrayList<>(imageElements.size());
+			for (int i = 0; i < imageElements.size(); i++) {
+				result.add(withDetectedFaces(imageElements.get(i), detectedFaces.get(i)));
+			}
+			return result;
+		} catch (TranslateException e) {
+			throw new RuntimeException(String.format("Error detecting faces in %s", imageElements), e);
+		}
+	}
+
+	private ImageElement withDetectedFaces(ImageElement imageElement, DetectedObjects detectedFaces) {
+		if (detectedFaces.getNumberOfObjects() > 0) {
+			imageElement.setDetectedFaces(detectedFaces);
+			return imageElement;
+		} else {
+			return null;
+		}
+	}
+
 	class FaceTranslator implements Translator<Image, DetectedObjects> {
 
 		private float shrink;
@@ -117,6 +186,10 @@ public class FaceDetectionModel {
 			return new DetectedObjects(names, prob, boxes);
 		}
 
+		/**
+		 * No batchifier, so batches are predicted image by image: detections of the
+		 * model output have no image index, a stacked batch could not be split back.
+		 */
 		@Override
 		public Batchifier getBatchifier() {
 			return null;
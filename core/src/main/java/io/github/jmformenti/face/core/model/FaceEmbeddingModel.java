@@ -5,15 +5,16 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.ForkJoinPool;
 
-import org.apache.commons.compress.utils.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
 
@@ -22,13 +23,12 @@ import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
 import ai.djl.ModelException;
-import ai.djl.inference.Predictor;
 import ai.djl.modality.cv.Image;
 import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
 import ai.djl.modality.cv.transform.Resize;
 import ai.djl.ndarray.NDArray;
 import ai.djl.ndarray.NDList;
-import ai.djl.ndarray.NDManager;
+import ai.djl.ndarray.types.DataType;
 import ai.djl.repository.zoo.Criteria;
 import ai.djl.repository.zoo.ModelZoo;
 import ai.djl.repository.zoo.ZooModel;
@@ -38,122 +38,262 @@ import ai.djl.translate.Translator;
 import ai.djl.translate.TranslatorContext;
 import io.github.jmformenti.face.core.domain.EmbeddingResult;
 import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
 import io.github.jmformenti.face.core.domain.ImageElement;
+import io.github.jmformenti.face.core.quantization.QuantizedMatrix;
+import io.github.jmformenti.face.core.search.CentroidIndex;
+import io.github.jmformenti.face.core.search.CentroidSearch;
+import io.github.jmformenti.face.core.search.EmbeddingsSearch;
+import io.github.jmformenti.face.core.search.ExhaustiveSearch;
+import io.github.jmformenti.face.core.search.HnswIndex;
+import io.github.jmformenti.face.core.search.IndexedSearch;
+import io.github.jmformenti.face.core.search.ParallelSearch;
+import io.github.jmformenti.face.core.search.QuantizedSearch;
+import io.github.jmformenti.face.core.storage.EmbeddingsFile;
+import io.github.jmformenti.face.core.storage.EmbeddingsHolderSerializer;
 import io.github.jmformenti.face.core.util.ImageUtil;
+import io.github.jmformenti.face.core.util.VectorUtil;
 
 public class FaceEmbeddingModel {
 
-	private static final double SIMILARITY_THRESHOLD = 0.5;
+	private Logger logger = LoggerFactory.getLogger(FaceEmbeddingModel.class);
 
-	private ZooModel<Image, double[]> model;
-	private Predictor<Image, double[]> predictor;
+	public static final String NAME = "embedding";
+
+	public static final int DEFAULT_BATCH_SIZE = 16;
+
+	private static final String MODEL_NAME = "vggface2";
+
+	private static final String MODEL_RESOURCE = "models/pytorch/vggface2/vggface2.pt";
+
+	private volatile ZooModel<Image, float[]> model;
+	private PredictorPool<Image, float[]> predictorPool;
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private ModelCache modelCache = new ModelCache(ModelCache.DEFAULT_DIR);
 	private Kryo kryo;
+	private ForkJoinPool searchPool;
+
+	public FaceEmbeddingModel() {
+		initKryo();
+	}
 
 	public void init() throws ModelException, IOException {
-		Resource resource = new ClassPathResource("models/pytorch/vggface2/vggface2.pt");
+		init(1);
+	}
+
+	/**
+	 * @param predictors max number of concurrent predictions
+	 */
+	public void init(int predictors) throws ModelException, IOException {
+		this.predictorPool = new PredictorPool<>(loadModel(), predictors);
+	}
 
-		File tempModelDir = extractModeltoTempDir(resource).toFile();
+	/**
+	 * Same as {@link #init(int)}, but the model is loaded by the loader when first
+	 * needed.
+	 */
+	public void init(int predictors, ModelLoader loader) {
+		this.predictorPool = new PredictorPool<>(loader.add(NAME, this::loadModel), predictors);
+	}
 
-		Criteria<Image, double[]> criteria = Criteria.builder() //
-				.setTypes(Image.class, double[].class) //
+	private ZooModel<Image, float[]> loadModel() throws ModelException, IOException {
+		Path modelDir = extractModel(new ClassPathResource(MODEL_RESOURCE));
+
+		Criteria<Image, float[]> criteria = Criteria.builder() //
+				.setTypes(Image.class, float[].class) //
 				.optTranslator(new FaceTranslator()) //
 				.optEngine("PyTorch") //
-				.optModelUrls(tempModelDir.toURI().toString()) //
-				.optModelName("vggface2") //
+				.optModelUrls(modelDir.toUri().toString()) //
+				.optModelName(MODEL_NAME) //
 				.build();
 
 		this.model = ModelZoo.loadModel(criteria);
-		this.predictor = model.newPredictor();
+		return model;
+	}
 
-		deleteFolderOnExit(tempModelDir);
+	/**
+	 * Extracts the model to the model cache, or to a temp dir deleted on exit if
+	 * the cache can not be written.
+	 */
+	private Path extractModel(Resource resource) throws IOException {
+		try {
+			return modelCache.extract(resource, MODEL_NAME);
+		} catch (IOException e) {
+			logger.warn(String.format("Error extracting model to %s, using a temp dir", modelCache.getDir()), e);
+			Path tempModelDir = extractModeltoTempDir(resource);
+			deleteFolderOnExit(tempModelDir.toFile());
+			return tempModelDir;
+		}
+	}
 
-		initKryo();
+	/**
+	 * @return name and version of the model, changes if the model is replaced
+	 */
+	public String getModelId() throws IOException {
+		return String.format("%s %s", MODEL_NAME, ModelCache.getVersion(new ClassPathResource(MODEL_RESOURCE)));
 	}
 
 	private Path extractModeltoTempDir(Resource resource) throws IOException {
 		Path tempModelDir = Files.createTempDirectory(resource.getFilename());
-
-		IOUtils.copy(resource.getInputStream(),
-				new FileOutputStream(tempModelDir.resolve(resource.getFilename()).toFile()));
+		try (InputStream in = resource.getInputStream()) {
+			Files.copy(in, tempModelDir.resolve(resource.getFilename()));
+		}
 		return tempModelDir;
 	}
 
+	/**
+	 * @param modelCache where the model is extracted before loading it
+	 */
+	public void setModelCache(ModelCache modelCache) {
+		this.modelCache = modelCache;
+	}
+
 	public void close() {
-		this.predictor.close();
+		this.predictorPool.close();
+		if (this.model != null) {
+			this.model.close();
+		}
+		if (this.searchPool != null) {
+			this.searchPool.shutdown();
+		}
+	}
+
+	/**
+	 * @param searchThreads threads to search large galleries without index, 1 or
+	 *                      less to search in the calling thread
+	 */
+	public void setSearchThreads(int searchThreads) {
+		if (this.searchPool != null) {
+			this.searchPool.shutdown();
+		}
+		this.searchPool = searchThreads > 1 ? new ForkJoinPool(searchThreads) : null;
 	}
 
 	private void initKryo() {
 		this.kryo = new Kryo();
-		this.kryo.register(EmbeddingsHolder.class);
+		this.kryo.register(EmbeddingsHolder.class, new EmbeddingsHolderSerializer());
 		this.kryo.register(HashMap.class);
 		this.kryo.register(ArrayList.class);
 		this.kryo.register(double[].class);
 		this.kryo.register(float[].class);
 	}
 
-	public double[] predict(Image image) throws TranslateException {
-		return predictor.predict(image);
+	public float[] predict(Image image) throws TranslateException {
+		return predictorPool.predict(image);
 	}
 
-	public ImageElement calculateEmbeddings(ImageElement imageElement) {
-		List<DetectedObject> detectedFaces = imageElement.getDetectedFaces().items().stream()
-				.map(i -> (DetectedObject) i).collect(Collectors.toList());
-
-		for (DetectedObject detectedFace : detectedFaces) {
-			Image face = ImageUtil.getDetectedObjectImage(imageElement.getImage(), detectedFace);
-			try {
-				imageElement.addEmbedding(predict(face));
-			} catch (TranslateException e) {
-				throw new RuntimeException(
-						String.format("Error generating embedding faces in %s", imageElement.getOriginalPath()), e);
-			}
+	/**
+	 * Calculates embeddings of several faces with one forward pass for each batch
+	 * of up to batch size faces.
+	 */
+	public List<float[]> predict(List<Image> faces) throws TranslateException {
+		List<float[]> embeddings = new ArrayList<>(faces.size());
+		for (int from = 0; from < faces.size(); from += batchSize) {
+			embeddings.addAll(
+					predictorPool.batchPredict(faces.subList(from, Math.min(faces.size(), from + batchSize))));
 		}
+		return embeddings;
+	}
+
+	public PredictorPool<Image, float[]> getPredictorPool() {
+		return predictorPool;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException(String.format("Invalid batch size %d", batchSize));
+		}
+		this.batchSize = batchSize;
+	}
+
+	public ImageElement calculateEmbeddings(ImageElement imageElement) {
+		calculateEmbeddings(List.of(imageElement));
 		return imageElement;
 	}
 
-	public EmbeddingResult predict(double[] embedding, EmbeddingsHolder embeddingModel) {
-		String result = null;
-		double minRatioSimilarity = 1;
-
-		try (NDManager manager = NDManager.newBaseManager()) {
-			NDArray embeddingToCheck = manager.create(embedding);
-
-			for (String label : embeddingModel.getLabels()) {
-				int numVotes = 0;
-				double accumulatedSimilarity = 0;
-
-				// TODO do multi-threading search
-				for (double[] em : embeddingModel.get(label)) {
-					NDArray emArr = manager.create(em);
-					double similarity = cosine(emArr, embeddingToCheck);
-					if (similarity <= SIMILARITY_THRESHOLD) {
-						accumulatedSimilarity += similarity;
-						numVotes++;
-					}
-				}
-
-				double ratioSimilarity = accumulatedSimilarity / numVotes;
-				if (ratioSimilarity < minRatioSimilarity) {
-					result = label;
-					minRatioSimilarity = ratioSimilarity;
-				}
+	/**
+	 * Calculates the embeddings of all detected faces of several images together,
+	 * in batches.
+	 */
+	public List<ImageElement> calculateEmbeddings(List<ImageElement> imageElements) {
+		List<Image> faces = new ArrayList<>();
+		List<ImageElement> faceImageElements = new ArrayList<>();
+		for (ImageElement imageElement : imageElements) {
+			List<DetectedObject> detectedFaces = imageElement.getDetectedFaces().items();
+			for (DetectedObject detectedFace : detectedFaces) {
+				faces.add(ImageUtil.getDetectedObjectImage(imageElement, detectedFace));
+				faceImageElements.add(imageElement);
 			}
 		}
 
-		if (result == null) {
-			return null;
+		try {
+			List<float[]> embeddings = predict(faces);
+			for (int i = 0; i < embeddings.size(); i++) {
+				faceImageElements.get(i).addEmbedding(embeddings.get(i));
+			}
+		} catch (TranslateException e) {
+			throw new RuntimeException(String.format("Error generating embedding faces in %s", imageElements), e);
+		}
+		return imageElements;
+	}
+
+	public EmbeddingResult predict(float[] embedding, EmbeddingsHolder embeddingModel) {
+		return newSearch(embeddingModel).search(embedding);
+	}
+
+	public EmbeddingResult predict(float[] embedding, EmbeddingsMatrix matrix) {
+		return new ExhaustiveSearch(matrix).search(embedding);
+	}
+
+	/**
+	 * @return search over the current embeddings of the holder, using its index,
+	 *         centroids or quantized embeddings if it has them, in this order,
+	 *         and exhaustive (parallel if enabled) search otherwise
+	 */
+	public EmbeddingsSearch newSearch(EmbeddingsHolder embeddingModel) {
+		HnswIndex index = embeddingModel.getIndex();
+		CentroidIndex centroids = embeddingModel.getCentroids();
+		QuantizedMatrix quantized = embeddingModel.getQuantized();
+		if (index != null) {
+			return new IndexedSearch(index);
+		} else if (centroids != null) {
+			return new CentroidSearch(centroids);
+		} else if (quantized != null) {
+			return new QuantizedSearch(quantized);
+		} else if (searchPool != null) {
+			return new ParallelSearch(embeddingModel.getMatrix(), searchPool);
 		} else {
-			return new EmbeddingResult(result, 1 - minRatioSimilarity);
+			return new ExhaustiveSearch(embeddingModel.getMatrix());
 		}
 	}
 
-	public void save(EmbeddingsHolder embeddingModel, Path embeddingModelPath) throws FileNotFoundException {
+	public void save(EmbeddingsHolder embeddingModel, Path embeddingModelPath) throws IOException {
+		EmbeddingsFile.write(embeddingModel, embeddingModelPath);
+	}
+
+	/**
+	 * Reads embeddings in the memory mapped format or, for files written by
+	 * previous versions, in the Kryo format.
+	 */
+	public EmbeddingsHolder read(Path embeddingModelPath) throws IOException {
+		if (EmbeddingsFile.isEmbeddingsFile(embeddingModelPath)) {
+			return EmbeddingsFile.open(embeddingModelPath);
+		} else {
+			return readKryo(embeddingModelPath);
+		}
+	}
+
+	public void saveKryo(EmbeddingsHolder embeddingModel, Path embeddingModelPath) throws FileNotFoundException {
 		Output output = new Output(new FileOutputStream(embeddingModelPath.toFile()));
 		kryo.writeClassAndObject(output, embeddingModel);
 		output.close();
 	}
 
-	public EmbeddingsHolder read(Path embeddingModelPath) throws FileNotFoundException {
+	public EmbeddingsHolder readKryo(Path embeddingModelPath) throws FileNotFoundException {
 		Input input = new Input(new FileInputStream(embeddingModelPath.toFile()));
 		Object embeddingModel = kryo.readClassAndObject(input);
 		input.close();
@@ -162,10 +302,12 @@ public class FaceEmbeddingModel {
 
 	// Translated from scipy.spatial.distance.cosine
 	public static double cosine(NDArray u, NDArray v) {
-		double uv = u.mul(v).mean().toDoubleArray()[0];
-		NDArray uu = u.pow(2).mean();
-		NDArray vv = v.pow(2).mean();
-		return Math.abs(1 - uv / uu.mul(vv).sqrt().toDoubleArray()[0]);
+		return VectorUtil.cosine(toDoubleArray(u), toDoubleArray(v));
+	}
+
+	// toDoubleArray requires FLOAT64, model outputs are FLOAT32
+	private static double[] toDoubleArray(NDArray array) {
+		return array.toType(DataType.FLOAT64, false).toDoubleArray();
 	}
 
 	private void deleteFolderOnExit(File folder) {
@@ -175,16 +317,15 @@ public class FaceEmbeddingModel {
 		}
 	}
 
-	class FaceTranslator implements Translator<Image, double[]> {
+	class FaceTranslator implements Translator<Image, float[]> {
 
 		public FaceTranslator() {
 		}
 
 		@Override
-		public double[] processOutput(TranslatorContext ctx, NDList list) {
+		public float[] processOutput(TranslatorContext ctx, NDList list) {
 			if (list != null && !list.isEmpty()) {
-				float[] floatArray = list.get(0).toFloatArray();
-				return IntStream.range(0, floatArray.length).mapToDouble(i -> floatArray[i]).toArray();
+				return list.get(0).toFloatArray();
 			} else {
 				return null;
 			}
@@ -201,15 +342,13 @@ public class FaceEmbeddingModel {
 			// pytorch model)
 			array = array.sub(0.498).div(0.5);
 
-			array = array.expandDims(0);
-
 			array = array.getNDArrayInternal().toTensor();
 			return new NDList(array);
 		}
 
 		@Override
 		public Batchifier getBatchifier() {
-			return null;
+			return Batchifier.STACK;
 		}
 	}
 
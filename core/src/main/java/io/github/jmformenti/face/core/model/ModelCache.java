@@ -0,0 +1,118 @@
+package io.github.jmformenti.face.core.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Checksum;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+/**
+ * Model files extracted from the classpath to a dir kept between runs, so they
+ * are copied once instead of on every start. Each file has a checksum file
+ * beside it with the size and modification time of the resource and the
+ * CRC32C of the extracted bytes. The file is verified before using it and
+ * extracted again if it was changed, truncated or is of another resource.
+ */
+public class ModelCache {
+
+	private Logger logger = LoggerFactory.getLogger(ModelCache.class);
+
+	public static final Path DEFAULT_DIR = Paths.get(System.getProperty("user.home"), ".face-recognition", "models");
+
+	private static final String CHECKSUM_EXTENSION = ".crc32c";
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Path dir;
+
+	public ModelCache(Path dir) {
+		this.dir = dir;
+	}
+
+	public Path getDir() {
+		return dir;
+	}
+
+	/**
+	 * @param name name of the model, the resource is extracted to a dir with
+	 *             this name
+	 * @return dir with the extracted resource
+	 */
+	public Path extract(Resource resource, String name) throws IOException {
+		Path modelDir = dir.resolve(name);
+		Path modelFile = modelDir.resolve(resource.getFilename());
+		Path checksumFile = modelDir.resolve(resource.getFilename() + CHECKSUM_EXTENSION);
+		String expected = getVersion(resource);
+
+		if (Files.exists(modelFile) && Files.exists(checksumFile)) {
+			long start = System.nanoTime();
+			String checksum = new String(Files.readAllBytes(checksumFile), StandardCharsets.UTF_8).trim();
+			if (checksum.startsWith(expected + " ") && checksum.equals(expected + " " + crc32c(modelFile))) {
+				logger.debug("Verified cached {} in {} ms", modelFile, (System.nanoTime() - start) / 1000000);
+				return modelDir;
+			}
+			logger.warn("Cached {} does not match {}, extracting it again", modelFile, resource);
+		}
+
+		long start = System.nanoTime();
+		Files.createDirectories(modelDir);
+		// written aside and moved, so other processes never see a partial file
+		Path tempFile = Files.createTempFile(modelDir, resource.getFilename(), ".tmp");
+		try {
+			Checksum crc = new CRC32C();
+			try (InputStream in = new CheckedInputStream(resource.getInputStream(), crc);
+					OutputStream out = Files.newOutputStream(tempFile)) {
+				in.transferTo(out);
+			}
+			Files.move(tempFile, modelFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			Files.write(tempFile, String.format("%s %08x\n", expected, crc.getValue()).getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile, checksumFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+		logger.info("Extracted {} to {} in {} ms", resource.getFilename(), modelDir,
+				(System.nanoTime() - start) / 1000000);
+		return modelDir;
+	}
+
+	/**
+	 * @return size and modification time of the resource, what identifies an
+	 *         extracted copy of it
+	 */
+	public static String getVersion(Resource resource) throws IOException {
+		return String.format("%d %d", resource.contentLength(), lastModified(resource));
+	}
+
+	static String crc32c(Path path) throws IOException {
+		Checksum crc = new CRC32C();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try (InputStream in = Files.newInputStream(path)) {
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		return String.format("%08x", crc.getValue());
+	}
+
+	/**
+	 * @return modification time of the resource, 0 if unknown
+	 */
+	private static long lastModified(Resource resource) {
+		try {
+			return resource.lastModified();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package io.github.jmformenti.face.core.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads models when the first of them is needed, all of them at the same time
+ * in background threads. Commands that make no predictions do not load any
+ * model, and the ones that do wait for the slowest model only instead of for
+ * all of them one after another.
+ */
+public class ModelLoader {
+
+	private Logger logger = LoggerFactory.getLogger(ModelLoader.class);
+
+	private final Map<String, Task<?>> tasks;
+	private boolean started;
+
+	public ModelLoader() {
+		this.tasks = new LinkedHashMap<>();
+	}
+
+	/**
+	 * @param load loads the model, called once from a background thread
+	 * @return the loaded model, starts loading every model on first call and
+	 *         waits for this one
+	 */
+	public synchronized <T> Supplier<T> add(String name, Callable<T> load) {
+		if (tasks.containsKey(name)) {
+			throw new IllegalArgumentException(String.format("Model %s already added", name));
+		}
+		Task<T> task = new Task<>(name, load);
+		tasks.put(name, task);
+		if (started) {
+			task.start();
+		}
+		return () -> {
+			start();
+			return task.get();
+		};
+	}
+
+	/**
+	 * Starts loading every model, if not started yet.
+	 */
+	public synchronized void start() {
+		if (!started) {
+			started = true;
+			tasks.values().forEach(Task::start);
+		}
+	}
+
+	public synchronized boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * @return time spent loading the model, 0 if not loaded yet
+	 */
+	public synchronized long getLoadNanos(String name) {
+		Task<?> task = tasks.get(name);
+		return task == null ? 0 : task.loadNanos;
+	}
+
+	private class Task<T> {
+
+		private final String name;
+		private final Callable<T> load;
+		private final CompletableFuture<T> future;
+		private volatile long loadNanos;
+
+		private Task(String name, Callable<T> load) {
+			this.name = name;
+			this.load = load;
+			this.future = new CompletableFuture<>();
+		}
+
+		private void start() {
+			Thread thread = new Thread(this::load, "model-loader-" + name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void load() {
+			long start = System.nanoTime();
+			try {
+				T model = load.call();
+				loadNanos = System.nanoTime() - start;
+				logger.info("Loaded {} model in {} ms", name, loadNanos / 1000000);
+				future.complete(model);
+			} catch (Exception e) {
+				future.completeExceptionally(e);
+			}
+		}
+
+		private T get() {
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(String.format("Error loading %s model", name), e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(String.format("Interrupted loading %s model", name), e);
+			}
+		}
+	}
+}
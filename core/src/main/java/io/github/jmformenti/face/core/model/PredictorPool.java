@@ -0,0 +1,161 @@
+package io.github.jmformenti.face.core.model;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import ai.djl.inference.Predictor;
+import ai.djl.repository.zoo.ZooModel;
+import ai.djl.translate.TranslateException;
+
+/**
+ * Bounded pool of predictors of one loaded model. {@link Predictor} is not
+ * thread safe, each thread borrows one for its prediction. Predictors are
+ * created on demand up to the max size, then threads wait for a free one. The
+ * model may be loaded on demand too, when the first predictor is created.
+ */
+public class PredictorPool<I, O> implements AutoCloseable {
+
+	private final Supplier<ZooModel<I, O>> model;
+	private final int maxSize;
+
+	private final BlockingQueue<Predictor<I, O>> idle;
+	private final List<Predictor<I, O>> predictors;
+	private final AtomicInteger size;
+
+	private final LongAdder borrowCount;
+	private final LongAdder waitCount;
+	private final LongAdder totalWaitNanos;
+	private final AtomicLong maxWaitNanos;
+
+	public PredictorPool(ZooModel<I, O> model, int maxSize) {
+		this(() -> model, maxSize);
+	}
+
+	/**
+	 * @param model supplies the loaded model, waiting for it if it is still being
+	 *              loaded
+	 */
+	public PredictorPool(Supplier<ZooModel<I, O>> model, int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException(String.format("Invalid predictor pool size %d", maxSize));
+		}
+		this.model = model;
+		this.maxSize = maxSize;
+		this.idle = new LinkedBlockingQueue<>();
+		this.predictors = new CopyOnWriteArrayList<>();
+		this.size = new AtomicInteger();
+		this.borrowCount = new LongAdder();
+		this.waitCount = new LongAdder();
+		this.totalWaitNanos = new LongAdder();
+		this.maxWaitNanos = new AtomicLong();
+	}
+
+	public O predict(I input) throws TranslateException {
+		Predictor<I, O> predictor = borrow();
+		try {
+			return predictor.predict(input);
+		} finally {
+			release(predictor);
+		}
+	}
+
+	public List<O> batchPredict(List<I> inputs) throws TranslateException {
+		Predictor<I, O> predictor = borrow();
+		try {
+			return predictor.batchPredict(inputs);
+		} finally {
+			release(predictor);
+		}
+	}
+
+	/**
+	 * @return a predictor for the exclusive use of the caller until it is
+	 *         {@link #release(Predictor) released}
+	 * @throws TranslateException if interrupted while waiting for a predictor
+	 */
+	public Predictor<I, O> borrow() throws TranslateException {
+		borrowCount.increment();
+		Predictor<I, O> predictor = idle.poll();
+		if (predictor != null) {
+			return predictor;
+		}
+
+		int current = size.get();
+		while (current < maxSize) {
+			if (size.compareAndSet(current, current + 1)) {
+				try {
+					predictor = model.get().newPredictor();
+				} catch (RuntimeException e) {
+					size.decrementAndGet();
+					throw e;
+				}
+				predictors.add(predictor);
+				return predictor;
+			}
+			current = size.get();
+		}
+
+		long start = System.nanoTime();
+		try {
+			predictor = idle.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TranslateException("Interrupted waiting for a predictor", e);
+		}
+		long waitNanos = System.nanoTime() - start;
+		waitCount.increment();
+		totalWaitNanos.add(waitNanos);
+		maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+		return predictor;
+	}
+
+	public void release(Predictor<I, O> predictor) {
+		idle.offer(predictor);
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getSize() {
+		return size.get();
+	}
+
+	public long getBorrowCount() {
+		return borrowCount.sum();
+	}
+
+	/**
+	 * @return number of borrows that had to wait for a free predictor
+	 */
+	public long getWaitCount() {
+		return waitCount.sum();
+	}
+
+	public long getTotalWaitNanos() {
+		return totalWaitNanos.sum();
+	}
+
+	public long getMaxWaitNanos() {
+		return maxWaitNanos.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("size=%d/%d, borrows=%d, waits=%d, totalWait=%.1fms, maxWait=%.1fms", getSize(), maxSize,
+				getBorrowCount(), getWaitCount(), getTotalWaitNanos() / 1e6, getMaxWaitNanos() / 1e6);
+	}
+
+	@Override
+	public void close() {
+		predictors.forEach(Predictor::close);
+		predictors.clear();
+		idle.clear();
+	}
+}
@@ -0,0 +1,179 @@
+package io.github.jmformenti.face.core.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Combines inputs submitted concurrently into batches, so they are processed
+ * together. A batch is processed as soon as it has max batch items or the
+ * first of them has waited max wait, whatever happens first. Each worker
+ * thread processes one batch at a time, so up to workers batches are processed
+ * concurrently while the next ones are being combined.
+ *
+ * @param <I> type of the inputs
+ * @param <O> type of the outputs, one per input and in the same order
+ */
+public class MicroBatcher<I, O> implements AutoCloseable {
+
+	private final int maxBatch;
+	private final long maxWaitNanos;
+	private final Function<List<I>, List<O>> function;
+	private final BlockingQueue<Request<I, O>> queue;
+	private final List<Thread> threads;
+
+	private final LongAdder batches;
+	private final LongAdder items;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param maxBatch      max inputs processed together
+	 * @param maxWaitMicros max time an input waits for others to fill its batch
+	 * @param queueCapacity max inputs waiting for a batch, more are rejected
+	 * @param function      processes a batch, returns an output per input
+	 */
+	public MicroBatcher(String name, int workers, int maxBatch, long maxWaitMicros, int queueCapacity,
+			Function<List<I>, List<O>> function) {
+		if (workers < 1) {
+			throw new IllegalArgumentException(String.format("Invalid workers %d for batcher %s", workers, name));
+		}
+		if (maxBatch < 1) {
+			throw new IllegalArgumentException(String.format("Invalid max batch %d for batcher %s", maxBatch, name));
+		}
+		if (maxWaitMicros < 0) {
+			throw new IllegalArgumentException(
+					String.format("Invalid max wait %d for batcher %s", maxWaitMicros, name));
+		}
+		this.maxBatch = maxBatch;
+		this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+		this.function = function;
+		this.queue = new LinkedBlockingQueue<>(queueCapacity);
+		this.batches = new LongAdder();
+		this.items = new LongAdder();
+
+		this.threads = new ArrayList<>(workers);
+		for (int t = 1; t <= workers; t++) {
+			Thread thread = new Thread(this::work, "batcher-" + name + "-" + t);
+			thread.setDaemon(true);
+			threads.add(thread);
+		}
+		threads.forEach(Thread::start);
+	}
+
+	/**
+	 * @return output of the input, completed exceptionally if its batch fails
+	 * @throws RejectedExecutionException if the batcher is closed or its queue
+	 *                                    is full
+	 */
+	public CompletableFuture<O> submit(I input) {
+		if (closed) {
+			throw new RejectedExecutionException("Batcher closed");
+		}
+		Request<I, O> request = new Request<>(input);
+		if (!queue.offer(request)) {
+			throw new RejectedExecutionException("Batcher queue full");
+		}
+		// closed meanwhile, after its queue was drained
+		if (closed && queue.remove(request)) {
+			throw new RejectedExecutionException("Batcher closed");
+		}
+		return request.future;
+	}
+
+	private void work() {
+		List<Request<I, O>> batch = new ArrayList<>(maxBatch);
+		try {
+			while (!closed) {
+				batch.clear();
+				Request<I, O> first = queue.take();
+				batch.add(first);
+				long deadline = first.submitNanos + maxWaitNanos;
+				while (batch.size() < maxBatch) {
+					queue.drainTo(batch, maxBatch - batch.size());
+					long wait = deadline - System.nanoTime();
+					if (batch.size() >= maxBatch || wait <= 0) {
+						break;
+					}
+					Request<I, O> next = queue.poll(wait, TimeUnit.NANOSECONDS);
+					if (next == null) {
+						break;
+					}
+					batch.add(next);
+				}
+				process(batch);
+			}
+		} catch (InterruptedException e) {
+			// closed
+		} finally {
+			batch.forEach(request -> request.future
+					.completeExceptionally(new RejectedExecutionException("Batcher closed")));
+		}
+	}
+
+	private void process(List<Request<I, O>> batch) {
+		List<I> inputs = new ArrayList<>(batch.size());
+		batch.forEach(request -> inputs.add(request.input));
+		batches.increment();
+		items.add(batch.size());
+		try {
+			List<O> outputs = function.apply(inputs);
+			if (outputs.size() != inputs.size()) {
+				throw new IllegalStateException(
+						String.format("%d outputs for a batch of %d inputs", outputs.size(), inputs.size()));
+			}
+			for (int i = 0; i < batch.size(); i++) {
+				batch.get(i).future.complete(outputs.get(i));
+			}
+		} catch (RuntimeException e) {
+			batch.forEach(request -> request.future.completeExceptionally(e));
+		}
+		batch.clear();
+	}
+
+	/**
+	 * @return batches processed
+	 */
+	public long getBatches() {
+		return batches.sum();
+	}
+
+	/**
+	 * @return inputs processed
+	 */
+	public long getItems() {
+		return items.sum();
+	}
+
+	/**
+	 * Stops the workers, inputs not processed yet are completed exceptionally.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		threads.forEach(Thread::interrupt);
+		List<Request<I, O>> pending = new ArrayList<>();
+		queue.drainTo(pending);
+		pending.forEach(request -> request.future
+				.completeExceptionally(new RejectedExecutionException("Batcher closed")));
+	}
+
+	private static class Request<I, O> {
+
+		private final I input;
+		private final long submitNanos;
+		private final CompletableFuture<O> future;
+
+		private Request(I input) {
+			this.input = input;
+			this.submitNanos = System.nanoTime();
+			this.future = new CompletableFuture<>();
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package io.github.jmformenti.face.core.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Producer/consumer pipeline: items flow through a chain of stages connected
+ * by bounded queues, each stage with its own number of worker threads. A stage
+ * function returning {@code null} drops the item. Items may leave the pipeline
+ * in a different order than they entered.
+ *
+ * @param <I> type of the pipeline input
+ * @param <O> type of the pipeline output
+ */
+public class Pipeline<I, O> {
+
+	private static final Object END = new Object();
+
+	private static final long POLL_MILLIS = 100;
+
+	private final int queueCapacity;
+	private final List<Stage> stages;
+
+	private Pipeline(int queueCapacity, List<Stage> stages) {
+		this.queueCapacity = queueCapacity;
+		this.stages = stages;
+	}
+
+	/**
+	 * @param queueCapacity max items waiting between two stages
+	 */
+	public static <T> Pipeline<T, T> create(int queueCapacity) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException(String.format("Invalid queue capacity %d", queueCapacity));
+		}
+		return new Pipeline<>(queueCapacity, Collections.emptyList());
+	}
+
+	public <R> Pipeline<I, R> then(String name, int threads, Function<? super O, ? extends R> function) {
+		return thenBatch(name, threads, 1, items -> {
+			List<R> results = new ArrayList<>(1);
+			results.add(function.apply(items.get(0)));
+			return results;
+		});
+	}
+
+	/**
+	 * Adds a stage that takes up to batch size items at once, as many as are
+	 * waiting in its queue, so they can be processed together.
+	 */
+	public <R> Pipeline<I, R> thenBatch(String name, int threads, int batchSize,
+			Function<List<O>, List<? extends R>> function) {
+		if (threads < 1) {
+			throw new IllegalArgumentException(String.format("Invalid threads %d for stage %s", threads, name));
+		}
+		if (batchSize < 1) {
+			throw new IllegalArgumentException(String.format("Invalid batch size %d for stage %s", batchSize, name));
+		}
+		List<Stage> newStages = new ArrayList<>(stages);
+		newStages.add(new Stage(name, threads, batchSize, unchecked(function)));
+		return new Pipeline<>(queueCapacity, newStages);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Function<List<Object>, List<?>> unchecked(Function<?, ?> function) {
+		return (Function<List<Object>, List<?>>) function;
+	}
+
+	/**
+	 * Runs all inputs through the pipeline, calling the sink from the calling
+	 * thread for each output. Returns when all outputs have been consumed.
+	 *
+	 * @throws PipelineException if any stage fails, after stopping all of them
+	 */
+	public void run(Iterable<? extends I> inputs, Consumer<? super O> sink) {
+		AtomicReference<RuntimeException> failure = new AtomicReference<>();
+		List<Thread> threads = new ArrayList<>();
+
+		List<BlockingQueue<Object>> queues = new ArrayList<>();
+		for (int i = 0; i <= stages.size(); i++) {
+			queues.add(new ArrayBlockingQueue<>(queueCapacity));
+		}
+
+		threads.add(new Thread(() -> {
+			try {
+				for (I input : inputs) {
+					queues.get(0).put(input);
+				}
+				queues.get(0).put(END);
+			} catch (InterruptedException e) {
+				// stopped
+			} catch (RuntimeException e) {
+				fail(failure, new PipelineException("Error reading pipeline input", e), threads);
+			}
+		}, "pipeline-source"));
+
+		for (int i = 0; i < stages.size(); i++) {
+			Stage stage = stages.get(i);
+			BlockingQueue<Object> in = queues.get(i);
+			BlockingQueue<Object> out = queues.get(i + 1);
+			AtomicInteger running = new AtomicInteger(stage.threads);
+			for (int t = 1; t <= stage.threads; t++) {
+				threads.add(new Thread(() -> work(stage, in, out, running, failure, threads),
+						"pipeline-" + stage.name + "-" + t));
+			}
+		}
+
+		threads.forEach(thread -> thread.setDaemon(true));
+		threads.forEach(Thread::start);
+		try {
+			consume(queues.get(stages.size()), sink, failure);
+		} catch (RuntimeException e) {
+			fail(failure, e, threads);
+		} finally {
+			threads.forEach(Thread::interrupt);
+		}
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void consume(BlockingQueue<Object> queue, Consumer<? super O> sink,
+			AtomicReference<RuntimeException> failure) {
+		try {
+			while (failure.get() == null) {
+				Object item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (item == END) {
+					return;
+				} else if (item != null) {
+					sink.accept((O) item);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new PipelineException("Interrupted waiting for pipeline output", e);
+		}
+	}
+
+	private void work(Stage stage, BlockingQueue<Object> in, BlockingQueue<Object> out, AtomicInteger running,
+			AtomicReference<RuntimeException> failure, List<Thread> threads) {
+		try {
+			List<Object> batch = new ArrayList<>(stage.batchSize);
+			boolean end = false;
+			while (!end) {
+				batch.clear();
+				batch.add(in.take());
+				in.drainTo(batch, stage.batchSize - 1);
+				int endIndex = batch.indexOf(END);
+				if (endIndex >= 0) {
+					// leave the end mark for the other workers of this stage
+					batch.subList(endIndex, batch.size()).clear();
+					in.put(END);
+					end = true;
+				}
+				if (!batch.isEmpty()) {
+					for (Object result : stage.function.apply(batch)) {
+						if (result != null) {
+							out.put(result);
+						}
+					}
+				}
+			}
+			if (running.decrementAndGet() == 0) {
+				out.put(END);
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (RuntimeException e) {
+			fail(failure, new PipelineException(String.format("Error in pipeline stage %s", stage.name), e),
+					threads);
+		}
+	}
+
+	private static void fail(AtomicReference<RuntimeException> failure, RuntimeException e, List<Thread> threads) {
+		if (failure.compareAndSet(null, e)) {
+			threads.stream().filter(thread -> thread != Thread.currentThread()).forEach(Thread::interrupt);
+		}
+	}
+
+	private static class Stage {
+
+		private final String name;
+		private final int threads;
+		private final int batchSize;
+		private final Function<List<Object>, List<?>> function;
+
+		private Stage(String name, int threads, int batchSize, Function<List<Object>, List<?>> function) {
+			this.name = name;
+			this.threads = threads;
+			this.batchSize = batchSize;
+			this.function = function;
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package io.github.jmformenti.face.core.pipeline;
+
+public class PipelineException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public PipelineException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,74 @@
+package io.github.jmformenti.face.core.quantization;
+
+/**
+ * IEEE 754 half precision conversions, round to nearest even.
+ */
+final class Float16 {
+
+	private static final float[] TO_FLOAT = new float[1 << 16];
+
+	static {
+		for (int i = 0; i < TO_FLOAT.length; i++) {
+			TO_FLOAT[i] = convert((short) i);
+		}
+	}
+
+	private Float16() {
+	}
+
+	static float toFloat(short half) {
+		return TO_FLOAT[half & 0xffff];
+	}
+
+	static short fromFloat(float value) {
+		int bits = Float.floatToRawIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = (bits >>> 23) & 0xff;
+		int mantissa = bits & 0x7fffff;
+
+		if (exponent == 0xff) {
+			// infinity or NaN, keeping NaN a NaN
+			return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+		}
+		int halfExponent = exponent - 127 + 15;
+		if (halfExponent >= 0x1f) {
+			return (short) (sign | 0x7c00);
+		}
+		if (halfExponent <= 0) {
+			if (halfExponent < -10) {
+				return (short) sign;
+			}
+			// subnormal, with the implicit leading bit
+			mantissa |= 0x800000;
+			int shift = 14 - halfExponent;
+			int half = mantissa >> shift;
+			int rest = mantissa & ((1 << shift) - 1);
+			int halfway = 1 << (shift - 1);
+			if (rest > halfway || (rest == halfway && (half & 1) != 0)) {
+				half++;
+			}
+			return (short) (sign | half);
+		}
+		int half = (halfExponent << 10) | (mantissa >> 13);
+		int rest = mantissa & 0x1fff;
+		// carry into the exponent rounds up to the next power of two or infinity
+		if (rest > 0x1000 || (rest == 0x1000 && (half & 1) != 0)) {
+			half++;
+		}
+		return (short) (sign | half);
+	}
+
+	private static float convert(short half) {
+		int sign = (half & 0x8000) << 16;
+		int exponent = (half >>> 10) & 0x1f;
+		int mantissa = half & 0x3ff;
+		if (exponent == 0x1f) {
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		}
+		if (exponent == 0) {
+			float value = mantissa * 0x1p-24f;
+			return sign == 0 ? value : -value;
+		}
+		return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+	}
+}
@@ -0,0 +1,79 @@
+package io.github.jmformenti.face.core.quantization;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Rows stored as half precision floats, 2 bytes per dimension.
+ */
+public class Float16Matrix extends QuantizedMatrix {
+
+	private final short[] data;
+
+	private Float16Matrix(int dimension, String[] labels, int[] offsets, short[] data) {
+		super(dimension, labels, offsets);
+		this.data = data;
+	}
+
+	static Float16Matrix encode(EmbeddingsMatrix matrix) {
+		FloatBuffer[] chunks = matrix.getChunks();
+		int dimension = matrix.getDimension();
+		short[] data = new short[matrix.getNumRows() * dimension];
+		for (int row = 0; row < matrix.getNumRows(); row++) {
+			FloatBuffer source = chunks[matrix.getChunk(row)];
+			int offset = matrix.getRowOffset(row);
+			for (int i = 0; i < dimension; i++) {
+				data[row * dimension + i] = Float16.fromFloat(source.get(offset + i));
+			}
+		}
+		return new Float16Matrix(matrix.getDimension(), labels(matrix), offsets(matrix), data);
+	}
+
+	static Float16Matrix read(int dimension, String[] labels, int[] offsets, ByteBuffer buffer) {
+		short[] data = new short[offsets[labels.length] * dimension];
+		buffer.asShortBuffer().get(data);
+		buffer.position(buffer.position() + data.length * Short.BYTES);
+		return new Float16Matrix(dimension, labels, offsets, data);
+	}
+
+	@Override
+	public Quantization getQuantization() {
+		return Quantization.FLOAT16;
+	}
+
+	@Override
+	public Scorer newScorer(float[] query) {
+		double queryNorm = VectorUtil.squaredNorm(query);
+		return row -> {
+			int offset = row * dimension;
+			double uv = 0, vv = 0;
+			for (int i = 0; i < dimension; i++) {
+				double v = Float16.toFloat(data[offset + i]);
+				uv += query[i] * v;
+				vv += v * v;
+			}
+			return VectorUtil.cosineFromProducts(uv, queryNorm, vv);
+		};
+	}
+
+	@Override
+	public void decodeRow(int row, float[] dest, int offset) {
+		for (int i = 0; i < dimension; i++) {
+			dest[offset + i] = Float16.toFloat(data[row * dimension + i]);
+		}
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) {
+		buffer.asShortBuffer().put(data);
+		buffer.position(buffer.position() + data.length * Short.BYTES);
+	}
+
+	@Override
+	public long sizeInBytes() {
+		return (long) data.length * Short.BYTES;
+	}
+}
@@ -0,0 +1,109 @@
+package io.github.jmformenti.face.core.quantization;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Rows stored as signed bytes with a scale per row, the largest absolute value
+ * of the row maps to 127. The cosine distance does not depend on the scale, so
+ * rows are compared with their codes directly.
+ */
+public class Int8Matrix extends QuantizedMatrix {
+
+	private final float[] scales;
+	private final byte[] codes;
+	// squared norm of the codes of each row
+	private final float[] codeNorms;
+
+	private Int8Matrix(int dimension, String[] labels, int[] offsets, float[] scales, byte[] codes) {
+		super(dimension, labels, offsets);
+		this.scales = scales;
+		this.codes = codes;
+		this.codeNorms = new float[scales.length];
+		for (int row = 0; row < scales.length; row++) {
+			int norm = 0;
+			for (int i = row * dimension; i < (row + 1) * dimension; i++) {
+				norm += codes[i] * codes[i];
+			}
+			codeNorms[row] = norm;
+		}
+	}
+
+	static Int8Matrix encode(EmbeddingsMatrix matrix) {
+		int dimension = matrix.getDimension();
+		FloatBuffer[] chunks = matrix.getChunks();
+		float[] scales = new float[matrix.getNumRows()];
+		byte[] codes = new byte[matrix.getNumRows() * dimension];
+		for (int row = 0; row < scales.length; row++) {
+			FloatBuffer source = chunks[matrix.getChunk(row)];
+			int sourceOffset = matrix.getRowOffset(row);
+			int offset = row * dimension;
+			float max = 0;
+			for (int i = 0; i < dimension; i++) {
+				max = Math.max(max, Math.abs(source.get(sourceOffset + i)));
+			}
+			scales[row] = max / 127;
+			for (int i = 0; i < dimension && max > 0; i++) {
+				codes[offset + i] = (byte) Math.round(source.get(sourceOffset + i) / scales[row]);
+			}
+		}
+		return new Int8Matrix(dimension, labels(matrix), offsets(matrix), scales,
+				codes);
+	}
+
+	static Int8Matrix read(int dimension, String[] labels, int[] offsets, ByteBuffer buffer) {
+		int numRows = offsets[labels.length];
+		float[] scales = new float[numRows];
+		buffer.asFloatBuffer().get(scales);
+		buffer.position(buffer.position() + numRows * Float.BYTES);
+		byte[] codes = new byte[numRows * dimension];
+		buffer.get(codes);
+		return new Int8Matrix(dimension, labels, offsets, scales, codes);
+	}
+
+	@Override
+	public Quantization getQuantization() {
+		return Quantization.INT8;
+	}
+
+	@Override
+	public Scorer newScorer(float[] query) {
+		double queryNorm = VectorUtil.squaredNorm(query);
+		return row -> {
+			int offset = row * dimension;
+			double uv0 = 0, uv1 = 0;
+			int bound = dimension & ~1;
+			int i = 0;
+			for (; i < bound; i += 2) {
+				uv0 += query[i] * codes[offset + i];
+				uv1 += query[i + 1] * codes[offset + i + 1];
+			}
+			for (; i < dimension; i++) {
+				uv0 += query[i] * codes[offset + i];
+			}
+			return VectorUtil.cosineFromProducts(uv0 + uv1, queryNorm, codeNorms[row]);
+		};
+	}
+
+	@Override
+	public void decodeRow(int row, float[] dest, int offset) {
+		for (int i = 0; i < dimension; i++) {
+			dest[offset + i] = codes[row * dimension + i] * scales[row];
+		}
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) {
+		buffer.asFloatBuffer().put(scales);
+		buffer.position(buffer.position() + scales.length * Float.BYTES);
+		buffer.put(codes);
+	}
+
+	@Override
+	public long sizeInBytes() {
+		return (long) scales.length * Float.BYTES + codes.length;
+	}
+}
@@ -0,0 +1,273 @@
+package io.github.jmformenti.face.core.quantization;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Product quantization: rows are split in subspaces of consecutive dimensions
+ * and each part is replaced by the nearest of up to 256 centroids trained for
+ * its subspace with k-means, one byte per subspace. Queries are compared with
+ * asymmetric distance computation: the dot products of the query parts with
+ * every centroid are computed once, then each row only adds one of them per
+ * subspace.
+ */
+public class PqMatrix extends QuantizedMatrix {
+
+	public static final int MAX_CENTROIDS = 256;
+
+	private static final int KMEANS_ITERATIONS = 10;
+
+	private static final int MAX_TRAINING_ROWS = 1 << 16;
+
+	private final int subspaces;
+	private final int centroids;
+	private final int subDimension;
+	// subspaces x centroids x subDimension
+	private final float[] codebooks;
+	// rows x subspaces
+	private final byte[] codes;
+	// squared norm of each decoded row
+	private final float[] norms;
+
+	private PqMatrix(int dimension, String[] labels, int[] offsets, int subspaces, int centroids, float[] codebooks,
+			byte[] codes) {
+		super(dimension, labels, offsets);
+		if (subspaces < 1 || dimension % subspaces != 0) {
+			throw new IllegalArgumentException(
+					String.format("Dimension %d is not divisible in %d subspaces", dimension, subspaces));
+		}
+		this.subspaces = subspaces;
+		this.centroids = centroids;
+		this.subDimension = dimension / subspaces;
+		this.codebooks = codebooks;
+		this.codes = codes;
+
+		float[] centroidNorms = new float[subspaces * centroids];
+		for (int c = 0; c < centroidNorms.length; c++) {
+			double norm = 0;
+			for (int i = c * subDimension; i < (c + 1) * subDimension; i++) {
+				norm += codebooks[i] * codebooks[i];
+			}
+			centroidNorms[c] = (float) norm;
+		}
+		this.norms = new float[getNumRows()];
+		for (int row = 0; row < norms.length; row++) {
+			double norm = 0;
+			for (int s = 0; s < subspaces; s++) {
+				norm += centroidNorms[s * centroids + code(row, s)];
+			}
+			norms[row] = (float) norm;
+		}
+	}
+
+	/**
+	 * @return largest divisor of the dimension up to one subspace per 8
+	 *         dimensions
+	 */
+	public static int defaultSubspaces(int dimension) {
+		int subspaces = Math.max(1, dimension / 8);
+		while (dimension % subspaces != 0) {
+			subspaces--;
+		}
+		return subspaces;
+	}
+
+	static PqMatrix encode(EmbeddingsMatrix matrix, int subspaces) {
+		int dimension = matrix.getDimension();
+		if (subspaces < 1 || dimension % subspaces != 0) {
+			throw new IllegalArgumentException(
+					String.format("Dimension %d is not divisible in %d subspaces", dimension, subspaces));
+		}
+		int numRows = matrix.getNumRows();
+		int subDimension = dimension / subspaces;
+		FloatBuffer[] data = matrix.getChunks();
+
+		int[] training = trainingRows(numRows);
+		int centroids = Math.max(1, Math.min(MAX_CENTROIDS, training.length));
+		float[] codebooks = new float[subspaces * centroids * subDimension];
+		for (int s = 0; s < subspaces; s++) {
+			train(matrix, data, s * subDimension, subDimension, training, codebooks,
+					s * centroids * subDimension, centroids);
+		}
+
+		byte[] codes = new byte[numRows * subspaces];
+		for (int row = 0; row < numRows; row++) {
+			for (int s = 0; s < subspaces; s++) {
+				codes[row * subspaces + s] = (byte) nearest(data[matrix.getChunk(row)],
+						matrix.getRowOffset(row) + s * subDimension, subDimension, codebooks,
+						s * centroids * subDimension, centroids);
+			}
+		}
+		return new PqMatrix(dimension, labels(matrix), offsets(matrix), subspaces,
+				centroids, codebooks, codes);
+	}
+
+	/**
+	 * @return rows used to train the centroids, a deterministic random sample of
+	 *         large galleries
+	 */
+	private static int[] trainingRows(int numRows) {
+		int[] rows = new int[numRows];
+		for (int i = 0; i < numRows; i++) {
+			rows[i] = i;
+		}
+		Random random = new Random(0);
+		for (int i = numRows - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int swap = rows[i];
+			rows[i] = rows[j];
+			rows[j] = swap;
+		}
+		return numRows > MAX_TRAINING_ROWS ? Arrays.copyOf(rows, MAX_TRAINING_ROWS) : rows;
+	}
+
+	/**
+	 * K-means of one subspace of the training rows, seeded with the first ones
+	 * (a random sample) and writing the centroids in the codebooks.
+	 */
+	private static void train(EmbeddingsMatrix matrix, FloatBuffer[] data, int subOffset, int subDimension,
+			int[] training, float[] codebooks, int codebookOffset, int centroids) {
+		for (int c = 0; c < centroids && c < training.length; c++) {
+			for (int i = 0; i < subDimension; i++) {
+				codebooks[codebookOffset + c * subDimension + i] = data[matrix.getChunk(training[c])]
+						.get(matrix.getRowOffset(training[c]) + subOffset + i);
+			}
+		}
+
+		int[] assignment = new int[training.length];
+		for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+			boolean changed = iteration == 0;
+			for (int t = 0; t < training.length; t++) {
+				int best = nearest(data[matrix.getChunk(training[t])], matrix.getRowOffset(training[t]) + subOffset,
+						subDimension, codebooks, codebookOffset, centroids);
+				changed |= assignment[t] != best;
+				assignment[t] = best;
+			}
+			if (!changed) {
+				break;
+			}
+
+			double[] sums = new double[centroids * subDimension];
+			int[] counts = new int[centroids];
+			for (int t = 0; t < training.length; t++) {
+				int c = assignment[t];
+				counts[c]++;
+				FloatBuffer chunk = data[matrix.getChunk(training[t])];
+				int offset = matrix.getRowOffset(training[t]) + subOffset;
+				for (int i = 0; i < subDimension; i++) {
+					sums[c * subDimension + i] += chunk.get(offset + i);
+				}
+			}
+			for (int c = 0; c < centroids; c++) {
+				// an empty cluster keeps its previous centroid
+				for (int i = 0; i < subDimension && counts[c] > 0; i++) {
+					codebooks[codebookOffset + c * subDimension + i] = (float) (sums[c * subDimension + i]
+							/ counts[c]);
+				}
+			}
+		}
+	}
+
+	private static int nearest(FloatBuffer data, int offset, int subDimension, float[] codebooks, int codebookOffset,
+			int centroids) {
+		int best = 0;
+		double bestDistance = Double.POSITIVE_INFINITY;
+		for (int c = 0; c < centroids; c++) {
+			double distance = 0;
+			int centroidOffset = codebookOffset + c * subDimension;
+			for (int i = 0; i < subDimension; i++) {
+				double diff = data.get(offset + i) - codebooks[centroidOffset + i];
+				distance += diff * diff;
+			}
+			if (distance < bestDistance) {
+				best = c;
+				bestDistance = distance;
+			}
+		}
+		return best;
+	}
+
+	static PqMatrix read(int dimension, String[] labels, int[] offsets, ByteBuffer buffer) {
+		int subspaces = buffer.getInt();
+		int centroids = buffer.getInt();
+		if (subspaces < 1 || dimension % subspaces != 0 || centroids < 1 || centroids > MAX_CENTROIDS) {
+			throw new IllegalArgumentException(
+					String.format("Invalid product quantization subspaces=%d centroids=%d", subspaces, centroids));
+		}
+		float[] codebooks = new float[subspaces * centroids * (dimension / subspaces)];
+		buffer.asFloatBuffer().get(codebooks);
+		buffer.position(buffer.position() + codebooks.length * Float.BYTES);
+		byte[] codes = new byte[offsets[labels.length] * subspaces];
+		buffer.get(codes);
+		return new PqMatrix(dimension, labels, offsets, subspaces, centroids, codebooks, codes);
+	}
+
+	@Override
+	public Quantization getQuantization() {
+		return Quantization.PQ;
+	}
+
+	@Override
+	public Scorer newScorer(float[] query) {
+		double queryNorm = VectorUtil.squaredNorm(query);
+		// dot product of each query part with each centroid of its subspace
+		double[] table = new double[subspaces * centroids];
+		for (int s = 0; s < subspaces; s++) {
+			for (int c = 0; c < centroids; c++) {
+				int centroidOffset = (s * centroids + c) * subDimension;
+				double dot = 0;
+				for (int i = 0; i < subDimension; i++) {
+					dot += query[s * subDimension + i] * codebooks[centroidOffset + i];
+				}
+				table[s * centroids + c] = dot;
+			}
+		}
+		return row -> {
+			double uv = 0;
+			int offset = row * subspaces;
+			for (int s = 0; s < subspaces; s++) {
+				uv += table[s * centroids + (codes[offset + s] & 0xff)];
+			}
+			return VectorUtil.cosineFromProducts(uv, queryNorm, norms[row]);
+		};
+	}
+
+	@Override
+	public void decodeRow(int row, float[] dest, int offset) {
+		for (int s = 0; s < subspaces; s++) {
+			System.arraycopy(codebooks, (s * centroids + code(row, s)) * subDimension, dest,
+					offset + s * subDimension, subDimension);
+		}
+	}
+
+	private int code(int row, int subspace) {
+		return codes[row * subspaces + subspace] & 0xff;
+	}
+
+	@Override
+	public void write(ByteBuffer buffer) {
+		buffer.putInt(subspaces);
+		buffer.putInt(centroids);
+		buffer.asFloatBuffer().put(codebooks);
+		buffer.position(buffer.position() + codebooks.length * Float.BYTES);
+		buffer.put(codes);
+	}
+
+	@Override
+	public long sizeInBytes() {
+		return 2L * Integer.BYTES + (long) codebooks.length * Float.BYTES + codes.length;
+	}
+
+	public int getSubspaces() {
+		return subspaces;
+	}
+
+	public int getCentroids() {
+		return centroids;
+	}
+}
@@ -0,0 +1,38 @@
+package io.github.jmformenti.face.core.quantization;
+
+/**
+ * Representation of stored embeddings, on disk and in memory.
+ */
+public enum Quantization {
+
+	/** 4 bytes per dimension, no quantization */
+	FLOAT32(0),
+	/** 2 bytes per dimension, IEEE 754 half precision */
+	FLOAT16(1),
+	/** 1 byte per dimension and a scale per embedding */
+	INT8(2),
+	/** 1 byte per subspace, product quantization */
+	PQ(3);
+
+	private final int code;
+
+	Quantization(int code) {
+		this.code = code;
+	}
+
+	/**
+	 * @return code stored in embeddings files
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	public static Quantization fromCode(int code) {
+		for (Quantization quantization : values()) {
+			if (quantization.code == code) {
+				return quantization;
+			}
+		}
+		throw new IllegalArgumentException(String.format("Unknown quantization %d", code));
+	}
+}
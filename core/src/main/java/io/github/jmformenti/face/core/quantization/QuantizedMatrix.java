@@ -0,0 +1,154 @@
+package io.github.jmformenti.face.core.quantization;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+
+/**
+ * Compressed counterpart of {@link EmbeddingsMatrix}: same labels and offsets
+ * table, with every row encoded by one of the {@link Quantization} methods.
+ * Rows are compared with a query without decoding them, see {@link Scorer}.
+ */
+public abstract class QuantizedMatrix {
+
+	protected final int dimension;
+	private final String[] labels;
+	private final int[] offsets;
+
+	protected QuantizedMatrix(int dimension, String[] labels, int[] offsets) {
+		if (offsets.length != labels.length + 1) {
+			throw new IllegalArgumentException("Offsets table must have one entry more than labels");
+		}
+		this.dimension = dimension;
+		this.labels = labels;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * @param subspaces product quantization subspaces, 0 for one per 8
+	 *                  dimensions. Ignored by other methods.
+	 * @return matrix encoded with the given method, null for
+	 *         {@link Quantization#FLOAT32}
+	 */
+	public static QuantizedMatrix quantize(EmbeddingsMatrix matrix, Quantization quantization, int subspaces) {
+		switch (quantization) {
+		case FLOAT16:
+			return Float16Matrix.encode(matrix);
+		case INT8:
+			return Int8Matrix.encode(matrix);
+		case PQ:
+			return PqMatrix.encode(matrix, subspaces > 0 ? subspaces : PqMatrix.defaultSubspaces(matrix.getDimension()));
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Reads rows written with {@link #write(ByteBuffer)}.
+	 */
+	public static QuantizedMatrix read(Quantization quantization, int dimension, String[] labels, int[] offsets,
+			ByteBuffer data) {
+		switch (quantization) {
+		case FLOAT16:
+			return Float16Matrix.read(dimension, labels, offsets, data);
+		case INT8:
+			return Int8Matrix.read(dimension, labels, offsets, data);
+		case PQ:
+			return PqMatrix.read(dimension, labels, offsets, data);
+		default:
+			throw new IllegalArgumentException(String.format("%s is not a quantization", quantization));
+		}
+	}
+
+	protected static String[] labels(EmbeddingsMatrix matrix) {
+		String[] labels = new String[matrix.getNumLabels()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = matrix.getLabel(i);
+		}
+		return labels;
+	}
+
+	protected static int[] offsets(EmbeddingsMatrix matrix) {
+		int[] offsets = new int[matrix.getNumLabels() + 1];
+		for (int i = 0; i < matrix.getNumLabels(); i++) {
+			offsets[i + 1] = matrix.getEnd(i);
+		}
+		return offsets;
+	}
+
+	public abstract Quantization getQuantization();
+
+	/**
+	 * @return scorer of the rows against the query, for one thread
+	 */
+	public abstract Scorer newScorer(float[] query);
+
+	/**
+	 * Writes the approximate values of the row in {@code dest} from
+	 * {@code offset}.
+	 */
+	public abstract void decodeRow(int row, float[] dest, int offset);
+
+	/**
+	 * Writes the encoded rows, {@link #sizeInBytes()} bytes.
+	 */
+	public abstract void write(ByteBuffer data);
+
+	/**
+	 * @return size of the encoded rows in bytes
+	 */
+	public abstract long sizeInBytes();
+
+	/**
+	 * @return uncompressed matrix with the approximate values of every row
+	 */
+	public EmbeddingsMatrix decode() {
+		float[] data = new float[getNumRows() * dimension];
+		for (int row = 0; row < getNumRows(); row++) {
+			decodeRow(row, data, row * dimension);
+		}
+		return new EmbeddingsMatrix(dimension, labels.clone(), offsets.clone(), FloatBuffer.wrap(data));
+	}
+
+	public int getDimension() {
+		return dimension;
+	}
+
+	public int getNumLabels() {
+		return labels.length;
+	}
+
+	public int getNumRows() {
+		return offsets[labels.length];
+	}
+
+	public String getLabel(int labelIndex) {
+		return labels[labelIndex];
+	}
+
+	public int getStart(int labelIndex) {
+		return offsets[labelIndex];
+	}
+
+	public int getEnd(int labelIndex) {
+		return offsets[labelIndex + 1];
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s, labels=%d, rows=%d, %d bytes", getQuantization(), getNumLabels(), getNumRows(),
+				sizeInBytes());
+	}
+
+	/**
+	 * Distances from one query to the encoded rows.
+	 */
+	public interface Scorer {
+
+		/**
+		 * @return approximate cosine distance between the query and the row
+		 */
+		double cosine(int row);
+	}
+}
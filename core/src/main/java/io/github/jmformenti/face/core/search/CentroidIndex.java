@@ -0,0 +1,203 @@
+package io.github.jmformenti.face.core.search;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Prototype centroids of each label of a gallery: the mean direction of its
+ * embeddings or, with more than one prototype per label, of the clusters found
+ * with a few iterations of spherical k-means. A label is as similar to a query
+ * as its most similar prototype.
+ */
+public class CentroidIndex {
+
+	public static final int DEFAULT_PROTOTYPES = 1;
+
+	private static final int KMEANS_ITERATIONS = 10;
+
+	private final EmbeddingsMatrix matrix;
+	private final int prototypes;
+	private final int dimension;
+	// unit length prototypes, row-major, and the label of each one
+	private final FloatBuffer centroids;
+	private final int[] centroidLabels;
+
+	private int candidates;
+
+	private CentroidIndex(EmbeddingsMatrix matrix, int prototypes, float[] centroids, int[] centroidLabels,
+			int candidates) {
+		this.matrix = matrix;
+		this.prototypes = prototypes;
+		this.dimension = matrix.getDimension();
+		this.centroids = FloatBuffer.wrap(centroids);
+		this.centroidLabels = centroidLabels;
+		setCandidates(candidates);
+	}
+
+	/**
+	 * @param prototypes max centroids per label, labels with fewer embeddings get
+	 *                   one per embedding
+	 * @param candidates labels with the most similar prototypes scored by the
+	 *                   exact search
+	 */
+	public static CentroidIndex build(EmbeddingsMatrix matrix, int prototypes, int candidates) {
+		if (prototypes < 1) {
+			throw new IllegalArgumentException(String.format("Invalid prototypes per label %d", prototypes));
+		}
+		int dimension = matrix.getDimension();
+		float[] centroids = new float[matrix.getNumLabels() * prototypes * dimension];
+		int[] centroidLabels = new int[matrix.getNumLabels() * prototypes];
+		int numCentroids = 0;
+		for (int label = 0; label < matrix.getNumLabels(); label++) {
+			int rows = matrix.getEnd(label) - matrix.getStart(label);
+			if (rows == 0) {
+				continue;
+			}
+			double[][] labelCentroids = kmeans(matrix, label, Math.min(prototypes, rows));
+			for (double[] centroid : labelCentroids) {
+				for (int i = 0; i < dimension; i++) {
+					centroids[numCentroids * dimension + i] = (float) centroid[i];
+				}
+				centroidLabels[numCentroids++] = label;
+			}
+		}
+
+		return new CentroidIndex(matrix, prototypes, Arrays.copyOf(centroids, numCentroids * dimension),
+				Arrays.copyOf(centroidLabels, numCentroids), candidates);
+	}
+
+	/**
+	 * Spherical k-means over the rows of one label, seeded with evenly spaced
+	 * rows so the result is deterministic.
+	 */
+	private static double[][] kmeans(EmbeddingsMatrix matrix, int label, int k) {
+		int start = matrix.getStart(label);
+		int rows = matrix.getEnd(label) - start;
+		int dimension = matrix.getDimension();
+
+		double[][] points = new double[rows][];
+		for (int row = 0; row < rows; row++) {
+			points[row] = normalize(matrix.getRowAsDouble(start + row));
+		}
+
+		double[][] centroids = new double[k][];
+		for (int c = 0; c < k; c++) {
+			centroids[c] = points[(int) ((long) c * rows / k)].clone();
+		}
+
+		int[] assignment = new int[rows];
+		for (int iteration = 0; iteration < (k == 1 ? 1 : KMEANS_ITERATIONS); iteration++) {
+			boolean changed = iteration == 0;
+			for (int row = 0; row < rows; row++) {
+				int best = 0;
+				double bestDot = Double.NEGATIVE_INFINITY;
+				for (int c = 0; c < k; c++) {
+					double dot = VectorUtil.dot(points[row], centroids[c]);
+					if (dot > bestDot) {
+						best = c;
+						bestDot = dot;
+					}
+				}
+				changed |= assignment[row] != best;
+				assignment[row] = best;
+			}
+			if (!changed) {
+				break;
+			}
+
+			double[][] sums = new double[k][dimension];
+			for (int row = 0; row < rows; row++) {
+				double[] sum = sums[assignment[row]];
+				for (int i = 0; i < dimension; i++) {
+					sum[i] += points[row][i];
+				}
+			}
+			for (int c = 0; c < k; c++) {
+				// an empty cluster keeps its previous centroid
+				if (VectorUtil.squaredNorm(sums[c]) > 0) {
+					centroids[c] = normalize(sums[c]);
+				}
+			}
+		}
+		return centroids;
+	}
+
+	private static double[] normalize(double[] vector) {
+		double norm = Math.sqrt(VectorUtil.squaredNorm(vector));
+		if (norm > 0) {
+			for (int i = 0; i < vector.length; i++) {
+				vector[i] /= norm;
+			}
+		}
+		return vector;
+	}
+
+	/**
+	 * @return indexes of the labels with the most similar prototypes, at most
+	 *         the number of candidates, in label order
+	 */
+	public int[] getCandidates(float[] embedding) {
+		double[] labelSimilarity = new double[matrix.getNumLabels()];
+		Arrays.fill(labelSimilarity, Double.NEGATIVE_INFINITY);
+		// prototypes are unit length, the query norm does not change the ranking
+		for (int c = 0; c < centroidLabels.length; c++) {
+			double dot = VectorUtil.dot(embedding, centroids, c * dimension);
+			int label = centroidLabels[c];
+			if (dot > labelSimilarity[label]) {
+				labelSimilarity[label] = dot;
+			}
+		}
+
+		// min heap of the best labels found so far
+		PriorityQueue<Integer> best = new PriorityQueue<>(candidates + 1,
+				(a, b) -> Double.compare(labelSimilarity[a], labelSimilarity[b]));
+		for (int label = 0; label < labelSimilarity.length; label++) {
+			if (labelSimilarity[label] == Double.NEGATIVE_INFINITY) {
+				continue;
+			}
+			if (best.size() < candidates) {
+				best.add(label);
+			} else if (labelSimilarity[label] > labelSimilarity[best.peek()]) {
+				best.poll();
+				best.add(label);
+			}
+		}
+
+		int[] result = best.stream().mapToInt(Integer::intValue).toArray();
+		Arrays.sort(result);
+		return result;
+	}
+
+	public EmbeddingsMatrix getMatrix() {
+		return matrix;
+	}
+
+	public int getPrototypes() {
+		return prototypes;
+	}
+
+	public int getNumCentroids() {
+		return centroidLabels.length;
+	}
+
+	public int getCandidates() {
+		return candidates;
+	}
+
+	public void setCandidates(int candidates) {
+		if (candidates < 1) {
+			throw new IllegalArgumentException(String.format("Invalid centroid candidates %d", candidates));
+		}
+		this.candidates = candidates;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("labels=%d, centroids=%d, prototypes=%d, candidates=%d", matrix.getNumLabels(),
+				getNumCentroids(), prototypes, candidates);
+	}
+}
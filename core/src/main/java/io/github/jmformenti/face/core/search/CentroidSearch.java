@@ -0,0 +1,44 @@
+package io.github.jmformenti.face.core.search;
+
+import java.nio.FloatBuffer;
+
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Two stage search: the labels with the most similar prototype centroids of
+ * the {@link CentroidIndex} are the candidates, and only those are scored with
+ * the exact vote of {@link ExhaustiveSearch}. Results differ from the
+ * exhaustive search only if its best label is not among the candidates, see
+ * {@link SearchRecall}.
+ */
+public class CentroidSearch implements EmbeddingsSearch {
+
+	private final CentroidIndex index;
+
+	public CentroidSearch(CentroidIndex index) {
+		this.index = index;
+	}
+
+	@Override
+	public EmbeddingResult search(float[] embedding) {
+		EmbeddingsMatrix matrix = index.getMatrix();
+		FloatBuffer[] data = matrix.getChunks();
+		double[] inverseNorms = matrix.getInverseNorms();
+		double embeddingInverseNorm = VectorUtil.inverseNorm(VectorUtil.squaredNorm(embedding));
+
+		String result = null;
+		double minRatioSimilarity = 1;
+		for (int label : index.getCandidates(embedding)) {
+			double ratioSimilarity = ExhaustiveSearch.ratioSimilarity(matrix, data, inverseNorms, label, embedding,
+					embeddingInverseNorm);
+			if (ratioSimilarity < minRatioSimilarity) {
+				result = matrix.getLabel(label);
+				minRatioSimilarity = ratioSimilarity;
+			}
+		}
+
+		return ExhaustiveSearch.toResult(result, minRatioSimilarity);
+	}
+}
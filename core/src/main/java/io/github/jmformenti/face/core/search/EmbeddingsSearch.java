@@ -0,0 +1,14 @@
+package io.github.jmformenti.face.core.search;
+
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+
+public interface EmbeddingsSearch {
+
+	/**
+	 * @param embedding face embedding to identify
+	 * @return label of the most similar identity or null if there is none under
+	 *         the similarity threshold
+	 */
+	public EmbeddingResult search(float[] embedding);
+
+}
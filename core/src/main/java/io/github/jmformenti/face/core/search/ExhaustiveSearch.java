@@ -0,0 +1,73 @@
+package io.github.jmformenti.face.core.search;
+
+import java.nio.FloatBuffer;
+
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Exact search comparing the embedding with every embedding of every label.
+ * Each label votes with the embeddings under the similarity threshold and the
+ * label with the lowest average distance wins.
+ */
+public class ExhaustiveSearch implements EmbeddingsSearch {
+
+	public static final double SIMILARITY_THRESHOLD = 0.5;
+
+	private final EmbeddingsMatrix matrix;
+
+	public ExhaustiveSearch(EmbeddingsMatrix matrix) {
+		this.matrix = matrix;
+	}
+
+	@Override
+	public EmbeddingResult search(float[] embedding) {
+		String result = null;
+		double minRatioSimilarity = 1;
+
+		double embeddingInverseNorm = VectorUtil.inverseNorm(VectorUtil.squaredNorm(embedding));
+		FloatBuffer[] data = matrix.getChunks();
+		double[] inverseNorms = matrix.getInverseNorms();
+
+		for (int label = 0; label < matrix.getNumLabels(); label++) {
+			double ratioSimilarity = ratioSimilarity(matrix, data, inverseNorms, label, embedding,
+					embeddingInverseNorm);
+			if (ratioSimilarity < minRatioSimilarity) {
+				result = matrix.getLabel(label);
+				minRatioSimilarity = ratioSimilarity;
+			}
+		}
+
+		return toResult(result, minRatioSimilarity);
+	}
+
+	/**
+	 * @return average distance of the label embeddings under the similarity
+	 *         threshold, NaN if there is none
+	 */
+	static double ratioSimilarity(EmbeddingsMatrix matrix, FloatBuffer[] data, double[] inverseNorms, int label,
+			float[] embedding, double embeddingInverseNorm) {
+		int numVotes = 0;
+		double accumulatedSimilarity = 0;
+
+		for (int row = matrix.getStart(label); row < matrix.getEnd(label); row++) {
+			double similarity = VectorUtil.cosine(embedding, embeddingInverseNorm, data[matrix.getChunk(row)],
+					matrix.getRowOffset(row), inverseNorms[row]);
+			if (similarity <= SIMILARITY_THRESHOLD) {
+				accumulatedSimilarity += similarity;
+				numVotes++;
+			}
+		}
+
+		return accumulatedSimilarity / numVotes;
+	}
+
+	static EmbeddingResult toResult(String label, double minRatioSimilarity) {
+		if (label == null) {
+			return null;
+		} else {
+			return new EmbeddingResult(label, 1 - minRatioSimilarity);
+		}
+	}
+}
@@ -0,0 +1,495 @@
+package io.github.jmformenti.face.core.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Hierarchical Navigable Small World graph (Malkov and Yashunin, 2016) over the
+ * rows of an {@link EmbeddingsMatrix}, using cosine distance. Building is single
+ * threaded, searching is thread safe.
+ */
+public class HnswIndex {
+
+	private static final byte[] MAGIC = "FACEHNSW".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int VERSION = 1;
+
+	private static final String INDEX_EXTENSION = ".hnsw";
+
+	private static final long RANDOM_SEED = 42;
+
+	// levels drawn from doubles never exceed 53, more means a corrupt file
+	private static final int MAX_LEVEL = 64;
+
+	private final EmbeddingsMatrix matrix;
+	private final FloatBuffer[] data;
+	private final HnswParameters parameters;
+	private final double[] inverseNorms;
+
+	// links[node][level][0] is the number of links, followed by the linked nodes
+	private final int[][][] links;
+	private int entryPoint = -1;
+	private int maxLevel = -1;
+
+	private final ThreadLocal<Visited> visited;
+
+	private HnswIndex(EmbeddingsMatrix matrix, HnswParameters parameters) {
+		this.matrix = matrix;
+		this.data = matrix.getChunks();
+		this.parameters = parameters;
+		this.links = new int[matrix.getNumRows()][][];
+		this.inverseNorms = matrix.getInverseNorms();
+		this.visited = ThreadLocal.withInitial(() -> new Visited(links.length));
+	}
+
+	public static HnswIndex build(EmbeddingsMatrix matrix, HnswParameters parameters) {
+		HnswIndex index = new HnswIndex(matrix, parameters);
+		Random random = new Random(RANDOM_SEED);
+		double levelMultiplier = 1 / Math.log(parameters.getM());
+		for (int node = 0; node < matrix.getNumRows(); node++) {
+			int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+			index.insert(node, level);
+		}
+		return index;
+	}
+
+	public EmbeddingsMatrix getMatrix() {
+		return matrix;
+	}
+
+	public HnswParameters getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @param embedding query embedding
+	 * @param k         number of rows to return
+	 * @return rows of the approximate k nearest embeddings, nearest first
+	 */
+	public int[] search(float[] embedding, int k) {
+		if (entryPoint < 0) {
+			return new int[0];
+		}
+		double queryInverseNorm = VectorUtil.inverseNorm(VectorUtil.squaredNorm(embedding));
+
+		int ep = entryPoint;
+		for (int level = maxLevel; level > 0; level--) {
+			ep = greedyClosest(embedding, queryInverseNorm, ep, level);
+		}
+		NodeQueue results = searchLayer(embedding, queryInverseNorm, ep, Math.max(parameters.getEfSearch(), k),
+				0);
+		while (results.size() > k) {
+			results.pop();
+		}
+		int[] rows = new int[results.size()];
+		for (int i = rows.length - 1; i >= 0; i--) {
+			rows[i] = results.pop();
+		}
+		return rows;
+	}
+
+	private void insert(int node, int level) {
+		links[node] = new int[level + 1][];
+		for (int l = 0; l <= level; l++) {
+			links[node][l] = new int[maxLinks(l) + 1];
+		}
+		if (entryPoint < 0) {
+			entryPoint = node;
+			maxLevel = level;
+			return;
+		}
+
+		float[] query = matrix.getRow(node);
+		double queryInverseNorm = inverseNorms[node];
+
+		int ep = entryPoint;
+		for (int l = maxLevel; l > level; l--) {
+			ep = greedyClosest(query, queryInverseNorm, ep, l);
+		}
+		for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+			NodeQueue candidates = searchLayer(query, queryInverseNorm, ep, parameters.getEfConstruction(),
+					l);
+			int[] sorted = candidates.drainSorted();
+			ep = sorted[0];
+			int[] neighbours = selectNeighbours(node, sorted, parameters.getM());
+			for (int neighbour : neighbours) {
+				addLink(node, neighbour, l);
+				addLink(neighbour, node, l);
+			}
+		}
+		if (level > maxLevel) {
+			entryPoint = node;
+			maxLevel = level;
+		}
+	}
+
+	private void addLink(int from, int to, int level) {
+		int[] nodeLinks = links[from][level];
+		int count = nodeLinks[0];
+		if (count < nodeLinks.length - 1) {
+			nodeLinks[count + 1] = to;
+			nodeLinks[0] = count + 1;
+			return;
+		}
+
+		// full, keep the best links according to the selection heuristic
+		int[] candidates = Arrays.copyOfRange(nodeLinks, 1, count + 2);
+		candidates[count] = to;
+		double[] distances = new double[candidates.length];
+		for (int i = 0; i < candidates.length; i++) {
+			distances[i] = nodeDistance(from, candidates[i]);
+		}
+		sortByDistance(candidates, distances);
+		int[] selected = selectNeighbours(from, candidates, nodeLinks.length - 1);
+		System.arraycopy(selected, 0, nodeLinks, 1, selected.length);
+		nodeLinks[0] = selected.length;
+	}
+
+	/**
+	 * Neighbour selection heuristic: a candidate is kept only if it is closer to
+	 * the node than to any already selected neighbour, which keeps links towards
+	 * other clusters.
+	 *
+	 * @param sorted candidates sorted by distance to the node
+	 */
+	private int[] selectNeighbours(int node, int[] sorted, int max) {
+		int[] selected = new int[Math.min(max, sorted.length)];
+		int count = 0;
+		for (int i = 0; i < sorted.length && count < selected.length; i++) {
+			int candidate = sorted[i];
+			if (candidate == node) {
+				continue;
+			}
+			double distance = nodeDistance(node, candidate);
+			boolean keep = true;
+			for (int j = 0; j < count && keep; j++) {
+				keep = nodeDistance(candidate, selected[j]) > distance;
+			}
+			if (keep) {
+				selected[count++] = candidate;
+			}
+		}
+		return Arrays.copyOf(selected, count);
+	}
+
+	private int greedyClosest(float[] query, double queryInverseNorm, int ep, int level) {
+		double epDistance = distance(query, queryInverseNorm, ep);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			int[] nodeLinks = links[ep][level];
+			for (int i = 1; i <= nodeLinks[0]; i++) {
+				double d = distance(query, queryInverseNorm, nodeLinks[i]);
+				if (d < epDistance) {
+					epDistance = d;
+					ep = nodeLinks[i];
+					changed = true;
+				}
+			}
+		}
+		return ep;
+	}
+
+	/**
+	 * @return max heap with the ef closest nodes found in the layer
+	 */
+	private NodeQueue searchLayer(float[] query, double queryInverseNorm, int ep, int ef, int level) {
+		Visited visitedNodes = visited.get();
+		visitedNodes.reset();
+		visitedNodes.visit(ep);
+
+		double epDistance = distance(query, queryInverseNorm, ep);
+		NodeQueue candidates = new NodeQueue(false, ef);
+		NodeQueue results = new NodeQueue(true, ef);
+		candidates.push(ep, epDistance);
+		results.push(ep, epDistance);
+
+		while (candidates.size() > 0) {
+			if (candidates.topDistance() > results.topDistance() && results.size() >= ef) {
+				break;
+			}
+			int current = candidates.pop();
+			int[] nodeLinks = links[current][level];
+			for (int i = 1; i <= nodeLinks[0]; i++) {
+				int neighbour = nodeLinks[i];
+				if (visitedNodes.visit(neighbour)) {
+					double d = distance(query, queryInverseNorm, neighbour);
+					if (results.size() < ef || d < results.topDistance()) {
+						candidates.push(neighbour, d);
+						results.push(neighbour, d);
+						if (results.size() > ef) {
+							results.pop();
+						}
+					}
+				}
+			}
+		}
+		return results;
+	}
+
+	private double distance(float[] query, double queryInverseNorm, int node) {
+		return 1 - VectorUtil.dot(query, data[matrix.getChunk(node)], matrix.getRowOffset(node)) * queryInverseNorm
+				* inverseNorms[node];
+	}
+
+	private double nodeDistance(int a, int b) {
+		return 1 - VectorUtil.dot(data[matrix.getChunk(a)], matrix.getRowOffset(a), data[matrix.getChunk(b)],
+				matrix.getRowOffset(b), matrix.getDimension()) * inverseNorms[a] * inverseNorms[b];
+	}
+
+	private int maxLinks(int level) {
+		return level == 0 ? parameters.getM() * 2 : parameters.getM();
+	}
+
+	private static void sortByDistance(int[] nodes, double[] distances) {
+		// insertion sort, arrays have at most 2 * m + 1 elements
+		for (int i = 1; i < nodes.length; i++) {
+			int node = nodes[i];
+			double distance = distances[i];
+			int j = i - 1;
+			while (j >= 0 && distances[j] > distance) {
+				nodes[j + 1] = nodes[j];
+				distances[j + 1] = distances[j];
+				j--;
+			}
+			nodes[j + 1] = node;
+			distances[j + 1] = distance;
+		}
+	}
+
+	public static Path getIndexPath(Path embeddingsPath) {
+		return embeddingsPath.resolveSibling(embeddingsPath.getFileName() + INDEX_EXTENSION);
+	}
+
+	/**
+	 * Writes the index aside and moves it to the path, so readers never see a
+	 * partial file.
+	 */
+	public void write(Path path) throws IOException {
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+				DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+			output.write(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(matrix.getFingerprint());
+			output.writeInt(links.length);
+			output.writeInt(parameters.getM());
+			output.writeInt(parameters.getEfConstruction());
+			output.writeInt(parameters.getEfSearch());
+			output.writeInt(entryPoint);
+			output.writeInt(maxLevel);
+			for (int[][] nodeLinks : links) {
+				output.writeInt(nodeLinks.length);
+				for (int[] levelLinks : nodeLinks) {
+					output.writeInt(levelLinks[0]);
+					for (int i = 1; i <= levelLinks[0]; i++) {
+						output.writeInt(levelLinks[i]);
+					}
+				}
+			}
+			output.flush();
+			channel.force(true);
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @param path   index file
+	 * @param matrix embeddings the index was built from
+	 * @return index read
+	 * @throws IOException if the file is not valid or was built from other
+	 *                     embeddings
+	 */
+	public static HnswIndex read(Path path, EmbeddingsMatrix matrix) throws IOException {
+		try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			byte[] magic = new byte[MAGIC.length];
+			input.readFully(magic);
+			if (!Arrays.equals(MAGIC, magic) || input.readInt() != VERSION) {
+				throw new IOException(String.format("%s is not a supported index file", path));
+			}
+			if (input.readLong() != matrix.getFingerprint() || input.readInt() != matrix.getNumRows()) {
+				throw new IOException(String.format("Index %s does not match the embeddings", path));
+			}
+			HnswParameters parameters;
+			try {
+				parameters = new HnswParameters(input.readInt(), input.readInt(), input.readInt());
+			} catch (IllegalArgumentException e) {
+				throw new IOException(String.format("Index %s is corrupt: %s", path, e.getMessage()), e);
+			}
+			HnswIndex index = new HnswIndex(matrix, parameters);
+			int numRows = index.links.length;
+			index.entryPoint = input.readInt();
+			index.maxLevel = input.readInt();
+			if (numRows == 0) {
+				checkRead(index.entryPoint == -1 && index.maxLevel == -1, path, "entry point of empty index");
+			} else {
+				checkRead(index.entryPoint >= 0 && index.entryPoint < numRows, path, "entry point");
+				checkRead(index.maxLevel >= 0 && index.maxLevel <= MAX_LEVEL, path, "max level");
+			}
+			for (int node = 0; node < numRows; node++) {
+				int levels = input.readInt();
+				checkRead(levels >= 1 && levels <= index.maxLevel + 1, path, "levels of node " + node);
+				index.links[node] = new int[levels][];
+				for (int level = 0; level < levels; level++) {
+					int count = input.readInt();
+					checkRead(count >= 0 && count <= index.maxLinks(level), path, "links of node " + node);
+					// read only, so no room for more links
+					int[] levelLinks = new int[count + 1];
+					levelLinks[0] = count;
+					for (int i = 1; i <= count; i++) {
+						levelLinks[i] = input.readInt();
+						checkRead(levelLinks[i] >= 0 && levelLinks[i] < numRows, path, "links of node " + node);
+					}
+					index.links[node][level] = levelLinks;
+				}
+			}
+			checkRead(numRows == 0 || index.links[index.entryPoint].length == index.maxLevel + 1, path,
+					"levels of entry point");
+			return index;
+		}
+	}
+
+	private static void checkRead(boolean valid, Path path, String what) throws IOException {
+		if (!valid) {
+			throw new IOException(String.format("Index %s is corrupt: invalid %s", path, what));
+		}
+	}
+
+	private static class Visited {
+
+		private final int[] marks;
+		private int mark;
+
+		Visited(int size) {
+			this.marks = new int[size];
+		}
+
+		void reset() {
+			mark++;
+			if (mark == 0) {
+				Arrays.fill(marks, 0);
+				mark = 1;
+			}
+		}
+
+		/**
+		 * @return true if the node was not visited before
+		 */
+		boolean visit(int node) {
+			if (marks[node] == mark) {
+				return false;
+			}
+			marks[node] = mark;
+			return true;
+		}
+	}
+
+	/**
+	 * Binary heap of nodes by distance, min heap or max heap.
+	 */
+	private static class NodeQueue {
+
+		private final boolean max;
+		private int[] nodes;
+		private double[] distances;
+		private int size;
+
+		NodeQueue(boolean max, int capacity) {
+			this.max = max;
+			this.nodes = new int[capacity + 1];
+			this.distances = new double[capacity + 1];
+		}
+
+		int size() {
+			return size;
+		}
+
+		double topDistance() {
+			return distances[0];
+		}
+
+		void push(int node, double distance) {
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, size * 2);
+				distances = Arrays.copyOf(distances, size * 2);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!before(distance, distances[parent])) {
+					break;
+				}
+				nodes[i] = nodes[parent];
+				distances[i] = distances[parent];
+				i = parent;
+			}
+			nodes[i] = node;
+			distances[i] = distance;
+		}
+
+		int pop() {
+			int top = nodes[0];
+			size--;
+			int node = nodes[size];
+			double distance = distances[size];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && before(distances[child + 1], distances[child])) {
+					child++;
+				}
+				if (!before(distances[child], distance)) {
+					break;
+				}
+				nodes[i] = nodes[child];
+				distances[i] = distances[child];
+				i = child;
+			}
+			nodes[i] = node;
+			distances[i] = distance;
+			return top;
+		}
+
+		/**
+		 * @return nodes sorted by distance ascending, emptying the queue
+		 */
+		int[] drainSorted() {
+			int[] sorted = new int[size];
+			if (max) {
+				for (int i = sorted.length - 1; i >= 0; i--) {
+					sorted[i] = pop();
+				}
+			} else {
+				for (int i = 0; i < sorted.length; i++) {
+					sorted[i] = pop();
+				}
+			}
+			return sorted;
+		}
+
+		private boolean before(double a, double b) {
+			return max ? a > b : a < b;
+		}
+	}
+}
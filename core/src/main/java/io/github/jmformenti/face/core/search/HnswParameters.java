@@ -0,0 +1,56 @@
+package io.github.jmformenti.face.core.search;
+
+public class HnswParameters {
+
+	public static final int DEFAULT_M = 16;
+	public static final int DEFAULT_EF_CONSTRUCTION = 200;
+	public static final int DEFAULT_EF_SEARCH = 64;
+
+	private int m;
+	private int efConstruction;
+	private int efSearch;
+
+	public HnswParameters() {
+		this(DEFAULT_M, DEFAULT_EF_CONSTRUCTION, DEFAULT_EF_SEARCH);
+	}
+
+	/**
+	 * @param m              max links per node and layer (twice on the bottom
+	 *                       layer)
+	 * @param efConstruction candidate list size while building
+	 * @param efSearch       candidate list size while searching, also number of
+	 *                       nearest embeddings used to select candidate labels
+	 */
+	public HnswParameters(int m, int efConstruction, int efSearch) {
+		super();
+		if (m < 2 || efConstruction < 1 || efSearch < 1) {
+			throw new IllegalArgumentException(
+					String.format("Invalid HNSW parameters m=%d efConstruction=%d efSearch=%d", m, efConstruction,
+							efSearch));
+		}
+		this.m = m;
+		this.efConstruction = efConstruction;
+		this.efSearch = efSearch;
+	}
+
+	public int getM() {
+		return m;
+	}
+
+	public int getEfConstruction() {
+		return efConstruction;
+	}
+
+	public int getEfSearch() {
+		return efSearch;
+	}
+
+	public void setEfSearch(int efSearch) {
+		this.efSearch = efSearch;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("m=%d, efConstruction=%d, efSearch=%d", m, efConstruction, efSearch);
+	}
+}
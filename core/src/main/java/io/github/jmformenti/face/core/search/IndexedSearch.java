@@ -0,0 +1,52 @@
+package io.github.jmformenti.face.core.search;
+
+import java.nio.FloatBuffer;
+import java.util.BitSet;
+
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Approximate search: the labels of the nearest embeddings found with the HNSW
+ * index under the similarity threshold are the candidates, and only those are
+ * scored with the exact vote of {@link ExhaustiveSearch}.
+ */
+public class IndexedSearch implements EmbeddingsSearch {
+
+	private final HnswIndex index;
+
+	public IndexedSearch(HnswIndex index) {
+		this.index = index;
+	}
+
+	@Override
+	public EmbeddingResult search(float[] embedding) {
+		EmbeddingsMatrix matrix = index.getMatrix();
+		FloatBuffer[] data = matrix.getChunks();
+		double[] inverseNorms = matrix.getInverseNorms();
+		double embeddingInverseNorm = VectorUtil.inverseNorm(VectorUtil.squaredNorm(embedding));
+
+		BitSet candidates = new BitSet(matrix.getNumLabels());
+		for (int row : index.search(embedding, index.getParameters().getEfSearch())) {
+			double similarity = VectorUtil.cosine(embedding, embeddingInverseNorm, data[matrix.getChunk(row)],
+					matrix.getRowOffset(row), inverseNorms[row]);
+			if (similarity <= ExhaustiveSearch.SIMILARITY_THRESHOLD) {
+				candidates.set(matrix.getLabelIndex(row));
+			}
+		}
+
+		String result = null;
+		double minRatioSimilarity = 1;
+		for (int label = candidates.nextSetBit(0); label >= 0; label = candidates.nextSetBit(label + 1)) {
+			double ratioSimilarity = ExhaustiveSearch.ratioSimilarity(matrix, data, inverseNorms, label, embedding,
+					embeddingInverseNorm);
+			if (ratioSimilarity < minRatioSimilarity) {
+				result = matrix.getLabel(label);
+				minRatioSimilarity = ratioSimilarity;
+			}
+		}
+
+		return ExhaustiveSearch.toResult(result, minRatioSimilarity);
+	}
+}
@@ -0,0 +1,115 @@
+package io.github.jmformenti.face.core.search;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+/**
+ * Exact search splitting the labels in ranges of similar number of embeddings
+ * searched in a fork-join pool. Galleries too small to split are searched in
+ * the calling thread with {@link ExhaustiveSearch}. Results are the same as the
+ * serial search, including ties that keep the first label.
+ */
+public class ParallelSearch implements EmbeddingsSearch {
+
+	public static final int DEFAULT_MIN_ROWS_PER_TASK = 4096;
+
+	private final EmbeddingsMatrix matrix;
+	private final ForkJoinPool pool;
+	private final int minRowsPerTask;
+
+	public ParallelSearch(EmbeddingsMatrix matrix, ForkJoinPool pool) {
+		this(matrix, pool, DEFAULT_MIN_ROWS_PER_TASK);
+	}
+
+	public ParallelSearch(EmbeddingsMatrix matrix, ForkJoinPool pool, int minRowsPerTask) {
+		this.matrix = matrix;
+		this.pool = pool;
+		this.minRowsPerTask = minRowsPerTask;
+	}
+
+	@Override
+	public EmbeddingResult search(float[] embedding) {
+		if (pool.getParallelism() < 2 || matrix.getNumRows() < 2 * minRowsPerTask || matrix.getNumLabels() < 2) {
+			return new ExhaustiveSearch(matrix).search(embedding);
+		}
+
+		Best best = pool.invoke(new LabelRangeTask(matrix.getChunks(), matrix.getInverseNorms(), embedding,
+				VectorUtil.inverseNorm(VectorUtil.squaredNorm(embedding)), 0, matrix.getNumLabels()));
+		return ExhaustiveSearch.toResult(best.label < 0 ? null : matrix.getLabel(best.label), best.ratioSimilarity);
+	}
+
+	private static class Best {
+
+		private final int label;
+		private final double ratioSimilarity;
+
+		Best(int label, double ratioSimilarity) {
+			this.label = label;
+			this.ratioSimilarity = ratioSimilarity;
+		}
+	}
+
+	private class LabelRangeTask extends RecursiveTask<Best> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FloatBuffer[] data;
+		private final double[] inverseNorms;
+		private final float[] embedding;
+		private final double embeddingInverseNorm;
+		private final int fromLabel;
+		private final int toLabel;
+
+		LabelRangeTask(FloatBuffer[] data, double[] inverseNorms, float[] embedding, double embeddingInverseNorm,
+				int fromLabel, int toLabel) {
+			this.data = data;
+			this.inverseNorms = inverseNorms;
+			this.embedding = embedding;
+			this.embeddingInverseNorm = embeddingInverseNorm;
+			this.fromLabel = fromLabel;
+			this.toLabel = toLabel;
+		}
+
+		@Override
+		protected Best compute() {
+			int fromRow = matrix.getStart(fromLabel);
+			int toRow = matrix.getEnd(toLabel - 1);
+			if (toRow - fromRow <= minRowsPerTask || toLabel - fromLabel < 2) {
+				return searchRange();
+			}
+
+			// split by rows, not labels, so both halves have similar work
+			int split = matrix.getLabelIndex((fromRow + toRow) >>> 1);
+			split = Math.max(fromLabel + 1, Math.min(split, toLabel - 1));
+
+			LabelRangeTask left = new LabelRangeTask(data, inverseNorms, embedding, embeddingInverseNorm, fromLabel,
+					split);
+			LabelRangeTask right = new LabelRangeTask(data, inverseNorms, embedding, embeddingInverseNorm, split,
+					toLabel);
+			right.fork();
+			Best leftBest = left.compute();
+			Best rightBest = right.join();
+			// left labels come first, on ties keep them as the serial search does
+			return rightBest.ratioSimilarity < leftBest.ratioSimilarity ? rightBest : leftBest;
+		}
+
+		private Best searchRange() {
+			int result = -1;
+			double minRatioSimilarity = 1;
+			for (int label = fromLabel; label < toLabel; label++) {
+				double ratioSimilarity = ExhaustiveSearch.ratioSimilarity(matrix, data, inverseNorms, label,
+						embedding, embeddingInverseNorm);
+				if (ratioSimilarity < minRatioSimilarity) {
+					result = label;
+					minRatioSimilarity = ratioSimilarity;
+				}
+			}
+			return new Best(result, minRatioSimilarity);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package io.github.jmformenti.face.core.search;
+
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.quantization.QuantizedMatrix;
+import io.github.jmformenti.face.core.quantization.QuantizedMatrix.Scorer;
+
+/**
+ * Same vote as {@link ExhaustiveSearch} with the approximate distances of the
+ * rows of a quantized gallery, compared without decoding them.
+ */
+public class QuantizedSearch implements EmbeddingsSearch {
+
+	private final QuantizedMatrix matrix;
+
+	public QuantizedSearch(QuantizedMatrix matrix) {
+		this.matrix = matrix;
+	}
+
+	@Override
+	public EmbeddingResult search(float[] embedding) {
+		Scorer scorer = matrix.newScorer(embedding);
+
+		String result = null;
+		double minRatioSimilarity = 1;
+		for (int label = 0; label < matrix.getNumLabels(); label++) {
+			int numVotes = 0;
+			double accumulatedSimilarity = 0;
+			for (int row = matrix.getStart(label); row < matrix.getEnd(label); row++) {
+				double similarity = scorer.cosine(row);
+				if (similarity <= ExhaustiveSearch.SIMILARITY_THRESHOLD) {
+					accumulatedSimilarity += similarity;
+					numVotes++;
+				}
+			}
+			double ratioSimilarity = accumulatedSimilarity / numVotes;
+			if (ratioSimilarity < minRatioSimilarity) {
+				result = matrix.getLabel(label);
+				minRatioSimilarity = ratioSimilarity;
+			}
+		}
+
+		return ExhaustiveSearch.toResult(result, minRatioSimilarity);
+	}
+}
@@ -0,0 +1,121 @@
+package io.github.jmformenti.face.core.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+
+/**
+ * Recall of an approximate search against the exhaustive search: fraction of
+ * queries with the same result (same label, or no label in both), mean
+ * difference of the probability of the same labels, and the time spent by
+ * each search.
+ */
+public class SearchRecall {
+
+	private final int queries;
+	private final int matches;
+	private final double probabilityDelta;
+	private final long exactNanos;
+	private final long approximateNanos;
+
+	private SearchRecall(int queries, int matches, double probabilityDelta, long exactNanos,
+			long approximateNanos) {
+		this.queries = queries;
+		this.matches = matches;
+		this.probabilityDelta = probabilityDelta;
+		this.exactNanos = exactNanos;
+		this.approximateNanos = approximateNanos;
+	}
+
+	public static SearchRecall measure(EmbeddingsSearch exact, EmbeddingsSearch approximate,
+			List<float[]> queries) {
+		int matches = 0;
+		int labelMatches = 0;
+		double probabilityDelta = 0;
+		long exactNanos = 0;
+		long approximateNanos = 0;
+		for (float[] query : queries) {
+			long start = System.nanoTime();
+			EmbeddingResult expected = exact.search(query);
+			exactNanos += System.nanoTime() - start;
+
+			start = System.nanoTime();
+			EmbeddingResult actual = approximate.search(query);
+			approximateNanos += System.nanoTime() - start;
+
+			if (Objects.equals(getName(expected), getName(actual))) {
+				matches++;
+				if (expected != null) {
+					labelMatches++;
+					probabilityDelta += Math.abs(expected.getProbability() - actual.getProbability());
+				}
+			}
+		}
+		return new SearchRecall(queries.size(), matches, labelMatches == 0 ? 0 : probabilityDelta / labelMatches,
+				exactNanos, approximateNanos);
+	}
+
+	private static String getName(EmbeddingResult result) {
+		return result == null ? null : result.getName();
+	}
+
+	/**
+	 * @return random embeddings of the gallery to use as queries when there are
+	 *         no others, optimistic as each one is also in the gallery
+	 */
+	public static List<float[]> sampleQueries(EmbeddingsMatrix matrix, int size, long seed) {
+		Random random = new Random(seed);
+		List<float[]> queries = new ArrayList<>(size);
+		for (int i = 0; i < size && matrix.getNumRows() > 0; i++) {
+			queries.add(matrix.getRow(random.nextInt(matrix.getNumRows())));
+		}
+		return queries;
+	}
+
+	public int getQueries() {
+		return queries;
+	}
+
+	public int getMatches() {
+		return matches;
+	}
+
+	public double getRecall() {
+		return queries == 0 ? 1 : (double) matches / queries;
+	}
+
+	/**
+	 * @return mean absolute difference of the probability of the queries with
+	 *         the same label
+	 */
+	public double getProbabilityDelta() {
+		return probabilityDelta;
+	}
+
+	public long getExactNanos() {
+		return exactNanos;
+	}
+
+	public long getApproximateNanos() {
+		return approximateNanos;
+	}
+
+	/**
+	 * @return how many times faster the approximate search is
+	 */
+	public double getSpeedup() {
+		return approximateNanos == 0 ? 0 : (double) exactNanos / approximateNanos;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"recall=%.4f (%d/%d), probabilityDelta=%.5f, exact=%.3fms/query, approximate=%.3fms/query, speedup=%.1fx",
+				getRecall(), matches, queries, probabilityDelta, queries == 0 ? 0 : exactNanos / 1e6 / queries,
+				queries == 0 ? 0 : approximateNanos / 1e6 / queries, getSpeedup());
+	}
+}
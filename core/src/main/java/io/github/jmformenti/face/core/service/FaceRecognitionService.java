@@ -1,23 +1,122 @@
 package io.github.jmformenti.face.core.service;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Consumer;
 
 import ai.djl.modality.cv.Image;
 import ai.djl.modality.cv.output.DetectedObjects;
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
 import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EnrollmentMode;
+import io.github.jmformenti.face.core.domain.ImagePrediction;
+import io.github.jmformenti.face.core.quantization.Quantization;
+import io.github.jmformenti.face.core.search.HnswParameters;
+import io.github.jmformenti.face.core.search.SearchRecall;
+import io.github.jmformenti.face.core.storage.EmbeddingsCache;
+import io.github.jmformenti.face.core.storage.GalleryStore;
+import io.github.jmformenti.face.core.tracking.FrameRecognizer;
+import io.github.jmformenti.face.core.tracking.TrackingParameters;
 
 public interface FaceRecognitionService {
 
 	public EmbeddingsHolder generateEmbeddings(Path basePath, boolean doAugmentation, boolean saveDetectedFaces)
 			throws IOException;
 
-	public EmbeddingsHolder loadEmbeddings(Path embeddingsHolderPath) throws FileNotFoundException;
+	/**
+	 * @param mode how images are processed, results are the same in every mode
+	 */
+	public EmbeddingsHolder generateEmbeddings(Path basePath, boolean doAugmentation, boolean saveDetectedFaces,
+			EnrollmentMode mode) throws IOException;
 
-	public void saveEmbeddings(EmbeddingsHolder embeddingsHolder, Path embeddingsHolderPath)
-			throws FileNotFoundException;
+	/**
+	 * @param cache results of previous runs by image, only new or changed images
+	 *              are analyzed and the cache is updated with them. Null to analyze
+	 *              every image.
+	 */
+	public EmbeddingsHolder generateEmbeddings(Path basePath, boolean doAugmentation, boolean saveDetectedFaces,
+			EnrollmentMode mode, EmbeddingsCache cache) throws IOException;
+
+	/**
+	 * @return embeddings of the images of one person dir, labeled with the dir name
+	 */
+	public EmbeddingItem generatePersonEmbeddings(Path personPath, boolean doAugmentation, boolean saveDetectedFaces);
+
+	/**
+	 * Loads embeddings with the changes of their {@link GalleryStore} journal, if
+	 * any.
+	 */
+	public EmbeddingsHolder loadEmbeddings(Path embeddingsHolderPath) throws IOException;
+
+	public void saveEmbeddings(EmbeddingsHolder embeddingsHolder, Path embeddingsHolderPath) throws IOException;
+
+	/**
+	 * Builds an approximate nearest neighbour index used by
+	 * {@link #predict(Image, EmbeddingsHolder)} instead of exhaustive search. It is
+	 * saved with the embeddings and discarded if they are modified.
+	 */
+	public void buildIndex(EmbeddingsHolder embeddingsHolder, HnswParameters parameters);
+
+	/**
+	 * Builds prototype centroids of each label used by
+	 * {@link #predict(Image, EmbeddingsHolder)}, if there is no index, to score
+	 * only the candidate labels with the most similar centroids. They are built
+	 * on load when enabled with the face.search.centroid-candidates property.
+	 *
+	 * @param prototypes max centroids per label
+	 * @param candidates labels scored by the exact search
+	 */
+	public void buildCentroids(EmbeddingsHolder embeddingsHolder, int prototypes, int candidates);
+
+	/**
+	 * @param queries embeddings to search, typically of faces not in the gallery
+	 * @return recall of the centroid search of the holder against the exhaustive
+	 *         search
+	 */
+	public SearchRecall measureCentroidRecall(EmbeddingsHolder embeddingsHolder, List<float[]> queries);
+
+	/**
+	 * Quantizes the embeddings, so they are saved compressed and searched without
+	 * decoding them. Modifying the embeddings discards the quantization.
+	 *
+	 * @param quantization {@link Quantization#FLOAT32} to remove the quantization
+	 */
+	public void quantize(EmbeddingsHolder embeddingsHolder, Quantization quantization);
+
+	/**
+	 * @param queries embeddings to search, typically of faces not in the gallery
+	 * @return recall of the search of the quantized embeddings of the holder
+	 *         against the exhaustive search of its float embeddings
+	 */
+	public SearchRecall measureQuantizationRecall(EmbeddingsHolder embeddingsHolder, List<float[]> queries);
 
 	public DetectedObjects predict(Image image, EmbeddingsHolder embeddingsHolder);
 
+	/**
+	 * Recognizes faces of several images, detecting and embedding them in batches.
+	 *
+	 * @return recognized faces of each image, in the same order
+	 */
+	public List<DetectedObjects> predict(List<Image> images, EmbeddingsHolder embeddingsHolder);
+
+	/**
+	 * Recognizes faces of many image files with a pool of workers
+	 * (face.prediction.workers property), each one predicting a batch of images at
+	 * a time (face.prediction.batch-size property). An image that can not be
+	 * decoded or predicted gets a prediction with the error, the rest go on.
+	 *
+	 * @param consumer called by the workers with each prediction, in no particular
+	 *                 order, so it must be thread safe. The decoded image is
+	 *                 released once it returns.
+	 */
+	public void predict(List<Path> imagePaths, EmbeddingsHolder embeddingsHolder, Consumer<ImagePrediction> consumer);
+
+	/**
+	 * @return recognizer of the frames of a video or any other ordered sequence of
+	 *         images, that embeds and searches a face only when it appears, moves
+	 *         too much or every refresh frames, instead of in every frame
+	 */
+	public FrameRecognizer newFrameRecognizer(EmbeddingsHolder embeddingsHolder, TrackingParameters parameters);
+
 }
@@ -0,0 +1,35 @@
+package io.github.jmformenti.face.core.service.impl;
+
+/**
+ * Images and faces processed by one enrollment worker since it started.
+ */
+class EnrollmentProgress {
+
+	private final String worker;
+	private final long startNanos;
+
+	private int dirs;
+	private long images;
+	private long faces;
+
+	EnrollmentProgress(String worker) {
+		this.worker = worker;
+		this.startNanos = System.nanoTime();
+	}
+
+	synchronized void addImages(int images, int faces) {
+		this.images += images;
+		this.faces += faces;
+	}
+
+	synchronized void addDir() {
+		this.dirs++;
+	}
+
+	@Override
+	public synchronized String toString() {
+		double seconds = Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+		return String.format("%s: %d dirs, %d images (%.1f images/s), %d faces (%.1f faces/s)", worker, dirs, images,
+				images / seconds, faces, faces / seconds);
+	}
+}
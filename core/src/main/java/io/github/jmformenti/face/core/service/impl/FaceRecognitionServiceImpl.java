@@ -1,19 +1,32 @@
 package io.github.jmformenti.face.core.service.impl;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.apache.commons.compress.utils.FileNameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import ai.djl.modality.cv.Image;
@@ -28,10 +41,33 @@ import ai.djl.translate.TranslateException;
 import io.github.jmformenti.face.core.domain.EmbeddingItem;
 import io.github.jmformenti.face.core.domain.EmbeddingResult;
 import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.domain.EnrollmentMode;
 import io.github.jmformenti.face.core.domain.ImageElement;
+import io.github.jmformenti.face.core.domain.ImagePrediction;
+import io.github.jmformenti.face.core.metrics.FaceMetrics;
+import io.github.jmformenti.face.core.metrics.FaceMetrics.Stage;
 import io.github.jmformenti.face.core.model.FaceDetectionModel;
 import io.github.jmformenti.face.core.model.FaceEmbeddingModel;
+import io.github.jmformenti.face.core.pipeline.Pipeline;
+import io.github.jmformenti.face.core.quantization.Quantization;
+import io.github.jmformenti.face.core.quantization.QuantizedMatrix;
+import io.github.jmformenti.face.core.search.CentroidIndex;
+import io.github.jmformenti.face.core.search.CentroidSearch;
+import io.github.jmformenti.face.core.search.EmbeddingsSearch;
+import io.github.jmformenti.face.core.search.ExhaustiveSearch;
+import io.github.jmformenti.face.core.search.HnswIndex;
+import io.github.jmformenti.face.core.search.HnswParameters;
+import io.github.jmformenti.face.core.search.QuantizedSearch;
+import io.github.jmformenti.face.core.search.SearchRecall;
 import io.github.jmformenti.face.core.service.FaceRecognitionService;
+import io.github.jmformenti.face.core.storage.EmbeddingsCache;
+import io.github.jmformenti.face.core.storage.EmbeddingsCache.CachedImage;
+import io.github.jmformenti.face.core.storage.GalleryStore;
+import io.github.jmformenti.face.core.storage.PredictionCache;
+import io.github.jmformenti.face.core.tracking.FaceTracker;
+import io.github.jmformenti.face.core.tracking.FrameRecognizer;
+import io.github.jmformenti.face.core.tracking.TrackingParameters;
 import io.github.jmformenti.face.core.util.ImageUtil;
 
 @Service
@@ -49,64 +85,425 @@ public class FaceRecognitionServiceImpl implements FaceRecognitionService {
 	@Autowired
 	private FaceEmbeddingModel faceEmbedding;
 
+	@Autowired
+	private FaceMetrics metrics;
+
+	@Autowired
+	private PredictionCache predictionCache;
+
+	@Value("${face.pipeline.queue-capacity:64}")
+	private int pipelineQueueCapacity;
+
+	@Value("${face.pipeline.decode-threads:0}")
+	private int pipelineDecodeThreads;
+
+	@Value("${face.pipeline.detect-threads:0}")
+	private int pipelineDetectThreads;
+
+	@Value("${face.pipeline.crop-threads:0}")
+	private int pipelineCropThreads;
+
+	@Value("${face.pipeline.embed-threads:0}")
+	private int pipelineEmbedThreads;
+
+	@Value("${face.pipeline.augment-threads:0}")
+	private int pipelineAugmentThreads;
+
+	@Value("${face.enrollment.workers:0}")
+	private int enrollmentWorkers;
+
+	@Value("${face.prediction.workers:0}")
+	private int predictionWorkers;
+
+	@Value("${face.prediction.batch-size:8}")
+	private int predictionBatchSize;
+
+	@Value("${face.detection.decode-size:0}")
+	private int detectionDecodeSize;
+
+	@Value("${face.search.centroid-candidates:0}")
+	private int centroidCandidates;
+
+	@Value("${face.search.centroid-prototypes:" + CentroidIndex.DEFAULT_PROTOTYPES + "}")
+	private int centroidPrototypes;
+
+	@Value("${face.embeddings.pq-subspaces:0}")
+	private int pqSubspaces;
+
 	@Override
 	public EmbeddingsHolder generateEmbeddings(Path basePath, boolean doAugmentation, boolean saveDetectedFaces)
 			throws IOException {
-		EmbeddingsHolder embeddingModel = new EmbeddingsHolder();
+		return generateEmbeddings(basePath, doAugmentation, saveDetectedFaces, EnrollmentMode.SEQUENTIAL);
+	}
 
-		Files.walk(basePath) //
-				.filter(p -> Files.isDirectory(p) && !p.equals(basePath)) //
-				.map(p -> getFacesEmbedding(p, doAugmentation, saveDetectedFaces)) //
-				.forEach(e -> embeddingModel.add(e));
+	@Override
+	public EmbeddingsHolder generateEmbeddings(Path basePath, boolean doAugmentation, boolean saveDetectedFaces,
+			EnrollmentMode mode) throws IOException {
+		return generateEmbeddings(basePath, doAugmentation, saveDetectedFaces, mode, null);
+	}
+
+	@Override
+	public EmbeddingsHolder generateEmbeddings(Path basePath, boolean doAugmentation, boolean saveDetectedFaces,
+			EnrollmentMode mode, EmbeddingsCache cache) throws IOException {
+		// without cache every image is analyzed, results are kept only for this run
+		EmbeddingsCache embeddingsCache = cache == null ? new EmbeddingsCache() : cache;
+		String analysis = String.format("detection %s, decode size %d, embedding %s", faceDetection.getModelId(),
+				detectionDecodeSize, faceEmbedding.getModelId());
+		if (!embeddingsCache.setAnalysis(analysis)) {
+			logger.info("Discarding embeddings cache of other models or settings, analyzing all images");
+		}
 
+		EmbeddingsHolder embeddingModel;
+		if (mode == EnrollmentMode.PIPELINE) {
+			embeddingModel = generateEmbeddingsPipeline(basePath, doAugmentation, saveDetectedFaces, embeddingsCache);
+		} else if (mode == EnrollmentMode.PARALLEL) {
+			embeddingModel = generateEmbeddingsParallel(basePath, doAugmentation, saveDetectedFaces, embeddingsCache);
+		} else {
+			embeddingModel = new EmbeddingsHolder();
+			EnrollmentProgress progress = new EnrollmentProgress(Thread.currentThread().getName());
+
+			for (Path personPath : getPersonPaths(basePath)) {
+				embeddingModel.add(
+						getFacesEmbedding(personPath, doAugmentation, saveDetectedFaces, progress, embeddingsCache));
+			}
+			logger.debug("{}", progress);
+		}
+
+		if (cache != null) {
+			logger.debug("Embeddings cache {}", cache);
+		}
+		metrics.setGallery(embeddingModel);
 		return embeddingModel;
 	}
 
-	private EmbeddingItem getFacesEmbedding(Path personPath, boolean doAugmentation, boolean saveDetectedFaces) {
-		logger.debug("Analyzing {} dir ..", personPath);
+	/**
+	 * Same result as the sequential mode, with person dirs processed concurrently
+	 * by a pool of workers. Embeddings are added in dir order, not as they finish.
+	 */
+	private EmbeddingsHolder generateEmbeddingsParallel(Path basePath, boolean doAugmentation,
+			boolean saveDetectedFaces, EmbeddingsCache cache) throws IOException {
+		List<Path> personPaths = getPersonPaths(basePath);
+		int workers = orProcessors(enrollmentWorkers);
+		logger.debug("Analyzing {} dirs with {} workers ..", personPaths.size(), workers);
+
+		AtomicInteger workerNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(workers,
+				r -> new Thread(r, "enroll-" + workerNumber.incrementAndGet()));
+		Map<String, EnrollmentProgress> progressByWorker = new ConcurrentHashMap<>();
+		EmbeddingsHolder embeddingModel = new EmbeddingsHolder();
 		try {
-			List<double[]> embeddings = Files.walk(personPath) //
-					.filter(path -> ImageUtil.isImage(path)) //
-					.map(path -> {
-						logger.debug("Found image {}", path);
-						return new ImageElement(ImageUtil.getImage(path), path);
-					}) //
-					.map(imageElem -> detectFaces(imageElem, saveDetectedFaces)) //
-					.map(imageElem -> faceEmbedding.calculateEmbeddings(imageElem)) //
-					.map(imageElem -> generateDataAugmentation(imageElem, doAugmentation)) //
-					.flatMap(imageElem -> imageElem.getEmbeddings().stream()) //
+			List<Future<EmbeddingItem>> futures = personPaths.stream() //
+					.map(personPath -> executor.submit(() -> {
+						EnrollmentProgress progress = progressByWorker
+								.computeIfAbsent(Thread.currentThread().getName(), EnrollmentProgress::new);
+						EmbeddingItem item = getFacesEmbedding(personPath, doAugmentation, saveDetectedFaces, progress,
+								cache);
+						logger.info("{}", progress);
+						return item;
+					})) //
 					.collect(Collectors.toList());
 
-			return new EmbeddingItem(getLabel(personPath), embeddings);
+			for (int i = 0; i < futures.size(); i++) {
+				embeddingModel.add(getResult(futures.get(i), personPaths.get(i)));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return embeddingModel;
+	}
+
+	private <T> T getResult(Future<T> future, Path path) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(String.format("Interrupted analyzing images from %s", path), e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(String.format("Error analyzing images from %s", path), e.getCause());
+		}
+	}
+
+	private List<Path> getPersonPaths(Path basePath) throws IOException {
+		try (Stream<Path> paths = Files.walk(basePath)) {
+			return paths.filter(p -> Files.isDirectory(p) && !p.equals(basePath)).collect(Collectors.toList());
+		}
+	}
+
+	private List<Path> getImagePaths(Path personPath) {
+		try (Stream<Path> paths = Files.walk(personPath)) {
+			return paths.filter(path -> ImageUtil.isImage(path)).collect(Collectors.toList());
 		} catch (IOException e) {
 			throw new RuntimeException(String.format("Error analyzing images from %s", personPath), e);
 		}
 	}
 
-	private ImageElement detectFaces(ImageElement imageElement, boolean saveDetectedFaces) {
-		imageElement = faceDetection.getDetectedFaces(imageElement);
-		if (imageElement.getDetectedFaces().getNumberOfObjects() > 0) {
-			logger.debug("Found {} faces.", imageElement.getDetectedFaces().getNumberOfObjects());
-			if (imageElement.getDetectedFaces().getNumberOfObjects() > 1) {
-				logger.debug("Selecting max face to use.");
-				DetectedObject maxFace = ImageUtil.selectMaxDetectedObject(imageElement.getDetectedFaces());
-				imageElement.setDetectedFaces(new DetectedObjects(List.of(maxFace.getClassName()),
-						List.of(maxFace.getProbability()), List.of(maxFace.getBoundingBox())));
+	private EmbeddingItem getFacesEmbedding(Path personPath, boolean doAugmentation, boolean saveDetectedFaces,
+			EnrollmentProgress progress, EmbeddingsCache cache) {
+		logger.debug("Analyzing {} dir ..", personPath);
+		List<Path> imagePaths = getImagePaths(personPath);
+
+		Map<Path, List<float[]>> embeddingsByPath = new HashMap<>();
+		List<Path> pendingPaths = new ArrayList<>();
+		for (Path path : imagePaths) {
+			CachedImage cached = getCached(cache, path, doAugmentation);
+			if (cached != null) {
+				embeddingsByPath.put(path, cached.getEmbeddings());
+			} else {
+				pendingPaths.add(path);
 			}
-			if (saveDetectedFaces) {
-				saveDetectedFaces(imageElement, imageElement.getDetectedFaces());
+		}
+
+		// images are processed in chunks so faces of several images are embedded together
+		int chunkSize = faceEmbedding.getBatchSize();
+		for (int from = 0; from < pendingPaths.size(); from += chunkSize) {
+			List<ImageElement> imageElements = pendingPaths
+					.subList(from, Math.min(pendingPaths.size(), from + chunkSize)).stream() //
+					.map(path -> decode(path)) //
+					.collect(Collectors.toList());
+
+			List<ImageElement> detectedElements = detectFaces(imageElements);
+			for (int i = 0; i < imageElements.size(); i++) {
+				if (detectedElements.get(i) == null) {
+					putCached(cache, imageElements.get(i).getOriginalPath(), doAugmentation, null);
+				}
 			}
-			return imageElement;
-		} else {
+			List<ImageElement> faceElements = detectedElements.stream() //
+					.filter(Objects::nonNull) //
+					.map(imageElem -> selectFace(imageElem, saveDetectedFaces)) //
+					.collect(Collectors.toList());
+			progress.addImages(imageElements.size(), faceElements.size());
+
+			calculateEmbeddings(faceElements).stream() //
+					.map(imageElem -> generateDataAugmentation(imageElem, doAugmentation)) //
+					.forEach(imageElem -> {
+						embeddingsByPath.put(imageElem.getOriginalPath(), imageElem.getEmbeddings());
+						putCached(cache, imageElem.getOriginalPath(), doAugmentation, imageElem);
+					});
+		}
+
+		// in image order, whether they were cached or not
+		List<float[]> embeddings = new ArrayList<>();
+		imagePaths.forEach(path -> embeddings.addAll(embeddingsByPath.getOrDefault(path, List.of())));
+
+		progress.addDir();
+		return new EmbeddingItem(getLabel(personPath), embeddings);
+	}
+
+	@Override
+	public EmbeddingItem generatePersonEmbeddings(Path personPath, boolean doAugmentation,
+			boolean saveDetectedFaces) {
+		EnrollmentProgress progress = new EnrollmentProgress(Thread.currentThread().getName());
+		EmbeddingItem item = getFacesEmbedding(personPath, doAugmentation, saveDetectedFaces, progress,
+				new EmbeddingsCache());
+		logger.debug("{}", progress);
+		return item;
+	}
+
+	private CachedImage getCached(EmbeddingsCache cache, Path imagePath, boolean doAugmentation) {
+		try {
+			return cache.get(imagePath, doAugmentation);
+		} catch (IOException e) {
+			logger.warn("Ignoring cached embeddings of {}: {}", imagePath, e.getMessage());
 			return null;
 		}
 	}
 
+	/**
+	 * @param imageElement image with its selected face and embeddings, null if no
+	 *                     face was detected
+	 */
+	private void putCached(EmbeddingsCache cache, Path imagePath, boolean doAugmentation,
+			ImageElement imageElement) {
+		try {
+			if (imageElement == null) {
+				cache.put(imagePath, doAugmentation, null, List.of());
+			} else {
+				cache.put(imagePath, doAugmentation, (DetectedObject) imageElement.getDetectedFaces().item(0),
+						imageElement.getEmbeddings());
+			}
+		} catch (IOException e) {
+			logger.warn("Not caching embeddings of {}: {}", imagePath, e.getMessage());
+		}
+	}
+
+	/**
+	 * Same result as the sequential mode, but the images of all dirs go through
+	 * a {@link Pipeline} so decoding, detection and embedding run at the same
+	 * time. Embeddings are put back in image order before adding them.
+	 */
+	private EmbeddingsHolder generateEmbeddingsPipeline(Path basePath, boolean doAugmentation,
+			boolean saveDetectedFaces, EmbeddingsCache cache) throws IOException {
+		List<Path> personPaths = getPersonPaths(basePath);
+		List<SortedMap<Integer, List<float[]>>> embeddingsByImage = personPaths.stream() //
+				.map(p -> new TreeMap<Integer, List<float[]>>()) //
+				.collect(Collectors.toList());
+
+		List<PipelineItem> items = new ArrayList<>();
+		for (int person = 0; person < personPaths.size(); person++) {
+			List<Path> imagePaths = getImagePaths(personPaths.get(person));
+			for (int image = 0; image < imagePaths.size(); image++) {
+				CachedImage cached = getCached(cache, imagePaths.get(image), doAugmentation);
+				if (cached != null) {
+					embeddingsByImage.get(person).put(image, cached.getEmbeddings());
+				} else {
+					items.add(new PipelineItem(person, image, imagePaths.get(image)));
+				}
+			}
+		}
+		logger.debug("Analyzing {} images from {} dirs ..", items.size(), personPaths.size());
+
+		int batchSize = faceEmbedding.getBatchSize();
+		Pipeline<PipelineItem, PipelineItem> pipeline = Pipeline.<PipelineItem>create(pipelineQueueCapacity) //
+				.then("decode", orProcessors(pipelineDecodeThreads), item -> {
+					item.imageElement = decode(item.path);
+					return item;
+				}) //
+				.thenBatch("detect", orProcessors(pipelineDetectThreads), batchSize,
+						detectItems -> detectFaces(detectItems, doAugmentation, cache)) //
+				.then("crop", orProcessors(pipelineCropThreads), item -> {
+					cropFace(item.imageElement, saveDetectedFaces);
+					return item;
+				}) //
+				.thenBatch("embed", orProcessors(pipelineEmbedThreads), batchSize, this::embedFaces) //
+				.then("augment", orProcessors(pipelineAugmentThreads), item -> {
+					generateDataAugmentation(item.imageElement, doAugmentation);
+					return item;
+				});
+
+		pipeline.run(items, item -> {
+			embeddingsByImage.get(item.person).put(item.image, item.imageElement.getEmbeddings());
+			putCached(cache, item.path, doAugmentation, item.imageElement);
+		});
+
+		EmbeddingsHolder embeddingModel = new EmbeddingsHolder();
+		for (int person = 0; person < personPaths.size(); person++) {
+			List<float[]> embeddings = new ArrayList<>();
+			embeddingsByImage.get(person).values().forEach(embeddings::addAll);
+			embeddingModel.add(new EmbeddingItem(getLabel(personPaths.get(person)), embeddings));
+		}
+		return embeddingModel;
+	}
+
+	/**
+	 * Decodes the image at reduced resolution for detection if a decode size is
+	 * configured, faces are then read at full resolution only when needed.
+	 */
+	private ImageElement decode(Path path) {
+		logger.debug("Found image {}", path);
+		long start = metrics.start();
+		ImageElement imageElement;
+		if (detectionDecodeSize > 0) {
+			imageElement = new ImageElement(ImageUtil.getImage(path, detectionDecodeSize), path, true);
+		} else {
+			imageElement = new ImageElement(ImageUtil.getImage(path), path);
+		}
+		metrics.record(Stage.DECODE, start, 1);
+		return imageElement;
+	}
+
+	/**
+	 * @return same image elements with detected faces, null for the images
+	 *         without faces
+	 */
+	private List<ImageElement> detectFaces(List<ImageElement> imageElements) {
+		long start = metrics.start();
+		List<ImageElement> detectedElements = faceDetection.getDetectedFaces(imageElements);
+		metrics.record(Stage.DETECT, start, imageElements.size());
+		for (ImageElement imageElement : detectedElements) {
+			metrics.recordFaces(imageElement == null ? 0 : imageElement.getDetectedFaces().getNumberOfObjects());
+		}
+		return detectedElements;
+	}
+
+	/**
+	 * Crops and embeds all detected faces of the images.
+	 */
+	private List<ImageElement> calculateEmbeddings(List<ImageElement> imageElements) {
+		long start = metrics.start();
+		faceEmbedding.calculateEmbeddings(imageElements);
+		metrics.record(Stage.EMBED, start,
+				imageElements.stream().mapToInt(imageElement -> imageElement.getEmbeddings().size()).sum());
+		return imageElements;
+	}
+
+	private List<PipelineItem> detectFaces(List<PipelineItem> items, boolean doAugmentation,
+			EmbeddingsCache cache) {
+		List<ImageElement> imageElements = detectFaces(
+				items.stream().map(item -> item.imageElement).collect(Collectors.toList()));
+		List<PipelineItem> result = new ArrayList<>(items.size());
+		for (int i = 0; i < items.size(); i++) {
+			if (imageElements.get(i) == null) {
+				putCached(cache, items.get(i).path, doAugmentation, null);
+				result.add(null);
+			} else {
+				items.get(i).imageElement = imageElements.get(i);
+				result.add(items.get(i));
+			}
+		}
+		return result;
+	}
+
+	private ImageElement cropFace(ImageElement imageElement, boolean saveDetectedFaces) {
+		long start = metrics.start();
+		selectFace(imageElement, saveDetectedFaces);
+		cropSelectedFace(imageElement);
+		metrics.record(Stage.CROP, start, 1);
+		return imageElement;
+	}
+
+	/**
+	 * Sets the face of the image, unless already set when saving the detected
+	 * faces.
+	 */
+	private void cropSelectedFace(ImageElement imageElement) {
+		if (imageElement.getFace() == null) {
+			DetectedObject detectedFace = (DetectedObject) imageElement.getDetectedFaces().item(0);
+			imageElement.setFace(ImageUtil.getDetectedObjectImage(imageElement, detectedFace));
+		}
+	}
+
+	private List<PipelineItem> embedFaces(List<PipelineItem> items) {
+		try {
+			long start = metrics.start();
+			List<float[]> embeddings = faceEmbedding.predict( //
+					items.stream().map(item -> item.imageElement.getFace()).collect(Collectors.toList()));
+			metrics.record(Stage.EMBED, start, items.size());
+			for (int i = 0; i < items.size(); i++) {
+				items.get(i).imageElement.addEmbedding(embeddings.get(i));
+			}
+			return items;
+		} catch (TranslateException e) {
+			throw new RuntimeException(String.format("Error generating embedding faces in %s", items), e);
+		}
+	}
+
+	// 0 means one per available processor
+	private int orProcessors(int value) {
+		return value > 0 ? value : Runtime.getRuntime().availableProcessors();
+	}
+
+	private ImageElement selectFace(ImageElement imageElement, boolean saveDetectedFaces) {
+		logger.debug("Found {} faces.", imageElement.getDetectedFaces().getNumberOfObjects());
+		if (imageElement.getDetectedFaces().getNumberOfObjects() > 1) {
+			logger.debug("Selecting max face to use.");
+			DetectedObject maxFace = ImageUtil.selectMaxDetectedObject(imageElement.getDetectedFaces());
+			imageElement.setDetectedFaces(new DetectedObjects(List.of(maxFace.getClassName()),
+					List.of(maxFace.getProbability()), List.of(maxFace.getBoundingBox())));
+		}
+		if (saveDetectedFaces) {
+			saveDetectedFaces(imageElement, imageElement.getDetectedFaces());
+		}
+		return imageElement;
+	}
+
 	private void saveDetectedFaces(ImageElement imageElement, DetectedObjects detectedFaces) {
 		List<DetectedObject> list = detectedFaces.items();
 		int i = 1;
 		for (DetectedObject detectedFace : list) {
-			Image face = ImageUtil.getDetectedObjectImage(imageElement.getImage(), detectedFace);
+			Image face = ImageUtil.getDetectedObjectImage(imageElement, detectedFace);
 			imageElement.setFace(face);
 			try {
 				face.save(
@@ -122,17 +519,21 @@ public class FaceRecognitionServiceImpl implements FaceRecognitionService {
 
 	private ImageElement generateDataAugmentation(ImageElement imageElement, boolean doAugmentation) {
 		if (doAugmentation) {
+			long start = metrics.start();
+			// only cropped before if the detected faces were saved
+			cropSelectedFace(imageElement);
 			try (NDManager manager = NDManager.newBaseManager()) {
-				IntStream.range(1, 3).forEach(i -> {
+				List<Image> augmentedFaces = IntStream.range(1, 3).mapToObj(i -> {
 					NDArray rotated = NDImageUtils.rotate90(imageElement.getFace().toNDArray(manager), i);
-					Image augmentedFace = ImageFactory.getInstance().fromNDArray(rotated);
-					try {
-						imageElement.getEmbeddings().add(faceEmbedding.predict(augmentedFace));
-					} catch (TranslateException e) {
-						logger.error(String.format("Error generating augmented face %d for %s", i, imageElement), e);
-					}
-				});
+					return ImageFactory.getInstance().fromNDArray(rotated);
+				}).collect(Collectors.toList());
+				try {
+					imageElement.getEmbeddings().addAll(faceEmbedding.predict(augmentedFaces));
+				} catch (TranslateException e) {
+					logger.error(String.format("Error generating augmented faces for %s", imageElement), e);
+				}
 			}
+			metrics.record(Stage.AUGMENT, start, 1);
 		}
 		return imageElement;
 	}
@@ -151,32 +552,237 @@ public class FaceRecognitionServiceImpl implements FaceRecognitionService {
 	}
 
 	@Override
-	public EmbeddingsHolder loadEmbeddings(Path embeddingsHolderPath) throws FileNotFoundException {
-		return faceEmbedding.read(embeddingsHolderPath);
+	public EmbeddingsHolder loadEmbeddings(Path embeddingsHolderPath) throws IOException {
+		long start = metrics.start();
+		EmbeddingsHolder embeddingsHolder;
+		if (GalleryStore.hasJournal(embeddingsHolderPath)) {
+			embeddingsHolder = GalleryStore.load(embeddingsHolderPath);
+		} else {
+			embeddingsHolder = faceEmbedding.read(embeddingsHolderPath);
+		}
+		metrics.record(Stage.READ, start, embeddingsHolder.getNumRows());
+		metrics.setGallery(embeddingsHolder);
+
+		Path indexPath = HnswIndex.getIndexPath(embeddingsHolderPath);
+		if (Files.exists(indexPath)) {
+			try {
+				embeddingsHolder.setIndex(HnswIndex.read(indexPath, embeddingsHolder.getMatrix()));
+				logger.debug("Loaded index {}", indexPath);
+			} catch (IOException e) {
+				logger.warn("Ignoring index {}, using exhaustive search: {}", indexPath, e.getMessage());
+			}
+		}
+		if (embeddingsHolder.getIndex() == null && centroidCandidates > 0) {
+			buildCentroids(embeddingsHolder, centroidPrototypes, centroidCandidates);
+		}
+		return embeddingsHolder;
 	}
 
 	@Override
-	public void saveEmbeddings(EmbeddingsHolder embeddingsHolder, Path embeddingsHolderPath)
-			throws FileNotFoundException {
+	public void saveEmbeddings(EmbeddingsHolder embeddingsHolder, Path embeddingsHolderPath) throws IOException {
+		// the journal of the previous file would be applied to the new one
+		GalleryStore.deleteJournal(embeddingsHolderPath);
+		long start = metrics.start();
 		faceEmbedding.save(embeddingsHolder, embeddingsHolderPath);
+		metrics.record(Stage.WRITE, start, embeddingsHolder.getNumRows());
+
+		Path indexPath = HnswIndex.getIndexPath(embeddingsHolderPath);
+		if (embeddingsHolder.getIndex() != null) {
+			embeddingsHolder.getIndex().write(indexPath);
+		} else {
+			Files.deleteIfExists(indexPath);
+		}
+	}
+
+	@Override
+	public void buildIndex(EmbeddingsHolder embeddingsHolder, HnswParameters parameters) {
+		logger.debug("Building index for {} embeddings with {} ..", embeddingsHolder.getNumRows(), parameters);
+		embeddingsHolder.setIndex(HnswIndex.build(embeddingsHolder.getMatrix(), parameters));
+	}
+
+	@Override
+	public void buildCentroids(EmbeddingsHolder embeddingsHolder, int prototypes, int candidates) {
+		long start = System.nanoTime();
+		embeddingsHolder.setCentroids(CentroidIndex.build(embeddingsHolder.getMatrix(), prototypes, candidates));
+		logger.debug("Built centroids {} in {} ms", embeddingsHolder.getCentroids(),
+				(System.nanoTime() - start) / 1_000_000);
+	}
+
+	@Override
+	public SearchRecall measureCentroidRecall(EmbeddingsHolder embeddingsHolder, List<float[]> queries) {
+		CentroidIndex centroids = embeddingsHolder.getCentroids();
+		if (centroids == null) {
+			throw new IllegalStateException("Embeddings have no centroids");
+		}
+		return SearchRecall.measure(new ExhaustiveSearch(centroids.getMatrix()), new CentroidSearch(centroids),
+				queries);
+	}
+
+	@Override
+	public void quantize(EmbeddingsHolder embeddingsHolder, Quantization quantization) {
+		long start = System.nanoTime();
+		EmbeddingsMatrix matrix = embeddingsHolder.getMatrix();
+		embeddingsHolder.setQuantized(QuantizedMatrix.quantize(matrix, quantization, pqSubspaces));
+		if (embeddingsHolder.getQuantized() != null) {
+			logger.debug("Quantized {} float bytes to {} in {} ms", matrix.sizeInBytes(),
+					embeddingsHolder.getQuantized(), (System.nanoTime() - start) / 1_000_000);
+		}
+	}
+
+	@Override
+	public SearchRecall measureQuantizationRecall(EmbeddingsHolder embeddingsHolder, List<float[]> queries) {
+		QuantizedMatrix quantized = embeddingsHolder.getQuantized();
+		if (quantized == null) {
+			throw new IllegalStateException("Embeddings are not quantized");
+		}
+		return SearchRecall.measure(new ExhaustiveSearch(embeddingsHolder.getMatrix()),
+				new QuantizedSearch(quantized), queries);
 	}
 
 	@Override
 	public DetectedObjects predict(Image image, EmbeddingsHolder embeddingsHolder) {
-		ImageElement imageElement = new ImageElement(image);
-		return recognizeFaces( //
-				faceEmbedding.calculateEmbeddings( //
-						faceDetection.getDetectedFaces(imageElement)),
-				embeddingsHolder);
+		return predict(List.of(image), embeddingsHolder).get(0);
+	}
+
+	@Override
+	public List<DetectedObjects> predict(List<Image> images, EmbeddingsHolder embeddingsHolder) {
+		List<ImageElement> imageElements = detectFaces(
+				images.stream().map(ImageElement::new).collect(Collectors.toList()));
+		calculateEmbeddings(imageElements.stream().filter(Objects::nonNull).collect(Collectors.toList()));
+
+		EmbeddingsSearch search = faceEmbedding.newSearch(embeddingsHolder);
+		List<DetectedObjects> predictions = imageElements.stream() //
+				.map(imageElement -> imageElement == null ? new DetectedObjects(List.of(), List.of(), List.of())
+						: recognizeFaces(imageElement, search)) //
+				.collect(Collectors.toList());
+
+		long firstPredictionMillis = metrics.recordPrediction();
+		if (firstPredictionMillis > 0) {
+			logger.info("First prediction ended {} ms after start", firstPredictionMillis);
+		}
+		return predictions;
+	}
+
+	/**
+	 * Batches of images are decoded and predicted concurrently by a pool of
+	 * workers. Waits until every image is predicted.
+	 */
+	@Override
+	public void predict(List<Path> imagePaths, EmbeddingsHolder embeddingsHolder,
+			Consumer<ImagePrediction> consumer) {
+		int workers = orProcessors(predictionWorkers);
+		int batchSize = Math.max(predictionBatchSize, 1);
+		logger.debug("Predicting {} images with {} workers ..", imagePaths.size(), workers);
+
+		AtomicInteger workerNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(workers,
+				r -> new Thread(r, "predict-" + workerNumber.incrementAndGet()));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int from = 0; from < imagePaths.size(); from += batchSize) {
+				List<Path> batch = imagePaths.subList(from, Math.min(from + batchSize, imagePaths.size()));
+				futures.add(executor.submit(() -> predictBatch(batch, embeddingsHolder).forEach(consumer)));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				getResult(futures.get(i), imagePaths.get(i * batchSize));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Images already predicted with the same gallery are taken from the
+	 * prediction cache, if enabled, without decoding them.
+	 *
+	 * @return prediction of each image, with an error if it could not be decoded
+	 *         or predicted
+	 */
+	private List<ImagePrediction> predictBatch(List<Path> imagePaths, EmbeddingsHolder embeddingsHolder) {
+		List<ImagePrediction> predictions = new ArrayList<>(imagePaths.size());
+		List<Path> decodedPaths = new ArrayList<>(imagePaths.size());
+		List<Image> images = new ArrayList<>(imagePaths.size());
+		List<PredictionCache.Key> keys = new ArrayList<>(imagePaths.size());
+		for (Path imagePath : imagePaths) {
+			long start = metrics.start();
+			try {
+				if (predictionCache.isEnabled()) {
+					byte[] bytes = Files.readAllBytes(imagePath);
+					PredictionCache.Key key = PredictionCache.key(bytes, embeddingsHolder);
+					DetectedObjects cached = predictionCache.get(key);
+					if (cached != null) {
+						predictions.add(new ImagePrediction(imagePath, null, cached));
+						continue;
+					}
+					images.add(ImageUtil.getImage(bytes));
+					keys.add(key);
+				} else {
+					images.add(ImageUtil.getImage(imagePath));
+				}
+				decodedPaths.add(imagePath);
+				metrics.record(Stage.DECODE, start, 1);
+			} catch (IOException | RuntimeException e) {
+				logger.error(String.format("Error decoding %s", imagePath), e);
+				predictions.add(new ImagePrediction(imagePath, String.format("Error decoding: %s", e.getMessage())));
+			}
+		}
+		if (images.isEmpty()) {
+			return predictions;
+		}
+
+		try {
+			List<DetectedObjects> faces = predict(images, embeddingsHolder);
+			for (int i = 0; i < images.size(); i++) {
+				predictions.add(new ImagePrediction(decodedPaths.get(i), images.get(i), faces.get(i)));
+			}
+			for (int i = 0; i < keys.size(); i++) {
+				predictionCache.put(keys.get(i), faces.get(i));
+			}
+		} catch (RuntimeException e) {
+			logger.error(String.format("Error predicting %s", decodedPaths), e);
+			for (Path decodedPath : decodedPaths) {
+				predictions.add(new ImagePrediction(decodedPath, String.format("Error predicting: %s", e.getMessage())));
+			}
+		}
+		return predictions;
+	}
+
+	@Override
+	public FrameRecognizer newFrameRecognizer(EmbeddingsHolder embeddingsHolder, TrackingParameters parameters) {
+		EmbeddingsSearch search = faceEmbedding.newSearch(embeddingsHolder);
+		return new FrameRecognizer(new FaceTracker(parameters), //
+				frame -> {
+					ImageElement imageElement = detectFaces(List.of(new ImageElement(frame))).get(0);
+					return imageElement == null ? new DetectedObjects(List.of(), List.of(), List.of())
+							: imageElement.getDetectedFaces();
+				}, //
+				faces -> {
+					try {
+						long start = metrics.start();
+						List<float[]> embeddings = faceEmbedding.predict(faces);
+						metrics.record(Stage.EMBED, start, faces.size());
+						return embeddings;
+					} catch (TranslateException e) {
+						throw new RuntimeException("Error calculating embeddings of frame", e);
+					}
+				}, //
+				embedding -> {
+					long start = metrics.start();
+					EmbeddingResult result = search.search(embedding);
+					metrics.record(Stage.SEARCH, start, 1);
+					return result == null ? new EmbeddingResult(UNKNOWN_LABEL, 0) : result;
+				});
 	}
 
-	private DetectedObjects recognizeFaces(ImageElement imageElement, EmbeddingsHolder embeddingHolder) {
+	private DetectedObjects recognizeFaces(ImageElement imageElement, EmbeddingsSearch search) {
 		List<String> names = new ArrayList<>();
 		List<Double> prob = new ArrayList<>();
 		List<BoundingBox> rect = new ArrayList<>();
 
 		for (int i = 0; i < imageElement.getEmbeddings().size(); i++) {
-			EmbeddingResult result = faceEmbedding.predict(imageElement.getEmbeddings().get(i), embeddingHolder);
+			long start = metrics.start();
+			EmbeddingResult result = search.search(imageElement.getEmbeddings().get(i));
+			metrics.record(Stage.SEARCH, start, 1);
 			if (result == null) {
 				names.add(UNKNOWN_LABEL);
 				prob.add(0D);
@@ -190,4 +796,23 @@ public class FaceRecognitionServiceImpl implements FaceRecognitionService {
 		return new DetectedObjects(names, prob, rect);
 	}
 
+	private static class PipelineItem {
+
+		private final int person;
+		private final int image;
+		private final Path path;
+		private ImageElement imageElement;
+
+		private PipelineItem(int person, int image, Path path) {
+			this.person = person;
+			this.image = image;
+			this.path = path;
+		}
+
+		@Override
+		public String toString() {
+			return path.toString();
+		}
+	}
+
 }
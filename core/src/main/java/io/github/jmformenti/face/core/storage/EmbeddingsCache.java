@@ -0,0 +1,294 @@
+package io.github.jmformenti.face.core.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
+import ai.djl.modality.cv.output.Rectangle;
+
+/**
+ * Detected face and embeddings of each enrolled image, so enrolling again only
+ * analyzes new or changed images. An image is unchanged if its size and
+ * modification time are the same. Only the images looked up or added since
+ * the cache was read are written back, the deleted ones are dropped. The
+ * whole cache is discarded if the images were analyzed with other models or
+ * settings, see {@link #setAnalysis(String)}.
+ *
+ * <pre>
+ * magic           8 bytes  "FACECCH\0"
+ * version         int
+ * analysis        UTF      models and settings the images were analyzed with
+ * numEntries      int
+ * entries
+ *   path          UTF
+ *   size          long
+ *   lastModified  long     millis
+ *   augmented     boolean
+ *   hasFace       boolean
+ *   face          if hasFace: UTF class name, double probability, 4 doubles bounds
+ *   numEmbeddings int
+ *   dimension     int
+ *   embeddings    numEmbeddings x dimension floats
+ * </pre>
+ */
+public class EmbeddingsCache {
+
+	private static final byte[] MAGIC = { 'F', 'A', 'C', 'E', 'C', 'C', 'H', 0 };
+
+	public static final int VERSION = 2;
+
+	private static final String CACHE_EXTENSION = ".cache";
+
+	private final Map<String, CachedImage> entries;
+	private final Map<String, CachedImage> used;
+
+	private final LongAdder hits;
+	private final LongAdder misses;
+
+	private String analysis = "";
+
+	public EmbeddingsCache() {
+		this.entries = new ConcurrentHashMap<>();
+		this.used = new ConcurrentHashMap<>();
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+	}
+
+	/**
+	 * @return cache file of an embeddings file, next to it
+	 */
+	public static Path getCachePath(Path embeddingsPath) {
+		return Paths.get(embeddingsPath.toString() + CACHE_EXTENSION);
+	}
+
+	/**
+	 * Discards all the cached images if they were analyzed with other models or
+	 * settings, like the decode size of the detection. The cache is written with
+	 * the new ones.
+	 *
+	 * @param analysis identifies the models and settings the images are
+	 *                 analyzed with
+	 * @return false if cached images were discarded
+	 */
+	public synchronized boolean setAnalysis(String analysis) {
+		boolean same = this.analysis.equals(analysis) || entries.isEmpty();
+		if (!same) {
+			entries.clear();
+			used.clear();
+		}
+		this.analysis = analysis;
+		return same;
+	}
+
+	public synchronized String getAnalysis() {
+		return analysis;
+	}
+
+	/**
+	 * @return cached image, null if it is not cached or has changed
+	 */
+	public CachedImage get(Path imagePath, boolean augmented) throws IOException {
+		String key = getKey(imagePath);
+		CachedImage entry = entries.get(key);
+		if (entry != null && entry.augmented == augmented && entry.isValid(imagePath)) {
+			used.put(key, entry);
+			hits.increment();
+			return entry;
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * @param face detected face the embeddings were calculated from, null if no
+	 *             face was detected
+	 */
+	public void put(Path imagePath, boolean augmented, DetectedObject face, List<float[]> embeddings)
+			throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(imagePath, BasicFileAttributes.class);
+		CachedImage entry = new CachedImage(attributes.size(), attributes.lastModifiedTime().toMillis(), augmented,
+				face, embeddings);
+		String key = getKey(imagePath);
+		entries.put(key, entry);
+		used.put(key, entry);
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("entries=%d, hits=%d, misses=%d", entries.size(), getHits(), getMisses());
+	}
+
+	private static String getKey(Path imagePath) {
+		return imagePath.toAbsolutePath().normalize().toString();
+	}
+
+	/**
+	 * @return empty cache if the file does not exist
+	 */
+	public static EmbeddingsCache read(Path path) throws IOException {
+		EmbeddingsCache cache = new EmbeddingsCache();
+		if (!Files.exists(path)) {
+			return cache;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			if (!Arrays.equals(MAGIC, magic)) {
+				throw new IOException(String.format("%s is not an embeddings cache file", path));
+			}
+			int version = in.readInt();
+			if (version < VERSION) {
+				// analysis unknown, images are analyzed again
+				return cache;
+			}
+			if (version != VERSION) {
+				throw new IOException(String.format("Unsupported embeddings cache version %d", version));
+			}
+			cache.analysis = in.readUTF();
+			int numEntries = in.readInt();
+			for (int i = 0; i < numEntries; i++) {
+				String key = in.readUTF();
+				cache.entries.put(key, CachedImage.read(in));
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Writes the entries used since the cache was read.
+	 */
+	public void write(Path path) throws IOException {
+		Path tmpPath = Paths.get(path.toString() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tmpPath)))) {
+			out.write(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(getAnalysis());
+			Map<String, CachedImage> snapshot = Map.copyOf(used);
+			out.writeInt(snapshot.size());
+			for (Map.Entry<String, CachedImage> entry : snapshot.entrySet()) {
+				out.writeUTF(entry.getKey());
+				entry.getValue().write(out);
+			}
+		}
+		Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public static class CachedImage {
+
+		private final long size;
+		private final long lastModified;
+		private final boolean augmented;
+		private final DetectedObject face;
+		private final float[][] embeddings;
+
+		private CachedImage(long size, long lastModified, boolean augmented, DetectedObject face,
+				float[][] embeddings) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.augmented = augmented;
+			this.face = face;
+			this.embeddings = embeddings;
+		}
+
+		private CachedImage(long size, long lastModified, boolean augmented, DetectedObject face,
+				List<float[]> embeddings) {
+			this(size, lastModified, augmented, face, embeddings.toArray(new float[0][]));
+		}
+
+		private boolean isValid(Path imagePath) throws IOException {
+			if (!Files.exists(imagePath)) {
+				return false;
+			}
+			BasicFileAttributes attributes = Files.readAttributes(imagePath, BasicFileAttributes.class);
+			return attributes.size() == size && attributes.lastModifiedTime().toMillis() == lastModified;
+		}
+
+		/**
+		 * @return detected face, null if no face was detected
+		 */
+		public DetectedObject getFace() {
+			return face;
+		}
+
+		/**
+		 * @return embeddings of the face, empty if no face was detected
+		 */
+		public List<float[]> getEmbeddings() {
+			if (embeddings.length == 0) {
+				return Collections.emptyList();
+			}
+			return new ArrayList<>(Arrays.asList(embeddings));
+		}
+
+		private void write(DataOutputStream out) throws IOException {
+			out.writeLong(size);
+			out.writeLong(lastModified);
+			out.writeBoolean(augmented);
+			out.writeBoolean(face != null);
+			if (face != null) {
+				Rectangle bounds = face.getBoundingBox().getBounds();
+				out.writeUTF(face.getClassName());
+				out.writeDouble(face.getProbability());
+				out.writeDouble(bounds.getX());
+				out.writeDouble(bounds.getY());
+				out.writeDouble(bounds.getWidth());
+				out.writeDouble(bounds.getHeight());
+			}
+			out.writeInt(embeddings.length);
+			out.writeInt(embeddings.length == 0 ? 0 : embeddings[0].length);
+			for (float[] embedding : embeddings) {
+				for (float value : embedding) {
+					out.writeFloat(value);
+				}
+			}
+		}
+
+		private static CachedImage read(DataInputStream in) throws IOException {
+			long size = in.readLong();
+			long lastModified = in.readLong();
+			boolean augmented = in.readBoolean();
+			DetectedObject face = null;
+			if (in.readBoolean()) {
+				String className = in.readUTF();
+				double probability = in.readDouble();
+				face = new DetectedObject(className, probability,
+						new Rectangle(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble()));
+			}
+			float[][] embeddings = new float[in.readInt()][in.readInt()];
+			for (float[] embedding : embeddings) {
+				for (int j = 0; j < embedding.length; j++) {
+					embedding[j] = in.readFloat();
+				}
+			}
+			return new CachedImage(size, lastModified, augmented, face, embeddings);
+		}
+	}
+}
@@ -0,0 +1,358 @@
+package io.github.jmformenti.face.core.storage;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.quantization.Quantization;
+import io.github.jmformenti.face.core.quantization.QuantizedMatrix;
+
+/**
+ * Binary embeddings file opened with a memory mapping, so loading does not
+ * depend on the gallery size and the page cache is shared between processes.
+ * Files over 2 GiB are mapped in several chunks.
+ * Embeddings with a {@link QuantizedMatrix quantization} are written in its
+ * encoding instead of floats and read to the heap. Float files also store the
+ * inverse norm of every row after the data block, so searching a loaded file
+ * does not need a pass over the embeddings first; previous versions ignore it.
+ *
+ * <pre>
+ * header (64 bytes, little endian)
+ *   magic           8 bytes  "FACEEMB\0"
+ *   version         int      1, or 2 if quantized
+ *   quantization    int      {@link Quantization} code, 0 (floats) in version 1
+ *   dimension       int
+ *   numLabels       int
+ *   numRows         int
+ *   flags           int      1 if the inverse norms block follows the data block,
+ *                            2 if the fingerprint follows the header
+ *   dictOffset      long     label dictionary position
+ *   dataOffset      long     data block position, 64 bytes aligned
+ *   dataLength      long     data block length in bytes
+ *   journalSequence long     last {@link GalleryStore} journal record included, 0 if none
+ * fingerprint       long     {@link EmbeddingsMatrix#getFingerprint()}, float files only
+ * label dictionary
+ *   offsets         int[numLabels + 1] first row of each label
+ *   labels          numLabels x (int length, UTF-8 bytes)
+ * data block
+ *   numRows x dimension floats, row-major, or the quantized rows
+ * inverse norms block
+ *   numRows doubles
+ * </pre>
+ */
+public class EmbeddingsFile {
+
+	private static final byte[] MAGIC = { 'F', 'A', 'C', 'E', 'E', 'M', 'B', 0 };
+
+	public static final int VERSION = 2;
+
+	// float files keep the version readable by previous versions
+	private static final int FLOAT_VERSION = 1;
+
+	private static final int HEADER_SIZE = 64;
+
+	private static final int FLAG_INVERSE_NORMS = 1;
+
+	private static final int FLAG_FINGERPRINT = 2;
+
+	private static final int DATA_ALIGNMENT = 64;
+
+	private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+	private EmbeddingsFile() {
+	}
+
+	public static boolean isEmbeddingsFile(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+			while (magic.hasRemaining() && channel.read(magic) >= 0) {
+			}
+			return Arrays.equals(MAGIC, magic.array());
+		}
+	}
+
+	/**
+	 * Writes the quantized embeddings of the holder if it has them, floats
+	 * otherwise.
+	 */
+	public static void write(EmbeddingsHolder embeddingsHolder, Path path) throws IOException {
+		QuantizedMatrix quantized = embeddingsHolder.getQuantized();
+		if (quantized != null) {
+			write(quantized, path);
+		} else {
+			write(embeddingsHolder.getMatrix(), path, 0);
+		}
+	}
+
+	/**
+	 * @param journalSequence last journal record applied to the matrix
+	 */
+	static void write(EmbeddingsMatrix matrix, Path path, long journalSequence) throws IOException {
+		String[] labels = new String[matrix.getNumLabels()];
+		int[] offsets = new int[matrix.getNumLabels() + 1];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = matrix.getLabel(i);
+			offsets[i + 1] = matrix.getEnd(i);
+		}
+		ByteBuffer head = getHead(FLOAT_VERSION, Quantization.FLOAT32, FLAG_INVERSE_NORMS, matrix.getDimension(),
+				labels, offsets, matrix.sizeInBytes(), journalSequence, matrix.getFingerprint());
+
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, head);
+
+			ByteBuffer block = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			FloatBuffer blockFloats = block.asFloatBuffer();
+			long remaining = (long) matrix.getNumRows() * matrix.getDimension();
+			for (FloatBuffer source : matrix.getChunks()) {
+				source.limit((int) Math.min(source.limit(), remaining));
+				remaining -= source.remaining();
+				while (source.hasRemaining()) {
+					int length = Math.min(source.remaining(), blockFloats.capacity());
+					FloatBuffer chunk = source.duplicate();
+					chunk.limit(source.position() + length);
+					blockFloats.clear();
+					blockFloats.put(chunk);
+					source.position(source.position() + length);
+					block.clear().limit(length * Float.BYTES);
+					writeFully(channel, block);
+				}
+			}
+
+			block.clear();
+			DoubleBuffer blockDoubles = block.asDoubleBuffer();
+			double[] inverseNorms = matrix.getInverseNorms();
+			for (int row = 0; row < matrix.getNumRows(); row += blockDoubles.capacity()) {
+				int length = Math.min(matrix.getNumRows() - row, blockDoubles.capacity());
+				blockDoubles.clear();
+				blockDoubles.put(inverseNorms, row, length);
+				block.clear().limit(length * Double.BYTES);
+				writeFully(channel, block);
+			}
+			channel.force(true);
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static void write(QuantizedMatrix quantized, Path path) throws IOException {
+		String[] labels = new String[quantized.getNumLabels()];
+		int[] offsets = new int[quantized.getNumLabels() + 1];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = quantized.getLabel(i);
+			offsets[i + 1] = quantized.getEnd(i);
+		}
+		if (quantized.sizeInBytes() > Integer.MAX_VALUE) {
+			throw new IOException(String.format("Quantized embeddings exceed the maximum size in %s", path));
+		}
+		ByteBuffer head = getHead(VERSION, quantized.getQuantization(), 0, quantized.getDimension(), labels,
+				offsets, quantized.sizeInBytes(), 0, null);
+		ByteBuffer data = ByteBuffer.allocate((int) quantized.sizeInBytes()).order(ByteOrder.LITTLE_ENDIAN);
+		quantized.write(data);
+		data.flip();
+
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			writeFully(channel, head);
+			writeFully(channel, data);
+			channel.force(true);
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return header and label dictionary, up to the data block
+	 */
+	private static ByteBuffer getHead(int version, Quantization quantization, int flags, int dimension,
+			String[] labels, int[] offsets, long dataLength, long journalSequence, Long fingerprint) {
+		int dictOffset = HEADER_SIZE;
+		if (fingerprint != null) {
+			flags |= FLAG_FINGERPRINT;
+			dictOffset += Long.BYTES;
+		}
+		byte[][] labelBytes = new byte[labels.length][];
+		int dictSize = (labels.length + 1) * Integer.BYTES;
+		for (int i = 0; i < labels.length; i++) {
+			labelBytes[i] = labels[i].getBytes(StandardCharsets.UTF_8);
+			dictSize += Integer.BYTES + labelBytes[i].length;
+		}
+		long dataOffset = align(dictOffset + dictSize);
+
+		ByteBuffer head = ByteBuffer.allocate((int) dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+		head.put(MAGIC);
+		head.putInt(version);
+		head.putInt(quantization.getCode());
+		head.putInt(dimension);
+		head.putInt(labels.length);
+		head.putInt(offsets[labels.length]);
+		head.putInt(flags);
+		head.putLong(dictOffset);
+		head.putLong(dataOffset);
+		head.putLong(dataLength);
+		head.putLong(journalSequence);
+		head.position(HEADER_SIZE);
+		if (fingerprint != null) {
+			head.putLong(fingerprint);
+		}
+		for (int offset : offsets) {
+			head.putInt(offset);
+		}
+		for (byte[] label : labelBytes) {
+			head.putInt(label.length);
+			head.put(label);
+		}
+		head.clear();
+		return head;
+	}
+
+	public static EmbeddingsHolder open(Path path) throws IOException {
+		return open(path, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxChunkBytes max size of each mapping of the embeddings, larger
+	 *                      files are mapped in chunks of a power of two rows
+	 */
+	static EmbeddingsHolder open(Path path, int maxChunkBytes) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, channel.size()));
+			header.order(ByteOrder.LITTLE_ENDIAN);
+
+			byte[] magic = new byte[MAGIC.length];
+			if (header.remaining() < HEADER_SIZE || !Arrays.equals(MAGIC, getBytes(header, magic))) {
+				throw new IOException(String.format("%s is not an embeddings file", path));
+			}
+			int version = header.getInt();
+			if (version > VERSION) {
+				throw new IOException(String.format("Unsupported embeddings file version %d in %s", version, path));
+			}
+			Quantization quantization = Quantization.FLOAT32;
+			int quantizationCode = header.getInt();
+			if (version > FLOAT_VERSION) {
+				try {
+					quantization = Quantization.fromCode(quantizationCode);
+				} catch (IllegalArgumentException e) {
+					throw new IOException(String.format("%s in %s", e.getMessage(), path), e);
+				}
+			}
+			int dimension = header.getInt();
+			int numLabels = header.getInt();
+			int numRows = header.getInt();
+			int flags = header.getInt();
+			long dictOffset = header.getLong();
+			long dataOffset = header.getLong();
+			long dataLength = header.getLong();
+
+			if ((quantization == Quantization.FLOAT32 && dataLength != (long) numRows * dimension * Float.BYTES)
+					|| dataOffset + dataLength > channel.size()) {
+				throw new IOException(String.format("Embeddings file %s is truncated or corrupted", path));
+			}
+
+			ByteBuffer dict = channel.map(MapMode.READ_ONLY, dictOffset, dataOffset - dictOffset)
+					.order(ByteOrder.LITTLE_ENDIAN);
+			int[] offsets = new int[numLabels + 1];
+			for (int i = 0; i <= numLabels; i++) {
+				offsets[i] = dict.getInt();
+			}
+			String[] labels = new String[numLabels];
+			for (int i = 0; i < numLabels; i++) {
+				byte[] label = new byte[dict.getInt()];
+				dict.get(label);
+				labels[i] = new String(label, StandardCharsets.UTF_8);
+			}
+
+			if (quantization != Quantization.FLOAT32) {
+				if (dataLength > Integer.MAX_VALUE) {
+					throw new IOException(String.format("Quantized embeddings file %s is corrupted", path));
+				}
+				ByteBuffer data = channel.map(MapMode.READ_ONLY, dataOffset, dataLength)
+						.order(ByteOrder.LITTLE_ENDIAN);
+				try {
+					QuantizedMatrix quantized = QuantizedMatrix.read(quantization, dimension, labels, offsets, data);
+					if (quantized.sizeInBytes() != dataLength) {
+						throw new IOException(String.format("Embeddings file %s is corrupted", path));
+					}
+					return new EmbeddingsHolder(quantized);
+				} catch (BufferUnderflowException | IllegalArgumentException e) {
+					throw new IOException(String.format("Embeddings file %s is truncated or corrupted", path), e);
+				}
+			}
+
+			int chunkShift = 31;
+			long chunkBytes = dataLength;
+			int numChunks = 1;
+			long rowBytes = (long) dimension * Float.BYTES;
+			if (dataLength > maxChunkBytes) {
+				if (rowBytes > maxChunkBytes) {
+					throw new IOException(String.format(
+							"Embeddings of dimension %d in %s exceed the maximum mapping size", dimension, path));
+				}
+				chunkShift = 31 - Integer.numberOfLeadingZeros((int) (maxChunkBytes / rowBytes));
+				chunkBytes = rowBytes << chunkShift;
+				numChunks = (int) ((dataLength + chunkBytes - 1) / chunkBytes);
+			}
+			FloatBuffer[] chunks = new FloatBuffer[numChunks];
+			for (int i = 0; i < chunks.length; i++) {
+				long position = i * chunkBytes;
+				long length = Math.min(chunkBytes, dataLength - position);
+				chunks[i] = channel.map(MapMode.READ_ONLY, dataOffset + position, length)
+						.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+			}
+			Long fingerprint = null;
+			if ((flags & FLAG_FINGERPRINT) != 0 && dictOffset >= HEADER_SIZE + Long.BYTES) {
+				fingerprint = channel.map(MapMode.READ_ONLY, HEADER_SIZE, Long.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+						.getLong();
+			}
+			double[] inverseNorms = null;
+			long normsLength = (long) numRows * Double.BYTES;
+			if ((flags & FLAG_INVERSE_NORMS) != 0 && normsLength <= Integer.MAX_VALUE
+					&& dataOffset + dataLength + normsLength <= channel.size()) {
+				inverseNorms = new double[numRows];
+				channel.map(MapMode.READ_ONLY, dataOffset + dataLength, normsLength).order(ByteOrder.LITTLE_ENDIAN)
+						.asDoubleBuffer().get(inverseNorms);
+			}
+			return new EmbeddingsHolder(
+					new EmbeddingsMatrix(dimension, labels, offsets, chunks, chunkShift, inverseNorms, fingerprint));
+		}
+	}
+
+	static long readJournalSequence(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer sequence = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			channel.position(HEADER_SIZE - Long.BYTES);
+			while (sequence.hasRemaining() && channel.read(sequence) >= 0) {
+			}
+			return sequence.hasRemaining() ? 0 : sequence.getLong(0);
+		}
+	}
+
+	private static byte[] getBytes(ByteBuffer buffer, byte[] bytes) {
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	private static long align(long position) {
+		return (position + DATA_ALIGNMENT - 1) / DATA_ALIGNMENT * DATA_ALIGNMENT;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package io.github.jmformenti.face.core.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+
+/**
+ * Kryo serializer keeping the original embeddings file layout, so files written
+ * before the packed {@link EmbeddingsHolder} can still be read and vice versa.
+ * Embeddings were stored as doubles, they are converted to and from floats.
+ */
+public class EmbeddingsHolderSerializer extends Serializer<EmbeddingsHolder> {
+
+	private FieldSerializer<LegacyEmbeddingsHolder> legacySerializer;
+
+	@Override
+	public void write(Kryo kryo, Output output, EmbeddingsHolder embeddingsHolder) {
+		EmbeddingsMatrix matrix = embeddingsHolder.getMatrix();
+		LegacyEmbeddingsHolder legacy = new LegacyEmbeddingsHolder();
+		for (int label = 0; label < matrix.getNumLabels(); label++) {
+			List<double[]> embeddings = new ArrayList<>();
+			for (int row = matrix.getStart(label); row < matrix.getEnd(label); row++) {
+				embeddings.add(matrix.getRowAsDouble(row));
+			}
+			legacy.embeddingsByLabel.put(matrix.getLabel(label), embeddings);
+		}
+		getLegacySerializer(kryo).write(kryo, output, legacy);
+	}
+
+	@Override
+	public EmbeddingsHolder read(Kryo kryo, Input input, Class<? extends EmbeddingsHolder> type) {
+		LegacyEmbeddingsHolder legacy = getLegacySerializer(kryo).read(kryo, input, LegacyEmbeddingsHolder.class);
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		legacy.embeddingsByLabel.forEach((label, embeddings) -> embeddingsHolder
+				.add(new EmbeddingItem(label, embeddings.stream().map(this::toFloat).collect(Collectors.toList()))));
+		return embeddingsHolder;
+	}
+
+	private float[] toFloat(double[] embedding) {
+		float[] result = new float[embedding.length];
+		for (int i = 0; i < embedding.length; i++) {
+			result[i] = (float) embedding[i];
+		}
+		return result;
+	}
+
+	private FieldSerializer<LegacyEmbeddingsHolder> getLegacySerializer(Kryo kryo) {
+		if (legacySerializer == null) {
+			legacySerializer = new FieldSerializer<>(kryo, LegacyEmbeddingsHolder.class) {
+				@Override
+				protected LegacyEmbeddingsHolder create(Kryo kryo, Input input,
+						Class<? extends LegacyEmbeddingsHolder> type) {
+					return new LegacyEmbeddingsHolder();
+				}
+			};
+		}
+		return legacySerializer;
+	}
+
+	/**
+	 * Same fields as the unpacked EmbeddingsHolder, field generics are part of
+	 * the serialized layout.
+	 */
+	static class LegacyEmbeddingsHolder {
+
+		private Map<String, List<double[]>> embeddingsByLabel = new HashMap<>();
+	}
+}
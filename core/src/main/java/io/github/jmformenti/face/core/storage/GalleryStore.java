@@ -0,0 +1,486 @@
+package io.github.jmformenti.face.core.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+
+/**
+ * Embeddings file that can be modified without writing it again. Changes are
+ * appended to a journal next to it, synced before they are applied, and
+ * replayed on open. Once the journal grows above a threshold it is compacted
+ * into the embeddings file in the background.
+ *
+ * <p>
+ * Compaction renames the journal to {@code .wal.compacting}, starts a new one
+ * and writes the embeddings file with the sequence of the last record it
+ * includes, so records are never applied twice whatever the point a crash
+ * happens.
+ *
+ * <pre>
+ * journal record (big endian)
+ *   length        int      payload length
+ *   crc           int      CRC32 of the payload
+ *   payload
+ *     sequence    long
+ *     operation   byte     1 append, 2 remove label, 3 remove embeddings, 4 rename
+ *     label       UTF
+ *     append             int count, int dimension, count x dimension floats
+ *     remove embeddings  int count, count x int positions
+ *     rename             UTF new label
+ * </pre>
+ *
+ * A torn record at the end of the journal, from a crash while writing it, is
+ * discarded.
+ */
+public class GalleryStore implements AutoCloseable {
+
+	private Logger logger = LoggerFactory.getLogger(GalleryStore.class);
+
+	public static final long DEFAULT_COMPACTION_THRESHOLD = 64L << 20;
+
+	private static final String JOURNAL_EXTENSION = ".wal";
+
+	private static final String COMPACTING_EXTENSION = ".wal.compacting";
+
+	private static final byte APPEND = 1;
+	private static final byte REMOVE_LABEL = 2;
+	private static final byte REMOVE_EMBEDDINGS = 3;
+	private static final byte RENAME = 4;
+
+	private final Path path;
+	private final Path journalPath;
+	private final Path compactingPath;
+	private final EmbeddingsHolder embeddingsHolder;
+	private final long compactionThreshold;
+	private final ExecutorService compactor;
+
+	private FileChannel journal;
+	private long sequence;
+	private Future<?> compaction;
+
+	private GalleryStore(Path path, EmbeddingsHolder embeddingsHolder, long sequence, long compactionThreshold) {
+		this.path = path;
+		this.journalPath = getJournalPath(path);
+		this.compactingPath = getCompactingPath(path);
+		this.embeddingsHolder = embeddingsHolder;
+		this.sequence = sequence;
+		this.compactionThreshold = compactionThreshold;
+		this.compactor = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "gallery-compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static GalleryStore open(Path path) throws IOException {
+		return open(path, DEFAULT_COMPACTION_THRESHOLD);
+	}
+
+	/**
+	 * Opens the embeddings file, created empty if it does not exist, and applies
+	 * its journal.
+	 *
+	 * @param compactionThreshold journal size in bytes that starts a compaction
+	 */
+	public static GalleryStore open(Path path, long compactionThreshold) throws IOException {
+		GalleryStore store = replay(path, compactionThreshold, true);
+		store.journal = FileChannel.open(store.journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+		if (Files.exists(store.compactingPath) || !Files.exists(path)) {
+			// finishes a compaction interrupted by a crash
+			try {
+				store.compact();
+			} catch (IOException e) {
+				try {
+					store.close();
+				} catch (IOException closeException) {
+					e.addSuppressed(closeException);
+				}
+				throw e;
+			}
+		}
+		return store;
+	}
+
+	/**
+	 * @return embeddings of the file with its journal applied, without opening it
+	 *         for changes
+	 */
+	public static EmbeddingsHolder load(Path path) throws IOException {
+		return replay(path, DEFAULT_COMPACTION_THRESHOLD, false).embeddingsHolder;
+	}
+
+	public static Path getJournalPath(Path path) {
+		return Paths.get(path.toString() + JOURNAL_EXTENSION);
+	}
+
+	private static Path getCompactingPath(Path path) {
+		return Paths.get(path.toString() + COMPACTING_EXTENSION);
+	}
+
+	public static boolean hasJournal(Path path) {
+		return Files.exists(getJournalPath(path)) || Files.exists(getCompactingPath(path));
+	}
+
+	/**
+	 * Deletes the journal of an embeddings file, for example before writing it
+	 * again from scratch.
+	 */
+	public static void deleteJournal(Path path) throws IOException {
+		Files.deleteIfExists(getJournalPath(path));
+		Files.deleteIfExists(getCompactingPath(path));
+	}
+
+	/**
+	 * @return current embeddings, updated with every change
+	 */
+	public EmbeddingsHolder getEmbeddingsHolder() {
+		return embeddingsHolder;
+	}
+
+	/**
+	 * Adds embeddings after the existing ones of the label, or as a new label.
+	 */
+	public synchronized void append(String label, List<float[]> embeddings) throws IOException {
+		int dimension = embeddingsHolder.getDimension();
+		for (float[] embedding : embeddings) {
+			if (dimension != 0 && embedding.length != dimension) {
+				throw new IllegalArgumentException(String.format("Embedding of %s has dimension %d, expected %d",
+						label, embedding.length, dimension));
+			}
+			dimension = embedding.length;
+		}
+		int embeddingDimension = dimension;
+
+		log(APPEND, label, out -> {
+			out.writeInt(embeddings.size());
+			out.writeInt(embeddingDimension);
+			for (float[] embedding : embeddings) {
+				for (float value : embedding) {
+					out.writeFloat(value);
+				}
+			}
+		});
+		embeddingsHolder.append(label, embeddings);
+		compactIfNeeded();
+	}
+
+	/**
+	 * @return false if there is no such label
+	 */
+	public synchronized boolean remove(String label) throws IOException {
+		if (!embeddingsHolder.contains(label)) {
+			return false;
+		}
+		log(REMOVE_LABEL, label, out -> {
+		});
+		boolean removed = embeddingsHolder.remove(label);
+		compactIfNeeded();
+		return removed;
+	}
+
+	/**
+	 * @param positions positions of the embeddings to remove in the list of the
+	 *                  label
+	 * @return false if there is no such label
+	 */
+	public synchronized boolean removeEmbeddings(String label, Collection<Integer> positions) throws IOException {
+		if (!embeddingsHolder.contains(label)) {
+			return false;
+		}
+		log(REMOVE_EMBEDDINGS, label, out -> {
+			out.writeInt(positions.size());
+			for (int position : positions) {
+				out.writeInt(position);
+			}
+		});
+		boolean removed = embeddingsHolder.removeEmbeddings(label, positions);
+		compactIfNeeded();
+		return removed;
+	}
+
+	/**
+	 * @return false if there is no such label
+	 * @throws IllegalArgumentException if the new label already exists
+	 */
+	public synchronized boolean rename(String label, String newLabel) throws IOException {
+		if (embeddingsHolder.contains(newLabel)) {
+			throw new IllegalArgumentException(String.format("Label %s already exists", newLabel));
+		}
+		if (!embeddingsHolder.contains(label)) {
+			return false;
+		}
+		log(RENAME, label, out -> out.writeUTF(newLabel));
+		boolean renamed = embeddingsHolder.rename(label, newLabel);
+		compactIfNeeded();
+		return renamed;
+	}
+
+	/**
+	 * Writes the current embeddings to the embeddings file and empties the
+	 * journal, waiting until it is done.
+	 */
+	public void compact() throws IOException {
+		Future<?> current;
+		synchronized (this) {
+			current = startCompaction();
+		}
+		waitFor(current);
+	}
+
+	public synchronized long getJournalSize() throws IOException {
+		return journal.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		Future<?> current;
+		synchronized (this) {
+			current = compaction;
+		}
+		try {
+			if (current != null) {
+				waitFor(current);
+			}
+		} finally {
+			compactor.shutdown();
+			synchronized (this) {
+				journal.close();
+			}
+		}
+	}
+
+	private void log(byte operation, String label, RecordWriter writer) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeLong(sequence + 1);
+			out.writeByte(operation);
+			out.writeUTF(label);
+			writer.write(out);
+		}
+		byte[] payload = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		ByteBuffer record = ByteBuffer.allocate(2 * Integer.BYTES + payload.length);
+		record.putInt(payload.length);
+		record.putInt((int) crc.getValue());
+		record.put(payload);
+		record.flip();
+		long start = journal.size();
+		try {
+			while (record.hasRemaining()) {
+				journal.write(record);
+			}
+			journal.force(false);
+		} catch (IOException e) {
+			// a torn record would hide the next ones on replay
+			journal.truncate(start);
+			throw e;
+		}
+		sequence++;
+	}
+
+	/**
+	 * Starts a compaction if the journal is above the threshold. Called after the
+	 * change of the last record is applied, so the snapshot includes it.
+	 */
+	private void compactIfNeeded() throws IOException {
+		if (journal.size() > compactionThreshold && (compaction == null || compaction.isDone())) {
+			logger.debug("Compacting journal of {} ..", path);
+			startCompaction();
+		}
+	}
+
+	/**
+	 * Rotates the journal and writes a snapshot of the embeddings in the
+	 * background. Called holding the lock of this store.
+	 */
+	private Future<?> startCompaction() throws IOException {
+		if (compaction != null && !compaction.isDone()) {
+			// the running one must finish before the journal is rotated again
+			waitFor(compaction);
+		}
+		journal.force(true);
+		journal.close();
+		if (Files.exists(compactingPath)) {
+			// left by a crash, its records are included in this compaction too
+			try (FileChannel target = FileChannel.open(compactingPath, StandardOpenOption.WRITE,
+					StandardOpenOption.APPEND); FileChannel source = FileChannel.open(journalPath)) {
+				long position = 0;
+				while (position < source.size()) {
+					position += source.transferTo(position, source.size() - position, target);
+				}
+				target.force(true);
+			}
+			Files.delete(journalPath);
+		} else {
+			Files.move(journalPath, compactingPath, StandardCopyOption.ATOMIC_MOVE);
+		}
+		journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+
+		EmbeddingsMatrix snapshot = embeddingsHolder.getMatrix();
+		long snapshotSequence = sequence;
+		compaction = compactor.submit(() -> {
+			EmbeddingsFile.write(snapshot, path, snapshotSequence);
+			Files.delete(compactingPath);
+			return null;
+		});
+		return compaction;
+	}
+
+	private static void waitFor(Future<?> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted waiting for compaction", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Error compacting journal", e.getCause());
+		}
+	}
+
+	private static GalleryStore replay(Path path, long compactionThreshold, boolean repair) throws IOException {
+		EmbeddingsHolder embeddingsHolder;
+		long sequence = 0;
+		if (Files.exists(path)) {
+			if (!EmbeddingsFile.isEmbeddingsFile(path)) {
+				throw new IOException(String.format("%s must be converted to the current embeddings format", path));
+			}
+			embeddingsHolder = EmbeddingsFile.open(path);
+			sequence = EmbeddingsFile.readJournalSequence(path);
+		} else {
+			embeddingsHolder = new EmbeddingsHolder();
+		}
+
+		GalleryStore store = new GalleryStore(path, embeddingsHolder, sequence, compactionThreshold);
+		// repaired too, a next compaction appends the journal to it
+		store.sequence = store.replay(store.compactingPath, repair);
+		store.sequence = store.replay(store.journalPath, repair);
+		return store;
+	}
+
+	/**
+	 * @param repair truncate the journal after its last complete record
+	 * @return sequence of the last record applied
+	 */
+	private long replay(Path journalFile, boolean repair) throws IOException {
+		if (!Files.exists(journalFile)) {
+			return sequence;
+		}
+		long applied = sequence;
+		long size = Files.size(journalFile);
+		long validLength = 0;
+		int records = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+			while (true) {
+				byte[] payload;
+				try {
+					int length = in.readInt();
+					int crc = in.readInt();
+					if (length < 0 || length > size) {
+						break;
+					}
+					payload = new byte[length];
+					in.readFully(payload);
+					CRC32 actual = new CRC32();
+					actual.update(payload);
+					if ((int) actual.getValue() != crc) {
+						break;
+					}
+				} catch (EOFException e) {
+					break;
+				}
+				validLength += 2 * Integer.BYTES + payload.length;
+
+				DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+				long recordSequence = record.readLong();
+				if (recordSequence > applied) {
+					apply(record);
+					applied = recordSequence;
+					records++;
+				}
+			}
+		}
+		logger.debug("Applied {} records of {}", records, journalFile);
+
+		if (validLength < size) {
+			logger.warn("Discarding {} bytes of incomplete record at the end of {}", size - validLength, journalFile);
+			if (repair) {
+				try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+					channel.truncate(validLength);
+					channel.force(true);
+				}
+			}
+		}
+		return applied;
+	}
+
+	private void apply(DataInputStream record) throws IOException {
+		byte operation = record.readByte();
+		String label = record.readUTF();
+		switch (operation) {
+		case APPEND:
+			int count = record.readInt();
+			int dimension = record.readInt();
+			List<float[]> embeddings = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				float[] embedding = new float[dimension];
+				for (int j = 0; j < dimension; j++) {
+					embedding[j] = record.readFloat();
+				}
+				embeddings.add(embedding);
+			}
+			embeddingsHolder.append(label, embeddings);
+			break;
+		case REMOVE_LABEL:
+			embeddingsHolder.remove(label);
+			break;
+		case REMOVE_EMBEDDINGS:
+			Set<Integer> positions = new HashSet<>();
+			for (int i = record.readInt(); i > 0; i--) {
+				positions.add(record.readInt());
+			}
+			embeddingsHolder.removeEmbeddings(label, positions);
+			break;
+		case RENAME:
+			embeddingsHolder.rename(label, record.readUTF());
+			break;
+		default:
+			throw new IOException(String.format("Unknown journal operation %d", operation));
+		}
+	}
+
+	private interface RecordWriter {
+
+		void write(DataOutputStream out) throws IOException;
+	}
+}
@@ -0,0 +1,198 @@
+package io.github.jmformenti.face.core.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import ai.djl.modality.cv.output.DetectedObjects;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.util.HashUtil;
+
+/**
+ * Recognized faces of image files already predicted, least recently used
+ * evicted first once their estimated size exceeds max bytes. Images are
+ * identified by a hash of their bytes, so a copy of an image is the same
+ * image. Predictions are cached for the latest version of the gallery seen,
+ * all of them are invalidated when it changes.
+ */
+public class PredictionCache {
+
+	/**
+	 * Estimated bytes of an entry without faces: key, map entry and detected
+	 * objects
+	 */
+	static final long ENTRY_BYTES = 160;
+
+	/**
+	 * Estimated bytes of each face: detected object, bounds, probability and list
+	 * slots. Labels are shared with the gallery.
+	 */
+	static final long FACE_BYTES = 160;
+
+	private final long maxBytes;
+	private final LinkedHashMap<Key, DetectedObjects> entries;
+	private long bytes;
+	private long galleryVersion;
+
+	private final LongAdder hits;
+	private final LongAdder misses;
+	private final LongAdder evictions;
+
+	/**
+	 * @param maxBytes max estimated size of the cached predictions, 0 to disable
+	 *                 the cache
+	 */
+	public PredictionCache(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException(String.format("Invalid prediction cache size %d", maxBytes));
+		}
+		this.maxBytes = maxBytes;
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.evictions = new LongAdder();
+	}
+
+	public boolean isEnabled() {
+		return maxBytes > 0;
+	}
+
+	/**
+	 * @param image bytes of the image file
+	 * @return key of the predictions of the image with the current version of the
+	 *         gallery
+	 */
+	public static Key key(byte[] image, EmbeddingsHolder embeddingsHolder) {
+		return new Key(HashUtil.xxHash64(image), image.length, embeddingsHolder.getVersion());
+	}
+
+	/**
+	 * @return cached prediction, null if there is none
+	 */
+	public synchronized DetectedObjects get(Key key) {
+		DetectedObjects faces = isCurrent(key) ? entries.get(key) : null;
+		if (faces == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return faces;
+	}
+
+	/**
+	 * Caches a prediction, unless it was made with a previous version of the
+	 * gallery or is too large.
+	 */
+	public synchronized void put(Key key, DetectedObjects faces) {
+		long entryBytes = estimateBytes(faces);
+		if (!isCurrent(key) || entryBytes > maxBytes) {
+			return;
+		}
+		DetectedObjects previous = entries.put(key, faces);
+		if (previous != null) {
+			bytes -= estimateBytes(previous);
+		}
+		bytes += entryBytes;
+
+		for (Iterator<DetectedObjects> it = entries.values().iterator(); bytes > maxBytes && it.hasNext();) {
+			bytes -= estimateBytes(it.next());
+			it.remove();
+			evictions.increment();
+		}
+	}
+
+	/**
+	 * Invalidates all predictions if the key is of a newer version of the
+	 * gallery.
+	 *
+	 * @return false if the key is of a previous version of the gallery
+	 */
+	private boolean isCurrent(Key key) {
+		if (key.galleryVersion > galleryVersion) {
+			evictions.add(entries.size());
+			entries.clear();
+			bytes = 0;
+			galleryVersion = key.galleryVersion;
+		}
+		return key.galleryVersion == galleryVersion;
+	}
+
+	static long estimateBytes(DetectedObjects faces) {
+		return ENTRY_BYTES + faces.getNumberOfObjects() * FACE_BYTES;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return estimated size of the cached predictions
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return predictions removed to make room for others or invalidated by a
+	 *         new version of the gallery
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d predictions, %d bytes, %d hits, %d misses, %d evictions", size(), getBytes(),
+				getHits(), getMisses(), getEvictions());
+	}
+
+	/**
+	 * Hash and length of the image bytes and version of the gallery.
+	 */
+	public static class Key {
+
+		private final long hash;
+		private final int length;
+		private final long galleryVersion;
+
+		private Key(long hash, int length, long galleryVersion) {
+			this.hash = hash;
+			this.length = length;
+			this.galleryVersion = galleryVersion;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return hash == other.hash && length == other.length && galleryVersion == other.galleryVersion;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(hash) * 31 + length;
+		}
+	}
+}
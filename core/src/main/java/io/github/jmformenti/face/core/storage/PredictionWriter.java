@@ -0,0 +1,192 @@
+package io.github.jmformenti.face.core.storage;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
+import ai.djl.modality.cv.output.Rectangle;
+import io.github.jmformenti.face.core.domain.ImagePrediction;
+
+/**
+ * Writes predictions as they are made, one record per image (JSON lines) or
+ * one row per face (CSV). Bounds are relative to the image size, as detected.
+ * Safe to use from several threads, each prediction is written and flushed at
+ * once.
+ */
+public abstract class PredictionWriter implements Closeable {
+
+	public enum Format {
+		/**
+		 * One JSON object per image:
+		 * {"path":"...","faces":[{"label":"...","probability":0.9,"x":0.1,"y":0.2,"width":0.3,"height":0.4}],"error":null}
+		 */
+		JSONL,
+
+		/**
+		 * path,face,label,probability,x,y,width,height,error with a row per face,
+		 * and a row with empty face columns for images without faces or with an
+		 * error.
+		 */
+		CSV
+	}
+
+	private final Writer writer;
+
+	private long predictions;
+	private long faces;
+	private long errors;
+
+	protected PredictionWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	public static PredictionWriter of(Format format, Writer writer) {
+		switch (format) {
+		case JSONL:
+			return new JsonLinesWriter(writer);
+		case CSV:
+			return new CsvWriter(writer);
+		default:
+			throw new IllegalArgumentException(String.format("Unknown prediction format %s", format));
+		}
+	}
+
+	public static PredictionWriter open(Format format, Path path) throws IOException {
+		return of(format, Files.newBufferedWriter(path, StandardCharsets.UTF_8));
+	}
+
+	public synchronized void write(ImagePrediction prediction) throws IOException {
+		writer.write(format(prediction));
+		writer.flush();
+		predictions++;
+		if (prediction.hasError()) {
+			errors++;
+		} else {
+			faces += prediction.getFaces().getNumberOfObjects();
+		}
+	}
+
+	protected abstract String format(ImagePrediction prediction);
+
+	/**
+	 * @return images written, with errors or not
+	 */
+	public synchronized long getPredictions() {
+		return predictions;
+	}
+
+	public synchronized long getFaces() {
+		return faces;
+	}
+
+	public synchronized long getErrors() {
+		return errors;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+
+	protected static String number(double value) {
+		return String.format(Locale.ROOT, "%.4f", value);
+	}
+
+	private static class JsonLinesWriter extends PredictionWriter {
+
+		private JsonLinesWriter(Writer writer) {
+			super(writer instanceof BufferedWriter ? writer : new BufferedWriter(writer));
+		}
+
+		@Override
+		protected String format(ImagePrediction prediction) {
+			StringBuilder json = new StringBuilder("{\"path\":").append(quote(prediction.getPath().toString()))
+					.append(",\"faces\":[");
+			if (!prediction.hasError()) {
+				for (int i = 0; i < prediction.getFaces().getNumberOfObjects(); i++) {
+					DetectedObject face = (DetectedObject) prediction.getFaces().item(i);
+					Rectangle bounds = face.getBoundingBox().getBounds();
+					json.append(i == 0 ? "" : ",") //
+							.append("{\"label\":").append(quote(face.getClassName())) //
+							.append(",\"probability\":").append(number(face.getProbability())) //
+							.append(",\"x\":").append(number(bounds.getX())) //
+							.append(",\"y\":").append(number(bounds.getY())) //
+							.append(",\"width\":").append(number(bounds.getWidth())) //
+							.append(",\"height\":").append(number(bounds.getHeight())) //
+							.append('}');
+				}
+			}
+			json.append("],\"error\":").append(prediction.hasError() ? quote(prediction.getError()) : "null");
+			return json.append("}\n").toString();
+		}
+
+		private static String quote(String value) {
+			StringBuilder quoted = new StringBuilder("\"");
+			for (char c : value.toCharArray()) {
+				if (c == '"' || c == '\\') {
+					quoted.append('\\').append(c);
+				} else if (c < 0x20) {
+					quoted.append(String.format("\\u%04x", (int) c));
+				} else {
+					quoted.append(c);
+				}
+			}
+			return quoted.append('"').toString();
+		}
+	}
+
+	private static class CsvWriter extends PredictionWriter {
+
+		private static final String HEADER = "path,face,label,probability,x,y,width,height,error\n";
+
+		private boolean header;
+
+		private CsvWriter(Writer writer) {
+			super(writer instanceof BufferedWriter ? writer : new BufferedWriter(writer));
+		}
+
+		@Override
+		protected String format(ImagePrediction prediction) {
+			StringBuilder csv = new StringBuilder();
+			if (!header) {
+				csv.append(HEADER);
+				header = true;
+			}
+			String path = quote(prediction.getPath().toString());
+			if (prediction.hasError() || prediction.getFaces().getNumberOfObjects() == 0) {
+				csv.append(path).append(",,,,,,,,");
+				if (prediction.hasError()) {
+					csv.append(quote(prediction.getError()));
+				}
+				return csv.append('\n').toString();
+			}
+			for (int i = 0; i < prediction.getFaces().getNumberOfObjects(); i++) {
+				DetectedObject face = (DetectedObject) prediction.getFaces().item(i);
+				Rectangle bounds = face.getBoundingBox().getBounds();
+				csv.append(path).append(',').append(i) //
+						.append(',').append(quote(face.getClassName())) //
+						.append(',').append(number(face.getProbability())) //
+						.append(',').append(number(bounds.getX())) //
+						.append(',').append(number(bounds.getY())) //
+						.append(',').append(number(bounds.getWidth())) //
+						.append(',').append(number(bounds.getHeight())) //
+						.append(",\n");
+			}
+			return csv.toString();
+		}
+
+		private static String quote(String value) {
+			if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+					&& value.indexOf('\r') < 0) {
+				return value;
+			}
+			return '"' + value.replace("\"", "\"\"") + '"';
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package io.github.jmformenti.face.core.tracking;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import ai.djl.modality.cv.output.Rectangle;
+
+/**
+ * Follows faces across the frames of a sequence by the overlap of their bounds:
+ * each face detected in a frame is the face of the track whose bounds in the
+ * previous frame overlap it most, if they overlap at least min IoU, or a new
+ * track. Tracks are paired greedily, highest overlap first. Not thread safe,
+ * one tracker per sequence.
+ */
+public class FaceTracker {
+
+	private final TrackingParameters parameters;
+	private final List<Track> tracks;
+	private int nextId;
+
+	public FaceTracker(TrackingParameters parameters) {
+		this.parameters = parameters;
+		this.tracks = new ArrayList<>();
+	}
+
+	/**
+	 * @param faces bounds of the faces detected in the next frame
+	 * @return track of each face, in the same order
+	 */
+	public List<Track> update(List<Rectangle> faces) {
+		List<Match> candidates = new ArrayList<>();
+		for (int f = 0; f < faces.size(); f++) {
+			for (Track track : tracks) {
+				double iou = faces.get(f).getIoU(track.getBounds());
+				if (iou >= parameters.getMinIou()) {
+					candidates.add(new Match(f, track, iou));
+				}
+			}
+		}
+		candidates.sort(Comparator.comparingDouble((Match match) -> match.iou).reversed());
+
+		Track[] matched = new Track[faces.size()];
+		List<Track> matchedTracks = new ArrayList<>();
+		for (Match match : candidates) {
+			if (matched[match.face] == null && !matchedTracks.contains(match.track)) {
+				matched[match.face] = match.track;
+				matchedTracks.add(match.track);
+				match.track.update(faces.get(match.face));
+			}
+		}
+
+		for (Iterator<Track> it = tracks.iterator(); it.hasNext();) {
+			Track track = it.next();
+			if (!matchedTracks.contains(track) && track.miss() > parameters.getMaxMissedFrames()) {
+				it.remove();
+			}
+		}
+
+		List<Track> result = new ArrayList<>(faces.size());
+		for (int f = 0; f < faces.size(); f++) {
+			if (matched[f] == null) {
+				matched[f] = new Track(nextId++, faces.get(f));
+				tracks.add(matched[f]);
+			}
+			result.add(matched[f]);
+		}
+		return result;
+	}
+
+	public TrackingParameters getParameters() {
+		return parameters;
+	}
+
+	/**
+	 * @return tracks alive, including the ones whose face was missed in the last
+	 *         frames
+	 */
+	public List<Track> getTracks() {
+		return tracks;
+	}
+
+	private static class Match {
+
+		private final int face;
+		private final Track track;
+		private final double iou;
+
+		private Match(int face, Track track, double iou) {
+			this.face = face;
+			this.track = track;
+			this.iou = iou;
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package io.github.jmformenti.face.core.tracking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.output.BoundingBox;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.util.ImageUtil;
+
+/**
+ * Recognizes the faces of the frames of a sequence, in order. Faces are
+ * detected in every frame and followed by a {@link FaceTracker}, but only the
+ * faces that need it are embedded and searched, the rest keep the identity of
+ * their track. Not thread safe, one recognizer per sequence.
+ */
+public class FrameRecognizer {
+
+	private final FaceTracker tracker;
+	private final Function<Image, DetectedObjects> detector;
+	private final Function<List<Image>, List<float[]>> embedder;
+	private final Function<float[], EmbeddingResult> search;
+
+	private long frames;
+	private long faces;
+	private long embeddedFaces;
+
+	/**
+	 * @param detector faces of a frame
+	 * @param embedder embedding of each face image
+	 * @param search   identity of an embedding
+	 */
+	public FrameRecognizer(FaceTracker tracker, Function<Image, DetectedObjects> detector,
+			Function<List<Image>, List<float[]>> embedder, Function<float[], EmbeddingResult> search) {
+		this.tracker = tracker;
+		this.detector = detector;
+		this.embedder = embedder;
+		this.search = search;
+	}
+
+	/**
+	 * @param frame next frame of the sequence
+	 * @return track of each face of the frame, with its bounds in the frame and
+	 *         its identity
+	 */
+	public List<Track> recognize(Image frame) {
+		List<DetectedObject> detectedFaces = detector.apply(frame).items();
+		List<Track> tracks = tracker.update(detectedFaces.stream() //
+				.map(face -> face.getBoundingBox().getBounds()) //
+				.collect(Collectors.toList()));
+
+		List<Track> embedTracks = new ArrayList<>();
+		List<Image> embedFaces = new ArrayList<>();
+		for (int i = 0; i < tracks.size(); i++) {
+			if (tracks.get(i).needsEmbedding(tracker.getParameters())) {
+				embedTracks.add(tracks.get(i));
+				embedFaces.add(ImageUtil.getDetectedObjectImage(frame, detectedFaces.get(i)));
+			}
+		}
+		if (!embedFaces.isEmpty()) {
+			List<float[]> embeddings = embedder.apply(embedFaces);
+			for (int i = 0; i < embedTracks.size(); i++) {
+				EmbeddingResult result = search.apply(embeddings.get(i));
+				embedTracks.get(i).setIdentity(embeddings.get(i), result.getName(), result.getProbability());
+			}
+		}
+
+		frames++;
+		faces += tracks.size();
+		embeddedFaces += embedFaces.size();
+		return tracks;
+	}
+
+	/**
+	 * @return faces of the tracks, labeled with the identity of each track
+	 */
+	public static DetectedObjects toDetectedObjects(List<Track> tracks) {
+		List<String> names = new ArrayList<>(tracks.size());
+		List<Double> probs = new ArrayList<>(tracks.size());
+		List<BoundingBox> rects = new ArrayList<>(tracks.size());
+		for (Track track : tracks) {
+			names.add(track.getLabel());
+			probs.add(track.getProbability());
+			rects.add(track.getBounds());
+		}
+		return new DetectedObjects(names, probs, rects);
+	}
+
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * @return faces detected in all frames
+	 */
+	public long getFaces() {
+		return faces;
+	}
+
+	/**
+	 * @return faces embedded and searched, the rest reused the identity of their
+	 *         track
+	 */
+	public long getEmbeddedFaces() {
+		return embeddedFaces;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d frames, %d faces, %d embedded", frames, faces, embeddedFaces);
+	}
+}
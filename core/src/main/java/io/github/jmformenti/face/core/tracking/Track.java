@@ -0,0 +1,85 @@
+package io.github.jmformenti.face.core.tracking;
+
+import ai.djl.modality.cv.output.Rectangle;
+
+/**
+ * A face followed across frames, with the identity found when it was last
+ * embedded.
+ */
+public class Track {
+
+	private final int id;
+	private Rectangle bounds;
+	private int missedFrames;
+
+	private float[] embedding;
+	private String label;
+	private double probability;
+	private Rectangle embeddedBounds;
+	private int framesSinceEmbedding;
+
+	Track(int id, Rectangle bounds) {
+		this.id = id;
+		this.bounds = bounds;
+	}
+
+	void update(Rectangle bounds) {
+		this.bounds = bounds;
+		this.missedFrames = 0;
+		this.framesSinceEmbedding++;
+	}
+
+	int miss() {
+		return ++missedFrames;
+	}
+
+	/**
+	 * @return true if the face has not been embedded yet, has moved or resized
+	 *         too much since it was embedded or it was embedded refresh frames
+	 *         ago
+	 */
+	public boolean needsEmbedding(TrackingParameters parameters) {
+		return embedding == null //
+				|| (parameters.getRefreshFrames() > 0 && framesSinceEmbedding >= parameters.getRefreshFrames()) //
+				|| bounds.getIoU(embeddedBounds) < parameters.getDriftIou();
+	}
+
+	/**
+	 * Sets the identity of the face in its current bounds.
+	 */
+	public void setIdentity(float[] embedding, String label, double probability) {
+		this.embedding = embedding;
+		this.label = label;
+		this.probability = probability;
+		this.embeddedBounds = bounds;
+		this.framesSinceEmbedding = 0;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return bounds in the last frame where the face was detected
+	 */
+	public Rectangle getBounds() {
+		return bounds;
+	}
+
+	public float[] getEmbedding() {
+		return embedding;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public double getProbability() {
+		return probability;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d %s %.2f", id, label, probability);
+	}
+}
@@ -0,0 +1,62 @@
+package io.github.jmformenti.face.core.tracking;
+
+public class TrackingParameters {
+
+	public static final double DEFAULT_MIN_IOU = 0.3;
+	public static final double DEFAULT_DRIFT_IOU = 0.5;
+	public static final int DEFAULT_REFRESH_FRAMES = 30;
+	public static final int DEFAULT_MAX_MISSED_FRAMES = 5;
+
+	private final double minIou;
+	private final double driftIou;
+	private final int refreshFrames;
+	private final int maxMissedFrames;
+
+	public TrackingParameters() {
+		this(DEFAULT_MIN_IOU, DEFAULT_DRIFT_IOU, DEFAULT_REFRESH_FRAMES, DEFAULT_MAX_MISSED_FRAMES);
+	}
+
+	/**
+	 * @param minIou          min intersection over union of a face with the face
+	 *                        of a track in the previous frame to be the same face
+	 * @param driftIou        a face is embedded again if its intersection over
+	 *                        union with the face when it was last embedded is
+	 *                        lower
+	 * @param refreshFrames   a face is embedded again after this many frames, 0
+	 *                        to never refresh
+	 * @param maxMissedFrames frames a track is kept without its face
+	 */
+	public TrackingParameters(double minIou, double driftIou, int refreshFrames, int maxMissedFrames) {
+		if (minIou <= 0 || minIou > 1 || driftIou < 0 || driftIou > 1 || refreshFrames < 0 || maxMissedFrames < 0) {
+			throw new IllegalArgumentException(String.format(
+					"Invalid tracking parameters minIou=%s driftIou=%s refreshFrames=%d maxMissedFrames=%d", minIou,
+					driftIou, refreshFrames, maxMissedFrames));
+		}
+		this.minIou = minIou;
+		this.driftIou = driftIou;
+		this.refreshFrames = refreshFrames;
+		this.maxMissedFrames = maxMissedFrames;
+	}
+
+	public double getMinIou() {
+		return minIou;
+	}
+
+	public double getDriftIou() {
+		return driftIou;
+	}
+
+	public int getRefreshFrames() {
+		return refreshFrames;
+	}
+
+	public int getMaxMissedFrames() {
+		return maxMissedFrames;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("minIou=%s, driftIou=%s, refreshFrames=%d, maxMissedFrames=%d", minIou, driftIou,
+				refreshFrames, maxMissedFrames);
+	}
+}
@@ -0,0 +1,84 @@
+package io.github.jmformenti.face.core.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fast non cryptographic hash of contents.
+ */
+public class HashUtil {
+
+	private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME64_3 = 0x165667B19E3779F9L;
+	private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+	private HashUtil() {
+	}
+
+	/**
+	 * @return XXH64 hash (https://github.com/Cyan4973/xxHash) of the bytes, with
+	 *         seed 0
+	 */
+	public static long xxHash64(byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		int length = bytes.length;
+		int i = 0;
+		long hash;
+
+		if (length >= 32) {
+			long v1 = PRIME64_1 + PRIME64_2;
+			long v2 = PRIME64_2;
+			long v3 = 0;
+			long v4 = -PRIME64_1;
+			for (; i <= length - 32; i += 32) {
+				v1 = round(v1, buffer.getLong(i));
+				v2 = round(v2, buffer.getLong(i + 8));
+				v3 = round(v3, buffer.getLong(i + 16));
+				v4 = round(v4, buffer.getLong(i + 24));
+			}
+			hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+					+ Long.rotateLeft(v4, 18);
+			hash = mergeRound(hash, v1);
+			hash = mergeRound(hash, v2);
+			hash = mergeRound(hash, v3);
+			hash = mergeRound(hash, v4);
+		} else {
+			hash = PRIME64_5;
+		}
+		hash += length;
+
+		for (; i <= length - 8; i += 8) {
+			hash ^= round(0, buffer.getLong(i));
+			hash = Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+		}
+		if (i <= length - 4) {
+			hash ^= (buffer.getInt(i) & 0xFFFFFFFFL) * PRIME64_1;
+			hash = Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+			i += 4;
+		}
+		for (; i < length; i++) {
+			hash ^= (bytes[i] & 0xFFL) * PRIME64_5;
+			hash = Long.rotateLeft(hash, 11) * PRIME64_1;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= PRIME64_2;
+		hash ^= hash >>> 29;
+		hash *= PRIME64_3;
+		hash ^= hash >>> 32;
+		return hash;
+	}
+
+	private static long round(long acc, long input) {
+		acc += input * PRIME64_2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME64_1;
+	}
+
+	private static long mergeRound(long acc, long value) {
+		acc ^= round(0, value);
+		return acc * PRIME64_1 + PRIME64_4;
+	}
+}
@@ -2,21 +2,27 @@ package io.github.jmformenti.face.core.util;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import ai.djl.modality.cv.Image;
 import ai.djl.modality.cv.ImageFactory;
 import ai.djl.modality.cv.output.DetectedObjects;
 import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
 import ai.djl.modality.cv.output.Rectangle;
-import net.coobird.thumbnailator.Thumbnails;
+import io.github.jmformenti.face.core.domain.ImageElement;
+import net.coobird.thumbnailator.util.exif.ExifFilterUtils;
+import net.coobird.thumbnailator.util.exif.ExifUtils;
+import net.coobird.thumbnailator.util.exif.Orientation;
 
 public class ImageUtil {
 
@@ -31,30 +37,75 @@ public class ImageUtil {
 	}
 
 	/**
-	 * Using Thumbnailator library to rotate jpeg files depending the exif info
-	 * (https://stackoverflow.com/a/26130136)
+	 * Decodes the image and rotates it depending the exif info, with the same
+	 * reader and orientation filters used by Thumbnailator
+	 * (https://stackoverflow.com/a/26130136), and wraps the decoded pixels without
+	 * encoding them again.
 	 * 
 	 * @param path image input path
 	 * @return image prepared
 	 */
 	public static Image getImage(Path path) {
-		try {
-			BufferedImage bufferedImage = Thumbnails.of(path.toString()).scale(1).asBufferedImage();
+		return read(path, (reader, orientation) -> reader.read(0));
+	}
+
+	/**
+	 * Same as {@link #getImage(Path)} for an image file already in memory.
+	 */
+	public static Image getImage(byte[] bytes) {
+		return read(new ByteArrayInputStream(bytes), "in memory", (reader, orientation) -> reader.read(0));
+	}
 
-			ByteArrayOutputStream os = new ByteArrayOutputStream();
-			ImageIO.write(bufferedImage, "jpeg", os);
-			InputStream is = new ByteArrayInputStream(os.toByteArray());
+	/**
+	 * Same as {@link #getImage(Path)} but reading only every n-th pixel of every
+	 * n-th row, with n as large as possible keeping the larger side of the image
+	 * at least min size pixels. The full resolution image is never in memory.
+	 */
+	public static Image getImage(Path path, int minSize) {
+		return read(path, (reader, orientation) -> {
+			int subsampling = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / minSize);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			return reader.read(0, param);
+		});
+	}
 
-			return ImageFactory.getInstance().fromInputStream(is);
-		} catch (IOException e) {
-			throw new RuntimeException(String.format("Error reading image %s", path), e);
+	/**
+	 * @return image of the detected face, read from the original file if the
+	 *         image element was decoded at reduced resolution
+	 */
+	public static Image getDetectedObjectImage(ImageElement imageElement, DetectedObject detectedFace) {
+		if (imageElement.isReduced()) {
+			return getDetectedObjectImage(imageElement.getOriginalPath(), detectedFace);
+		} else {
+			return getDetectedObjectImage(imageElement.getImage(), detectedFace);
 		}
 	}
 
+	/**
+	 * Reads only the region of the detected face from the image file, same pixels
+	 * as cropping the image returned by {@link #getImage(Path)}.
+	 */
+	public static Image getDetectedObjectImage(Path path, DetectedObject detectedFace) {
+		return read(path, (reader, orientation) -> {
+			int width = reader.getWidth(0);
+			int height = reader.getHeight(0);
+			if (isTransposed(orientation)) {
+				width = reader.getHeight(0);
+				height = reader.getWidth(0);
+			}
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(toSourceRegion(getBounds(detectedFace, width, height), orientation, width, height));
+			return reader.read(0, param);
+		});
+	}
+
 	public static Image getDetectedObjectImage(Image originalImage, DetectedObject detectedFace) {
-		int imageWidth = originalImage.getWidth();
-		int imageHeight = originalImage.getHeight();
+		java.awt.Rectangle bounds = getBounds(detectedFace, originalImage.getWidth(), originalImage.getHeight());
+		return originalImage.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+	}
 
+	private static java.awt.Rectangle getBounds(DetectedObject detectedFace, int imageWidth, int imageHeight) {
 		Rectangle rectangle = detectedFace.getBoundingBox().getBounds();
 
 		int x = (int) (rectangle.getX() * imageWidth);
@@ -67,7 +118,77 @@ public class ImageUtil {
 		w = x + w > imageWidth ? w - (x + w - imageWidth) : w;
 		h = y + h > imageHeight ? h - (y + h - imageHeight) : h;
 
-		return originalImage.getSubimage(x, y, w, h);
+		return new java.awt.Rectangle(x, y, w, h);
+	}
+
+	private static boolean isTransposed(Orientation orientation) {
+		return orientation == Orientation.LEFT_TOP || orientation == Orientation.RIGHT_TOP
+				|| orientation == Orientation.RIGHT_BOTTOM || orientation == Orientation.LEFT_BOTTOM;
+	}
+
+	/**
+	 * @return region of the stored image that is displayed, once oriented, in the
+	 *         given region of a width x height image
+	 */
+	private static java.awt.Rectangle toSourceRegion(java.awt.Rectangle r, Orientation orientation, int width,
+			int height) {
+		if (orientation == null) {
+			return r;
+		}
+		switch (orientation) {
+		case TOP_RIGHT:
+			return new java.awt.Rectangle(width - r.x - r.width, r.y, r.width, r.height);
+		case BOTTOM_RIGHT:
+			return new java.awt.Rectangle(width - r.x - r.width, height - r.y - r.height, r.width, r.height);
+		case BOTTOM_LEFT:
+			return new java.awt.Rectangle(r.x, height - r.y - r.height, r.width, r.height);
+		case LEFT_TOP:
+			return new java.awt.Rectangle(r.y, r.x, r.height, r.width);
+		case RIGHT_TOP:
+			return new java.awt.Rectangle(r.y, width - r.x - r.width, r.height, r.width);
+		case RIGHT_BOTTOM:
+			return new java.awt.Rectangle(height - r.y - r.height, width - r.x - r.width, r.height, r.width);
+		case LEFT_BOTTOM:
+			return new java.awt.Rectangle(height - r.y - r.height, r.x, r.height, r.width);
+		default:
+			return r;
+		}
+	}
+
+	private static Image read(Path path, ImageRead imageRead) {
+		return read(path.toFile(), path.toString(), imageRead);
+	}
+
+	/**
+	 * @param source file or input stream
+	 */
+	private static Image read(Object source, String name, ImageRead imageRead) {
+		try (ImageInputStream input = ImageIO.createImageInputStream(source)) {
+			Iterator<ImageReader> readers = input == null ? Collections.emptyIterator()
+					: ImageIO.getImageReaders(input);
+			if (!readers.hasNext()) {
+				throw new IOException("No image reader found");
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input);
+				Orientation orientation = ExifUtils.getExifOrientation(reader, 0);
+				BufferedImage bufferedImage = imageRead.read(reader, orientation);
+				if (orientation != null && orientation != Orientation.TOP_LEFT) {
+					bufferedImage = ExifFilterUtils.getFilterForOrientation(orientation).apply(bufferedImage);
+				}
+				return ImageFactory.getInstance().fromImage(bufferedImage);
+			} finally {
+				reader.dispose();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(String.format("Error reading image %s", name), e);
+		}
+	}
+
+	private interface ImageRead {
+
+		BufferedImage read(ImageReader reader, Orientation orientation) throws IOException;
 	}
 
 	public static DetectedObject selectMaxDetectedObject(DetectedObjects detectedFaces) {
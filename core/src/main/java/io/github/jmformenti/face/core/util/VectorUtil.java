@@ -0,0 +1,187 @@
+package io.github.jmformenti.face.core.util;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Allocation free vector operations over primitive arrays. Loops are unrolled
+ * with independent accumulators so the JIT can keep them in registers and
+ * vectorize them.
+ */
+public class VectorUtil {
+
+	private VectorUtil() {
+	}
+
+	public static double dot(double[] u, double[] v) {
+		int n = u.length;
+		int bound = n & ~3;
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i < bound; i += 4) {
+			s0 += u[i] * v[i];
+			s1 += u[i + 1] * v[i + 1];
+			s2 += u[i + 2] * v[i + 2];
+			s3 += u[i + 3] * v[i + 3];
+		}
+		for (; i < n; i++) {
+			s0 += u[i] * v[i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	public static double squaredNorm(double[] u) {
+		return dot(u, u);
+	}
+
+	public static double dot(float[] u, float[] v) {
+		int n = u.length;
+		int bound = n & ~3;
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = 0;
+		for (; i < bound; i += 4) {
+			s0 += (double) u[i] * v[i];
+			s1 += (double) u[i + 1] * v[i + 1];
+			s2 += (double) u[i + 2] * v[i + 2];
+			s3 += (double) u[i + 3] * v[i + 3];
+		}
+		for (; i < n; i++) {
+			s0 += (double) u[i] * v[i];
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	public static double squaredNorm(float[] u) {
+		return dot(u, u);
+	}
+
+	// Translated from scipy.spatial.distance.cosine
+	public static double cosine(double[] u, double[] v) {
+		return cosine(u, squaredNorm(u), v);
+	}
+
+	/**
+	 * Cosine distance with the squared norm of {@code u} already computed, so
+	 * repeated comparisons of one query against many vectors only do one fused
+	 * pass over {@code v}.
+	 *
+	 * @param u   query vector
+	 * @param uu  squared norm of u
+	 * @param v   vector to compare
+	 * @return cosine distance between u and v
+	 */
+	public static double cosine(double[] u, double uu, double[] v) {
+		int n = u.length;
+		int bound = n & ~1;
+		double uv0 = 0, uv1 = 0, vv0 = 0, vv1 = 0;
+		int i = 0;
+		for (; i < bound; i += 2) {
+			double v0 = v[i];
+			double v1 = v[i + 1];
+			uv0 += u[i] * v0;
+			vv0 += v0 * v0;
+			uv1 += u[i + 1] * v1;
+			vv1 += v1 * v1;
+		}
+		for (; i < n; i++) {
+			uv0 += u[i] * v[i];
+			vv0 += v[i] * v[i];
+		}
+		return cosineFromProducts(uv0 + uv1, uu, vv0 + vv1);
+	}
+
+	/**
+	 * Cosine distance between a float query and the row of a packed float matrix
+	 * starting at {@code offset}, with the inverse norms of both already
+	 * computed: a single dot product pass over the row.
+	 *
+	 * @param u            query vector
+	 * @param uInverseNorm inverse norm of u, see {@link #inverseNorm(double)}
+	 * @param vInverseNorm inverse norm of the row
+	 * @return cosine distance between u and the row
+	 */
+	public static double cosine(float[] u, double uInverseNorm, FloatBuffer data, int offset, double vInverseNorm) {
+		return Math.abs(1 - dot(u, data, offset) * uInverseNorm * vInverseNorm);
+	}
+
+	/**
+	 * @return inverse of the norm of a vector with the given squared norm, 0 for
+	 *         a zero vector, at distance 1 of any other
+	 */
+	public static double inverseNorm(double squaredNorm) {
+		return squaredNorm > 0 ? 1 / Math.sqrt(squaredNorm) : 0;
+	}
+
+	/**
+	 * Same two independent accumulators whether the matrix is on heap or in a
+	 * direct or mapped buffer.
+	 */
+	public static double dot(float[] u, FloatBuffer data, int offset) {
+		int n = u.length;
+		int bound = n & ~1;
+		double s0 = 0, s1 = 0;
+		int i = 0;
+		if (data.hasArray()) {
+			float[] v = data.array();
+			int base = data.arrayOffset() + offset;
+			for (; i < bound; i += 2) {
+				s0 += (double) u[i] * v[base + i];
+				s1 += (double) u[i + 1] * v[base + i + 1];
+			}
+			for (; i < n; i++) {
+				s0 += (double) u[i] * v[base + i];
+			}
+		} else {
+			for (; i < bound; i += 2) {
+				s0 += (double) u[i] * data.get(offset + i);
+				s1 += (double) u[i + 1] * data.get(offset + i + 1);
+			}
+			for (; i < n; i++) {
+				s0 += (double) u[i] * data.get(offset + i);
+			}
+		}
+		return s0 + s1;
+	}
+
+	/**
+	 * Dot product of two rows of the same packed float matrix.
+	 */
+	public static double dot(FloatBuffer data, int offsetA, int offsetB, int n) {
+		return dot(data, offsetA, data, offsetB, n);
+	}
+
+	/**
+	 * Dot product of two rows of packed float matrices, or of two chunks of the
+	 * same one.
+	 */
+	public static double dot(FloatBuffer dataA, int offsetA, FloatBuffer dataB, int offsetB, int n) {
+		int bound = n & ~1;
+		double s0 = 0, s1 = 0;
+		int i = 0;
+		if (dataA.hasArray() && dataB.hasArray()) {
+			float[] u = dataA.array();
+			float[] v = dataB.array();
+			int a = dataA.arrayOffset() + offsetA;
+			int b = dataB.arrayOffset() + offsetB;
+			for (; i < bound; i += 2) {
+				s0 += (double) u[a + i] * v[b + i];
+				s1 += (double) u[a + i + 1] * v[b + i + 1];
+			}
+			for (; i < n; i++) {
+				s0 += (double) u[a + i] * v[b + i];
+			}
+		} else {
+			for (; i < bound; i += 2) {
+				s0 += (double) dataA.get(offsetA + i) * dataB.get(offsetB + i);
+				s1 += (double) dataA.get(offsetA + i + 1) * dataB.get(offsetB + i + 1);
+			}
+			for (; i < n; i++) {
+				s0 += (double) dataA.get(offsetA + i) * dataB.get(offsetB + i);
+			}
+		}
+		return s0 + s1;
+	}
+
+	public static double cosineFromProducts(double uv, double uu, double vv) {
+		return Math.abs(1 - uv / Math.sqrt(uu * vv));
+	}
+}
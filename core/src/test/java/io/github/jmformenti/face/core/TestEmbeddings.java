@@ -0,0 +1,80 @@
+package io.github.jmformenti.face.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntSupplier;
+
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+
+/**
+ * Random embeddings for tests, and galleries with the embeddings of each label
+ * spread around a random center, labeled label0, label1, ...
+ */
+public class TestEmbeddings {
+
+	private TestEmbeddings() {
+	}
+
+	/**
+	 * @return embedding with uniform values between -1 and 1
+	 */
+	public static float[] randomEmbedding(Random random, int dimension) {
+		float[] embedding = new float[dimension];
+		for (int i = 0; i < dimension; i++) {
+			embedding[i] = random.nextFloat() * 2 - 1;
+		}
+		return embedding;
+	}
+
+	public static List<float[]> randomEmbeddings(Random random, int count, int dimension) {
+		List<float[]> embeddings = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			embeddings.add(randomEmbedding(random, dimension));
+		}
+		return embeddings;
+	}
+
+	/**
+	 * @return center plus gaussian noise of the given deviation
+	 */
+	public static float[] near(Random random, float[] center, double deviation) {
+		float[] embedding = center.clone();
+		for (int i = 0; i < embedding.length; i++) {
+			embedding[i] += random.nextGaussian() * deviation;
+		}
+		return embedding;
+	}
+
+	public static List<float[]> newCluster(Random random, float[] center, int size, double deviation) {
+		List<float[]> embeddings = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			embeddings.add(near(random, center, deviation));
+		}
+		return embeddings;
+	}
+
+	/**
+	 * @param centers     one per label
+	 * @param clusterSize embeddings of each label
+	 */
+	public static EmbeddingsHolder newGallery(Random random, List<float[]> centers, IntSupplier clusterSize,
+			double deviation) {
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		for (int label = 0; label < centers.size(); label++) {
+			embeddingsHolder.add(new EmbeddingItem("label" + label,
+					newCluster(random, centers.get(label), clusterSize.getAsInt(), deviation)));
+		}
+		return embeddingsHolder;
+	}
+
+	/**
+	 * @param maxClusterSize each label has from 1 to this many embeddings
+	 */
+	public static EmbeddingsHolder newGallery(Random random, int labels, int dimension, int maxClusterSize,
+			double deviation) {
+		return newGallery(random, randomEmbeddings(random, labels, dimension), () -> 1 + random.nextInt(maxClusterSize),
+				deviation);
+	}
+}
@@ -0,0 +1,134 @@
+package io.github.jmformenti.face.core.domain;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class EmbeddingsHolderTest {
+
+	private static final int DIMENSION = 16;
+
+	@Test
+	void testConcurrentAdd() throws Exception {
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int label = 0; label < 500; label++) {
+				int value = label;
+				futures.add(executor.submit(() -> {
+					embeddingsHolder.add(new EmbeddingItem("label" + value, embeddings(value)));
+					// readers only see complete snapshots
+					embeddingsHolder.getMatrix();
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(500, embeddingsHolder.size());
+		assertEquals(500 * 3, embeddingsHolder.getNumRows());
+		for (int label = 0; label < 500; label++) {
+			List<float[]> expected = embeddings(label);
+			List<float[]> actual = embeddingsHolder.get("label" + label);
+			for (int i = 0; i < expected.size(); i++) {
+				assertArrayEquals(expected.get(i), actual.get(i));
+			}
+		}
+	}
+
+	@Test
+	void testAppendRemoveEmbeddingsAndRename() {
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		embeddingsHolder.add(new EmbeddingItem("a", embeddings(1)));
+		embeddingsHolder.add(new EmbeddingItem("b", embeddings(2)));
+		embeddingsHolder.add(new EmbeddingItem("c", embeddings(3)));
+		EmbeddingsMatrix before = embeddingsHolder.getMatrix();
+
+		embeddingsHolder.append("a", embeddings(4));
+		assertEquals(6, embeddingsHolder.get("a").size());
+		assertArrayEquals(embeddings(4).get(0), embeddingsHolder.get("a").get(3));
+		assertArrayEquals(embeddings(2).get(0), embeddingsHolder.get("b").get(0));
+
+		assertTrue(embeddingsHolder.removeEmbeddings("a", Set.of(0, 4)));
+		assertEquals(4, embeddingsHolder.get("a").size());
+		assertArrayEquals(embeddings(1).get(1), embeddingsHolder.get("a").get(0));
+		assertArrayEquals(embeddings(4).get(2), embeddingsHolder.get("a").get(3));
+
+		assertTrue(embeddingsHolder.rename("b", "d"));
+		assertFalse(embeddingsHolder.rename("x", "y"));
+		assertThrows(IllegalArgumentException.class, () -> embeddingsHolder.rename("a", "c"));
+		assertEquals(List.of("a", "d", "c"), List.copyOf(embeddingsHolder.getLabels()));
+		assertArrayEquals(embeddings(2).get(0), embeddingsHolder.get("d").get(0));
+		assertArrayEquals(embeddings(3).get(2), embeddingsHolder.get("c").get(2));
+
+		// published snapshots are not modified
+		assertEquals(9, before.getNumRows());
+		assertEquals("b", before.getLabel(1));
+	}
+
+	@Test
+	void testInverseNormsFollowRows() {
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		embeddingsHolder.add(new EmbeddingItem("a", embeddings(1)));
+		embeddingsHolder.add(new EmbeddingItem("b", embeddings(2)));
+		embeddingsHolder.add(new EmbeddingItem("c", embeddings(4)));
+		embeddingsHolder.append("a", embeddings(5));
+		embeddingsHolder.remove("b");
+		embeddingsHolder.removeEmbeddings("a", Set.of(1));
+		assertArrayEquals(new double[] { 1, 1, 0.2, 0.2, 0.2, 0.25, 0.25, 0.25 },
+				embeddingsHolder.getMatrix().getInverseNorms(), 1e-12);
+
+		// holders over a matrix take its norms when modified
+		EmbeddingsHolder copy = new EmbeddingsHolder(embeddingsHolder.getMatrix());
+		copy.append("c", embeddings(8));
+		assertArrayEquals(new double[] { 1, 1, 0.2, 0.2, 0.2, 0.25, 0.25, 0.25, 0.125, 0.125, 0.125 },
+				copy.getMatrix().getInverseNorms(), 1e-12);
+	}
+
+	@Test
+	void testVersionChangesWhenModified() {
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		long version = embeddingsHolder.getVersion();
+		assertTrue(new EmbeddingsHolder().getVersion() != version);
+
+		embeddingsHolder.add(new EmbeddingItem("a", embeddings(1)));
+		assertTrue(embeddingsHolder.getVersion() > version);
+		version = embeddingsHolder.getVersion();
+
+		// reads and failed modifications keep it
+		embeddingsHolder.getMatrix();
+		assertFalse(embeddingsHolder.remove("b"));
+		assertEquals(version, embeddingsHolder.getVersion());
+
+		embeddingsHolder.append("a", embeddings(2));
+		assertTrue(embeddingsHolder.getVersion() > version);
+		version = embeddingsHolder.getVersion();
+		embeddingsHolder.rename("a", "b");
+		assertTrue(embeddingsHolder.getVersion() > version);
+	}
+
+	private static List<float[]> embeddings(int value) {
+		List<float[]> embeddings = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			float[] embedding = new float[DIMENSION];
+			embedding[i] = value;
+			embeddings.add(embedding);
+		}
+		return embeddings;
+	}
+}
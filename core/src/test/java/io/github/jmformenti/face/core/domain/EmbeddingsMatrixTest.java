@@ -0,0 +1,176 @@
+package io.github.jmformenti.face.core.domain;
+
+import static io.github.jmformenti.face.core.TestEmbeddings.near;
+import static io.github.jmformenti.face.core.TestEmbeddings.newGallery;
+import static io.github.jmformenti.face.core.TestEmbeddings.randomEmbeddings;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.jmformenti.face.core.search.ExhaustiveSearch;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+class EmbeddingsMatrixTest {
+
+	private static final int DIMENSION = 4;
+
+	// labels without rows at the start, in the middle and at the end
+	private static final String[] LABELS = { "none", "a", "empty", "other empty", "b", "c", "last" };
+
+	private static final int[] OFFSETS = { 0, 0, 2, 2, 2, 5, 6, 6 };
+
+	private static final int[] ROW_LABELS = { 1, 1, 4, 4, 4, 5 };
+
+	@Test
+	void testLayout() {
+		EmbeddingsMatrix matrix = newMatrix();
+		assertEquals(DIMENSION, matrix.getDimension());
+		assertEquals(LABELS.length, matrix.getNumLabels());
+		assertEquals(6, matrix.getNumRows());
+		assertEquals(6 * DIMENSION * Float.BYTES, matrix.sizeInBytes());
+		for (int label = 0; label < LABELS.length; label++) {
+			assertEquals(LABELS[label], matrix.getLabel(label));
+			assertEquals(OFFSETS[label], matrix.getStart(label));
+			assertEquals(OFFSETS[label + 1], matrix.getEnd(label));
+		}
+		for (int row = 0; row < matrix.getNumRows(); row++) {
+			assertEquals(row * DIMENSION, matrix.getRowOffset(row));
+			assertArrayEquals(row(row), matrix.getRow(row));
+			assertArrayEquals(toDouble(row(row)), matrix.getRowAsDouble(row));
+		}
+	}
+
+	@Test
+	void testGetLabelIndex() {
+		EmbeddingsMatrix matrix = newMatrix();
+		for (int row = 0; row < matrix.getNumRows(); row++) {
+			assertEquals(ROW_LABELS[row], matrix.getLabelIndex(row));
+		}
+
+		EmbeddingsMatrix single = new EmbeddingsMatrix(DIMENSION, new String[] { "a" }, new int[] { 0, 2 },
+				FloatBuffer.wrap(new float[2 * DIMENSION]));
+		assertEquals(0, single.getLabelIndex(0));
+		assertEquals(0, single.getLabelIndex(1));
+	}
+
+	@Test
+	void testInverseNorms() {
+		EmbeddingsMatrix matrix = newMatrix();
+		double[] inverseNorms = matrix.getInverseNorms();
+		for (int row = 0; row < matrix.getNumRows(); row++) {
+			assertEquals(1 / Math.sqrt(VectorUtil.squaredNorm(row(row))), inverseNorms[row], 1e-12);
+		}
+	}
+
+	@Test
+	void testChunks() {
+		EmbeddingsMatrix matrix = newMatrix();
+		float[] data = data();
+		// two rows per chunk
+		FloatBuffer[] chunks = new FloatBuffer[3];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = FloatBuffer.wrap(Arrays.copyOfRange(data, i * 2 * DIMENSION, (i + 1) * 2 * DIMENSION));
+		}
+		EmbeddingsMatrix chunked = new EmbeddingsMatrix(DIMENSION, LABELS, OFFSETS, chunks, 1, null);
+		for (int row = 0; row < matrix.getNumRows(); row++) {
+			assertEquals(row / 2, chunked.getChunk(row));
+			assertEquals(row % 2 * DIMENSION, chunked.getRowOffset(row));
+			assertArrayEquals(row(row), chunked.getRow(row));
+		}
+		assertArrayEquals(matrix.getInverseNorms(), chunked.getInverseNorms());
+		assertEquals(matrix.getFingerprint(), chunked.getFingerprint());
+		assertEquals(FloatBuffer.wrap(data), chunked.copyData(false));
+	}
+
+	@Test
+	void testInvalid() {
+		assertThrows(IllegalArgumentException.class,
+				() -> new EmbeddingsMatrix(DIMENSION, LABELS, Arrays.copyOf(OFFSETS, 3), FloatBuffer.wrap(data())));
+		assertThrows(IllegalArgumentException.class, () -> new EmbeddingsMatrix(DIMENSION, LABELS, OFFSETS,
+				FloatBuffer.wrap(Arrays.copyOf(data(), 5 * DIMENSION))));
+	}
+
+	@Test
+	void testSearchMatchesBaseline() {
+		Random random = new Random(5);
+		List<float[]> centers = randomEmbeddings(random, 50, 128);
+		EmbeddingsHolder embeddingsHolder = newGallery(random, centers, () -> random.nextInt(8), 0.4);
+		ExhaustiveSearch search = new ExhaustiveSearch(embeddingsHolder.getMatrix());
+		int found = 0;
+		for (float[] center : centers) {
+			float[] query = near(random, center, 0.4);
+			EmbeddingResult expected = baselineSearch(query, embeddingsHolder);
+			EmbeddingResult actual = search.search(query);
+			assertEquals(expected == null, actual == null);
+			if (expected != null) {
+				assertEquals(expected.getName(), actual.getName());
+				assertEquals(expected.getProbability(), actual.getProbability(), 1e-9);
+				found++;
+			}
+		}
+		assertTrue(found > 0);
+	}
+
+	/**
+	 * Search of the gallery as a list of embeddings per label, before the packed
+	 * matrix.
+	 */
+	private static EmbeddingResult baselineSearch(float[] query, EmbeddingsHolder embeddingsHolder) {
+		double[] embeddingToCheck = toDouble(query);
+		String result = null;
+		double minRatioSimilarity = 1;
+		for (String label : embeddingsHolder.getLabels()) {
+			int numVotes = 0;
+			double accumulatedSimilarity = 0;
+			for (float[] embedding : embeddingsHolder.get(label)) {
+				double similarity = VectorUtil.cosine(toDouble(embedding), embeddingToCheck);
+				if (similarity <= ExhaustiveSearch.SIMILARITY_THRESHOLD) {
+					accumulatedSimilarity += similarity;
+					numVotes++;
+				}
+			}
+			double ratioSimilarity = accumulatedSimilarity / numVotes;
+			if (ratioSimilarity < minRatioSimilarity) {
+				result = label;
+				minRatioSimilarity = ratioSimilarity;
+			}
+		}
+		return result == null ? null : new EmbeddingResult(result, 1 - minRatioSimilarity);
+	}
+
+	private static EmbeddingsMatrix newMatrix() {
+		return new EmbeddingsMatrix(DIMENSION, LABELS, OFFSETS, FloatBuffer.wrap(data()));
+	}
+
+	private static float[] data() {
+		float[] data = new float[6 * DIMENSION];
+		for (int row = 0; row < 6; row++) {
+			System.arraycopy(row(row), 0, data, row * DIMENSION, DIMENSION);
+		}
+		return data;
+	}
+
+	private static float[] row(int row) {
+		float[] result = new float[DIMENSION];
+		for (int i = 0; i < DIMENSION; i++) {
+			result[i] = row * 10 + i + 1;
+		}
+		return result;
+	}
+
+	private static double[] toDouble(float[] values) {
+		double[] result = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = values[i];
+		}
+		return result;
+	}
+}
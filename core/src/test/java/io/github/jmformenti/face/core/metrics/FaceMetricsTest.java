@@ -0,0 +1,60 @@
+package io.github.jmformenti.face.core.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.metrics.FaceMetrics.Stage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class FaceMetricsTest {
+
+	@Test
+	void testReportStagesAndGallery() {
+		FaceMetrics metrics = new FaceMetrics(new SimpleMeterRegistry());
+		metrics.record(Stage.EMBED, metrics.start(), 3);
+		metrics.record(Stage.EMBED, metrics.start(), 2);
+		metrics.recordFaces(0);
+		metrics.recordFaces(4);
+
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		embeddingsHolder.add(new EmbeddingItem("a", List.of(new float[] { 1, 0 }, new float[] { 0, 1 })));
+		embeddingsHolder.add(new EmbeddingItem("b", List.of(new float[] { 1, 1 })));
+		metrics.setGallery(embeddingsHolder);
+
+		List<String> lines = MetricsReport.of(metrics.getRegistry()).toLines();
+
+		assertLine(lines, "face.stage{stage=embed} count=2 ");
+		assertLine(lines, "face.stage.items{stage=embed} count=5");
+		assertLine(lines, "face.stage.items{stage=search} count=0");
+		assertLine(lines, "face.faces.per.image count=2 total=4 ");
+		assertLine(lines, "face.gallery.labels value=2");
+		assertLine(lines, "face.gallery.embeddings value=3");
+	}
+
+	@Test
+	void testWriteJson(@TempDir Path tempDir) throws Exception {
+		FaceMetrics metrics = new FaceMetrics(new SimpleMeterRegistry());
+		metrics.record(Stage.DECODE, metrics.start(), 1);
+
+		Path path = tempDir.resolve("metrics.json");
+		MetricsReport.of(metrics.getRegistry()).writeJson(path);
+
+		String json = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		assertTrue(json.startsWith("{\"meters\":["));
+		assertTrue(json.contains("{\"name\":\"face.stage\",\"tags\":{\"stage\":\"decode\"},\"count\":1,"), json);
+	}
+
+	private static void assertLine(List<String> lines, String prefix) {
+		assertTrue(lines.stream().anyMatch(line -> line.equals(prefix.trim()) || line.startsWith(prefix)),
+				() -> String.format("No line %s in %s", prefix, lines));
+	}
+}
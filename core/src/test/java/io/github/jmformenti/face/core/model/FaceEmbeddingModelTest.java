@@ -0,0 +1,25 @@
+package io.github.jmformenti.face.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import ai.djl.ndarray.NDManager;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+class FaceEmbeddingModelTest {
+
+	@Test
+	void testCosineOfFloat32Arrays() {
+		float[] u = { 1, 2, 3, 4 };
+		float[] v = { 4, -3, 2, 1 };
+		double[] ud = { 1, 2, 3, 4 };
+		double[] vd = { 4, -3, 2, 1 };
+		try (NDManager manager = NDManager.newBaseManager()) {
+			assertEquals(VectorUtil.cosine(ud, vd),
+					FaceEmbeddingModel.cosine(manager.create(u), manager.create(v)), 1e-6);
+			assertEquals(VectorUtil.cosine(ud, vd),
+					FaceEmbeddingModel.cosine(manager.create(ud), manager.create(v)), 1e-6);
+		}
+	}
+}
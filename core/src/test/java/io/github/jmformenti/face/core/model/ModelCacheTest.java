@@ -0,0 +1,73 @@
+package io.github.jmformenti.face.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
+
+class ModelCacheTest {
+
+	private static final FileTime OLD_TIME = FileTime.fromMillis(1000000000000L);
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testExtractsOnce() throws IOException {
+		Path resourceFile = write("model.pt", new byte[] { 1, 2, 3, 4 });
+		ModelCache modelCache = new ModelCache(tempDir.resolve("cache"));
+
+		Path modelDir = modelCache.extract(new FileSystemResource(resourceFile), "model");
+		Path modelFile = modelDir.resolve("model.pt");
+		assertEquals(tempDir.resolve("cache").resolve("model"), modelDir);
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, Files.readAllBytes(modelFile));
+		assertTrue(Files.exists(modelDir.resolve("model.pt.crc32c")));
+
+		// verified and kept
+		Files.setLastModifiedTime(modelFile, OLD_TIME);
+		assertEquals(modelDir, modelCache.extract(new FileSystemResource(resourceFile), "model"));
+		assertEquals(OLD_TIME, Files.getLastModifiedTime(modelFile));
+		try (var files = Files.list(modelDir)) {
+			assertEquals(2, files.count());
+		}
+	}
+
+	@Test
+	void testExtractsAgainIfCorrupted() throws IOException {
+		Path resourceFile = write("model.pt", new byte[] { 1, 2, 3, 4 });
+		ModelCache modelCache = new ModelCache(tempDir.resolve("cache"));
+		Path modelFile = modelCache.extract(new FileSystemResource(resourceFile), "model").resolve("model.pt");
+
+		Files.write(modelFile, new byte[] { 1, 2, 3, 5 });
+		modelCache.extract(new FileSystemResource(resourceFile), "model");
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, Files.readAllBytes(modelFile));
+
+		Files.write(modelFile, new byte[] { 1, 2 });
+		modelCache.extract(new FileSystemResource(resourceFile), "model");
+		assertArrayEquals(new byte[] { 1, 2, 3, 4 }, Files.readAllBytes(modelFile));
+	}
+
+	@Test
+	void testExtractsAgainIfResourceChanged() throws IOException {
+		Path resourceFile = write("model.pt", new byte[] { 1, 2, 3, 4 });
+		Files.setLastModifiedTime(resourceFile, OLD_TIME);
+		ModelCache modelCache = new ModelCache(tempDir.resolve("cache"));
+		Path modelFile = modelCache.extract(new FileSystemResource(resourceFile), "model").resolve("model.pt");
+
+		write("model.pt", new byte[] { 5, 6, 7, 8 });
+		modelCache.extract(new FileSystemResource(resourceFile), "model");
+		assertArrayEquals(new byte[] { 5, 6, 7, 8 }, Files.readAllBytes(modelFile));
+	}
+
+	private Path write(String name, byte[] bytes) throws IOException {
+		return Files.write(tempDir.resolve(name), bytes);
+	}
+}
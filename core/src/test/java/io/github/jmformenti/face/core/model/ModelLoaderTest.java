@@ -0,0 +1,68 @@
+package io.github.jmformenti.face.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+class ModelLoaderTest {
+
+	@Test
+	void testLoadsOnFirstUse() {
+		ModelLoader loader = new ModelLoader();
+		AtomicInteger loads = new AtomicInteger();
+		Supplier<String> model = loader.add("a", () -> {
+			loads.incrementAndGet();
+			return "model a";
+		});
+		assertFalse(loader.isStarted());
+		assertEquals(0, loads.get());
+
+		assertEquals("model a", model.get());
+		assertSame(model.get(), model.get());
+		assertTrue(loader.isStarted());
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	void testLoadsAllAtTheSameTime() throws InterruptedException {
+		ModelLoader loader = new ModelLoader();
+		// each model waits for the other one to be loading
+		CountDownLatch loading = new CountDownLatch(2);
+		Supplier<String> a = loader.add("a", () -> {
+			loading.countDown();
+			loading.await(5, TimeUnit.SECONDS);
+			return "model a";
+		});
+		loader.add("b", () -> {
+			loading.countDown();
+			loading.await(5, TimeUnit.SECONDS);
+			return "model b";
+		});
+
+		assertEquals("model a", a.get());
+		assertTrue(loading.await(0, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void testLoadError() {
+		ModelLoader loader = new ModelLoader();
+		Supplier<String> model = loader.add("a", () -> {
+			throw new IOException("not found");
+		});
+
+		RuntimeException e = assertThrows(RuntimeException.class, model::get);
+		assertEquals("Error loading a model", e.getMessage());
+		assertEquals("not found", e.getCause().getMessage());
+		assertEquals(0, loader.getLoadNanos("a"));
+	}
+}
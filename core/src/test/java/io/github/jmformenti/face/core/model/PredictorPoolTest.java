@@ -0,0 +1,197 @@
+package io.github.jmformenti.face.core.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import ai.djl.Device;
+import ai.djl.Model;
+import ai.djl.inference.Predictor;
+import ai.djl.ndarray.NDManager;
+import ai.djl.repository.zoo.ZooModel;
+import ai.djl.translate.TranslateException;
+
+class PredictorPoolTest {
+
+	@Test
+	void testMaxSizeUnderConcurrency() throws Exception {
+		StubModel model = new StubModel();
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try (PredictorPool<Integer, Integer> pool = new PredictorPool<>(model, 3)) {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < 16; thread++) {
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 50; i++) {
+						assertEquals(i + 1, pool.predict(i));
+					}
+					return null;
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+
+			assertTrue(model.predictors.size() <= 3, String.format("%d predictors", model.predictors.size()));
+			assertEquals(model.predictors.size(), pool.getSize());
+			assertTrue(model.maxActive.get() <= 3);
+			assertEquals(16 * 50, pool.getBorrowCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void testReleasedOnException() {
+		StubModel model = new StubModel();
+		try (PredictorPool<Integer, Integer> pool = new PredictorPool<>(model, 1)) {
+			assertThrows(TranslateException.class, () -> pool.predict(-1));
+			assertThrows(TranslateException.class, () -> pool.batchPredict(List.of(1, -1)));
+			// the only predictor would never be free again
+			assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertEquals(3, pool.predict(2)));
+			assertEquals(1, model.predictors.size());
+			assertEquals(0, pool.getWaitCount());
+		}
+	}
+
+	@Test
+	void testWaitsWhenExhausted() throws Exception {
+		StubModel model = new StubModel();
+		try (PredictorPool<Integer, Integer> pool = new PredictorPool<>(model, 1)) {
+			Predictor<Integer, Integer> predictor = pool.borrow();
+			Thread waiting = new Thread(() -> {
+				try {
+					pool.predict(1);
+				} catch (TranslateException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			waiting.start();
+			while (waiting.getState() != Thread.State.WAITING) {
+				assertTrue(waiting.isAlive());
+				Thread.sleep(1);
+			}
+			Thread.sleep(10);
+			pool.release(predictor);
+			waiting.join(5000);
+
+			assertEquals(1, model.predictors.size());
+			assertEquals(2, pool.getBorrowCount());
+			assertEquals(1, pool.getWaitCount());
+			assertTrue(pool.getTotalWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+			assertEquals(pool.getTotalWaitNanos(), pool.getMaxWaitNanos());
+		}
+	}
+
+	@Test
+	void testCloseClosesPredictors() throws TranslateException {
+		StubModel model = new StubModel();
+		PredictorPool<Integer, Integer> pool = new PredictorPool<>(() -> model, 4);
+		Predictor<Integer, Integer> first = pool.borrow();
+		Predictor<Integer, Integer> second = pool.borrow();
+		pool.release(first);
+		pool.release(second);
+		assertSame(first, pool.borrow());
+
+		pool.close();
+		assertEquals(2, model.predictors.size());
+		for (StubPredictor predictor : model.predictors) {
+			assertTrue(predictor.closed);
+		}
+	}
+
+	/**
+	 * Model without engine, its predictors add 1 to the input and fail for
+	 * negative ones.
+	 */
+	private static class StubModel extends ZooModel<Integer, Integer> {
+
+		private final List<StubPredictor> predictors = new ArrayList<>();
+		private final AtomicInteger active = new AtomicInteger();
+		private final AtomicInteger maxActive = new AtomicInteger();
+
+		StubModel() {
+			super(null, null);
+		}
+
+		@Override
+		public synchronized Predictor<Integer, Integer> newPredictor() {
+			StubPredictor predictor = new StubPredictor(this);
+			predictors.add(predictor);
+			return predictor;
+		}
+	}
+
+	private static class StubPredictor extends Predictor<Integer, Integer> {
+
+		private final StubModel model;
+		private volatile boolean closed;
+
+		StubPredictor(StubModel model) {
+			super(newModel(), null, false);
+			this.model = model;
+		}
+
+		@Override
+		public Integer predict(Integer input) throws TranslateException {
+			model.maxActive.accumulateAndGet(model.active.incrementAndGet(), Math::max);
+			try {
+				if (input < 0) {
+					throw new TranslateException("Negative input");
+				}
+				Thread.yield();
+				return input + 1;
+			} finally {
+				model.active.decrementAndGet();
+			}
+		}
+
+		@Override
+		public List<Integer> batchPredict(List<Integer> inputs) throws TranslateException {
+			List<Integer> outputs = new ArrayList<>();
+			for (Integer input : inputs) {
+				outputs.add(predict(input));
+			}
+			return outputs;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+
+		/**
+		 * @return model with only the manager a predictor needs to be created
+		 */
+		private static Model newModel() {
+			NDManager manager = (NDManager) Proxy.newProxyInstance(NDManager.class.getClassLoader(),
+					new Class<?>[] { NDManager.class }, (proxy, method, args) -> {
+						switch (method.getName()) {
+						case "newSubManager":
+							return proxy;
+						case "getDevice":
+							return Device.cpu();
+						case "isOpen":
+							return false;
+						default:
+							return null;
+						}
+					});
+			return (Model) Proxy.newProxyInstance(Model.class.getClassLoader(), new Class<?>[] { Model.class },
+					(proxy, method, args) -> "getNDManager".equals(method.getName()) ? manager : null);
+		}
+	}
+}
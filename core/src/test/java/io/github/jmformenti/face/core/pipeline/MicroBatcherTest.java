@@ -0,0 +1,125 @@
+package io.github.jmformenti.face.core.pipeline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class MicroBatcherTest {
+
+	@Test
+	void testSubmitConcurrently() throws Exception {
+		Set<Integer> batchSizes = ConcurrentHashMap.newKeySet();
+		ExecutorService clients = Executors.newFixedThreadPool(16);
+		try (MicroBatcher<Integer, String> batcher = new MicroBatcher<>("test", 2, 8, 2000, 1000, inputs -> {
+			batchSizes.add(inputs.size());
+			return inputs.stream().map(i -> "n" + i).collect(Collectors.toList());
+		})) {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 500; i++) {
+				int input = i;
+				results.add(clients.submit(() -> batcher.submit(input).get(10, TimeUnit.SECONDS)));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				assertEquals("n" + i, results.get(i).get());
+			}
+			assertEquals(500, batcher.getItems());
+			assertTrue(batcher.getBatches() < 500, "no inputs combined");
+			assertTrue(batchSizes.stream().allMatch(size -> size >= 1 && size <= 8));
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	@Test
+	void testMaxWait() throws Exception {
+		try (MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test", 1, 100, 1000, 10, inputs -> inputs)) {
+			long start = System.nanoTime();
+			assertEquals(1, batcher.submit(1).get(10, TimeUnit.SECONDS));
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			assertEquals(1, batcher.getBatches());
+		}
+	}
+
+	@Test
+	void testBatchFailure() {
+		try (MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test", 1, 4, 0, 10, inputs -> {
+			throw new IllegalStateException("boom");
+		})) {
+			CompletableFuture<Integer> result = batcher.submit(1);
+			ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+			assertEquals("boom", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	void testRejected() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test", 1, 1, 0, 1, inputs -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return inputs;
+		});
+		CompletableFuture<Integer> first = batcher.submit(1);
+		started.await(10, TimeUnit.SECONDS);
+		CompletableFuture<Integer> second = batcher.submit(2);
+		assertThrows(RejectedExecutionException.class, () -> batcher.submit(3));
+
+		release.countDown();
+		assertEquals(1, first.get(10, TimeUnit.SECONDS));
+		assertEquals(2, second.get(10, TimeUnit.SECONDS));
+
+		batcher.close();
+		assertThrows(RejectedExecutionException.class, () -> batcher.submit(4));
+	}
+
+	@Test
+	void testSubmitWhileClosing() throws Exception {
+		for (int round = 0; round < 100; round++) {
+			MicroBatcher<Integer, Integer> batcher = new MicroBatcher<>("test", 1, 4, 100, 1000, inputs -> inputs);
+			List<CompletableFuture<Integer>> futures = new ArrayList<>();
+			Thread client = new Thread(() -> {
+				try {
+					for (int i = 0;; i++) {
+						futures.add(batcher.submit(i));
+					}
+				} catch (RejectedExecutionException e) {
+					// closed
+				}
+			});
+			client.start();
+			Thread.sleep(1);
+			batcher.close();
+			client.join(10000);
+
+			// every accepted input is either processed or rejected, none waits forever
+			for (CompletableFuture<Integer> future : futures) {
+				try {
+					future.get(10, TimeUnit.SECONDS);
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof RejectedExecutionException);
+				}
+			}
+		}
+	}
+}
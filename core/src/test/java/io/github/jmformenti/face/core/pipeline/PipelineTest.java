@@ -0,0 +1,61 @@
+package io.github.jmformenti.face.core.pipeline;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+class PipelineTest {
+
+	@Test
+	void testRun() {
+		Set<Integer> batchSizes = ConcurrentHashMap.newKeySet();
+		Pipeline<Integer, String> pipeline = Pipeline.<Integer>create(4) //
+				.then("square", 3, i -> i * i) //
+				.then("odd", 2, i -> i % 2 == 0 ? null : i) //
+				.thenBatch("format", 2, 5, items -> {
+					batchSizes.add(items.size());
+					return items.stream().map(i -> "n" + i).collect(Collectors.toList());
+				});
+
+		List<Integer> inputs = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+		List<String> outputs = new ArrayList<>();
+		pipeline.run(inputs, outputs::add);
+
+		List<String> expected = inputs.stream().filter(i -> i % 2 != 0).map(i -> "n" + i * i).sorted()
+				.collect(Collectors.toList());
+		assertEquals(expected, outputs.stream().sorted().collect(Collectors.toList()));
+		assertTrue(batchSizes.stream().allMatch(size -> size >= 1 && size <= 5));
+	}
+
+	@Test
+	void testRunEmpty() {
+		List<Integer> outputs = new ArrayList<>();
+		Pipeline.<Integer>create(1).then("identity", 4, i -> i).run(List.of(), outputs::add);
+		assertTrue(outputs.isEmpty());
+	}
+
+	@Test
+	void testStageFailure() {
+		Pipeline<Integer, Integer> pipeline = Pipeline.<Integer>create(2) //
+				.then("fail", 2, i -> {
+					if (i == 500) {
+						throw new IllegalStateException("boom");
+					}
+					return i;
+				});
+
+		PipelineException e = assertThrows(PipelineException.class,
+				() -> pipeline.run(IntStream.range(0, 100000).boxed()::iterator, i -> {
+				}));
+		assertEquals("boom", e.getCause().getMessage());
+	}
+}
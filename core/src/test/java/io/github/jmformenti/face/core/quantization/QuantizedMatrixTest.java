@@ -0,0 +1,133 @@
+package io.github.jmformenti.face.core.quantization;
+
+import static io.github.jmformenti.face.core.TestEmbeddings.near;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.jmformenti.face.core.TestEmbeddings;
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.search.ExhaustiveSearch;
+import io.github.jmformenti.face.core.search.QuantizedSearch;
+import io.github.jmformenti.face.core.search.SearchRecall;
+import io.github.jmformenti.face.core.storage.EmbeddingsFile;
+import io.github.jmformenti.face.core.util.VectorUtil;
+
+class QuantizedMatrixTest {
+
+	private static final int DIMENSION = 64;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testFloat16() {
+		for (float value : new float[] { 0, 1, -2.5f, 65504, 0x1p-24f, 1e-3f, -0.1f }) {
+			assertEquals(value, Float16.toFloat(Float16.fromFloat(value)), Math.abs(value) * 1e-3);
+		}
+		assertEquals(Float.POSITIVE_INFINITY, Float16.toFloat(Float16.fromFloat(1e6f)));
+		assertTrue(Float.isNaN(Float16.toFloat(Float16.fromFloat(Float.NaN))));
+		// ties to even
+		assertEquals(2048f, Float16.toFloat(Float16.fromFloat(2049f)));
+		assertEquals(2052f, Float16.toFloat(Float16.fromFloat(2051f)));
+	}
+
+	@Test
+	void testDecodedRowsAreClose() {
+		EmbeddingsMatrix matrix = newGallery(new Random(3), 20).getMatrix();
+		assertClose(matrix, QuantizedMatrix.quantize(matrix, Quantization.FLOAT16, 0), 1e-3);
+		assertClose(matrix, QuantizedMatrix.quantize(matrix, Quantization.INT8, 0), 0.01);
+		assertClose(matrix, QuantizedMatrix.quantize(matrix, Quantization.PQ, 0), 0.1);
+		assertNull(QuantizedMatrix.quantize(matrix, Quantization.FLOAT32, 0));
+	}
+
+	@Test
+	void testSameResultsAsFloats() {
+		Random random = new Random(5);
+		EmbeddingsHolder embeddingsHolder = newGallery(random, 40);
+		EmbeddingsMatrix matrix = embeddingsHolder.getMatrix();
+		List<float[]> queries = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			queries.add(near(random, embeddingsHolder.get("label" + i).get(0), 0.05));
+		}
+
+		for (Quantization quantization : new Quantization[] { Quantization.FLOAT16, Quantization.INT8,
+				Quantization.PQ }) {
+			QuantizedMatrix quantized = QuantizedMatrix.quantize(matrix, quantization, 0);
+			SearchRecall recall = SearchRecall.measure(new ExhaustiveSearch(matrix), new QuantizedSearch(quantized),
+					queries);
+			assertEquals(1.0, recall.getRecall(), quantization.name());
+			assertTrue(recall.getProbabilityDelta() < 0.05, quantization + " " + recall);
+		}
+	}
+
+	@Test
+	void testSizes() {
+		EmbeddingsMatrix matrix = newGallery(new Random(7), 50).getMatrix();
+		long floats = matrix.sizeInBytes();
+		assertEquals(floats / 2, QuantizedMatrix.quantize(matrix, Quantization.FLOAT16, 0).sizeInBytes());
+		assertEquals(floats / 4 + matrix.getNumRows() * Float.BYTES,
+				QuantizedMatrix.quantize(matrix, Quantization.INT8, 0).sizeInBytes());
+		PqMatrix pq = (PqMatrix) QuantizedMatrix.quantize(matrix, Quantization.PQ, 0);
+		assertEquals(DIMENSION / 8, pq.getSubspaces());
+		assertEquals(matrix.getNumRows() * DIMENSION / 8 + 8 + pq.getSubspaces() * pq.getCentroids() * 8 * 4,
+				pq.sizeInBytes());
+		assertEquals(10, PqMatrix.defaultSubspaces(100));
+	}
+
+	@Test
+	void testWriteAndOpen() throws IOException {
+		EmbeddingsHolder embeddingsHolder = newGallery(new Random(9), 10);
+		embeddingsHolder.add(new EmbeddingItem("empty", new ArrayList<>()));
+
+		for (Quantization quantization : new Quantization[] { Quantization.FLOAT16, Quantization.INT8,
+				Quantization.PQ }) {
+			QuantizedMatrix quantized = QuantizedMatrix.quantize(embeddingsHolder.getMatrix(), quantization, 0);
+			embeddingsHolder.setQuantized(quantized);
+			Path path = tempDir.resolve(quantization + ".dat");
+			EmbeddingsFile.write(embeddingsHolder, path);
+
+			EmbeddingsHolder opened = EmbeddingsFile.open(path);
+			assertEquals(quantization, opened.getQuantized().getQuantization());
+			assertEquals(embeddingsHolder.getLabels(), opened.getLabels());
+			assertEquals(embeddingsHolder.getNumRows(), opened.getNumRows());
+			EmbeddingsMatrix expected = quantized.decode();
+			EmbeddingsMatrix actual = opened.getMatrix();
+			for (int row = 0; row < expected.getNumRows(); row++) {
+				assertEquals(0, VectorUtil.cosine(expected.getRowAsDouble(row), actual.getRowAsDouble(row)),
+						1e-12);
+			}
+
+			// decoded and no longer quantized once modified
+			opened.remove("label0");
+			assertNull(opened.getQuantized());
+			assertEquals(embeddingsHolder.getNumRows() - embeddingsHolder.get("label0").size(),
+					opened.getNumRows());
+			assertEquals(embeddingsHolder.get("label1").size(), opened.get("label1").size());
+		}
+	}
+
+	private void assertClose(EmbeddingsMatrix matrix, QuantizedMatrix quantized, double maxCosine) {
+		EmbeddingsMatrix decoded = quantized.decode();
+		for (int row = 0; row < matrix.getNumRows(); row++) {
+			double distance = VectorUtil.cosine(matrix.getRowAsDouble(row), decoded.getRowAsDouble(row));
+			assertTrue(distance < maxCosine, quantized.getQuantization() + " distance " + distance);
+			assertEquals(distance, quantized.newScorer(matrix.getRow(row)).cosine(row), 1e-5);
+		}
+	}
+
+	private EmbeddingsHolder newGallery(Random random, int labels) {
+		return TestEmbeddings.newGallery(random, labels, DIMENSION, 10, 0.1);
+	}
+}
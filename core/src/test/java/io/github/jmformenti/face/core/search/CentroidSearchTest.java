@@ -0,0 +1,91 @@
+package io.github.jmformenti.face.core.search;
+
+import static io.github.jmformenti.face.core.TestEmbeddings.near;
+import static io.github.jmformenti.face.core.TestEmbeddings.newCluster;
+import static io.github.jmformenti.face.core.TestEmbeddings.randomEmbedding;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.jmformenti.face.core.TestEmbeddings;
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+
+class CentroidSearchTest {
+
+	private static final int DIMENSION = 32;
+
+	private static final double DEVIATION = 0.05;
+
+	@Test
+	void testAllCandidatesSameResultAsExhaustive() {
+		Random random = new Random(7);
+		EmbeddingsHolder embeddingsHolder = newGallery(random, 30);
+		CentroidIndex centroids = CentroidIndex.build(embeddingsHolder.getMatrix(), 2, embeddingsHolder.size());
+
+		EmbeddingsSearch exact = new ExhaustiveSearch(embeddingsHolder.getMatrix());
+		EmbeddingsSearch search = new CentroidSearch(centroids);
+		for (int i = 0; i < 100; i++) {
+			float[] query = randomEmbedding(random, DIMENSION);
+			EmbeddingResult expected = exact.search(query);
+			EmbeddingResult actual = search.search(query);
+			assertEquals(expected == null, actual == null);
+			if (expected != null) {
+				assertEquals(expected.getName(), actual.getName());
+				assertEquals(expected.getProbability(), actual.getProbability());
+			}
+		}
+	}
+
+	@Test
+	void testFewCandidatesFindClusteredLabels() {
+		Random random = new Random(11);
+		EmbeddingsHolder embeddingsHolder = newGallery(random, 50);
+		CentroidIndex centroids = CentroidIndex.build(embeddingsHolder.getMatrix(), 1, 3);
+
+		List<float[]> queries = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			queries.add(near(random, embeddingsHolder.get("label" + i).get(0), DEVIATION));
+		}
+		assertEquals(3, centroids.getCandidates(queries.get(0)).length);
+
+		SearchRecall recall = SearchRecall.measure(new ExhaustiveSearch(embeddingsHolder.getMatrix()),
+				new CentroidSearch(centroids), queries);
+		assertEquals(50, recall.getQueries());
+		assertEquals(1.0, recall.getRecall());
+	}
+
+	@Test
+	void testPrototypesPerLabel() {
+		Random random = new Random(3);
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		embeddingsHolder.add(new EmbeddingItem("one", List.of(randomEmbedding(random, DIMENSION))));
+		embeddingsHolder.add(new EmbeddingItem("empty", new ArrayList<>()));
+		embeddingsHolder.add(new EmbeddingItem("many", newCluster(random, randomEmbedding(random, DIMENSION), 20, DEVIATION)));
+
+		CentroidIndex centroids = CentroidIndex.build(embeddingsHolder.getMatrix(), 4, 10);
+		assertEquals(5, centroids.getNumCentroids());
+		// labels without embeddings are never candidates
+		assertEquals(2, centroids.getCandidates(randomEmbedding(random, DIMENSION)).length);
+	}
+
+	@Test
+	void testStaleCentroidsAreDiscarded() {
+		Random random = new Random(5);
+		EmbeddingsHolder embeddingsHolder = newGallery(random, 5);
+		embeddingsHolder.setCentroids(CentroidIndex.build(embeddingsHolder.getMatrix(), 1, 2));
+
+		embeddingsHolder.remove("label0");
+		assertNull(embeddingsHolder.getCentroids());
+	}
+
+	private EmbeddingsHolder newGallery(Random random, int labels) {
+		return TestEmbeddings.newGallery(random, labels, DIMENSION, 20, DEVIATION);
+	}
+}
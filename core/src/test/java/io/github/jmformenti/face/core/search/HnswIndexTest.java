@@ -0,0 +1,113 @@
+package io.github.jmformenti.face.core.search;
+
+import static io.github.jmformenti.face.core.TestEmbeddings.near;
+import static io.github.jmformenti.face.core.TestEmbeddings.newGallery;
+import static io.github.jmformenti.face.core.TestEmbeddings.randomEmbeddings;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+
+class HnswIndexTest {
+
+	private static final int DIMENSION = 64;
+
+	private static final int NUM_LABELS = 100;
+
+	private static EmbeddingsHolder embeddingsHolder;
+
+	private static List<float[]> queries;
+
+	@TempDir
+	Path tempDir;
+
+	/**
+	 * Synthetic gallery with one cluster of embeddings per label.
+	 */
+	@BeforeAll
+	static void beforeAll() {
+		Random random = new Random(3);
+		List<float[]> centers = randomEmbeddings(random, NUM_LABELS, DIMENSION);
+		embeddingsHolder = newGallery(random, centers, () -> 20, 0.3);
+		queries = new ArrayList<>();
+		for (float[] center : centers) {
+			queries.add(near(random, center, 0.3));
+		}
+	}
+
+	@Test
+	void testIndexedSearchMatchesExhaustive() {
+		HnswIndex index = HnswIndex.build(embeddingsHolder.getMatrix(), new HnswParameters());
+		EmbeddingsSearch exact = new ExhaustiveSearch(embeddingsHolder.getMatrix());
+		EmbeddingsSearch approximate = new IndexedSearch(index);
+
+		int same = 0;
+		for (float[] query : queries) {
+			EmbeddingResult expected = exact.search(query);
+			EmbeddingResult actual = approximate.search(query);
+			if (expected.getName().equals(actual.getName())) {
+				assertEquals(expected.getProbability(), actual.getProbability(), 1e-12);
+				same++;
+			}
+		}
+		assertTrue(same >= queries.size() * 0.98, String.format("Only %d / %d equal", same, queries.size()));
+	}
+
+	@Test
+	void testWriteAndRead() throws IOException {
+		HnswIndex index = HnswIndex.build(embeddingsHolder.getMatrix(), new HnswParameters(8, 50, 20));
+		Path path = HnswIndex.getIndexPath(tempDir.resolve("embeddings.dat"));
+		index.write(path);
+		// replaced, never written in place
+		index.write(path);
+		assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".tmp")));
+
+		HnswIndex read = HnswIndex.read(path, embeddingsHolder.getMatrix());
+		assertEquals(8, read.getParameters().getM());
+		for (float[] query : queries) {
+			assertArrayEquals(index.search(query, 10), read.search(query, 10));
+		}
+
+		EmbeddingsHolder other = new EmbeddingsHolder();
+		other.add(new EmbeddingItem("other", List.of(new float[DIMENSION])));
+		assertThrows(IOException.class, () -> HnswIndex.read(path, other.getMatrix()));
+	}
+
+	@Test
+	void testReadCorrupt() throws IOException {
+		HnswIndex index = HnswIndex.build(embeddingsHolder.getMatrix(), new HnswParameters(8, 50, 20));
+		Path path = HnswIndex.getIndexPath(tempDir.resolve("embeddings.dat"));
+		// magic, version, fingerprint, rows, m, ef construction, ef search, entry
+		// point and max level
+		long firstNode = 8 + 4 + 8 + 4 * 6;
+		long[][] corruptions = { { firstNode - 20, 1 }, { firstNode - 8, embeddingsHolder.getNumRows() },
+				{ firstNode - 4, -1 }, { firstNode, 0 }, { firstNode, 100 }, { firstNode + 4, 17 },
+				{ firstNode + 4, -1 }, { firstNode + 8, embeddingsHolder.getNumRows() }, { firstNode + 8, -1 } };
+		for (long[] corruption : corruptions) {
+			index.write(path);
+			try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+				file.seek(corruption[0]);
+				file.writeInt((int) corruption[1]);
+			}
+			assertThrows(IOException.class, () -> HnswIndex.read(path, embeddingsHolder.getMatrix()),
+					String.format("Corrupt int %d at %d", corruption[1], corruption[0]));
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package io.github.jmformenti.face.core.search;
+
+import static io.github.jmformenti.face.core.TestEmbeddings.randomEmbedding;
+import static io.github.jmformenti.face.core.TestEmbeddings.randomEmbeddings;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+
+class ParallelSearchTest {
+
+	@Test
+	void testSameResultAsExhaustive() {
+		Random random = new Random(5);
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		for (int label = 0; label < 50; label++) {
+			int count = random.nextInt(40);
+			embeddingsHolder.add(new EmbeddingItem("label" + label, randomEmbeddings(random, count, 16)));
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			EmbeddingsSearch exact = new ExhaustiveSearch(embeddingsHolder.getMatrix());
+			EmbeddingsSearch parallel = new ParallelSearch(embeddingsHolder.getMatrix(), pool, 16);
+			for (int i = 0; i < 100; i++) {
+				float[] query = randomEmbedding(random, 16);
+				EmbeddingResult expected = exact.search(query);
+				EmbeddingResult actual = parallel.search(query);
+				assertEquals(expected == null, actual == null);
+				if (expected != null) {
+					assertEquals(expected.getName(), actual.getName());
+					assertEquals(expected.getProbability(), actual.getProbability());
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
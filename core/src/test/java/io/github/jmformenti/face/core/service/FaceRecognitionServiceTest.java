@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -21,11 +22,16 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
 import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
 import ai.djl.modality.cv.output.DetectedObjects;
 import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
 import io.github.jmformenti.face.core.configuration.FaceCoreConfiguration;
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
 import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
 import io.github.jmformenti.face.core.service.impl.FaceRecognitionServiceImpl;
+import io.github.jmformenti.face.core.tracking.FrameRecognizer;
+import io.github.jmformenti.face.core.tracking.Track;
+import io.github.jmformenti.face.core.tracking.TrackingParameters;
 import io.github.jmformenti.face.core.util.ImageUtil;
 
 @ExtendWith(SpringExtension.class)
@@ -62,6 +68,16 @@ class FaceRecognitionServiceTest {
 		assertTrue(Files.exists(EMBEDDINGS_PATH));
 	}
 
+	@Test
+	void testAugmentWithoutSavingFaces() {
+		EmbeddingItem item = faceRecognitionService
+				.generatePersonEmbeddings(TEST_IMAGES_PATH.resolve("train").resolve("ben_afflek"), true, false);
+
+		// the face and its two rotations
+		assertEquals("ben_afflek", item.getLabel());
+		assertEquals(13 * 3, item.getEmbeddings().size());
+	}
+
 	@Test
 	void testPredict() throws IOException {
 		EmbeddingsHolder embeddingsHolder = faceRecognitionService.loadEmbeddings(EMBEDDINGS_PATH);
@@ -88,4 +104,29 @@ class FaceRecognitionServiceTest {
 		logger.info("Wrong classified faces: {} / {}", total - ok, total);
 		assertEquals(0.96, ok / (double) total, 0.01);
 	}
+
+	@Test
+	void testRecognizeFrames() throws IOException {
+		EmbeddingsHolder embeddingsHolder = faceRecognitionService.loadEmbeddings(EMBEDDINGS_PATH);
+		Path imagePath = TEST_IMAGES_PATH.resolve("val/ben_afflek/httpcsvkmeuaafdfjpg.jpg");
+		BufferedImage image = (BufferedImage) ImageUtil.getImage(imagePath).getWrappedImage();
+		String expected = ImageUtil.selectMaxDetectedObject(
+				faceRecognitionService.predict(ImageUtil.getImage(imagePath), embeddingsHolder)).getClassName();
+
+		// the image panning slowly over a larger frame
+		FrameRecognizer recognizer = faceRecognitionService.newFrameRecognizer(embeddingsHolder,
+				new TrackingParameters());
+		for (int i = 0; i < 40; i++) {
+			BufferedImage frame = new BufferedImage(image.getWidth() + 80, image.getHeight(),
+					BufferedImage.TYPE_3BYTE_BGR);
+			frame.getGraphics().drawImage(image, i * 2, 0, null);
+			List<Track> tracks = recognizer.recognize(ImageFactory.getInstance().fromImage(frame));
+
+			DetectedObject maxFace = ImageUtil.selectMaxDetectedObject(FrameRecognizer.toDetectedObjects(tracks));
+			assertEquals(expected, maxFace.getClassName());
+		}
+		logger.info("Recognized {}", recognizer);
+		assertEquals(40, recognizer.getFrames());
+		assertTrue(recognizer.getEmbeddedFaces() * 10 <= recognizer.getFaces(), recognizer.toString());
+	}
 }
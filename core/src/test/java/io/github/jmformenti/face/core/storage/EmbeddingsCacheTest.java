@@ -0,0 +1,108 @@
+package io.github.jmformenti.face.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
+import ai.djl.modality.cv.output.Rectangle;
+import io.github.jmformenti.face.core.storage.EmbeddingsCache.CachedImage;
+
+class EmbeddingsCacheTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testGetAndPut() throws IOException {
+		Path image = createImage("image.jpg");
+		EmbeddingsCache cache = new EmbeddingsCache();
+		assertNull(cache.get(image, false));
+
+		cache.put(image, false, face(), List.of(new float[] { 0.5f, 0.25f }));
+		assertArrayEquals(new float[] { 0.5f, 0.25f }, cache.get(image, false).getEmbeddings().get(0));
+		// embeddings with augmentation are different
+		assertNull(cache.get(image, true));
+
+		Files.setLastModifiedTime(image, FileTime.fromMillis(Files.getLastModifiedTime(image).toMillis() + 1000));
+		assertNull(cache.get(image, false));
+		assertEquals(1, cache.getHits());
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	void testWriteAndRead() throws IOException {
+		Path withFace = createImage("face.jpg");
+		Path withoutFace = createImage("noface.jpg");
+		Path deleted = createImage("deleted.jpg");
+		EmbeddingsCache cache = new EmbeddingsCache();
+		cache.put(withFace, true, face(), List.of(new float[] { 1, 2 }, new float[] { 3, 4 }));
+		cache.put(withoutFace, true, null, List.of());
+		cache.put(deleted, true, face(), List.of(new float[] { 5, 6 }));
+
+		Path cachePath = EmbeddingsCache.getCachePath(tempDir.resolve("embeddings.dat"));
+		cache.write(cachePath);
+
+		EmbeddingsCache read = EmbeddingsCache.read(cachePath);
+		assertEquals(3, read.size());
+		CachedImage cached = read.get(withFace, true);
+		assertEquals(2, cached.getEmbeddings().size());
+		assertArrayEquals(new float[] { 3, 4 }, cached.getEmbeddings().get(1));
+		assertEquals(0.1, cached.getFace().getBoundingBox().getBounds().getX());
+		assertNotNull(read.get(withoutFace, true));
+		assertTrue(read.get(withoutFace, true).getEmbeddings().isEmpty());
+
+		// images not looked up are not written again
+		Files.delete(deleted);
+		assertNull(read.get(deleted, true));
+		read.write(cachePath);
+		assertEquals(2, EmbeddingsCache.read(cachePath).size());
+	}
+
+	@Test
+	void testDiscardedWithOtherAnalysis() throws IOException {
+		Path image = createImage("face.jpg");
+		EmbeddingsCache cache = new EmbeddingsCache();
+		assertTrue(cache.setAnalysis("models A"));
+		cache.put(image, true, face(), List.of(new float[] { 1, 2 }));
+		Path cachePath = EmbeddingsCache.getCachePath(tempDir.resolve("embeddings.dat"));
+		cache.write(cachePath);
+
+		EmbeddingsCache read = EmbeddingsCache.read(cachePath);
+		assertEquals("models A", read.getAnalysis());
+		assertTrue(read.setAnalysis("models A"));
+		assertNotNull(read.get(image, true));
+
+		// other models or decode size
+		assertFalse(read.setAnalysis("models B"));
+		assertEquals(0, read.size());
+		assertNull(read.get(image, true));
+		read.write(cachePath);
+		assertEquals("models B", EmbeddingsCache.read(cachePath).getAnalysis());
+	}
+
+	@Test
+	void testReadMissing() throws IOException {
+		assertEquals(0, EmbeddingsCache.read(tempDir.resolve("missing.cache")).size());
+	}
+
+	private Path createImage(String name) throws IOException {
+		return Files.write(tempDir.resolve(name), name.getBytes());
+	}
+
+	private static DetectedObject face() {
+		return new DetectedObject("Face", 0.9, new Rectangle(0.1, 0.2, 0.3, 0.4));
+	}
+}
@@ -0,0 +1,135 @@
+package io.github.jmformenti.face.core.storage;
+
+import static io.github.jmformenti.face.core.TestEmbeddings.newGallery;
+import static io.github.jmformenti.face.core.TestEmbeddings.randomEmbedding;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.EmbeddingsMatrix;
+import io.github.jmformenti.face.core.search.ExhaustiveSearch;
+import io.github.jmformenti.face.core.search.HnswIndex;
+import io.github.jmformenti.face.core.search.HnswParameters;
+
+class EmbeddingsFileTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testWriteAndOpen() throws IOException {
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		Random random = new Random(7);
+		for (String label : new String[] { "ben_afflek", "elton_john", "jos\u00e9" }) {
+			List<float[]> embeddings = new ArrayList<>();
+			for (int i = 0; i < 3 + label.length(); i++) {
+				embeddings.add(randomEmbedding(random, 512));
+			}
+			embeddingsHolder.add(new EmbeddingItem(label, embeddings));
+		}
+		embeddingsHolder.add(new EmbeddingItem("empty", new ArrayList<>()));
+
+		Path path = tempDir.resolve("embeddings.dat");
+		EmbeddingsFile.write(embeddingsHolder, path);
+		assertTrue(EmbeddingsFile.isEmbeddingsFile(path));
+
+		EmbeddingsHolder opened = EmbeddingsFile.open(path);
+		assertEquals(embeddingsHolder.getLabels(), opened.getLabels());
+		assertEquals(embeddingsHolder.getNumRows(), opened.getNumRows());
+		for (String label : embeddingsHolder.getLabels()) {
+			List<float[]> expected = embeddingsHolder.get(label);
+			List<float[]> actual = opened.get(label);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertArrayEquals(expected.get(i), actual.get(i));
+			}
+		}
+
+		assertArrayEquals(embeddingsHolder.getMatrix().getInverseNorms(), opened.getMatrix().getInverseNorms());
+
+		// mapped holders are copied on write
+		opened.add(new EmbeddingItem("new", List.of(new float[512])));
+		assertEquals(embeddingsHolder.getNumRows() + 1, opened.getNumRows());
+	}
+
+	@Test
+	void testOpenInChunks() throws IOException {
+		Random random = new Random(11);
+		EmbeddingsHolder embeddingsHolder = newGallery(random, 20, 16, 10, 0.3);
+		Path path = tempDir.resolve("embeddings.dat");
+		EmbeddingsFile.write(embeddingsHolder, path);
+
+		// 64 bytes rows, 8 rows per chunk
+		EmbeddingsHolder opened = EmbeddingsFile.open(path, 1000);
+		EmbeddingsMatrix expected = embeddingsHolder.getMatrix();
+		EmbeddingsMatrix actual = opened.getMatrix();
+		assertTrue(actual.getChunks().length > 1);
+		assertEquals(expected.getNumRows(), actual.getNumRows());
+		for (int row = 0; row < expected.getNumRows(); row++) {
+			assertArrayEquals(expected.getRow(row), actual.getRow(row));
+		}
+
+		ExhaustiveSearch exact = new ExhaustiveSearch(expected);
+		ExhaustiveSearch chunked = new ExhaustiveSearch(actual);
+		HnswIndex index = HnswIndex.build(actual, new HnswParameters());
+		for (int row = 0; row < expected.getNumRows(); row += 3) {
+			float[] query = expected.getRow(row);
+			assertEquals(exact.search(query).getName(), chunked.search(query).getName());
+			assertEquals(exact.search(query).getProbability(), chunked.search(query).getProbability(), 1e-12);
+			assertEquals(row, index.search(query, 1)[0]);
+		}
+
+		// written again from the chunks, and copied to a single buffer on change
+		Path copyPath = tempDir.resolve("copy.dat");
+		EmbeddingsFile.write(opened, copyPath);
+		assertArrayEquals(Files.readAllBytes(path), Files.readAllBytes(copyPath));
+		opened.append(expected.getLabel(0), List.of(new float[16]));
+		assertEquals(expected.getNumRows() + 1, opened.getNumRows());
+		assertArrayEquals(expected.getRow(expected.getNumRows() - 1), opened.getMatrix().getRow(expected.getNumRows()));
+	}
+
+	@Test
+	void testFingerprintIsStored() throws IOException {
+		EmbeddingsHolder embeddingsHolder = newGallery(new Random(13), 5, 16, 4, 0.3);
+		long fingerprint = embeddingsHolder.getMatrix().getFingerprint();
+		Path path = tempDir.resolve("embeddings.dat");
+		EmbeddingsFile.write(embeddingsHolder, path);
+		assertEquals(fingerprint, EmbeddingsFile.open(path).getMatrix().getFingerprint());
+
+		// read from the header, not computed from the rows
+		ByteBuffer file = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+		file.putFloat((int) file.getLong(40), 42);
+		Files.write(path, file.array());
+		EmbeddingsHolder changed = EmbeddingsFile.open(path);
+		assertEquals(42, changed.getMatrix().getRow(0)[0]);
+		assertEquals(fingerprint, changed.getMatrix().getFingerprint());
+		EmbeddingsHolder copy = new EmbeddingsHolder();
+		for (String label : changed.getLabels()) {
+			copy.add(new EmbeddingItem(label, changed.get(label)));
+		}
+		assertNotEquals(fingerprint, copy.getMatrix().getFingerprint());
+	}
+
+	@Test
+	void testIsNotEmbeddingsFile() throws IOException {
+		Path path = tempDir.resolve("other.dat");
+		Files.write(path, new byte[] { 1, 2, 3 });
+		assertFalse(EmbeddingsFile.isEmbeddingsFile(path));
+	}
+}
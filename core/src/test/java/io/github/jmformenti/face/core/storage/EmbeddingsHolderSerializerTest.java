@@ -0,0 +1,47 @@
+package io.github.jmformenti.face.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+
+class EmbeddingsHolderSerializerTest {
+
+	@Test
+	void testWriteAndReadDoubleLayout() {
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		embeddingsHolder
+				.add(new EmbeddingItem("ana", List.of(new float[] { 0.1f, -0.2f, 0.3f }, new float[] { 1, 2, 3 })));
+		embeddingsHolder.add(new EmbeddingItem("bob", new ArrayList<>()));
+
+		Kryo kryo = new Kryo();
+		kryo.register(EmbeddingsHolder.class, new EmbeddingsHolderSerializer());
+		kryo.register(HashMap.class);
+		kryo.register(ArrayList.class);
+		kryo.register(double[].class);
+		kryo.register(float[].class);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (Output output = new Output(bytes)) {
+			kryo.writeClassAndObject(output, embeddingsHolder);
+		}
+		EmbeddingsHolder read = (EmbeddingsHolder) kryo.readClassAndObject(new Input(bytes.toByteArray()));
+
+		assertEquals(2, read.size());
+		assertArrayEquals(new float[] { 0.1f, -0.2f, 0.3f }, read.get("ana").get(0));
+		assertArrayEquals(new float[] { 1, 2, 3 }, read.get("ana").get(1));
+		assertEquals(0, read.get("bob").size());
+	}
+}
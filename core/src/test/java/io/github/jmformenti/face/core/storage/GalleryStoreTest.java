@@ -0,0 +1,169 @@
+package io.github.jmformenti.face.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+
+class GalleryStoreTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testChangesAreReplayed() throws IOException {
+		Path path = tempDir.resolve("embeddings.dat");
+		try (GalleryStore store = GalleryStore.open(path)) {
+			store.append("ana", List.of(embedding(1), embedding(2)));
+			store.append("bob", List.of(embedding(3)));
+			store.append("ana", List.of(embedding(4)));
+			store.append("carl", List.of(embedding(5)));
+			store.removeEmbeddings("ana", Set.of(1));
+			store.remove("carl");
+			store.rename("bob", "robert");
+			assertFalse(store.remove("nobody"));
+		}
+
+		EmbeddingsHolder embeddingsHolder = GalleryStore.load(path);
+		assertEquals(List.of("ana", "robert"), List.copyOf(embeddingsHolder.getLabels()));
+		assertEmbeddings(embeddingsHolder.get("ana"), 1, 4);
+		assertEmbeddings(embeddingsHolder.get("robert"), 3);
+	}
+
+	@Test
+	void testTornRecordIsDiscarded() throws IOException {
+		Path path = tempDir.resolve("embeddings.dat");
+		try (GalleryStore store = GalleryStore.open(path)) {
+			store.append("ana", List.of(embedding(1)));
+		}
+		// crash while writing a record
+		Files.write(GalleryStore.getJournalPath(path), new byte[] { 0, 0, 1, 0, 7 }, StandardOpenOption.APPEND);
+
+		try (GalleryStore store = GalleryStore.open(path)) {
+			assertEmbeddings(store.getEmbeddingsHolder().get("ana"), 1);
+			store.append("bob", List.of(embedding(2)));
+		}
+		EmbeddingsHolder embeddingsHolder = GalleryStore.load(path);
+		assertEmbeddings(embeddingsHolder.get("ana"), 1);
+		assertEmbeddings(embeddingsHolder.get("bob"), 2);
+	}
+
+	@Test
+	void testCompaction() throws IOException {
+		Path path = tempDir.resolve("embeddings.dat");
+		try (GalleryStore store = GalleryStore.open(path, 1024)) {
+			for (int i = 0; i < 50; i++) {
+				store.append("label" + (i % 10), List.of(embedding(i)));
+			}
+			store.rename("label0", "first");
+		}
+		assertTrue(Files.size(GalleryStore.getJournalPath(path)) <= 1024);
+
+		EmbeddingsHolder embeddingsHolder = GalleryStore.load(path);
+		assertEquals(10, embeddingsHolder.size());
+		assertEmbeddings(embeddingsHolder.get("first"), 0, 10, 20, 30, 40);
+		assertEmbeddings(embeddingsHolder.get("label9"), 9, 19, 29, 39, 49);
+
+		// nothing left after an explicit compaction
+		try (GalleryStore store = GalleryStore.open(path)) {
+			store.compact();
+			assertEquals(0, store.getJournalSize());
+		}
+		assertEmbeddings(EmbeddingsFile.open(path).get("first"), 0, 10, 20, 30, 40);
+	}
+
+	@Test
+	void testCompactionIncludesLastRecord() throws IOException {
+		Path path = tempDir.resolve("embeddings.dat");
+		int last = -1;
+		try (GalleryStore store = GalleryStore.open(path, 200)) {
+			long journalSize = 0;
+			while (store.getJournalSize() >= journalSize) {
+				journalSize = store.getJournalSize();
+				last++;
+				store.append("p" + last, List.of(embedding(last)));
+			}
+		}
+
+		EmbeddingsHolder embeddingsHolder = GalleryStore.load(path);
+		assertEquals(last + 1, embeddingsHolder.size());
+		assertEmbeddings(embeddingsHolder.get("p" + last), last);
+	}
+
+	@Test
+	void testTornCompactingJournalIsRepaired() throws IOException {
+		Path path = tempDir.resolve("embeddings.dat");
+		Path journalPath = GalleryStore.getJournalPath(path);
+		Path compactingPath = path.resolveSibling(path.getFileName() + ".wal.compacting");
+		try (GalleryStore store = GalleryStore.open(path)) {
+			store.append("ana", List.of(embedding(1)));
+			store.append("bob", List.of(embedding(2)));
+			store.append("carl", List.of(embedding(3)));
+		}
+		// crash while appending the journal to the one of an interrupted compaction
+		byte[] journal = Files.readAllBytes(journalPath);
+		int firstRecord = 2 * Integer.BYTES + ByteBuffer.wrap(journal).getInt();
+		Files.write(compactingPath, Arrays.copyOf(journal, firstRecord + 10));
+
+		// and again before the snapshot is written
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.createDirectory(tempPath);
+		assertThrows(IOException.class, () -> GalleryStore.open(path));
+		Files.delete(tempPath);
+
+		EmbeddingsHolder embeddingsHolder = GalleryStore.load(path);
+		assertEquals(List.of("ana", "bob", "carl"), List.copyOf(embeddingsHolder.getLabels()));
+		try (GalleryStore store = GalleryStore.open(path)) {
+			assertEmbeddings(store.getEmbeddingsHolder().get("carl"), 3);
+		}
+		assertFalse(Files.exists(compactingPath));
+		assertEmbeddings(GalleryStore.load(path).get("carl"), 3);
+	}
+
+	@Test
+	void testCrashAfterCompaction() throws IOException {
+		Path path = tempDir.resolve("embeddings.dat");
+		Path journalPath = GalleryStore.getJournalPath(path);
+		byte[] journal;
+		try (GalleryStore store = GalleryStore.open(path)) {
+			store.append("ana", List.of(embedding(1)));
+			store.append("ana", List.of(embedding(2)));
+			journal = Files.readAllBytes(journalPath);
+			store.compact();
+		}
+		// the compacted journal was not deleted, its records must not be applied twice
+		Files.write(path.resolveSibling(path.getFileName() + ".wal.compacting"), journal);
+
+		try (GalleryStore store = GalleryStore.open(path)) {
+			assertEmbeddings(store.getEmbeddingsHolder().get("ana"), 1, 2);
+		}
+		assertFalse(Files.exists(path.resolveSibling(path.getFileName() + ".wal.compacting")));
+		assertEmbeddings(GalleryStore.load(path).get("ana"), 1, 2);
+	}
+
+	private static float[] embedding(int value) {
+		return new float[] { value, -value, 0.5f };
+	}
+
+	private static void assertEmbeddings(List<float[]> actual, int... values) {
+		assertEquals(values.length, actual.size());
+		for (int i = 0; i < values.length; i++) {
+			assertArrayEquals(embedding(values[i]), actual.get(i));
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package io.github.jmformenti.face.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ai.djl.modality.cv.output.BoundingBox;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.Rectangle;
+import io.github.jmformenti.face.core.domain.EmbeddingItem;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+
+class PredictionCacheTest {
+
+	private static final DetectedObjects NO_FACES = new DetectedObjects(List.of(), List.of(), List.of());
+
+	@Test
+	void testHitsAndMisses() {
+		PredictionCache cache = new PredictionCache(1024 * 1024);
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		DetectedObjects faces = faces("a");
+
+		assertNull(cache.get(PredictionCache.key(new byte[] { 1, 2, 3 }, embeddingsHolder)));
+		cache.put(PredictionCache.key(new byte[] { 1, 2, 3 }, embeddingsHolder), faces);
+
+		// same content, other array
+		assertSame(faces, cache.get(PredictionCache.key(new byte[] { 1, 2, 3 }, embeddingsHolder)));
+		assertNull(cache.get(PredictionCache.key(new byte[] { 1, 2, 4 }, embeddingsHolder)));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.size());
+		assertEquals(PredictionCache.ENTRY_BYTES + PredictionCache.FACE_BYTES, cache.getBytes());
+	}
+
+	@Test
+	void testEvictsLeastRecentlyUsed() {
+		PredictionCache cache = new PredictionCache(3 * PredictionCache.ENTRY_BYTES);
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		for (byte i = 0; i < 3; i++) {
+			cache.put(PredictionCache.key(new byte[] { i }, embeddingsHolder), NO_FACES);
+		}
+		cache.get(PredictionCache.key(new byte[] { 0 }, embeddingsHolder));
+		cache.put(PredictionCache.key(new byte[] { 3 }, embeddingsHolder), NO_FACES);
+
+		assertEquals(3, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get(PredictionCache.key(new byte[] { 1 }, embeddingsHolder)));
+		assertSame(NO_FACES, cache.get(PredictionCache.key(new byte[] { 0 }, embeddingsHolder)));
+
+	}
+
+	@Test
+	void testSkipsLargerThanCache() {
+		PredictionCache cache = new PredictionCache(PredictionCache.ENTRY_BYTES);
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		cache.put(PredictionCache.key(new byte[] { 0 }, embeddingsHolder), NO_FACES);
+		cache.put(PredictionCache.key(new byte[] { 1 }, embeddingsHolder), faces("a"));
+
+		assertEquals(1, cache.size());
+		assertEquals(0, cache.getEvictions());
+		assertNull(cache.get(PredictionCache.key(new byte[] { 1 }, embeddingsHolder)));
+	}
+
+	@Test
+	void testInvalidatedWhenGalleryChanges() {
+		PredictionCache cache = new PredictionCache(1024 * 1024);
+		EmbeddingsHolder embeddingsHolder = new EmbeddingsHolder();
+		byte[] image = { 1, 2, 3 };
+		PredictionCache.Key oldKey = PredictionCache.key(image, embeddingsHolder);
+		cache.put(oldKey, faces("a"));
+
+		embeddingsHolder.add(new EmbeddingItem("b", List.of(new float[] { 1, 0 })));
+		assertNull(cache.get(PredictionCache.key(image, embeddingsHolder)));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getEvictions());
+
+		// predictions made with the previous gallery are not cached
+		cache.put(oldKey, faces("a"));
+		assertEquals(0, cache.size());
+		cache.put(PredictionCache.key(image, embeddingsHolder), faces("b"));
+		assertEquals("b", cache.get(PredictionCache.key(image, embeddingsHolder)).item(0).getClassName());
+	}
+
+	@Test
+	void testDisabled() {
+		assertFalse(new PredictionCache(0).isEnabled());
+	}
+
+	private static DetectedObjects faces(String label) {
+		return new DetectedObjects(List.of(label), List.of(0.9), List.<BoundingBox>of(new Rectangle(0, 0, 1, 1)));
+	}
+}
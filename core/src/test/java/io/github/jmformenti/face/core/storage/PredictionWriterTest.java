@@ -0,0 +1,66 @@
+package io.github.jmformenti.face.core.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ai.djl.modality.cv.output.BoundingBox;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.Rectangle;
+import io.github.jmformenti.face.core.domain.ImagePrediction;
+import io.github.jmformenti.face.core.storage.PredictionWriter.Format;
+
+class PredictionWriterTest {
+
+	private static final List<ImagePrediction> PREDICTIONS = List.of( //
+			new ImagePrediction(Paths.get("a.jpg"), null,
+					new DetectedObjects(List.of("ben", "unknown"), List.of(0.9, 0.0),
+							List.<BoundingBox>of(new Rectangle(0.1, 0.2, 0.3, 0.4), new Rectangle(0.5, 0.5, 0.25, 0.25)))),
+			new ImagePrediction(Paths.get("b, \"c\".jpg"), null, new DetectedObjects(List.of(), List.of(), List.of())),
+			new ImagePrediction(Paths.get("d.jpg"), "Error decoding: bad"));
+
+	@Test
+	void testJsonLines() throws Exception {
+		StringWriter out = new StringWriter();
+		try (PredictionWriter writer = PredictionWriter.of(Format.JSONL, out)) {
+			for (ImagePrediction prediction : PREDICTIONS) {
+				writer.write(prediction);
+			}
+			assertCounts(writer);
+		}
+
+		assertEquals("{\"path\":\"a.jpg\",\"faces\":["
+				+ "{\"label\":\"ben\",\"probability\":0.9000,\"x\":0.1000,\"y\":0.2000,\"width\":0.3000,\"height\":0.4000},"
+				+ "{\"label\":\"unknown\",\"probability\":0.0000,\"x\":0.5000,\"y\":0.5000,\"width\":0.2500,\"height\":0.2500}"
+				+ "],\"error\":null}\n" //
+				+ "{\"path\":\"b, \\\"c\\\".jpg\",\"faces\":[],\"error\":null}\n" //
+				+ "{\"path\":\"d.jpg\",\"faces\":[],\"error\":\"Error decoding: bad\"}\n", out.toString());
+	}
+
+	@Test
+	void testCsv() throws Exception {
+		StringWriter out = new StringWriter();
+		try (PredictionWriter writer = PredictionWriter.of(Format.CSV, out)) {
+			for (ImagePrediction prediction : PREDICTIONS) {
+				writer.write(prediction);
+			}
+			assertCounts(writer);
+		}
+
+		assertEquals("path,face,label,probability,x,y,width,height,error\n" //
+				+ "a.jpg,0,ben,0.9000,0.1000,0.2000,0.3000,0.4000,\n" //
+				+ "a.jpg,1,unknown,0.0000,0.5000,0.5000,0.2500,0.2500,\n" //
+				+ "\"b, \"\"c\"\".jpg\",,,,,,,,\n" //
+				+ "d.jpg,,,,,,,,Error decoding: bad\n", out.toString());
+	}
+
+	private static void assertCounts(PredictionWriter writer) {
+		assertEquals(3, writer.getPredictions());
+		assertEquals(2, writer.getFaces());
+		assertEquals(1, writer.getErrors());
+	}
+}
@@ -0,0 +1,78 @@
+package io.github.jmformenti.face.core.tracking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ai.djl.modality.cv.output.Rectangle;
+
+class FaceTrackerTest {
+
+	@Test
+	void testFollowFaces() {
+		FaceTracker tracker = new FaceTracker(new TrackingParameters());
+		List<Track> first = tracker.update(List.of(new Rectangle(0.1, 0.1, 0.2, 0.2), new Rectangle(0.6, 0.1, 0.2, 0.2)));
+		assertNotEquals(first.get(0).getId(), first.get(1).getId());
+
+		// faces moved a bit, detected in another order, and a new face
+		List<Track> second = tracker.update(List.of(new Rectangle(0.62, 0.1, 0.2, 0.2),
+				new Rectangle(0.3, 0.6, 0.2, 0.2), new Rectangle(0.12, 0.11, 0.2, 0.2)));
+		assertSame(first.get(1), second.get(0));
+		assertSame(first.get(0), second.get(2));
+		assertEquals(3, tracker.getTracks().size());
+		assertFalse(tracker.getTracks().stream().limit(2).anyMatch(track -> track == second.get(1)));
+		assertEquals(0.12, second.get(2).getBounds().getX(), 1e-9);
+	}
+
+	@Test
+	void testDropMissedTracks() {
+		FaceTracker tracker = new FaceTracker(new TrackingParameters(0.3, 0.5, 30, 2));
+		Rectangle face = new Rectangle(0.1, 0.1, 0.2, 0.2);
+		Track track = tracker.update(List.of(face)).get(0);
+
+		tracker.update(List.of());
+		tracker.update(List.of());
+		assertSame(track, tracker.update(List.of(face)).get(0));
+
+		tracker.update(List.of());
+		tracker.update(List.of());
+		tracker.update(List.of());
+		assertTrue(tracker.getTracks().isEmpty());
+		assertNotEquals(track.getId(), tracker.update(List.of(face)).get(0).getId());
+	}
+
+	@Test
+	void testNeedsEmbedding() {
+		TrackingParameters parameters = new TrackingParameters(0.3, 0.5, 10, 5);
+		FaceTracker tracker = new FaceTracker(parameters);
+		Track track = tracker.update(List.of(new Rectangle(0.1, 0.1, 0.2, 0.2))).get(0);
+		assertTrue(track.needsEmbedding(parameters));
+
+		track.setIdentity(new float[] { 1 }, "ben", 0.9);
+		assertFalse(track.needsEmbedding(parameters));
+
+		// small moves, but drifted far from the embedded bounds after some frames
+		int frames = 0;
+		double x = 0.1;
+		while (!track.needsEmbedding(parameters)) {
+			x += 0.02;
+			assertSame(track, tracker.update(List.of(new Rectangle(x, 0.1, 0.2, 0.2))).get(0));
+			frames++;
+		}
+		assertTrue(frames > 1 && frames < 10, "drift after " + frames + " frames");
+
+		track.setIdentity(new float[] { 1 }, "ben", 0.9);
+		for (int i = 1; i < 10; i++) {
+			tracker.update(List.of(new Rectangle(x, 0.1, 0.2, 0.2)));
+			assertFalse(track.needsEmbedding(parameters));
+		}
+		tracker.update(List.of(new Rectangle(x, 0.1, 0.2, 0.2)));
+		assertTrue(track.needsEmbedding(parameters));
+	}
+}
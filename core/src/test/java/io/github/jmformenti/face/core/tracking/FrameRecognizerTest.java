@@ -0,0 +1,67 @@
+package io.github.jmformenti.face.core.tracking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.output.BoundingBox;
+import ai.djl.modality.cv.output.DetectedObjects;
+import ai.djl.modality.cv.output.Rectangle;
+import io.github.jmformenti.face.core.domain.EmbeddingResult;
+import io.github.jmformenti.face.core.util.ImageUtil;
+
+class FrameRecognizerTest {
+
+	private static final int FRAMES = 100;
+
+	@Test
+	void testEmbedOnlyNewAndRefreshedFaces() {
+		Image frame = ImageUtil.getImage(Paths.get("src/test/resources/images/val/ben_afflek/httpcsvkmeuaafdfjpg.jpg"));
+		AtomicInteger frameNumber = new AtomicInteger();
+		AtomicInteger embedded = new AtomicInteger();
+
+		// one face slowly moving right, a second one appearing at frame 50
+		FrameRecognizer recognizer = new FrameRecognizer(new FaceTracker(new TrackingParameters(0.3, 0.5, 30, 5)),
+				image -> {
+					int n = frameNumber.getAndIncrement();
+					List<BoundingBox> faces = new ArrayList<>();
+					faces.add(new Rectangle(0.1 + n * 0.002, 0.2, 0.3, 0.4));
+					if (n >= 50) {
+						faces.add(new Rectangle(0.6, 0.5, 0.2, 0.3));
+					}
+					return new DetectedObjects(faces.stream().map(face -> "Face").collect(Collectors.toList()),
+							faces.stream().map(face -> 0.99).collect(Collectors.toList()), faces);
+				}, //
+				faces -> {
+					embedded.addAndGet(faces.size());
+					return faces.stream().map(face -> new float[] { face.getWidth() }).collect(Collectors.toList());
+				}, //
+				embedding -> new EmbeddingResult(embedding[0] > frame.getWidth() * 0.25 ? "ben" : "other", 0.9));
+
+		for (int i = 0; i < FRAMES; i++) {
+			List<Track> tracks = recognizer.recognize(frame);
+			assertEquals("ben", tracks.get(0).getLabel());
+			assertEquals(0, tracks.get(0).getId());
+			if (i >= 50) {
+				assertEquals("other", tracks.get(1).getLabel());
+				assertEquals(1, tracks.get(1).getId());
+			}
+			assertEquals(tracks.size(), FrameRecognizer.toDetectedObjects(tracks).getNumberOfObjects());
+		}
+
+		assertEquals(FRAMES, recognizer.getFrames());
+		assertEquals(FRAMES + 50, recognizer.getFaces());
+		// first face on frames 0, 30, 60, 90, second one on frames 50, 80
+		assertEquals(6, recognizer.getEmbeddedFaces());
+		assertEquals(6, embedded.get());
+		assertTrue(recognizer.getEmbeddedFaces() * 10 < recognizer.getFaces());
+	}
+}
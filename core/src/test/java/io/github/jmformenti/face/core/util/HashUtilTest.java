@@ -0,0 +1,32 @@
+package io.github.jmformenti.face.core.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class HashUtilTest {
+
+	@Test
+	void testXxHash64MatchesReference() {
+		assertEquals(0xef46db3751d8e999L, hash(""));
+		assertEquals(0xd24ec4f1a98c6e5bL, hash("a"));
+		assertEquals(0x44bc2cf5ad770999L, hash("abc"));
+		// 32 bytes or more, hashed in stripes
+		assertEquals(0xfbcea83c8a378bf1L, hash("Nobody inspects the spammish repetition"));
+	}
+
+	@Test
+	void testXxHash64OfDifferentBytes() {
+		byte[] bytes = new byte[1000];
+		long hash = HashUtil.xxHash64(bytes);
+		bytes[999] = 1;
+		assertNotEquals(hash, HashUtil.xxHash64(bytes));
+	}
+
+	private static long hash(String value) {
+		return HashUtil.xxHash64(value.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,144 @@
+package io.github.jmformenti.face.core.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.output.DetectedObjects.DetectedObject;
+import ai.djl.modality.cv.output.Rectangle;
+import net.coobird.thumbnailator.Thumbnails;
+
+class ImageUtilTest {
+
+	private static final Path IMAGES_PATH = Paths.get("src/test/resources/images/val");
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void testGetImageSamePixelsAsThumbnailator() throws IOException {
+		List<Path> paths;
+		try (Stream<Path> files = Files.walk(IMAGES_PATH)) {
+			paths = files.filter(ImageUtil::isImage).collect(Collectors.toList());
+		}
+		assertFalse(paths.isEmpty());
+		for (Path path : paths) {
+			assertSamePixels(path);
+		}
+	}
+
+	@Test
+	void testGetImageWithExifOrientation() throws IOException {
+		BufferedImage source = new BufferedImage(40, 20, BufferedImage.TYPE_3BYTE_BGR);
+		source.getGraphics().fillRect(0, 0, 10, 10);
+		ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		ImageIO.write(source, "jpeg", jpeg);
+
+		// rotated 90 degrees clockwise when displayed
+		Path path = tempDir.resolve("rotated.jpg");
+		Files.write(path, withExifOrientation(jpeg.toByteArray(), 6));
+
+		Image image = ImageUtil.getImage(path);
+		assertEquals(20, image.getWidth());
+		assertEquals(40, image.getHeight());
+		assertSamePixels(path);
+	}
+
+	@Test
+	void testGetImageFromBytes() throws IOException {
+		byte[] bytes = withExifOrientation(randomJpeg(40, 20), 6);
+		Path path = tempDir.resolve("bytes.jpg");
+		Files.write(path, bytes);
+
+		BufferedImage fromBytes = (BufferedImage) ImageUtil.getImage(bytes).getWrappedImage();
+		BufferedImage fromFile = (BufferedImage) ImageUtil.getImage(path).getWrappedImage();
+		assertEquals(20, fromBytes.getWidth());
+		assertEquals(40, fromBytes.getHeight());
+		assertArrayEquals(fromFile.getRGB(0, 0, 20, 40, null, 0, 20), fromBytes.getRGB(0, 0, 20, 40, null, 0, 20));
+	}
+
+	@Test
+	void testGetImageReduced() throws IOException {
+		Path path = tempDir.resolve("large.jpg");
+		Files.write(path, randomJpeg(1000, 600));
+
+		Image image = ImageUtil.getImage(path, 224);
+		assertEquals(250, image.getWidth());
+		assertEquals(150, image.getHeight());
+		assertEquals(1000, ImageUtil.getImage(path, 2000).getWidth());
+	}
+
+	@Test
+	void testGetDetectedObjectImageFromFile() throws IOException {
+		byte[] jpeg = randomJpeg(64, 48);
+		DetectedObject face = new DetectedObject("Face", 0.9, new Rectangle(0.1, 0.2, 0.3, 0.5));
+		for (int orientation = 1; orientation <= 8; orientation++) {
+			Path path = tempDir.resolve("orientation" + orientation + ".jpg");
+			Files.write(path, withExifOrientation(jpeg, orientation));
+
+			Image expected = ImageUtil.getDetectedObjectImage(ImageUtil.getImage(path), face);
+			Image actual = ImageUtil.getDetectedObjectImage(path, face);
+			assertArrayEquals(rgb((BufferedImage) expected.getWrappedImage()),
+					rgb((BufferedImage) actual.getWrappedImage()), "orientation " + orientation);
+		}
+	}
+
+	private static byte[] randomJpeg(int width, int height) throws IOException {
+		Random random = new Random(5);
+		BufferedImage source = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				source.setRGB(x, y, random.nextInt(0xFFFFFF));
+			}
+		}
+		ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+		ImageIO.write(source, "jpeg", jpeg);
+		return jpeg.toByteArray();
+	}
+
+	private static void assertSamePixels(Path path) throws IOException {
+		BufferedImage expected = Thumbnails.of(path.toString()).scale(1).asBufferedImage();
+		BufferedImage actual = (BufferedImage) ImageUtil.getImage(path).getWrappedImage();
+		assertEquals(expected.getWidth(), actual.getWidth(), path.toString());
+		assertEquals(expected.getHeight(), actual.getHeight(), path.toString());
+		assertArrayEquals(rgb(expected), rgb(actual), path.toString());
+	}
+
+	private static int[] rgb(BufferedImage image) {
+		return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+	}
+
+	/**
+	 * Inserts an exif segment with only the orientation tag after the start of
+	 * image marker.
+	 */
+	private static byte[] withExifOrientation(byte[] jpeg, int orientation) {
+		byte[] exif = new byte[] { (byte) 0xFF, (byte) 0xE1, 0, 34, 'E', 'x', 'i', 'f', 0, 0, //
+				'M', 'M', 0, 42, 0, 0, 0, 8, // tiff header
+				0, 1, // one entry
+				0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, (byte) orientation, 0, 0, // orientation short
+				0, 0, 0, 0 }; // no next ifd
+		byte[] result = new byte[jpeg.length + exif.length];
+		System.arraycopy(jpeg, 0, result, 0, 2);
+		System.arraycopy(exif, 0, result, 2, exif.length);
+		System.arraycopy(jpeg, 2, result, 2 + exif.length, jpeg.length - 2);
+		return result;
+	}
+}
@@ -0,0 +1,84 @@
+package io.github.jmformenti.face.core.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class VectorUtilTest {
+
+	@Test
+	void testCosineMatchesReference() {
+		Random random = new Random(42);
+		for (int n : new int[] { 1, 3, 4, 7, 512 }) {
+			double[] u = random.doubles(n, -1, 1).toArray();
+			double[] v = random.doubles(n, -1, 1).toArray();
+
+			double uv = 0, uu = 0, vv = 0;
+			for (int i = 0; i < n; i++) {
+				uv += u[i] * v[i];
+				uu += u[i] * u[i];
+				vv += v[i] * v[i];
+			}
+			double expected = Math.abs(1 - (uv / n) / Math.sqrt((uu / n) * (vv / n)));
+
+			assertEquals(expected, VectorUtil.cosine(u, v), 1e-12);
+			assertEquals(expected, VectorUtil.cosine(u, VectorUtil.squaredNorm(u), v), 1e-12);
+		}
+	}
+
+	@Test
+	void testCosineWithInverseNormsMatchesCosine() {
+		Random random = new Random(42);
+		for (int n : new int[] { 1, 3, 4, 7, 512 }) {
+			float[] u = new float[n];
+			float[] data = new float[2 * n];
+			for (int i = 0; i < n; i++) {
+				u[i] = random.nextFloat() - 0.5f;
+				data[n + i] = random.nextFloat() - 0.5f;
+			}
+			double[] ud = new double[n];
+			double[] vd = new double[n];
+			for (int i = 0; i < n; i++) {
+				ud[i] = u[i];
+				vd[i] = data[n + i];
+			}
+
+			assertEquals(VectorUtil.cosine(ud, vd),
+					VectorUtil.cosine(u, VectorUtil.inverseNorm(VectorUtil.squaredNorm(u)), FloatBuffer.wrap(data),
+							n, VectorUtil.inverseNorm(VectorUtil.squaredNorm(vd))),
+					1e-12);
+		}
+		assertEquals(0, VectorUtil.inverseNorm(0));
+	}
+
+	@Test
+	void testDotOfDirectBufferMatchesArray() {
+		Random random = new Random(42);
+		for (int n : new int[] { 1, 3, 4, 7, 512 }) {
+			float[] u = new float[n];
+			float[] data = new float[2 * n];
+			for (int i = 0; i < n; i++) {
+				u[i] = random.nextFloat() - 0.5f;
+				data[i] = random.nextFloat() - 0.5f;
+				data[n + i] = random.nextFloat() - 0.5f;
+			}
+			FloatBuffer heap = FloatBuffer.wrap(data);
+			FloatBuffer direct = ByteBuffer.allocateDirect(data.length * Float.BYTES).order(ByteOrder.nativeOrder())
+					.asFloatBuffer().put(data);
+
+			assertEquals(VectorUtil.dot(u, heap, n), VectorUtil.dot(u, direct, n), 1e-12);
+			assertEquals(VectorUtil.dot(heap, 0, n, n), VectorUtil.dot(direct, 0, n, n), 1e-12);
+		}
+	}
+
+	@Test
+	void testCosineOfSameVectorIsZero() {
+		double[] u = { 0.5, -1.5, 2, 3 };
+		assertEquals(0, VectorUtil.cosine(u, u), 1e-12);
+	}
+}
@@ -0,0 +1,282 @@
+package io.github.jmformenti.face.server;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ai.djl.modality.cv.Image;
+import ai.djl.modality.cv.ImageFactory;
+import ai.djl.modality.cv.output.DetectedObjects;
+import io.github.jmformenti.face.core.domain.EmbeddingsHolder;
+import io.github.jmformenti.face.core.domain.ImagePrediction;
+import io.github.jmformenti.face.core.metrics.FaceMetrics;
+import io.github.jmformenti.face.core.metrics.MetricsReport;
+import io.github.jmformenti.face.core.model.ModelLoader;
+import io.github.jmformenti.face.core.pipeline.MicroBatcher;
+import io.github.jmformenti.face.core.service.FaceRecognitionService;
+import io.github.jmformenti.face.core.storage.PredictionCache;
+import io.github.jmformenti.face.core.storage.PredictionWriter;
+import io.github.jmformenti.face.core.storage.PredictionWriter.Format;
+import io.github.jmformenti.face.core.util.ImageUtil;
+
+/**
+ * HTTP server that keeps the models and the embeddings loaded:
+ * <ul>
+ * <li>POST /predict with an image file as body, responds the recognized faces
+ * as a JSON object, same as a line of the JSONL predictions of the predict
+ * command. The name query parameter, if any, is used as path.</li>
+ * <li>GET /health, responds the labels and embeddings loaded</li>
+ * <li>GET /metrics, responds the meters as JSON</li>
+ * </ul>
+ * Images are decoded by the request threads and predicted in micro batches:
+ * the faces of concurrent requests are embedded together in one forward pass,
+ * while detection still runs once per image. Images already predicted are
+ * responded from the prediction cache, if enabled.
+ */
+@Component
+public class RecognitionServer implements CommandLineRunner, DisposableBean {
+
+	private Logger logger = LoggerFactory.getLogger(RecognitionServer.class);
+
+	private static final String JSON_TYPE = "application/json";
+
+	private static final String DEFAULT_NAME = "image";
+
+	@Autowired
+	private FaceRecognitionService faceRecognitionService;
+
+	@Autowired
+	private FaceMetrics faceMetrics;
+
+	@Autowired
+	private ModelLoader modelLoader;
+
+	@Autowired
+	private PredictionCache predictionCache;
+
+	@Value("${face.server.embeddings}")
+	private String embeddingsPath;
+
+	@Value("${face.server.host:127.0.0.1}")
+	private String host;
+
+	@Value("${face.server.port:8080}")
+	private int port;
+
+	@Value("${face.server.threads:0}")
+	private int threads;
+
+	@Value("${face.server.batch.max-size:8}")
+	private int batchMaxSize;
+
+	@Value("${face.server.batch.max-wait-micros:2000}")
+	private long batchMaxWaitMicros;
+
+	@Value("${face.server.batch.workers:2}")
+	private int batchWorkers;
+
+	@Value("${face.server.batch.queue-capacity:256}")
+	private int batchQueueCapacity;
+
+	private EmbeddingsHolder embeddingsHolder;
+	private MicroBatcher<Image, DetectedObjects> batcher;
+	private ExecutorService executor;
+	private HttpServer server;
+
+	@Override
+	public void run(String... args) throws Exception {
+		// models are loaded in background meanwhile
+		modelLoader.start();
+		embeddingsHolder = faceRecognitionService.loadEmbeddings(Paths.get(embeddingsPath));
+		logger.info("Loaded {} labels and {} embeddings from {}", embeddingsHolder.size(),
+				embeddingsHolder.getNumRows(), embeddingsPath);
+		warmUp();
+
+		batcher = new MicroBatcher<>("predict", batchWorkers, batchMaxSize, batchMaxWaitMicros, batchQueueCapacity,
+				images -> faceRecognitionService.predict(images, embeddingsHolder));
+		faceMetrics.bindBatcher("predict", batcher);
+
+		int serverThreads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(serverThreads,
+				r -> new Thread(r, "server-" + threadNumber.incrementAndGet()));
+		server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		server.setExecutor(executor);
+		server.createContext("/predict", this::predict);
+		server.createContext("/health", this::health);
+		server.createContext("/metrics", this::metrics);
+		server.start();
+		logger.info("Listening on http://{}:{} with {} threads, batches of up to {} images waiting up to {} us",
+				host, server.getAddress().getPort(), serverThreads, batchMaxSize, batchMaxWaitMicros);
+	}
+
+	/**
+	 * First predictions are slower, the engine allocates and optimizes on first
+	 * use. A blank image has no faces, so only detection is warmed up.
+	 */
+	private void warmUp() {
+		long start = System.nanoTime();
+		Image image = ImageFactory.getInstance()
+				.fromImage(new BufferedImage(160, 160, BufferedImage.TYPE_3BYTE_BGR));
+		faceRecognitionService.predict(List.of(image, image), embeddingsHolder);
+		logger.info("Warmed up in {} ms", (System.nanoTime() - start) / 1000000);
+	}
+
+	private void predict(HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equals(exchange.getRequestMethod())) {
+				send(exchange, 405, error("Method not allowed"));
+				return;
+			}
+			Path name;
+			try {
+				name = getName(exchange);
+			} catch (IllegalArgumentException e) {
+				// malformed escapes and invalid paths
+				send(exchange, 400, error(String.format("Invalid name: %s", e.getMessage())));
+				return;
+			}
+			byte[] bytes;
+			try (InputStream body = exchange.getRequestBody()) {
+				bytes = body.readAllBytes();
+			}
+			PredictionCache.Key key = null;
+			if (predictionCache.isEnabled()) {
+				key = PredictionCache.key(bytes, embeddingsHolder);
+				DetectedObjects cached = predictionCache.get(key);
+				if (cached != null) {
+					sendPrediction(exchange, name, null, cached);
+					return;
+				}
+			}
+
+			Image image;
+			try {
+				image = ImageUtil.getImage(bytes);
+			} catch (RuntimeException e) {
+				send(exchange, 400, error(String.format("Error decoding image: %s", e.getMessage())));
+				return;
+			}
+
+			DetectedObjects faces;
+			try {
+				faces = batcher.submit(image).get();
+			} catch (RejectedExecutionException e) {
+				send(exchange, 503, error(e.getMessage()));
+				return;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				send(exchange, 503, error("Interrupted"));
+				return;
+			} catch (ExecutionException e) {
+				logger.error("Error predicting image", e.getCause());
+				send(exchange, 500, error(String.format("Error predicting image: %s", e.getCause().getMessage())));
+				return;
+			}
+
+			if (key != null) {
+				predictionCache.put(key, faces);
+			}
+			sendPrediction(exchange, name, image, faces);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void sendPrediction(HttpExchange exchange, Path name, Image image, DetectedObjects faces)
+			throws IOException {
+		StringWriter json = new StringWriter();
+		try (PredictionWriter writer = PredictionWriter.of(Format.JSONL, json)) {
+			writer.write(new ImagePrediction(name, image, faces));
+		}
+		send(exchange, 200, json.toString());
+	}
+
+	private void health(HttpExchange exchange) throws IOException {
+		try {
+			send(exchange, 200, String.format("{\"status\":\"UP\",\"labels\":%d,\"embeddings\":%d}\n",
+					embeddingsHolder.size(), embeddingsHolder.getNumRows()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void metrics(HttpExchange exchange) throws IOException {
+		try {
+			send(exchange, 200, MetricsReport.of(faceMetrics.getRegistry()).toJson());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the name is not a valid escaped path
+	 */
+	private Path getName(HttpExchange exchange) {
+		String query = exchange.getRequestURI().getQuery();
+		if (query != null) {
+			for (String param : query.split("&")) {
+				if (param.startsWith("name=") && param.length() > "name=".length()) {
+					return Paths.get(URLDecoder.decode(param.substring("name=".length()), StandardCharsets.UTF_8));
+				}
+			}
+		}
+		return Paths.get(DEFAULT_NAME);
+	}
+
+	private static String error(String message) {
+		StringBuilder json = new StringBuilder("{\"error\":\"");
+		for (char c : String.valueOf(message).toCharArray()) {
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		return json.append("\"}\n").toString();
+	}
+
+	private static void send(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", JSON_TYPE);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	@Override
+	public void destroy() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			batcher.close();
+		}
+	}
+}